@@ -81,6 +81,12 @@ public final class S3Constants {
      * Constant to rename keys
      */
     public static final String S3_WRITE_THREADS = "writeThreads";
+
+    /**
+     * Constant for the size in bytes of the parts of multipart uploads and
+     * parallel downloads.
+     */
+    public static final String S3_PART_SIZE = "partSize";
     
     /**
      * Constant to enable encryption in S3.
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
@@ -55,6 +56,7 @@ import com.amazonaws.event.ProgressListener;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsRequest;
 import com.amazonaws.services.s3.model.DeleteObjectsResult;
 import com.amazonaws.services.s3.model.ObjectListing;
@@ -65,7 +67,9 @@ import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.s3.transfer.Copy;
+import com.amazonaws.services.s3.transfer.Download;
 import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerConfiguration;
 import com.amazonaws.services.s3.transfer.Upload;
 import com.amazonaws.util.StringUtils;
 
@@ -81,6 +85,11 @@ public class S3Backend extends AbstractBackend {
 
     private static final String KEY_PREFIX = "dataStore_";
 
+    /**
+     * The maximum number of keys in one multi-object delete request.
+     */
+    private static final int MAX_DELETE_KEYS = 1000;
+
     private AmazonS3Client s3service;
 
     private String bucket;
@@ -175,6 +184,17 @@ public class S3Backend extends AbstractBackend {
             tmx = new TransferManager(s3service,
                 (ThreadPoolExecutor) Executors.newFixedThreadPool(writeThreads,
                     new NamedThreadFactory("s3-transfer-manager-worker")));
+            String partSizeStr = prop.getProperty(S3Constants.S3_PART_SIZE);
+            if (partSizeStr != null && !"".equals(partSizeStr)) {
+                setPartSize(Long.parseLong(partSizeStr));
+            }
+            setTransferConcurrency(writeThreads);
+            // uploads larger than a part are split into parts that are
+            // uploaded in parallel
+            TransferManagerConfiguration tmxConfig = tmx.getConfiguration();
+            tmxConfig.setMinimumUploadPartSize(getPartSize());
+            tmxConfig.setMultipartUploadThreshold(getPartSize());
+            LOG.info("Using part size of [{}] bytes in S3 transfer manager.", getPartSize());
             
             int asyncWritePoolSize = 10;
             String maxConnsStr = prop.getProperty(S3Constants.S3_MAX_CONNS);
@@ -381,6 +401,61 @@ public class S3Backend extends AbstractBackend {
         }
     }
 
+    /**
+     * Touches the given records with one metadata request each, and copies
+     * the records that need to be touched concurrently through the
+     * transfer manager.
+     */
+    @Override
+    public void touchAll(Collection<DataIdentifier> identifiers,
+            long minModifiedDate) throws DataStoreException {
+        if (minModifiedDate <= 0) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            List<Copy> copies = new ArrayList<Copy>();
+            for (DataIdentifier identifier : identifiers) {
+                String key = getKeyName(identifier);
+                long lastModified;
+                try {
+                    lastModified = s3service.getObjectMetadata(bucket, key).getLastModified().getTime();
+                } catch (AmazonServiceException e) {
+                    if (e.getStatusCode() == 404 || e.getStatusCode() == 403) {
+                        LOG.debug("Identifier [{}] not found, not touched", identifier);
+                        continue;
+                    }
+                    throw new DataStoreException(
+                        "Error occured to getObjectMetadata for key ["
+                            + identifier.toString() + "]", e);
+                }
+                if (minModifiedDate > lastModified) {
+                    CopyObjectRequest copReq = new CopyObjectRequest(bucket, key,
+                        bucket, key);
+                    copReq.setNewObjectMetadata(new ObjectMetadata());
+                    copies.add(tmx.copy(s3ReqDecorator.decorate(copReq)));
+                }
+            }
+            for (Copy copy : copies) {
+                copy.waitForCompletion();
+            }
+            LOG.debug("touchAll: [{}] of [{}] records touched. time taken [{}] ms",
+                new Object[] { copies.size(), identifiers.size(),
+                    (System.currentTimeMillis() - start) });
+        } catch (DataStoreException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new DataStoreException("Error occured in touching records", e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
     @Override
     public InputStream read(DataIdentifier identifier)
             throws DataStoreException {
@@ -405,6 +480,37 @@ public class S3Backend extends AbstractBackend {
         }
     }
 
+    /**
+     * Downloads the record with the S3 transfer manager, which fetches the
+     * parts of records uploaded in multiple parts in parallel.
+     */
+    @Override
+    public void read(DataIdentifier identifier, File file)
+            throws DataStoreException {
+        long start = System.currentTimeMillis();
+        String key = getKeyName(identifier);
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            Download download = tmx.download(new GetObjectRequest(bucket, key), file);
+            download.waitForCompletion();
+            LOG.debug("[{}] download took [{}]ms", identifier,
+                (System.currentTimeMillis() - start));
+        } catch (AmazonServiceException e) {
+            throw new DataStoreException("Object not found: " + key, e);
+        } catch (AmazonClientException e) {
+            throw new DataStoreException("Could not download: " + key, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataStoreException("Interrupted while downloading: " + key, e);
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+    }
+
     @Override
     public Iterator<DataIdentifier> getAllIdentifiers()
             throws DataStoreException {
@@ -580,6 +686,78 @@ public class S3Backend extends AbstractBackend {
         return deleteIdSet;
     }
 
+    /**
+     * Deletes the given records with multi-object delete requests of up to
+     * {@link #MAX_DELETE_KEYS} keys each.
+     */
+    @Override
+    public Set<DataIdentifier> deleteRecords(
+            Collection<DataIdentifier> identifiers, long min)
+            throws DataStoreException {
+        long start = System.currentTimeMillis();
+        // S3 stores lastModified to lower boundary of timestamp in ms.
+        // and hence min is reduced by 1000ms.
+        min = min - 1000;
+        Set<DataIdentifier> deleteIdSet = new HashSet<DataIdentifier>(30);
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(
+                getClass().getClassLoader());
+            List<DeleteObjectsRequest.KeyVersion> deleteList = new ArrayList<DeleteObjectsRequest.KeyVersion>();
+            for (DataIdentifier identifier : identifiers) {
+                String key = getKeyName(identifier);
+                long lastModified;
+                try {
+                    lastModified = s3service.getObjectMetadata(bucket, key).getLastModified().getTime();
+                } catch (AmazonServiceException e) {
+                    if (e.getStatusCode() == 404 || e.getStatusCode() == 403) {
+                        LOG.debug("Identifier [{}] not found, not deleted", identifier);
+                        continue;
+                    }
+                    throw new DataStoreException(
+                        "Error occured to getObjectMetadata for key ["
+                            + identifier.toString() + "]", e);
+                }
+                if (lastModified < min
+                    && getDataStore().confirmDelete(identifier)) {
+                    getDataStore().deleteFromCache(identifier);
+                    deleteList.add(new DeleteObjectsRequest.KeyVersion(key));
+                    deleteIdSet.add(identifier);
+                    if (deleteList.size() == MAX_DELETE_KEYS) {
+                        deleteObjects(deleteList);
+                        deleteList.clear();
+                    }
+                }
+            }
+            if (deleteList.size() > 0) {
+                deleteObjects(deleteList);
+            }
+        } finally {
+            if (contextClassLoader != null) {
+                Thread.currentThread().setContextClassLoader(contextClassLoader);
+            }
+        }
+        LOG.info(
+            "deleteRecords: min=[{}] exit. Number of records deleted [{}] took [{}]ms",
+            new Object[] { min, deleteIdSet.size(),
+                (System.currentTimeMillis() - start) });
+        return deleteIdSet;
+    }
+
+    private void deleteObjects(List<DeleteObjectsRequest.KeyVersion> deleteList)
+            throws DataStoreException {
+        DeleteObjectsRequest delObjsReq = new DeleteObjectsRequest(bucket);
+        delObjsReq.setKeys(deleteList);
+        DeleteObjectsResult dobjs = s3service.deleteObjects(delObjsReq);
+        if (dobjs.getDeletedObjects().size() != deleteList.size()) {
+            throw new DataStoreException(
+                "Incomplete delete object request. only  "
+                    + dobjs.getDeletedObjects().size() + " out of "
+                    + deleteList.size() + " are deleted");
+        }
+        LOG.debug("[{}] records deleted from datastore", deleteList.size());
+    }
+
     @Override
     public void close() throws DataStoreException {
         super.close();
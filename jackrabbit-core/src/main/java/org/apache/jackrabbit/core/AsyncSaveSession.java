@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.util.concurrent.Future;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+
+/**
+ * Jackrabbit session that can persist its transient changes asynchronously.
+ */
+public interface AsyncSaveSession extends JackrabbitSession {
+
+    /**
+     * Submits a save of the transient changes of this session and returns
+     * without waiting for the changes to be persisted. The save is performed
+     * by a background thread; other operations of this session block until
+     * it has completed, so the caller should only continue with work that
+     * does not need the session, and then wait for the returned future.
+     * <p>
+     * No copy of the transient changes is taken. Instead, this call blocks
+     * until the background thread has locked the session for the save, so
+     * the save persists exactly the changes made before this call, and
+     * any later change waits until the save has completed. As the caller
+     * blocks on its next session operation anyway, the asynchronous save
+     * only gains the time the caller spends on work without the session.
+     * A save that is submitted by another thread while an earlier save is
+     * still waiting to be started is merged into the earlier one.
+     * The returned future completes once all the changes made before this
+     * call have been persisted. If the save fails, {@link Future#get()}
+     * throws an {@link java.util.concurrent.ExecutionException} with the
+     * exception that {@link #save()} would have thrown as its cause, and
+     * the changes are kept in the transient space of the session. The
+     * future can not be cancelled.
+     *
+     * @return future of the save
+     * @throws RepositoryException if the session has been closed
+     */
+    Future<Void> saveAsync() throws RepositoryException;
+
+}
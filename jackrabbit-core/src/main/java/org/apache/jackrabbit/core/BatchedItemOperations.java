@@ -16,10 +16,12 @@
  */
 package org.apache.jackrabbit.core;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Set;
 
 import javax.jcr.AccessDeniedException;
@@ -54,6 +56,7 @@ import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.PropertyState;
 import org.apache.jackrabbit.core.state.UpdatableItemStateManager;
 import org.apache.jackrabbit.core.util.ReferenceChangeTracker;
+import org.apache.jackrabbit.core.util.ReferencePropertyBuffer;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.version.VersionHistoryInfo;
 import org.apache.jackrabbit.core.version.InternalVersionManager;
@@ -72,6 +75,19 @@ import org.slf4j.LoggerFactory;
  * <code>BatchedItemOperations</code> is an <i>internal</i> helper class that
  * provides both high- and low-level operations directly on the
  * <code>ItemState</code> level.
+ * <p>
+ * If the {@link SessionImpl#BULK_COPY} attribute is set on the session, the
+ * copy operations run in bulk mode: the copied content is committed every
+ * {@link #DEFAULT_BULK_COPY_BATCH_SIZE} nodes (or the number given by the
+ * attribute value), so that copying a large subtree does not need to keep
+ * all the copied states in a single change log. Optional reference
+ * properties are then written in a final pass, when all the copied nodes
+ * exist and the ids of the copied nodes are known. Mandatory and protected
+ * reference properties are written along with their nodes, as the nodes
+ * would not be valid without them, and adjusted at the end of the copy.
+ * A mandatory <code>REFERENCE</code> property to a node that is not yet
+ * committed therefore fails the commit of its batch. Note that the batches
+ * committed before a failure are not undone.
  */
 public class BatchedItemOperations extends ItemValidator {
 
@@ -82,6 +98,20 @@ public class BatchedItemOperations extends ItemValidator {
     protected static final int CLONE = 1;
     protected static final int CLONE_REMOVE_EXISTING = 2;
 
+    /**
+     * Number of nodes committed at once by a bulk copy, unless specified by
+     * the value of the {@link SessionImpl#BULK_COPY} attribute.
+     */
+    private static final int DEFAULT_BULK_COPY_BATCH_SIZE = Integer.getInteger(
+            "org.apache.jackrabbit.core.bulkCopyBatchSize", 1000);
+
+    /**
+     * Number of id mappings of copied nodes that a bulk copy keeps in
+     * memory. The other mappings are spilled to a temporary file.
+     */
+    private static final int BULK_COPY_ID_MAPPINGS = Integer.getInteger(
+            "org.apache.jackrabbit.core.bulkCopyIdMappings", 100000);
+
     /**
      * wrapped item state manager
      */
@@ -93,6 +123,42 @@ public class BatchedItemOperations extends ItemValidator {
 
     private final HierarchyManager hierMgr;
 
+    /**
+     * Number of copied nodes after which the changes are committed, or
+     * <code>0</code> if no bulk copy is in progress.
+     */
+    private int batchSize;
+
+    /**
+     * Number of items copied since the last commit of a bulk copy.
+     */
+    private int pendingItems;
+
+    /**
+     * Number of items committed by the current bulk copy.
+     */
+    private long committedItems;
+
+    /**
+     * Number of commits made by bulk copies. Used by the recursive copy
+     * to detect that the states it holds need to be reloaded.
+     */
+    private int checkpoints;
+
+    /**
+     * Ids of the destination parent and of the new nodes whose children
+     * are being copied by the current bulk copy, outermost first. Their
+     * states are stored by every commit, so that the committed nodes are
+     * always linked to their parents.
+     */
+    private final LinkedList<NodeId> openNodes = new LinkedList<NodeId>();
+
+    /**
+     * Reference properties written at the end of the current bulk copy,
+     * or <code>null</code> if no bulk copy is in progress.
+     */
+    private ReferencePropertyBuffer deferredReferences;
+
     /**
      * Creates a new <code>BatchedItemOperations</code> instance.
      *
@@ -413,20 +479,48 @@ public class BatchedItemOperations extends ItemValidator {
 
         // 3. do copy operation (modify and store affected states)
 
+        int bulkBatchSize = getBulkCopyBatchSize(session.getAttribute(SessionImpl.BULK_COPY));
+        if (bulkBatchSize > 0) {
+            return bulkCopy(srcState, srcPath, srcStateMgr, srcAccessMgr,
+                    destParentState, destPath, flag, bulkBatchSize);
+        }
+
         ReferenceChangeTracker refTracker = new ReferenceChangeTracker();
 
         // create deep copy of source node state
         NodeState newState = copyNodeState(srcState, srcPath, srcStateMgr, srcAccessMgr,
-                destParentState.getNodeId(), flag, refTracker);
+                destParentState, destPath.getName(), flag, refTracker);
 
         // add to new parent
         destParentState.addChildNodeEntry(destPath.getName(), newState.getNodeId());
 
         // adjust references that refer to uuid's which have been mapped to
         // newly generated uuid's on copy/clone
+        adjustReferences(refTracker);
+        refTracker.clear();
+
+        // store states
+        stateMgr.store(newState);
+        stateMgr.store(destParentState);
+        return newState.getNodeId();
+    }
+
+    /**
+     * Adjusts the copied reference properties that refer to nodes which
+     * have been given new ids by the copy. In bulk mode, the properties
+     * may have been committed in the meantime and are reloaded first.
+     *
+     * @param refTracker tracks uuid mappings and processed reference properties
+     * @throws RepositoryException if a property can not be adjusted
+     */
+    private void adjustReferences(ReferenceChangeTracker refTracker)
+            throws RepositoryException {
         Iterator<Object> iter = refTracker.getProcessedReferences();
         while (iter.hasNext()) {
             PropertyState prop = (PropertyState) iter.next();
+            if (batchSize > 0) {
+                prop = (PropertyState) getItemState(prop.getPropertyId());
+            }
             // being paranoid...
             if (prop.getType() != PropertyType.REFERENCE
                     && prop.getType() != PropertyType.WEAKREFERENCE) {
@@ -451,12 +545,158 @@ public class BatchedItemOperations extends ItemValidator {
                 stateMgr.store(prop);
             }
         }
-        refTracker.clear();
+    }
 
-        // store states
-        stateMgr.store(newState);
-        stateMgr.store(destParentState);
-        return newState.getNodeId();
+    /**
+     * Returns the batch size specified by the value of the
+     * {@link SessionImpl#BULK_COPY} session attribute.
+     *
+     * @param value attribute value, or <code>null</code>
+     * @return batch size, or <code>0</code> if bulk mode is not enabled
+     */
+    private static int getBulkCopyBatchSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        int size = DEFAULT_BULK_COPY_BATCH_SIZE;
+        if (value instanceof Number) {
+            size = ((Number) value).intValue();
+        } else {
+            try {
+                size = Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                // any other value enables bulk mode with the default size
+            }
+        }
+        return size > 0 ? size : DEFAULT_BULK_COPY_BATCH_SIZE;
+    }
+
+    /**
+     * Copies the given node state in bulk mode. The copied states are
+     * committed every <code>batchSize</code> nodes, the id mappings of the
+     * copied nodes are spilled to disk beyond a fixed number, and optional
+     * reference properties are written in a final pass.
+     *
+     * @return the id of the node at its new position
+     * @throws RepositoryException if the copy operation fails
+     */
+    private NodeId bulkCopy(NodeState srcState,
+                            Path srcPath,
+                            ItemStateManager srcStateMgr,
+                            AccessManager srcAccessMgr,
+                            NodeState destParentState,
+                            Path destPath,
+                            int flag,
+                            int batchSize)
+            throws RepositoryException {
+        log.info("Bulk copy to " + safeGetJCRPath(destPath)
+                + ", committing every " + batchSize + " nodes");
+
+        ReferenceChangeTracker refTracker = new ReferenceChangeTracker(BULK_COPY_ID_MAPPINGS);
+        this.batchSize = batchSize;
+        pendingItems = 0;
+        committedItems = 0;
+        try {
+            deferredReferences = new ReferencePropertyBuffer();
+
+            openNodes.add(destParentState.getNodeId());
+            int commits = checkpoints;
+            NodeState newState = copyNodeState(srcState, srcPath, srcStateMgr, srcAccessMgr,
+                    destParentState, destPath.getName(), flag, refTracker);
+            if (checkpoints != commits) {
+                destParentState = reloadNodeState(destParentState);
+            }
+            stateMgr.store(newState);
+            stateMgr.store(destParentState);
+            openNodes.clear();
+
+            writeDeferredReferences(refTracker);
+            adjustReferences(refTracker);
+            return newState.getNodeId();
+        } catch (IOException e) {
+            String msg = "failed to buffer the reference properties of the copy";
+            log.debug(msg);
+            throw new RepositoryException(msg, e);
+        } finally {
+            if (deferredReferences != null) {
+                deferredReferences.close();
+                deferredReferences = null;
+            }
+            refTracker.clear();
+            openNodes.clear();
+            this.batchSize = 0;
+        }
+    }
+
+    /**
+     * Writes the reference properties deferred by a bulk copy, adjusting
+     * the references to copied nodes that have been given new ids.
+     *
+     * @param refTracker tracks the id mappings of the copied nodes
+     * @throws RepositoryException if a property can not be written
+     * @throws IOException if the deferred properties can not be read
+     */
+    private void writeDeferredReferences(ReferenceChangeTracker refTracker)
+            throws RepositoryException, IOException {
+        deferredReferences.startReading();
+        while (deferredReferences.next()) {
+            NodeId parentId = deferredReferences.getParentId();
+            Name name = deferredReferences.getName();
+            int type = deferredReferences.getType();
+
+            NodeId[] ids = deferredReferences.getValues();
+            InternalValue[] values = new InternalValue[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                NodeId adjusted = refTracker.getMappedId(ids[i]);
+                values[i] = InternalValue.create(
+                        adjusted != null ? adjusted : ids[i],
+                        type == PropertyType.WEAKREFERENCE);
+            }
+
+            NodeState node = getNodeState(parentId);
+            PropertyState prop = stateMgr.createNew(name, parentId);
+            prop.setType(type);
+            prop.setMultiValued(deferredReferences.isMultiValued());
+            prop.setValues(values);
+            stateMgr.store(prop);
+            node.addPropertyName(name);
+            stateMgr.store(node);
+
+            if (++pendingItems >= batchSize) {
+                checkpoint();
+            }
+        }
+    }
+
+    /**
+     * Commits the changes of a bulk copy and starts a new edit operation.
+     * The states of the open nodes are stored first, as they may have
+     * been given child node entries since the last commit.
+     *
+     * @throws RepositoryException if the changes can not be committed
+     */
+    private void checkpoint() throws RepositoryException {
+        for (NodeId id : openNodes) {
+            stateMgr.store(getNodeState(id));
+        }
+        update();
+        committedItems += pendingItems;
+        pendingItems = 0;
+        checkpoints++;
+        stateMgr.edit();
+        log.info("Bulk copy: committed " + committedItems + " items");
+    }
+
+    /**
+     * Returns the current state of the given node state after a commit of
+     * a bulk copy.
+     *
+     * @param state node state
+     * @return current node state
+     * @throws RepositoryException if the node state can not be retrieved
+     */
+    private NodeState reloadNodeState(NodeState state) throws RepositoryException {
+        return getNodeState(state.getNodeId());
     }
 
     /**
@@ -1567,11 +1807,17 @@ public class BatchedItemOperations extends ItemValidator {
      * Recursively copies the specified node state including its properties and
      * child nodes.
      *
+     * In bulk mode, the copy is added to the given destination parent right
+     * away and the changes may be committed during the copy, in which case
+     * the caller needs to reload the states it holds. Otherwise the caller
+     * adds the copy to the destination parent.
+     *
      * @param srcState
      * @param srcPath
      * @param srcStateMgr
      * @param srcAccessMgr
-     * @param destParentId
+     * @param destParentState
+     * @param destName       name of the copy in the destination parent
      * @param flag           one of
      *                       <ul>
      *                       <li><code>COPY</code></li>
@@ -1586,18 +1832,18 @@ public class BatchedItemOperations extends ItemValidator {
                                     Path srcPath,
                                     ItemStateManager srcStateMgr,
                                     AccessManager srcAccessMgr,
-                                    NodeId destParentId,
+                                    NodeState destParentState,
+                                    Name destName,
                                     int flag,
                                     ReferenceChangeTracker refTracker)
             throws RepositoryException {
 
+        NodeId destParentId = destParentState.getNodeId();
         NodeState newState;
         try {
             NodeId id = null;
             EffectiveNodeType ent = getEffectiveNodeType(srcState);
             boolean referenceable = ent.includesNodeType(NameConstants.MIX_REFERENCEABLE);
-            boolean versionable = ent.includesNodeType(NameConstants.MIX_SIMPLE_VERSIONABLE);
-            boolean fullVersionable = ent.includesNodeType(NameConstants.MIX_VERSIONABLE);
             boolean shareable = ent.includesNodeType(NameConstants.MIX_SHAREABLE);
             switch (flag) {
                 case COPY:
@@ -1609,6 +1855,9 @@ public class BatchedItemOperations extends ItemValidator {
                         NodeId newId = refTracker.getMappedId(srcState.getNodeId());
                         NodeState sharedState = (NodeState) stateMgr.getItemState(newId);
                         sharedState.addShare(destParentId);
+                        if (batchSize > 0) {
+                            destParentState.addChildNodeEntry(destName, newId);
+                        }
                         return sharedState;
                     }
                     break;
@@ -1624,6 +1873,9 @@ public class BatchedItemOperations extends ItemValidator {
                         if (shareable) {
                             NodeState sharedState = (NodeState) stateMgr.getItemState(id);
                             sharedState.addShare(destParentId);
+                            if (batchSize > 0) {
+                                destParentState.addChildNodeEntry(destName, id);
+                            }
                             return sharedState;
                         }
                         // node with this uuid already exists
@@ -1670,6 +1922,14 @@ public class BatchedItemOperations extends ItemValidator {
             }
             newState = stateMgr.createNew(id, srcState.getNodeTypeName(), destParentId);
             id = newState.getNodeId();
+            if (batchSize > 0) {
+                // add to new parent right away, so that a commit of a bulk
+                // copy, which also stores the open ancestors, never leaves
+                // the committed nodes without a parent
+                destParentState.addChildNodeEntry(destName, id);
+                // removed by the bulk copy if the copy fails
+                openNodes.add(id);
+            }
             if (flag == COPY && referenceable) {
                 // remember uuid mapping
                 refTracker.mappedId(srcState.getNodeId(), id);
@@ -1680,141 +1940,245 @@ public class BatchedItemOperations extends ItemValidator {
                 // initialize shared set
                 newState.addShare(destParentId);
             }
-            // copy child nodes
-            for (ChildNodeEntry entry : srcState.getChildNodeEntries()) {
-                Path srcChildPath = PathFactoryImpl.getInstance().create(srcPath, entry.getName(), true);
-                if (!srcAccessMgr.isGranted(srcChildPath, Permission.READ)) {
-                    continue;
-                }
-                NodeId nodeId = entry.getId();
-                NodeState srcChildState = (NodeState) srcStateMgr.getItemState(nodeId);
-
-                /**
-                 * special handling required for child nodes with special semantics
-                 * (e.g. those defined by nt:version,  et.al.)
-                 *
-                 * todo FIXME delegate to 'node type instance handler'
-                 */
-
-                /**
-                 * If child is shareble and its UUID has already been remapped,
-                 * then simply add a reference to the state with that remapped
-                 * UUID instead of copying the whole subtree.
-                 */
-                if (srcChildState.isShareable()) {
-                    NodeId mappedId = refTracker.getMappedId(srcChildState.getNodeId());
-                    if (mappedId != null) {
-                        if (stateMgr.hasItemState(mappedId)) {
-                            NodeState destState = (NodeState) stateMgr.getItemState(mappedId);
-                            if (!destState.isShareable()) {
-                                String msg =
-                                    "Remapped child (" + safeGetJCRPath(srcPath)
-                                    + ") is not shareable.";
-                                throw new ItemStateException(msg);
-                            }
-                            if (!destState.addShare(id)) {
-                                String msg = "Unable to add share to node: " + id;
-                                throw new ItemStateException(msg);
-                            }
-                            stateMgr.store(destState);
-                            newState.addChildNodeEntry(entry.getName(), mappedId);
-                            continue;
-                        }
-                    }
-                }
+            if (batchSize > 0) {
+                // properties first, so that every committed node is complete
+                copyPropertyStates(srcState, srcPath, srcStateMgr, srcAccessMgr,
+                        newState, ent, flag, refTracker);
+                newState = copyChildNodeStates(srcState, srcPath, srcStateMgr,
+                        srcAccessMgr, newState, flag, refTracker);
+            } else {
+                newState = copyChildNodeStates(srcState, srcPath, srcStateMgr,
+                        srcAccessMgr, newState, flag, refTracker);
+                copyPropertyStates(srcState, srcPath, srcStateMgr, srcAccessMgr,
+                        newState, ent, flag, refTracker);
+            }
+            if (batchSize > 0) {
+                openNodes.removeLast();
+            }
+            return newState;
+        } catch (ItemStateException ise) {
+            String msg = "internal error: failed to copy state of " + srcState.getNodeId();
+            log.debug(msg);
+            throw new RepositoryException(msg, ise);
+        }
+    }
 
-                // recursive copying of child node
-                NodeState newChildState = copyNodeState(srcChildState, srcChildPath,
-                        srcStateMgr, srcAccessMgr, id, flag, refTracker);
-                // store new child node
-                stateMgr.store(newChildState);
-                // add new child node entry to new node
-                newState.addChildNodeEntry(entry.getName(), newChildState.getNodeId());
+    /**
+     * Copies the properties of the given source node state to the given
+     * new node state, and initializes the version history of a copied
+     * versionable node. In bulk mode, optional reference properties are
+     * buffered and written by the final pass of the copy. Mandatory and
+     * protected ones are copied along with their node.
+     *
+     * @param srcState     the node state whose properties are copied
+     * @param srcPath      the path of the source node state
+     * @param srcStateMgr  the source item state manager
+     * @param srcAccessMgr the source access manager
+     * @param newState     the copy of the source node state
+     * @param ent          the effective node type of the source node state
+     * @param flag         the copy flag, see {@link #copyNodeState}
+     * @param refTracker   tracks uuid mappings and processed reference properties
+     * @throws RepositoryException if an error occurs
+     * @throws ItemStateException if a state can not be retrieved
+     */
+    private void copyPropertyStates(NodeState srcState,
+                                    Path srcPath,
+                                    ItemStateManager srcStateMgr,
+                                    AccessManager srcAccessMgr,
+                                    NodeState newState,
+                                    EffectiveNodeType ent,
+                                    int flag,
+                                    ReferenceChangeTracker refTracker)
+            throws RepositoryException, ItemStateException {
+        NodeId id = newState.getNodeId();
+        boolean versionable = ent.includesNodeType(NameConstants.MIX_SIMPLE_VERSIONABLE);
+        boolean fullVersionable = ent.includesNodeType(NameConstants.MIX_VERSIONABLE);
+        // init version history if needed
+        VersionHistoryInfo history = null;
+        if (versionable && flag == COPY) {
+            NodeId copiedFrom = null;
+            if (fullVersionable) {
+                // base version of copied versionable node is reference value of
+                // the histories jcr:copiedFrom property
+                PropertyId propId = new PropertyId(srcState.getNodeId(), NameConstants.JCR_BASEVERSION);
+                PropertyState prop = (PropertyState) srcStateMgr.getItemState(propId);
+                copiedFrom = prop.getValues()[0].getNodeId();
+            }
+            InternalVersionManager manager = session.getInternalVersionManager();
+            history = manager.getVersionHistory(session, newState, copiedFrom);
+        }
+        // copy properties
+        for (Name propName : srcState.getPropertyNames()) {
+            Path propPath = PathFactoryImpl.getInstance().create(srcPath, propName, true);
+            PropertyId propId = new PropertyId(srcState.getNodeId(), propName);
+            if (!srcAccessMgr.canRead(propPath, propId)) {
+                continue;
             }
-            // init version history if needed
-            VersionHistoryInfo history = null;
-            if (versionable && flag == COPY) {
-                NodeId copiedFrom = null;
+            PropertyState srcChildState =
+                    (PropertyState) srcStateMgr.getItemState(propId);
+
+            /**
+             * special handling required for properties with special semantics
+             * (e.g. those defined by mix:referenceable, mix:versionable,
+             * mix:lockable, et.al.)
+             *
+             * todo FIXME delegate to 'node type instance handler'
+             */
+            QPropertyDefinition def = ent.getApplicablePropertyDef(
+                    srcChildState.getName(), srcChildState.getType(),
+                    srcChildState.isMultiValued());
+            if (NameConstants.MIX_LOCKABLE.equals(def.getDeclaringNodeType())) {
+                // skip properties defined by mix:lockable
+                continue;
+            }
+
+            PropertyState newChildState =
+                    copyPropertyState(srcChildState, id, propName, def);
+
+            if (history != null) {
                 if (fullVersionable) {
-                    // base version of copied versionable node is reference value of
-                    // the histories jcr:copiedFrom property
-                    PropertyId propId = new PropertyId(srcState.getNodeId(), NameConstants.JCR_BASEVERSION);
-                    PropertyState prop = (PropertyState) srcStateMgr.getItemState(propId);
-                    copiedFrom = prop.getValues()[0].getNodeId();
+                    if (propName.equals(NameConstants.JCR_VERSIONHISTORY)) {
+                        // jcr:versionHistory
+                        InternalValue value = InternalValue.create(
+                                history.getVersionHistoryId());
+                        newChildState.setValues(new InternalValue[] { value });
+                    } else if (propName.equals(NameConstants.JCR_BASEVERSION)
+                            || propName.equals(NameConstants.JCR_PREDECESSORS)) {
+                        // jcr:baseVersion or jcr:predecessors
+                        InternalValue value = InternalValue.create(
+                                history.getRootVersionId());
+                        newChildState.setValues(new InternalValue[] { value });
+                    } else if (propName.equals(NameConstants.JCR_ISCHECKEDOUT)) {
+                        // jcr:isCheckedOut
+                        newChildState.setValues(new InternalValue[]{InternalValue.create(true)});
+                    }
+                } else {
+                    // for simple versionable, we just initialize the
+                    // version history when we see the jcr:isCheckedOut
+                    if (propName.equals(NameConstants.JCR_ISCHECKEDOUT)) {
+                        // jcr:isCheckedOut
+                        newChildState.setValues(new InternalValue[]{InternalValue.create(true)});
+                    }
                 }
-                InternalVersionManager manager = session.getInternalVersionManager();
-                history = manager.getVersionHistory(session, newState, copiedFrom);
             }
-            // copy properties
-            for (Name propName : srcState.getPropertyNames()) {
-                Path propPath = PathFactoryImpl.getInstance().create(srcPath, propName, true);
-                PropertyId propId = new PropertyId(srcState.getNodeId(), propName);
-                if (!srcAccessMgr.canRead(propPath, propId)) {
-                    continue;
-                }
-                PropertyState srcChildState =
-                        (PropertyState) srcStateMgr.getItemState(propId);
-
-                /**
-                 * special handling required for properties with special semantics
-                 * (e.g. those defined by mix:referenceable, mix:versionable,
-                 * mix:lockable, et.al.)
-                 *
-                 * todo FIXME delegate to 'node type instance handler'
-                 */
-                QPropertyDefinition def = ent.getApplicablePropertyDef(
-                        srcChildState.getName(), srcChildState.getType(),
-                        srcChildState.isMultiValued());
-                if (NameConstants.MIX_LOCKABLE.equals(def.getDeclaringNodeType())) {
-                    // skip properties defined by mix:lockable
+
+            if (newChildState.getType() == PropertyType.REFERENCE
+                    || newChildState.getType() == PropertyType.WEAKREFERENCE) {
+                if (deferredReferences != null
+                        && !def.isMandatory() && !def.isProtected()) {
+                    // written by the final pass of the bulk copy
+                    try {
+                        deferredReferences.add(newChildState.getPropertyId(),
+                                newChildState.getType(),
+                                newChildState.isMultiValued(),
+                                newChildState.getValues());
+                    } catch (IOException e) {
+                        String msg = "failed to buffer reference property "
+                                + newChildState.getId();
+                        log.debug(msg);
+                        throw new RepositoryException(msg, e);
+                    }
+                    stateMgr.destroy(newChildState);
                     continue;
                 }
+                refTracker.processedReference(newChildState);
+            }
+            // store new property
+            stateMgr.store(newChildState);
+            // add new property entry to new node
+            newState.addPropertyName(propName);
+        }
+    }
 
-                PropertyState newChildState =
-                        copyPropertyState(srcChildState, id, propName, def);
-
-                if (history != null) {
-                    if (fullVersionable) {
-                        if (propName.equals(NameConstants.JCR_VERSIONHISTORY)) {
-                            // jcr:versionHistory
-                            InternalValue value = InternalValue.create(
-                                    history.getVersionHistoryId());
-                            newChildState.setValues(new InternalValue[] { value });
-                        } else if (propName.equals(NameConstants.JCR_BASEVERSION)
-                                || propName.equals(NameConstants.JCR_PREDECESSORS)) {
-                            // jcr:baseVersion or jcr:predecessors
-                            InternalValue value = InternalValue.create(
-                                    history.getRootVersionId());
-                            newChildState.setValues(new InternalValue[] { value });
-                        } else if (propName.equals(NameConstants.JCR_ISCHECKEDOUT)) {
-                            // jcr:isCheckedOut
-                            newChildState.setValues(new InternalValue[]{InternalValue.create(true)});
+    /**
+     * Recursively copies the child nodes of the given source node state to
+     * the given new node state.
+     *
+     * @param srcState     the node state whose child nodes are copied
+     * @param srcPath      the path of the source node state
+     * @param srcStateMgr  the source item state manager
+     * @param srcAccessMgr the source access manager
+     * @param newState     the copy of the source node state
+     * @param flag         the copy flag, see {@link #copyNodeState}
+     * @param refTracker   tracks uuid mappings and processed reference properties
+     * @return the current state of the copy, which is reloaded if a bulk
+     *         copy has committed the changes in the meantime
+     * @throws RepositoryException if an error occurs
+     * @throws ItemStateException if a state can not be retrieved
+     */
+    private NodeState copyChildNodeStates(NodeState srcState,
+                                          Path srcPath,
+                                          ItemStateManager srcStateMgr,
+                                          AccessManager srcAccessMgr,
+                                          NodeState newState,
+                                          int flag,
+                                          ReferenceChangeTracker refTracker)
+            throws RepositoryException, ItemStateException {
+        NodeId id = newState.getNodeId();
+        for (ChildNodeEntry entry : srcState.getChildNodeEntries()) {
+            Path srcChildPath = PathFactoryImpl.getInstance().create(srcPath, entry.getName(), true);
+            if (!srcAccessMgr.isGranted(srcChildPath, Permission.READ)) {
+                continue;
+            }
+            NodeId nodeId = entry.getId();
+            NodeState srcChildState = (NodeState) srcStateMgr.getItemState(nodeId);
+
+            /**
+             * special handling required for child nodes with special semantics
+             * (e.g. those defined by nt:version,  et.al.)
+             *
+             * todo FIXME delegate to 'node type instance handler'
+             */
+
+            /**
+             * If child is shareble and its UUID has already been remapped,
+             * then simply add a reference to the state with that remapped
+             * UUID instead of copying the whole subtree.
+             */
+            if (srcChildState.isShareable()) {
+                NodeId mappedId = refTracker.getMappedId(srcChildState.getNodeId());
+                if (mappedId != null) {
+                    if (stateMgr.hasItemState(mappedId)) {
+                        NodeState destState = (NodeState) stateMgr.getItemState(mappedId);
+                        if (!destState.isShareable()) {
+                            String msg =
+                                "Remapped child (" + safeGetJCRPath(srcPath)
+                                + ") is not shareable.";
+                            throw new ItemStateException(msg);
                         }
-                    } else {
-                        // for simple versionable, we just initialize the
-                        // version history when we see the jcr:isCheckedOut
-                        if (propName.equals(NameConstants.JCR_ISCHECKEDOUT)) {
-                            // jcr:isCheckedOut
-                            newChildState.setValues(new InternalValue[]{InternalValue.create(true)});
+                        if (!destState.addShare(id)) {
+                            String msg = "Unable to add share to node: " + id;
+                            throw new ItemStateException(msg);
                         }
+                        stateMgr.store(destState);
+                        newState.addChildNodeEntry(entry.getName(), mappedId);
+                        continue;
                     }
                 }
+            }
 
-                if (newChildState.getType() == PropertyType.REFERENCE
-                        || newChildState.getType() == PropertyType.WEAKREFERENCE) {
-                    refTracker.processedReference(newChildState);
+            // recursive copying of child node
+            int commits = checkpoints;
+            NodeState newChildState = copyNodeState(srcChildState, srcChildPath,
+                    srcStateMgr, srcAccessMgr, newState, entry.getName(), flag, refTracker);
+            if (checkpoints != commits) {
+                newState = reloadNodeState(newState);
+            }
+            // store new child node
+            stateMgr.store(newChildState);
+
+            if (batchSize > 0) {
+                // the child node entry has been added by the copy
+                if (++pendingItems >= batchSize) {
+                    checkpoint();
+                    newState = reloadNodeState(newState);
                 }
-                // store new property
-                stateMgr.store(newChildState);
-                // add new property entry to new node
-                newState.addPropertyName(propName);
+            } else {
+                // add new child node entry to new node
+                newState.addChildNodeEntry(entry.getName(), newChildState.getNodeId());
             }
-            return newState;
-        } catch (ItemStateException ise) {
-            String msg = "internal error: failed to copy state of " + srcState.getNodeId();
-            log.debug(msg);
-            throw new RepositoryException(msg, ise);
         }
+        return newState;
     }
 
     /**
@@ -16,17 +16,22 @@
  */
 package org.apache.jackrabbit.core;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
 
-import org.apache.commons.collections.map.ReferenceMap;
 import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
@@ -47,6 +52,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Implementation of a <code>HierarchyManager</code> that caches paths of
  * items.
+ * <p>
+ * Lookups by item id do not lock. Lookups by path share a read lock, while
+ * changes to the cached hierarchy acquire the corresponding write lock.
+ * Cache hits only record an access time stamp. When the cache is full, the
+ * least recently used of a random sample of leaf entries is evicted.
  */
 public class CachingHierarchyManager extends HierarchyManagerImpl
         implements NodeStateListener {
@@ -62,6 +72,11 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
     private static final int CACHE_STATISTICS_LOG_INTERVAL_MILLIS =
             Integer.getInteger("org.apache.jackrabbit.core.CachingHierarchyManager.logInterval", 60000);
 
+    /**
+     * Number of entries sampled when looking for an entry to evict.
+     */
+    private static final int EVICTION_SAMPLE_SIZE = 16;
+
     /**
      * Logger instance
      */
@@ -75,32 +90,40 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
     /**
      * Mapping of item ids to <code>LRUEntry</code> in the path map
      */
-    private final ReferenceMap idCache = new ReferenceMap(ReferenceMap.HARD, ReferenceMap.HARD);
+    private final ConcurrentMap<ItemId, LRUEntry> idCache =
+            new ConcurrentHashMap<ItemId, LRUEntry>();
 
     /**
-     * Cache monitor object
+     * Cached entries, used to sample eviction candidates. Guarded by the
+     * write lock.
      */
-    private final Object cacheMonitor = new Object();
+    private final List<LRUEntry> entries = new ArrayList<LRUEntry>();
 
     /**
-     * Upper limit
+     * Random generator used to sample eviction candidates. Guarded by the
+     * write lock.
      */
-    private final int upperLimit;
+    private final Random random = new Random();
 
     /**
-     * Object collecting and logging statistics about the idCache
+     * Cache lock. The read lock guards lookups in the path map, the write
+     * lock any changes to the path map and the id cache.
      */
-    private final CacheStatistics idCacheStatistics;
+    private final ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
+
+    private final Lock readLock = cacheLock.readLock();
+
+    private final Lock writeLock = cacheLock.writeLock();
 
     /**
-     * Head of LRU
+     * Upper limit
      */
-    private LRUEntry head;
+    private final int upperLimit;
 
     /**
-     * Tail of LRU
+     * Object collecting and logging statistics about the idCache
      */
-    private LRUEntry tail;
+    private final CacheStatistics idCacheStatistics;
 
     /**
      * Flag indicating whether consistency checking is enabled.
@@ -125,8 +148,20 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      */
     public CachingHierarchyManager(NodeId rootNodeId,
                                    ItemStateManager provider) {
+        this(rootNodeId, provider, MAX_UPPER_LIMIT);
+    }
+
+    /**
+     * Create a new instance of this class.
+     *
+     * @param rootNodeId   root node id
+     * @param provider     item state manager
+     * @param upperLimit   maximum number of cached items
+     */
+    CachingHierarchyManager(NodeId rootNodeId,
+                            ItemStateManager provider, int upperLimit) {
         super(rootNodeId, provider);
-        upperLimit = MAX_UPPER_LIMIT;
+        this.upperLimit = upperLimit;
         idCacheStatistics = new CacheStatistics();
         if (log.isTraceEnabled()) {
             log.trace("CachingHierarchyManager initialized. Max cache size = {}", upperLimit, new Exception());
@@ -163,17 +198,17 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
         PathMap.Element<LRUEntry> element = map(pathToNode);
         if (element == null) {
             // not even intermediate match: call base class
+            idCacheStatistics.miss();
             return super.resolvePath(path, typesAllowed);
         }
 
         LRUEntry entry = element.get();
         if (element.hasPath(path)) {
             // exact match: return answer
-            synchronized (cacheMonitor) {
-                entry.touch();
-            }
+            idCacheStatistics.hit();
             return entry.getId();
         }
+        idCacheStatistics.miss();
         Path.Element[] elements = path.getElements();
         try {
             return resolvePath(elements, element.getDepth() + 1, entry.getId(), typesAllowed);
@@ -339,7 +374,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * (longer) exist in the underlying <code>NodeState</code>.
      */
     public void nodeModified(NodeState modified) {
-        synchronized (cacheMonitor) {
+        writeLock.lock();
+        try {
             for (PathMap.Element<LRUEntry> element
                     : getCachedPaths(modified.getNodeId())) {
                 for (PathMap.Element<LRUEntry> child : element.getChildren()) {
@@ -359,6 +395,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 }
             }
             checkConsistency();
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -369,7 +407,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                     PathFactoryImpl.getInstance().getRootPath(), true));
         }
 
-        LRUEntry entry = (LRUEntry) idCache.get(id);
+        LRUEntry entry = idCache.get(id);
         if (entry != null) {
             return Arrays.asList(entry.getElements());
         } else {
@@ -403,7 +441,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * {@inheritDoc}
      */
     public void nodeAdded(NodeState state, Name name, int index, NodeId id) {
-        synchronized (cacheMonitor) {
+        writeLock.lock();
+        try {
             if (idCache.containsKey(state.getNodeId())) {
                 // Optimization: ignore notifications for nodes that are not in the cache
                 try {
@@ -426,6 +465,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 // A top level node was added
                 evictAll(id, true);
             }
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -436,8 +477,9 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * child's position.
      */
     public void nodesReplaced(NodeState state) {
-        synchronized (cacheMonitor) {
-            LRUEntry entry = (LRUEntry) idCache.get(state.getNodeId());
+        writeLock.lock();
+        try {
+            LRUEntry entry = idCache.get(state.getNodeId());
             if (entry == null) {
                 return;
             }
@@ -447,7 +489,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 boolean orderChanged = false;
 
                 for (PathMap.Element<LRUEntry> child : parent.getChildren()) {
-                    LRUEntry childEntry = (LRUEntry) child.get();
+                    LRUEntry childEntry = child.get();
                     if (childEntry == null) {
                         // Child has no associated UUID information: we're
                         // therefore unable to determine if this child's
@@ -482,6 +524,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 }
             }
             checkConsistency();
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -489,7 +533,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * {@inheritDoc}
      */
     public void nodeRemoved(NodeState state, Name name, int index, NodeId id) {
-        synchronized (cacheMonitor) {
+        writeLock.lock();
+        try {
             if (idCache.containsKey(state.getNodeId())) {
                 // Optimization: ignore notifications for nodes that are not in the cache
                 try {
@@ -512,6 +557,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 // A top level node was removed
                 evictAll(id, true);
             }
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -524,14 +571,18 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * @return cached element, <code>null</code> if not found
      */
     private PathMap.Element<LRUEntry> get(ItemId id) {
-        synchronized (cacheMonitor) {
-            LRUEntry entry = (LRUEntry) idCache.get(id);
-            if (entry != null) {
+        LRUEntry entry = idCache.get(id);
+        if (entry != null) {
+            PathMap.Element<LRUEntry>[] elements = entry.getElements();
+            // the entry may have been evicted concurrently
+            if (elements.length > 0) {
                 entry.touch();
-                return entry.getElements()[0];
+                idCacheStatistics.hit();
+                return elements[0];
             }
-            return null;
         }
+        idCacheStatistics.miss();
+        return null;
     }
 
     /**
@@ -543,7 +594,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * @return cached element, <code>null</code> if not found
      */
     private PathMap.Element<LRUEntry> map(Path path) {
-        synchronized (cacheMonitor) {
+        readLock.lock();
+        try {
             PathMap.Element<LRUEntry> element = pathCache.map(path, false);
             while (element != null) {
                 LRUEntry entry = element.get();
@@ -554,6 +606,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 element = element.getParent();
             }
             return null;
+        } finally {
+            readLock.unlock();
         }
     }
 
@@ -564,39 +618,35 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * @param path path to item
      */
     private void cache(NodeId id, Path path) {
-        synchronized (cacheMonitor) {
+        if (isCached(id, path)) {
+            return;
+        }
+        writeLock.lock();
+        try {
             if (isCached(id, path)) {
                 return;
             }
-            if (idCache.size() >= upperLimit) {
+            if (entries.size() >= upperLimit) {
 
                 idCacheStatistics.log();
 
                 /**
-                 * Remove least recently used item. Scans the LRU list from
-                 * head to tail and removes the first item that has no children.
+                 * Remove the least recently used of a sample of items
+                 * that have no children.
                  */
-                LRUEntry entry = head;
-                while (entry != null) {
-                    PathMap.Element<LRUEntry>[] elements = entry.getElements();
-                    int childrenCount = 0;
-                    for (int i = 0; i < elements.length; i++) {
-                        childrenCount += elements[i].getChildrenCount();
-                    }
-                    if (childrenCount == 0) {
-                        evictAll(entry.getId(), false);
-                        return;
-                    }
-                    entry = entry.getNext();
+                LRUEntry entry = getEvictionCandidate();
+                if (entry != null) {
+                    evictAll(entry.getId(), false);
+                    return;
                 }
             }
             PathMap.Element<LRUEntry> element = pathCache.put(path);
             if (element.get() != null) {
-                if (!id.equals(((LRUEntry) element.get()).getId())) {
+                if (!id.equals(element.get().getId())) {
                     log.debug("overwriting PathMap.Element");
                 }
             }
-            LRUEntry entry = (LRUEntry) idCache.get(id);
+            LRUEntry entry = idCache.get(id);
             if (entry == null) {
                 entry = new LRUEntry(id, element);
                 idCache.put(id, entry);
@@ -606,7 +656,37 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
             element.set(entry);
 
             checkConsistency();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Return the least recently used entry without children out of a random
+     * sample of entries. Falls back to the first entry without children if
+     * the sample contains none.
+     *
+     * @return entry to evict or <code>null</code> if all entries have children
+     */
+    private LRUEntry getEvictionCandidate() {
+        // assert: write lock held
+        LRUEntry candidate = null;
+        int size = entries.size();
+        for (int i = 0; i < EVICTION_SAMPLE_SIZE && i < size; i++) {
+            LRUEntry entry = entries.get(random.nextInt(size));
+            if (!entry.hasChildren() && (candidate == null
+                    || entry.getLastAccess() < candidate.getLastAccess())) {
+                candidate = entry;
+            }
+        }
+        if (candidate == null) {
+            for (LRUEntry entry : entries) {
+                if (!entry.hasChildren()) {
+                    return entry;
+                }
+            }
         }
+        return candidate;
     }
 
     /**
@@ -621,8 +701,9 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      *         <code>false</code> otherwise
      */
     boolean isCached(NodeId id, Path path) {
-        synchronized (cacheMonitor) {
-            LRUEntry entry = (LRUEntry) idCache.get(id);
+        readLock.lock();
+        try {
+            LRUEntry entry = idCache.get(id);
             if (entry == null) {
                 return false;
             }
@@ -636,6 +717,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 }
             }
             return false;
+        } finally {
+            readLock.unlock();
         }
     }
 
@@ -647,12 +730,15 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      *         <code>false</code> otherwise
      */
     boolean isCached(Path path) {
-        synchronized (cacheMonitor) {
+        readLock.lock();
+        try {
             PathMap.Element<LRUEntry> element = pathCache.map(path, true);
             if (element != null) {
                 return element.get() != null;
             }
             return false;
+        } finally {
+            readLock.unlock();
         }
     }
 
@@ -664,8 +750,9 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * @param id item id
      */
     private void evictAll(ItemId id, boolean shift) {
-        synchronized (cacheMonitor) {
-            LRUEntry entry = (LRUEntry) idCache.get(id);
+        writeLock.lock();
+        try {
+            LRUEntry entry = idCache.get(id);
             if (entry != null) {
                 PathMap.Element<LRUEntry>[] elements = entry.getElements();
                 for (int i = 0; i < elements.length; i++) {
@@ -673,6 +760,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                 }
             }
             checkConsistency();
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -684,10 +773,10 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * @param element path map element
      */
     private void evict(PathMap.Element<LRUEntry> element, boolean shift) {
-        // assert: synchronized (cacheMonitor)
+        // assert: write lock held
         element.traverse(new PathMap.ElementVisitor<LRUEntry>() {
             public void elementVisited(PathMap.Element<LRUEntry> element) {
-                LRUEntry entry = (LRUEntry) element.get();
+                LRUEntry entry = element.get();
                 if (entry.removeElement(element) == 0) {
                     idCache.remove(entry.getId());
                     entry.remove();
@@ -711,10 +800,10 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
     private void nodeAdded(NodeState state, Path path, NodeId id)
             throws RepositoryException, ItemStateException {
 
-        // assert: synchronized (cacheMonitor)
+        // assert: write lock held
         PathMap.Element<LRUEntry> element = null;
 
-        LRUEntry entry = (LRUEntry) idCache.get(id);
+        LRUEntry entry = idCache.get(id);
         if (entry != null) {
             // child node already cached: this can have the following
             // reasons:
@@ -756,7 +845,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
     private void nodeRemoved(NodeState state, Path path, NodeId id)
             throws RepositoryException, ItemStateException {
 
-        // assert: synchronized (cacheMonitor)
+        // assert: write lock held
         PathMap.Element<LRUEntry> parent =
             pathCache.map(path.getAncestor(1), true);
         if (parent == null) {
@@ -768,7 +857,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
             // with SNS, this might evict a child that is NOT the one
             // having <code>id</code>, check first whether item has
             // the id passed as argument
-            LRUEntry entry = (LRUEntry) element.get();
+            LRUEntry entry = element.get();
             if (entry != null && !entry.getId().equals(id)) {
                 return;
             }
@@ -795,7 +884,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      */
     public String toString() {
         final StringBuilder builder = new StringBuilder();
-        synchronized (cacheMonitor) {
+        readLock.lock();
+        try {
             pathCache.traverse(new PathMap.ElementVisitor<LRUEntry>() {
                 public void elementVisited(PathMap.Element<LRUEntry> element) {
                     for (int i = 0; i < element.getDepth(); i++) {
@@ -813,6 +903,8 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
                     builder.append("\n");
                 }
             }, true);
+        } finally {
+            readLock.unlock();
         }
         return builder.toString();
     }
@@ -821,24 +913,27 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
      * Check consistency.
      */
     private void checkConsistency() throws IllegalStateException {
-        // assert: synchronized (cacheMonitor)
+        // assert: write lock held
         if (!consistencyCheckEnabled) {
             return;
         }
 
         int elementsInCache = 0;
 
-        Iterator iter = idCache.values().iterator();
-        while (iter.hasNext()) {
-            LRUEntry entry = (LRUEntry) iter.next();
+        for (LRUEntry entry : idCache.values()) {
             elementsInCache += entry.getElements().length;
         }
+        if (entries.size() != idCache.size()) {
+            String msg = "LRU entry and cached id count don't match (" +
+                entries.size() + " != " + idCache.size() + ")";
+            throw new IllegalStateException(msg);
+        }
 
         class PathMapElementCounter implements PathMap.ElementVisitor<LRUEntry> {
             int count;
             public void elementVisited(PathMap.Element<LRUEntry> element) {
-                LRUEntry mappedEntry = (LRUEntry) element.get();
-                LRUEntry cachedEntry = (LRUEntry) idCache.get(mappedEntry.getId());
+                LRUEntry mappedEntry = element.get();
+                LRUEntry cachedEntry = idCache.get(mappedEntry.getId());
                 if (cachedEntry == null) {
                     String msg = "Path element (" + element +
                         " ) cached in path map, associated id (" +
@@ -891,19 +986,19 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
     }
 
     /**
-     * Entry in the LRU list
+     * Entry of a cached item
      */
     private class LRUEntry {
 
         /**
-         * Previous entry
+         * Position in the list of cached entries. Guarded by the write lock.
          */
-        private LRUEntry previous;
+        private int index;
 
         /**
-         * Next entry
+         * Time stamp of the last access
          */
-        private LRUEntry next;
+        private volatile long lastAccess;
 
         /**
          * Node id
@@ -911,9 +1006,10 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
         private final NodeId id;
 
         /**
-         * Elements in path map
+         * Elements in path map. The array is replaced on changes, so that it
+         * can be read without locking.
          */
-        private PathMap.Element<LRUEntry>[] elements;
+        private volatile PathMap.Element<LRUEntry>[] elements;
 
         /**
          * Create a new instance of this class
@@ -921,6 +1017,7 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
          * @param id node id
          * @param element the path map element for this entry
          */
+        @SuppressWarnings("unchecked")
         public LRUEntry(NodeId id, PathMap.Element<LRUEntry> element) {
             this.id = id;
             this.elements = new PathMap.Element[] { element };
@@ -929,55 +1026,41 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
         }
 
         /**
-         * Append entry to end of LRU list
+         * Append entry to the list of cached entries
          */
         public void append() {
-            if (tail == null) {
-                head = this;
-                tail = this;
-            } else {
-                previous = tail;
-                tail.next = this;
-                tail = this;
-            }
+            // assert: write lock held
+            index = entries.size();
+            entries.add(this);
+            touch();
         }
 
         /**
-         * Remove entry from LRU list
+         * Remove entry from the list of cached entries
          */
         public void remove() {
-            if (previous != null) {
-                previous.next = next;
-            }
-            if (next != null) {
-                next.previous = previous;
-            }
-            if (head == this) {
-                head = next;
+            // assert: write lock held
+            LRUEntry last = entries.remove(entries.size() - 1);
+            if (last != this) {
+                entries.set(index, last);
+                last.index = index;
             }
-            if (tail == this) {
-                tail = previous;
-            }
-            previous = null;
-            next = null;
         }
 
         /**
-         * Touch entry. Removes it from its current position in the LRU list
-         * and moves it to the end.
+         * Touch entry. Records the time of the access.
          */
         public void touch() {
-            remove();
-            append();
+            lastAccess = System.nanoTime();
         }
 
         /**
-         * Return next LRU entry
+         * Return the time stamp of the last access
          *
-         * @return next LRU entry
+         * @return time stamp of the last access
          */
-        public LRUEntry getNext() {
-            return next;
+        public long getLastAccess() {
+            return lastAccess;
         }
 
         /**
@@ -1000,9 +1083,26 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
             return elements;
         }
 
+        /**
+         * Check whether any of the elements mapped to <code>id</code> has
+         * children.
+         *
+         * @return <code>true</code> if this entry has children
+         */
+        public boolean hasChildren() {
+            PathMap.Element<LRUEntry>[] elements = this.elements;
+            for (int i = 0; i < elements.length; i++) {
+                if (elements[i].getChildrenCount() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         /**
          * Add a mapping to some element.
          */
+        @SuppressWarnings("unchecked")
         public void addElement(PathMap.Element<LRUEntry> element) {
             PathMap.Element<LRUEntry>[] tmp =
                 new PathMap.Element[elements.length + 1];
@@ -1016,21 +1116,19 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
          *
          * @return number of mappings left
          */
+        @SuppressWarnings("unchecked")
         public int removeElement(PathMap.Element<LRUEntry> element) {
-            boolean found = false;
+            PathMap.Element<LRUEntry>[] elements = this.elements;
             for (int i = 0; i < elements.length; i++) {
-                if (found) {
-                    elements[i - 1] = elements[i];
-                } else if (elements[i] == element) {
-                    found = true;
+                if (elements[i] == element) {
+                    PathMap.Element<LRUEntry>[] tmp =
+                        new PathMap.Element[elements.length - 1];
+                    System.arraycopy(elements, 0, tmp, 0, i);
+                    System.arraycopy(elements, i + 1, tmp, i, tmp.length - i);
+                    this.elements = tmp;
+                    return tmp.length;
                 }
             }
-            if (found) {
-                PathMap.Element<LRUEntry>[] tmp =
-                    new PathMap.Element[elements.length - 1];
-                System.arraycopy(elements, 0, tmp, 0, tmp.length);
-                elements = tmp;
-            }
             return elements.length;
         }
 
@@ -1042,28 +1140,82 @@ public class CachingHierarchyManager extends HierarchyManagerImpl
         }
     }
 
-    private final class CacheStatistics {
+    /**
+     * Returns the statistics of the path cache.
+     *
+     * @return cache statistics
+     */
+    CacheStatistics getCacheStatistics() {
+        return idCacheStatistics;
+    }
+
+    /**
+     * Statistics about the size and the hit ratio of the path cache.
+     */
+    final class CacheStatistics {
 
         private final String id;
 
-        private final ReferenceMap cache;
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
 
         private long timeStamp = 0;
 
         public CacheStatistics() {
-            this.id = cacheMonitor.toString();
-            this.cache = idCache;
+            this.id = "CachingHierarchyManager@"
+                    + Integer.toHexString(System.identityHashCode(CachingHierarchyManager.this));
+        }
+
+        void hit() {
+            hits.incrementAndGet();
+        }
+
+        void miss() {
+            misses.incrementAndGet();
+        }
+
+        /**
+         * @return number of cached items
+         */
+        public int getSize() {
+            return idCache.size();
+        }
+
+        /**
+         * @return number of lookups answered by the cache
+         */
+        public long getHitCount() {
+            return hits.get();
+        }
+
+        /**
+         * @return number of lookups not answered by the cache
+         */
+        public long getMissCount() {
+            return misses.get();
+        }
+
+        /**
+         * @return ratio of the lookups answered by the cache, or 0 if there
+         *         were no lookups yet
+         */
+        public double getHitRatio() {
+            long hits = this.hits.get();
+            long total = hits + misses.get();
+            return total == 0 ? 0 : (double) hits / total;
         }
 
         public void log() {
             if (log.isDebugEnabled()) {
                 long now = System.currentTimeMillis();
-                final String msg = "Cache id = {};size = {};max = {}";
+                final String msg = "Cache id = {};size = {};max = {};hitRatio = {}";
+                Object[] args = new Object[]{id, getSize(), upperLimit, getHitRatio()};
                 if (log.isTraceEnabled()) {
-                    log.trace(msg, new Object[]{id, this.cache.size(), upperLimit}, new Exception());
+                    log.trace(msg, args, new Exception());
                 } else if (now > timeStamp + CACHE_STATISTICS_LOG_INTERVAL_MILLIS) {
                     timeStamp = now;
-                    log.debug(msg, new Object[]{id, this.cache.size(), upperLimit}, new Exception());
+                    log.debug(msg, args, new Exception());
                 }
             }
         }
@@ -52,6 +52,7 @@ import org.apache.jackrabbit.core.security.SecurityConstants;
 import org.apache.jackrabbit.core.security.SystemPrincipal;
 import org.apache.jackrabbit.core.security.authentication.AuthContext;
 import org.apache.jackrabbit.core.security.authentication.AuthContextProvider;
+import org.apache.jackrabbit.core.security.authentication.AuthenticationCache;
 import org.apache.jackrabbit.core.security.authorization.AccessControlProvider;
 import org.apache.jackrabbit.core.security.authorization.AccessControlProviderFactory;
 import org.apache.jackrabbit.core.security.authorization.AccessControlProviderFactoryImpl;
@@ -148,6 +149,44 @@ public class DefaultSecurityManager implements JackrabbitSecurityManager {
      */
     private AuthContextProvider authContextProvider;
 
+    /**
+     * The maximum number of logins cached, 0 if logins are not cached.
+     */
+    private int authenticationCacheSize = 0;
+
+    /**
+     * The time in milliseconds a login is cached.
+     */
+    private long authenticationCacheExpiration = 60000;
+
+    /**
+     * Cache of the principals resolved for login credentials or
+     * <code>null</code> if disabled.
+     */
+    private AuthenticationCache authenticationCache;
+
+    //---------------------------------------------------------< properties >---
+    /**
+     * Sets the maximum number of logins whose principals are cached. Logins
+     * with equal credentials are then served from the cache without running
+     * the login modules, until the cached login expires or any user, group
+     * or token changes. The default is 0, which disables the cache.
+     *
+     * @param size the maximum number of cached logins.
+     */
+    public void setAuthenticationCacheSize(int size) {
+        this.authenticationCacheSize = size;
+    }
+
+    /**
+     * Sets the time in milliseconds a login is cached. The default is 60000.
+     *
+     * @param expiration the expiration time in milliseconds.
+     */
+    public void setAuthenticationCacheExpiration(long expiration) {
+        this.authenticationCacheExpiration = expiration;
+    }
+
     //------------------------------------------< JackrabbitSecurityManager >---
     /**
      * @see JackrabbitSecurityManager#init(Repository, Session)
@@ -232,6 +271,18 @@ public class DefaultSecurityManager implements JackrabbitSecurityManager {
             principalProviderRegistry.registerProvider(props);
         }
 
+        if (authenticationCacheSize > 0) {
+            log.info("init: caching up to {} logins for {}ms", authenticationCacheSize, authenticationCacheExpiration);
+            authenticationCache = new AuthenticationCache(authenticationCacheSize, authenticationCacheExpiration);
+            if (systemUserManager instanceof UserManagerImpl) {
+                UserManagerImpl uMgr = (UserManagerImpl) systemUserManager;
+                authenticationCache.init(this.systemSession, uMgr.getUsersPath(), uMgr.getGroupsPath());
+            } else {
+                // unknown storage of users and groups: listen to any change
+                authenticationCache.init(this.systemSession, "/", "/");
+            }
+        }
+
         initialized = true;
     }
 
@@ -253,6 +304,9 @@ public class DefaultSecurityManager implements JackrabbitSecurityManager {
      */
     public void close() {
         checkInitialized();
+        if (authenticationCache != null) {
+            authenticationCache.close(systemSession);
+        }
         synchronized (acProviders) {
             for (AccessControlProvider accessControlProvider : acProviders.values()) {
                 accessControlProvider.close();
@@ -421,8 +475,19 @@ public class DefaultSecurityManager implements JackrabbitSecurityManager {
     public AuthContext getAuthContext(Credentials creds, Subject subject, String workspaceName)
             throws RepositoryException {
         checkInitialized();
-        return getAuthContextProvider().getAuthContext(creds, subject, systemSession,
+        String key = null;
+        if (authenticationCache != null && subject == null) {
+            key = authenticationCache.getKey(creds);
+            if (key != null) {
+                AuthContext cached = authenticationCache.getAuthContext(key, creds);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+        AuthContext authCtx = getAuthContextProvider().getAuthContext(creds, subject, systemSession,
                 getPrincipalProviderRegistry(), adminId, anonymousId);
+        return (key == null) ? authCtx : authenticationCache.cache(key, authCtx);
     }
 
     //----------------------------------------------------------< protected >---    
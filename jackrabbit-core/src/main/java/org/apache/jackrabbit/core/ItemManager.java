@@ -16,9 +16,13 @@
  */
 package org.apache.jackrabbit.core;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.InvalidItemStateException;
@@ -82,6 +86,11 @@ import org.slf4j.LoggerFactory;
  * <p>
  * If the parent <code>Session</code> is an <code>XASession</code>, there is
  * one <code>ItemManager</code> instance per started global transaction.
+ * <p>
+ * The item cache can be accessed without locking. Unless concurrent reads
+ * are enabled for the session (see {@link SessionImpl#CONCURRENT_READS}),
+ * item lookups are additionally serialized on the <code>ItemManager</code>
+ * instance.
  */
 public class ItemManager implements ItemStateListener {
 
@@ -102,10 +111,10 @@ public class ItemManager implements ItemStateListener {
     /**
      * A cache for item instances created by this <code>ItemManager</code>
      */
-    private final Map<ItemId, ItemData> itemCache;
+    private final ItemDataCache itemCache;
 
     /**
-     * Shareable node cache.
+     * Shareable node cache. Access is synchronized on the cache instance.
      */
     private final ShareableNodesCache shareableNodesCache;
 
@@ -114,7 +123,6 @@ public class ItemManager implements ItemStateListener {
      *
      * @param sessionContext component context of the associated session
      */
-    @SuppressWarnings("unchecked")
     protected ItemManager(SessionContext sessionContext) {
         this.sism = sessionContext.getItemStateManager();
         this.hierMgr = sessionContext.getHierarchyManager();
@@ -123,7 +131,7 @@ public class ItemManager implements ItemStateListener {
         this.rootNodeDef = sessionContext.getNodeTypeManager().getRootNodeDefinition();
 
         // setup item cache with weak references to items
-        itemCache = new ReferenceMap(ReferenceMap.HARD, ReferenceMap.WEAK);
+        itemCache = new ItemDataCache();
 
         // setup shareable nodes cache
         shareableNodesCache = new ShareableNodesCache();
@@ -138,14 +146,24 @@ public class ItemManager implements ItemStateListener {
         sessionContext.getSessionState().checkAlive();
     }
 
+    /**
+     * Checks whether the item lookups of this manager may run concurrently.
+     *
+     * @return <code>true</code> if concurrent reads are enabled for the
+     *         associated session
+     */
+    private boolean isConcurrent() {
+        return sessionContext.getSessionState().isConcurrentReads();
+    }
+
     /**
      * Disposes this <code>ItemManager</code> and frees resources.
      */
     void dispose() {
-        synchronized (itemCache) {
-            itemCache.clear();
+        itemCache.clear();
+        synchronized (shareableNodesCache) {
+            shareableNodesCache.clear();
         }
-        shareableNodesCache.clear();
     }
 
     NodeDefinitionImpl getDefinition(NodeState state)
@@ -616,9 +634,9 @@ public class ItemManager implements ItemStateListener {
      * @return
      * @throws RepositoryException
      */
-    public synchronized ItemImpl getItem(ItemId id)
+    public ItemImpl getItem(ItemId id)
             throws ItemNotFoundException, AccessDeniedException, RepositoryException {
-        return getItem(id, null, true);
+        return getItem(id, true);
     }
 
     /**
@@ -626,9 +644,14 @@ public class ItemManager implements ItemStateListener {
      * @return
      * @throws RepositoryException
      */
-    synchronized ItemImpl getItem(ItemId id, boolean permissionCheck)
+    ItemImpl getItem(ItemId id, boolean permissionCheck)
             throws ItemNotFoundException, AccessDeniedException, RepositoryException {
-        return getItem(id, null, permissionCheck);
+        if (isConcurrent()) {
+            return getItem(id, null, permissionCheck);
+        }
+        synchronized (this) {
+            return getItem(id, null, permissionCheck);
+        }
     }
 
     /**
@@ -641,7 +664,7 @@ public class ItemManager implements ItemStateListener {
      * @return node
      * @throws RepositoryException if an error occurs
      */
-    public synchronized NodeImpl getNode(NodeId id, NodeId parentId)
+    public NodeImpl getNode(NodeId id, NodeId parentId)
             throws ItemNotFoundException, AccessDeniedException, RepositoryException {
         return getNode(id, parentId, true);
     }
@@ -658,7 +681,17 @@ public class ItemManager implements ItemStateListener {
      * @return node
      * @throws RepositoryException if an error occurs
      */
-    synchronized NodeImpl getNode(NodeId id, NodeId parentId, boolean permissionCheck)
+    NodeImpl getNode(NodeId id, NodeId parentId, boolean permissionCheck)
+            throws ItemNotFoundException, AccessDeniedException, RepositoryException {
+        if (isConcurrent()) {
+            return internalGetNode(id, parentId, permissionCheck);
+        }
+        synchronized (this) {
+            return internalGetNode(id, parentId, permissionCheck);
+        }
+    }
+
+    private NodeImpl internalGetNode(NodeId id, NodeId parentId, boolean permissionCheck)
             throws ItemNotFoundException, AccessDeniedException, RepositoryException {
         if (parentId == null) {
             return (NodeImpl) getItem(id);
@@ -695,10 +728,14 @@ public class ItemManager implements ItemStateListener {
      * @return item instance
      * @throws RepositoryException if an error occurs
      */
-    synchronized ItemImpl createItemInstance(ItemState state)
+    ItemImpl createItemInstance(ItemState state)
             throws RepositoryException {
-        ItemData data = createItemData(state, null, false);
-        return createItemInstance(data);
+        if (isConcurrent()) {
+            return createItemInstance(createItemData(state, null, false));
+        }
+        synchronized (this) {
+            return createItemInstance(createItemData(state, null, false));
+        }
     }
 
     /**
@@ -708,7 +745,17 @@ public class ItemManager implements ItemStateListener {
      * @throws AccessDeniedException
      * @throws RepositoryException
      */
-    synchronized boolean hasChildNodes(NodeId parentId)
+    boolean hasChildNodes(NodeId parentId)
+            throws ItemNotFoundException, AccessDeniedException, RepositoryException {
+        if (isConcurrent()) {
+            return internalHasChildNodes(parentId);
+        }
+        synchronized (this) {
+            return internalHasChildNodes(parentId);
+        }
+    }
+
+    private boolean internalHasChildNodes(NodeId parentId)
             throws ItemNotFoundException, AccessDeniedException, RepositoryException {
         sanityCheck();
 
@@ -736,7 +783,17 @@ public class ItemManager implements ItemStateListener {
      * @throws AccessDeniedException
      * @throws RepositoryException
      */
-    synchronized NodeIterator getChildNodes(NodeId parentId)
+    NodeIterator getChildNodes(NodeId parentId)
+            throws ItemNotFoundException, AccessDeniedException, RepositoryException {
+        if (isConcurrent()) {
+            return internalGetChildNodes(parentId);
+        }
+        synchronized (this) {
+            return internalGetChildNodes(parentId);
+        }
+    }
+
+    private NodeIterator internalGetChildNodes(NodeId parentId)
             throws ItemNotFoundException, AccessDeniedException, RepositoryException {
         sanityCheck();
 
@@ -766,7 +823,17 @@ public class ItemManager implements ItemStateListener {
      * @throws AccessDeniedException
      * @throws RepositoryException
      */
-    synchronized boolean hasChildProperties(NodeId parentId)
+    boolean hasChildProperties(NodeId parentId)
+            throws ItemNotFoundException, AccessDeniedException, RepositoryException {
+        if (isConcurrent()) {
+            return internalHasChildProperties(parentId);
+        }
+        synchronized (this) {
+            return internalHasChildProperties(parentId);
+        }
+    }
+
+    private boolean internalHasChildProperties(NodeId parentId)
             throws ItemNotFoundException, AccessDeniedException, RepositoryException {
         sanityCheck();
 
@@ -796,7 +863,17 @@ public class ItemManager implements ItemStateListener {
      * @throws AccessDeniedException
      * @throws RepositoryException
      */
-    synchronized PropertyIterator getChildProperties(NodeId parentId)
+    PropertyIterator getChildProperties(NodeId parentId)
+            throws ItemNotFoundException, AccessDeniedException, RepositoryException {
+        if (isConcurrent()) {
+            return internalGetChildProperties(parentId);
+        }
+        synchronized (this) {
+            return internalGetChildProperties(parentId);
+        }
+    }
+
+    private PropertyIterator internalGetChildProperties(NodeId parentId)
             throws ItemNotFoundException, AccessDeniedException, RepositoryException {
         sanityCheck();
 
@@ -827,8 +904,9 @@ public class ItemManager implements ItemStateListener {
      * is used to determine if reading that item would be granted. If this is
      * not the case an <code>AccessDeniedException</code> is thrown.
      * Before returning the created <code>ItemData</code> it is put into the
-     * cache. In order to benefit from the cache
-     * {@link #getItemData(ItemId, Path, boolean)} should be called.
+     * cache. If another thread has concurrently cached the data of the same
+     * item state, that instance is returned instead. In order to benefit from
+     * the cache {@link #getItemData(ItemId, Path, boolean)} should be called.
      *
      * @param state
      * @return
@@ -848,8 +926,7 @@ public class ItemManager implements ItemStateListener {
             throw new AccessDeniedException("cannot read item " + state.getId());
         }
         // before returning the data: put them into the cache.
-        cacheItem(data);
-        return data;
+        return cacheItem(data);
     }
 
     private ItemImpl createItemInstance(ItemData data) {
@@ -888,13 +965,13 @@ public class ItemManager implements ItemStateListener {
      *         or <code>null</code> if there's no corresponding cache entry.
      */
     private ItemData retrieveItem(ItemId id) {
-        synchronized (itemCache) {
-            ItemData data = itemCache.get(id);
-            if (data == null && id.denotesNode()) {
+        ItemData data = itemCache.get(id);
+        if (data == null && id.denotesNode() && !shareableNodesCache.isEmpty()) {
+            synchronized (shareableNodesCache) {
                 data = shareableNodesCache.retrieveFirst((NodeId) id);
             }
-            return data;
         }
+        return data;
     }
 
     /**
@@ -906,39 +983,41 @@ public class ItemManager implements ItemStateListener {
      *         or <code>null</code> if there's no corresponding cache entry.
      */
     private AbstractNodeData retrieveItem(NodeId id, NodeId parentId) {
-        synchronized (itemCache) {
-            AbstractNodeData data = shareableNodesCache.retrieve(id, parentId);
-            if (data == null) {
-                data = (AbstractNodeData) itemCache.get(id);
+        AbstractNodeData data = null;
+        if (!shareableNodesCache.isEmpty()) {
+            synchronized (shareableNodesCache) {
+                data = shareableNodesCache.retrieve(id, parentId);
             }
-            return data;
         }
+        if (data == null) {
+            data = (AbstractNodeData) itemCache.get(id);
+        }
+        return data;
     }
 
     /**
      * Puts the reference of an item in the cache with
-     * the item's path as the key.
+     * the item's id as the key. If the cache already contains a valid
+     * instance for the same item state, the cache is left unchanged and that
+     * instance is returned.
      *
      * @param data the item data to cache
+     * @return the cached item data
      */
-    private void cacheItem(ItemData data) {
-        synchronized (itemCache) {
-            if (data.isNode()) {
-                AbstractNodeData nd = (AbstractNodeData) data;
-                if (nd.getPrimaryParentId() != null) {
+    private ItemData cacheItem(ItemData data) {
+        if (data.isNode()) {
+            AbstractNodeData nd = (AbstractNodeData) data;
+            if (nd.getPrimaryParentId() != null) {
+                synchronized (shareableNodesCache) {
                     shareableNodesCache.cache(nd);
-                    return;
                 }
+                return data;
             }
-            ItemId id = data.getId();
-            if (itemCache.containsKey(id)) {
-                log.debug("overwriting cached item " + id);
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("caching item " + id);
-            }
-            itemCache.put(id, data);
         }
+        if (log.isDebugEnabled()) {
+            log.debug("caching item " + data.getId());
+        }
+        return itemCache.cache(data);
     }
 
     /**
@@ -951,9 +1030,9 @@ public class ItemManager implements ItemStateListener {
         if (log.isDebugEnabled()) {
             log.debug("removing items " + id + " from cache");
         }
-        synchronized (itemCache) {
-            itemCache.remove(id);
-            if (id.denotesNode()) {
+        itemCache.remove(id);
+        if (id.denotesNode()) {
+            synchronized (shareableNodesCache) {
                 shareableNodesCache.evictAll((NodeId) id);
             }
         }
@@ -968,15 +1047,12 @@ public class ItemManager implements ItemStateListener {
         if (log.isDebugEnabled()) {
             log.debug("removing item " + data.getId() + " from cache");
         }
-        synchronized (itemCache) {
-            if (data.isNode()) {
+        if (data.isNode()) {
+            synchronized (shareableNodesCache) {
                 shareableNodesCache.evict((AbstractNodeData) data);
             }
-            ItemData cached = itemCache.get(data.getId());
-            if (cached == data) {
-                itemCache.remove(data.getId());
-            }
         }
+        itemCache.remove(data);
     }
 
 
@@ -1034,10 +1110,8 @@ public class ItemManager implements ItemStateListener {
         if (log.isDebugEnabled()) {
             log.debug("destroyed item " + id);
         }
-        synchronized (itemCache) {
-            // remove instance from cache
-            evictItems(id);
-        }
+        // remove instance from cache
+        evictItems(id);
     }
 
     //--------------------------------------------------------------< Object >
@@ -1048,21 +1122,19 @@ public class ItemManager implements ItemStateListener {
         StringBuilder builder = new StringBuilder();
         builder.append("ItemManager (" + super.toString() + ")\n");
         builder.append("Items in cache:\n");
-        synchronized (itemCache) {
-            for (ItemId id : itemCache.keySet()) {
-                ItemData item = itemCache.get(id);
-                if (item.isNode()) {
-                    builder.append("Node: ");
-                } else {
-                    builder.append("Property: ");
-                }
-                if (item.getState().isTransient()) {
-                    builder.append("transient ");
-                } else {
-                    builder.append("          ");
-                }
-                builder.append(id + "\t" + safeGetJCRPath(id) + " (" + item + ")\n");
+        for (ItemData item : itemCache.values()) {
+            ItemId id = item.getId();
+            if (item.isNode()) {
+                builder.append("Node: ");
+            } else {
+                builder.append("Property: ");
+            }
+            if (item.getState().isTransient()) {
+                builder.append("transient ");
+            } else {
+                builder.append("          ");
             }
+            builder.append(id + "\t" + safeGetJCRPath(id) + " (" + item + ")\n");
         }
         return builder.toString();
     }
@@ -1179,6 +1251,141 @@ public class ItemManager implements ItemStateListener {
         }
     }
 
+    /**
+     * Cache of item data instances with weak references to the cached data.
+     * Lookups do not lock, and entries whose data has been garbage collected
+     * are purged on subsequent updates.
+     */
+    static class ItemDataCache {
+
+        /**
+         * Maps item ids to weak references to the cached data.
+         */
+        private final ConcurrentMap<ItemId, Entry> cache =
+            new ConcurrentHashMap<ItemId, Entry>();
+
+        /**
+         * Queue of entries whose data has been garbage collected.
+         */
+        private final ReferenceQueue<ItemData> queue =
+            new ReferenceQueue<ItemData>();
+
+        /**
+         * Return the cached data of the item with the given id.
+         *
+         * @param id item id
+         * @return cached data or <code>null</code>
+         */
+        public ItemData get(ItemId id) {
+            Entry entry = cache.get(id);
+            if (entry != null) {
+                return entry.get();
+            }
+            return null;
+        }
+
+        /**
+         * Cache some item data. If a valid instance for the same item state
+         * is already cached, that instance is kept and returned. Any other
+         * cached instance is replaced.
+         *
+         * @param data data to cache
+         * @return the cached data
+         */
+        public ItemData cache(ItemData data) {
+            purge();
+            ItemId id = data.getId();
+            Entry entry = new Entry(id, data, queue);
+            while (true) {
+                Entry old = cache.putIfAbsent(id, entry);
+                if (old == null) {
+                    return data;
+                }
+                ItemData cached = old.get();
+                if (cached != null && cached.getState() == data.getState()
+                        && (cached.getStatus() == ItemImpl.STATUS_NORMAL
+                        || cached.getStatus() == ItemImpl.STATUS_MODIFIED)) {
+                    return cached;
+                }
+                if (cache.replace(id, old, entry)) {
+                    if (cached != null) {
+                        log.debug("overwriting cached item " + id);
+                    }
+                    return data;
+                }
+            }
+        }
+
+        /**
+         * Evict the item with the given id from the cache.
+         *
+         * @param id item id
+         */
+        public void remove(ItemId id) {
+            cache.remove(id);
+        }
+
+        /**
+         * Evict some item data from the cache, if it is the cached instance.
+         *
+         * @param data data to evict
+         */
+        public void remove(ItemData data) {
+            Entry entry = cache.get(data.getId());
+            if (entry != null && entry.get() == data) {
+                cache.remove(data.getId(), entry);
+            }
+        }
+
+        /**
+         * Return a snapshot of the cached data.
+         *
+         * @return cached data
+         */
+        public List<ItemData> values() {
+            List<ItemData> values = new ArrayList<ItemData>(cache.size());
+            for (Entry entry : cache.values()) {
+                ItemData data = entry.get();
+                if (data != null) {
+                    values.add(data);
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Clear cache.
+         */
+        public void clear() {
+            cache.clear();
+            purge();
+        }
+
+        /**
+         * Removes the entries whose data has been garbage collected.
+         */
+        private void purge() {
+            Entry entry = (Entry) queue.poll();
+            while (entry != null) {
+                cache.remove(entry.id, entry);
+                entry = (Entry) queue.poll();
+            }
+        }
+
+        /**
+         * Weak reference to cached item data that remembers its key.
+         */
+        private static class Entry extends WeakReference<ItemData> {
+
+            private final ItemId id;
+
+            Entry(ItemId id, ItemData data, ReferenceQueue<ItemData> queue) {
+                super(data, queue);
+                this.id = id;
+            }
+        }
+    }
+
     /**
      * Cache of shareable nodes. For performance reasons, methods are not
      * synchronized and thread-safety must be guaranteed by caller.
@@ -1191,6 +1398,12 @@ public class ItemManager implements ItemStateListener {
          */
         private final ReferenceMap cache;
 
+        /**
+         * Flag indicating that shareable nodes have been cached. Can be read
+         * without synchronization to skip lookups while the cache is unused.
+         */
+        private volatile boolean used;
+
         /**
          * Create a new instance of this class.
          */
@@ -1205,6 +1418,17 @@ public class ItemManager implements ItemStateListener {
          */
         public void clear() {
             cache.clear();
+            used = false;
+        }
+
+        /**
+         * Checks whether no shareable node has been cached since the cache
+         * was created or cleared.
+         *
+         * @return <code>true</code> if the cache is unused
+         */
+        public boolean isEmpty() {
+            return !used;
         }
 
         /**
@@ -1257,6 +1481,7 @@ public class ItemManager implements ItemStateListener {
             if (map == null) {
                 map = new ReferenceMap(ReferenceMap.HARD, ReferenceMap.WEAK);
                 cache.put(id, map);
+                used = true;
             }
             Object old = map.put(data.getPrimaryParentId(), data);
             if (old != null) {
@@ -33,10 +33,12 @@ import org.apache.jackrabbit.core.id.NodeIdFactory;
 import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
 import org.apache.jackrabbit.core.security.JackrabbitSecurityManager;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeRegistry;
+import org.apache.jackrabbit.core.session.SessionSaveExecutor;
 import org.apache.jackrabbit.core.state.ItemStateCacheFactory;
 import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.apache.jackrabbit.core.stats.StatManager;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
+import org.apache.jackrabbit.core.version.VersionPurgeManager;
 
 /**
  * Internal component context of a Jackrabbit content repository.
@@ -72,6 +74,11 @@ public class RepositoryContext {
      */
     private InternalVersionManagerImpl internalVersionManager;
 
+    /**
+     * Version purge manager of this repository.
+     */
+    private VersionPurgeManager versionPurgeManager;
+
     /**
      * The root node identifier of this repository.
      */
@@ -115,6 +122,12 @@ public class RepositoryContext {
     private final ScheduledExecutorService executor =
             new JackrabbitThreadPool();
 
+    /**
+     * Executor of the asynchronous session saves of this repository.
+     */
+    private final SessionSaveExecutor sessionSaveExecutor =
+            new SessionSaveExecutor();
+
     /**
      * Repository statistics collector.
      */
@@ -197,6 +210,16 @@ public class RepositoryContext {
         return executor;
     }
 
+    /**
+     * Returns the executor of the asynchronous session saves of this
+     * repository.
+     *
+     * @return session save executor
+     */
+    public SessionSaveExecutor getSessionSaveExecutor() {
+        return sessionSaveExecutor;
+    }
+
     /**
      * Returns the namespace registry of this repository.
      *
@@ -276,6 +299,25 @@ public class RepositoryContext {
         this.internalVersionManager = internalVersionManager;
     }
 
+    /**
+     * Returns the version purge manager of this repository.
+     *
+     * @return version purge manager
+     */
+    public VersionPurgeManager getVersionPurgeManager() {
+        return versionPurgeManager;
+    }
+
+    /**
+     * Sets the version purge manager of this repository.
+     *
+     * @param versionPurgeManager version purge manager
+     */
+    void setVersionPurgeManager(VersionPurgeManager versionPurgeManager) {
+        assert versionPurgeManager != null;
+        this.versionPurgeManager = versionPurgeManager;
+    }
+
     /**
      * Returns the root node identifier of this repository.
      *
@@ -30,7 +30,9 @@ import org.apache.jackrabbit.core.config.RepositoryConfig;
 import org.apache.jackrabbit.core.lock.LockManagerImpl;
 import org.apache.jackrabbit.core.nodetype.InvalidNodeTypeDefException;
 import org.apache.jackrabbit.core.nodetype.NodeTypeRegistry;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PersistenceCopier;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
 import org.slf4j.Logger;
@@ -48,6 +50,13 @@ import org.slf4j.LoggerFactory;
  * The static copy() methods will remove the target search index folders from
  * their default locations to trigger automatic reindexing when the repository
  * is next started.
+ * <p>
+ * By default the content is copied node by node along the content tree.
+ * If a batch size is set (see {@link #setBatchSize(int)} or the
+ * <code>org.apache.jackrabbit.core.RepositoryCopier.batchSize</code>
+ * system property), the nodes of persistence managers that can be iterated
+ * are instead copied in batches by multiple threads, see
+ * {@link PersistenceCopier#copyAll(int, int)}.
  *
  * @since Apache Jackrabbit 1.6
  */
@@ -69,6 +78,20 @@ public class RepositoryCopier {
      */
     private final RepositoryContext target;
 
+    /**
+     * Number of nodes copied at once, or <code>0</code> to copy the
+     * content node by node.
+     */
+    private int batchSize = Integer.getInteger(
+            "org.apache.jackrabbit.core.RepositoryCopier.batchSize", 0);
+
+    /**
+     * Number of threads that copy batches of nodes.
+     */
+    private int threads = Integer.getInteger(
+            "org.apache.jackrabbit.core.RepositoryCopier.threads",
+            Runtime.getRuntime().availableProcessors());
+
     /**
      * Copies the contents of the repository in the given source directory
      * to a repository in the given target directory.
@@ -182,6 +205,25 @@ public class RepositoryCopier {
         this.target = target.getRepositoryContext();
     }
 
+    /**
+     * Sets the number of nodes copied at once. The default value
+     * <code>0</code> copies the content node by node.
+     *
+     * @param batchSize batch size, or <code>0</code>
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the number of threads that copy batches of nodes.
+     *
+     * @param threads number of threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     /**
      * Copies the full content from the source to the target repository.
      * <p>
@@ -253,8 +295,14 @@ public class RepositoryCopier {
                 source.getInternalVersionManager().getPersistenceManager(),
                 target.getInternalVersionManager().getPersistenceManager(),
                 target.getDataStore());
-        copier.copy(RepositoryImpl.VERSION_STORAGE_NODE_ID);
-        copier.copy(RepositoryImpl.ACTIVITIES_NODE_ID);
+        if (isBatched(source.getInternalVersionManager().getPersistenceManager())) {
+            copier.includeNode(RepositoryImpl.VERSION_STORAGE_NODE_ID);
+            copier.includeNode(RepositoryImpl.ACTIVITIES_NODE_ID);
+            copier.copyAll(threads, batchSize);
+        } else {
+            copier.copy(RepositoryImpl.VERSION_STORAGE_NODE_ID);
+            copier.copy(RepositoryImpl.ACTIVITIES_NODE_ID);
+        }
     }
 
     private void copyWorkspaces() throws RepositoryException {
@@ -268,12 +316,18 @@ public class RepositoryCopier {
             }
 
             // Copy all the workspace content
+            PersistenceManager pm =
+                source.getRepository().getWorkspaceInfo(name).getPersistenceManager();
             PersistenceCopier copier = new PersistenceCopier(
-                    source.getRepository().getWorkspaceInfo(name).getPersistenceManager(),
+                    pm,
                     target.getRepository().getWorkspaceInfo(name).getPersistenceManager(),
                     target.getDataStore());
             copier.excludeNode(RepositoryImpl.SYSTEM_ROOT_NODE_ID);
-            copier.copy(RepositoryImpl.ROOT_NODE_ID);
+            if (isBatched(pm)) {
+                copier.copyAll(threads, batchSize);
+            } else {
+                copier.copy(RepositoryImpl.ROOT_NODE_ID);
+            }
 
             // Copy all the active open-scoped locks
             LockManagerImpl sourceLockManager =
@@ -284,4 +338,16 @@ public class RepositoryCopier {
         }
     }
 
+    /**
+     * Checks whether the content of the given persistence manager is
+     * copied in batches.
+     *
+     * @param pm source persistence manager
+     * @return <code>true</code> if a batch size is set and the persistence
+     *         manager can be iterated, <code>false</code> otherwise
+     */
+    private boolean isBatched(PersistenceManager pm) {
+        return batchSize > 0 && pm instanceof IterablePersistenceManager;
+    }
+
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringReader;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
 import java.security.AccessControlContext;
 import java.security.AccessController;
@@ -48,6 +49,8 @@ import javax.jcr.Value;
 import javax.jcr.ValueFactory;
 import javax.jcr.observation.Event;
 import javax.jcr.observation.ObservationManager;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.security.auth.Subject;
 
 import org.apache.commons.collections.map.ReferenceMap;
@@ -98,6 +101,7 @@ import org.apache.jackrabbit.core.security.authentication.AuthContext;
 import org.apache.jackrabbit.core.security.authentication.token.TokenBasedAuthentication;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeRegistry;
 import org.apache.jackrabbit.core.security.simple.SimpleSecurityManager;
+import org.apache.jackrabbit.core.session.SessionSaveExecutor;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ISMLocking;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -106,6 +110,7 @@ import org.apache.jackrabbit.core.state.SharedItemStateManager;
 import org.apache.jackrabbit.core.util.RepositoryLockMechanism;
 import org.apache.jackrabbit.core.version.InternalVersionManager;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
+import org.apache.jackrabbit.core.version.VersionPurgeManager;
 import org.apache.jackrabbit.core.xml.ClonedInputSource;
 import org.apache.jackrabbit.data.core.TransactionException;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
@@ -241,6 +246,12 @@ public class RepositoryImpl extends AbstractRepository
      */
     private WorkspaceEventChannel createWorkspaceEventChannel;
 
+    /**
+     * Name the version purge manager is registered with in the platform
+     * MBean server, or <code>null</code> if it is not registered.
+     */
+    private ObjectName versionPurgeManagerName;
+
     /**
      * Protected constructor.
      *
@@ -338,6 +349,11 @@ public class RepositoryImpl extends AbstractRepository
             // todo FIXME the *global* virtual node type manager is using a session that is bound to a single specific workspace...
             virtNTMgr.setSession(getSystemSession(repConfig.getDefaultWorkspaceName()));
 
+            context.setVersionPurgeManager(new VersionPurgeManager(
+                    vMgr, getSystemSession(repConfig.getDefaultWorkspaceName()),
+                    context.getExecutor()));
+            registerVersionPurgeManager();
+
             // now start cluster node as last step
             if (clusterNode != null) {
                 setDescriptor(JACKRABBIT_CLUSTER_ID, repConfig.getClusterConfig().getId());
@@ -425,6 +441,26 @@ public class RepositoryImpl extends AbstractRepository
         return context;
     }
 
+    /**
+     * Returns the manager purging old versions from the version storage
+     * of this repository.
+     *
+     * @return version purge manager
+     */
+    public VersionPurgeManager getVersionPurgeManager() {
+        return context.getVersionPurgeManager();
+    }
+
+    /**
+     * Returns the executor of the asynchronous session saves of this
+     * repository, which also keeps the save pipeline statistics.
+     *
+     * @return session save executor
+     */
+    public SessionSaveExecutor getSessionSaveExecutor() {
+        return context.getSessionSaveExecutor();
+    }
+
     /**
      * Get the cache manager of this repository, useful
      * for setting its memory parameters.
@@ -1079,6 +1115,39 @@ public class RepositoryImpl extends AbstractRepository
         }
     }
 
+    /**
+     * Registers the version purge manager with the platform MBean server,
+     * using the repository home directory to tell repositories apart.
+     * A failure is logged and ignored, as the purge manager remains
+     * available through {@link #getVersionPurgeManager()}.
+     */
+    private void registerVersionPurgeManager() {
+        try {
+            ObjectName name = new ObjectName(
+                    "org.apache.jackrabbit:type=VersionPurgeManager,repository="
+                    + ObjectName.quote(repConfig.getHomeDir()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    context.getVersionPurgeManager(), name);
+            versionPurgeManagerName = name;
+        } catch (JMException e) {
+            log.warn("Unable to register the version purge manager MBean", e);
+        } catch (SecurityException e) {
+            log.warn("Unable to register the version purge manager MBean", e);
+        }
+    }
+
+    private void unregisterVersionPurgeManager() {
+        if (versionPurgeManagerName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+                        versionPurgeManagerName);
+            } catch (JMException e) {
+                log.warn("Unable to unregister the version purge manager MBean", e);
+            }
+            versionPurgeManagerName = null;
+        }
+    }
+
     /**
      * Protected method that performs the actual shutdown after the shutdown
      * lock has been acquired by the {@link #shutdown()} method.
@@ -1086,6 +1155,13 @@ public class RepositoryImpl extends AbstractRepository
     protected synchronized void doShutdown() {
         log.info("Shutting down repository...");
 
+        // stop a running version purge
+        VersionPurgeManager purgeMgr = context.getVersionPurgeManager();
+        if (purgeMgr != null) {
+            purgeMgr.stop();
+        }
+        unregisterVersionPurgeManager();
+
         // stop optional cluster node
         ClusterNode clusterNode = context.getClusterNode();
         if (clusterNode != null) {
@@ -1113,6 +1189,9 @@ public class RepositoryImpl extends AbstractRepository
             }
         }
 
+        // stop the threads performing asynchronous saves
+        context.getSessionSaveExecutor().shutdown();
+
         // shutdown system search manager if there is one
         if (systemSearchMgr != null) {
             systemSearchMgr.close();
@@ -32,6 +32,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.AccessDeniedException;
@@ -87,10 +88,14 @@ import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.core.session.SessionItemOperation;
 import org.apache.jackrabbit.core.session.SessionOperation;
 import org.apache.jackrabbit.core.session.SessionRefreshOperation;
+import org.apache.jackrabbit.core.session.SessionSaveExecutor;
 import org.apache.jackrabbit.core.session.SessionSaveOperation;
 import org.apache.jackrabbit.core.state.SessionItemStateManager;
 import org.apache.jackrabbit.core.version.InternalVersionManager;
+import org.apache.jackrabbit.core.xml.ExportPrefetcher;
 import org.apache.jackrabbit.core.xml.ImportHandler;
+import org.apache.jackrabbit.core.xml.PrefetchingDocumentViewExporter;
+import org.apache.jackrabbit.core.xml.PrefetchingSystemViewExporter;
 import org.apache.jackrabbit.core.xml.SessionImporter;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.Path;
@@ -107,12 +112,13 @@ import org.apache.jackrabbit.util.Text;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
 /**
  * A <code>SessionImpl</code> ...
  */
 public class SessionImpl extends AbstractSession
-        implements JackrabbitSession, SessionExtensions, NamespaceResolver, NamePathResolver, IdentifierResolver {
+        implements AsyncSaveSession, SessionExtensions, NamespaceResolver, NamePathResolver, IdentifierResolver {
 
     /**
      * Name of the session attribute that controls whether the
@@ -138,6 +144,55 @@ public class SessionImpl extends AbstractSession
     public static final String AUTO_FIX_CORRUPTIONS =
         "org.apache.jackrabbit.autoFixCorruptions";
 
+    /**
+     * Name of the session attribute that enables concurrent reads. When an
+     * attribute with this name is set (any non-null value), typically as
+     * a credentials attribute on login, read operations of this session are
+     * no longer serialized, so that the session can be shared by multiple
+     * reading threads. Write operations are still performed exclusively.
+     *
+     * @see org.apache.jackrabbit.core.session.SessionState#setConcurrentReads(boolean)
+     */
+    public static final String CONCURRENT_READS =
+        "org.apache.jackrabbit.concurrentReads";
+
+    /**
+     * Name of the session attribute that enables bulk mode for workspace
+     * imports. When an attribute with this name is set, the content
+     * imported through the workspace is committed in batches of nodes
+     * instead of in a single update. The batch size is taken from the
+     * attribute value if it is a positive number.
+     *
+     * @see org.apache.jackrabbit.core.xml.WorkspaceImporter
+     */
+    public static final String BULK_IMPORT =
+        "org.apache.jackrabbit.bulkImport";
+
+    /**
+     * Name of the session attribute that enables bulk mode for workspace
+     * copy and clone operations. When an attribute with this name is set,
+     * the copied content is committed in batches of nodes instead of in a
+     * single update. The batch size is taken from the attribute value if
+     * it is a positive number.
+     *
+     * @see BatchedItemOperations#copy(Path, org.apache.jackrabbit.core.state.ItemStateManager, HierarchyManager, AccessManager, Path, int)
+     */
+    public static final String BULK_COPY =
+        "org.apache.jackrabbit.bulkCopy";
+
+    /**
+     * Name of the session attribute that controls how binary values are
+     * written by system view exports. When an attribute with this name is
+     * set (any non-null value), binary values that are kept in the data
+     * store are exported as references to their data store records instead
+     * of being inlined in base64 encoding. Such exports can not be imported,
+     * as the importer does not resolve these references.
+     *
+     * @see org.apache.jackrabbit.core.xml.PrefetchingSystemViewExporter
+     */
+    public static final String EXPORT_BINARY_REFERENCES =
+        "org.apache.jackrabbit.exportBinaryReferences";
+
     private static Logger log = LoggerFactory.getLogger(SessionImpl.class);
 
     /**
@@ -519,6 +574,9 @@ public class SessionImpl extends AbstractSession
         } else {
             attributes.remove(name);
         }
+        if (CONCURRENT_READS.equals(name)) {
+            context.getSessionState().setConcurrentReads(value != null);
+        }
     }
 
     /**
@@ -853,6 +911,15 @@ public class SessionImpl extends AbstractSession
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @see SessionSaveExecutor
+     */
+    public Future<Void> saveAsync() throws RepositoryException {
+        return repositoryContext.getSessionSaveExecutor().save(context);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -980,6 +1047,9 @@ public class SessionImpl extends AbstractSession
      */
     @Override
     public void logout() {
+        // let pending asynchronous saves complete before closing
+        repositoryContext.getSessionSaveExecutor().await(context);
+
         if (context.getSessionState().close()) {
             // JCR-798: Remove all registered event listeners to avoid concurrent
             // access to session internals by the event delivery or even listeners
@@ -1069,6 +1139,68 @@ public class SessionImpl extends AbstractSession
         namePathResolver = new DefaultNamePathResolver(this, true);
     }
 
+    /**
+     * Generates a system view export using a
+     * {@link PrefetchingSystemViewExporter} instance.
+     *
+     * @see #EXPORT_BINARY_REFERENCES
+     */
+    @Override
+    public void exportSystemView(
+            String absPath, ContentHandler contentHandler,
+            boolean skipBinary, boolean noRecurse)
+            throws PathNotFoundException, SAXException, RepositoryException {
+        ExportPrefetcher prefetcher = getExportPrefetcher(noRecurse);
+        try {
+            export(absPath, new PrefetchingSystemViewExporter(
+                    this, contentHandler, !noRecurse, !skipBinary, prefetcher,
+                    getAttribute(EXPORT_BINARY_REFERENCES) != null));
+        } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
+        }
+    }
+
+    /**
+     * Generates a document view export using a
+     * {@link PrefetchingDocumentViewExporter} instance.
+     */
+    @Override
+    public void exportDocumentView(
+            String absPath, ContentHandler contentHandler,
+            boolean skipBinary, boolean noRecurse)
+            throws PathNotFoundException, SAXException, RepositoryException {
+        ExportPrefetcher prefetcher = getExportPrefetcher(noRecurse);
+        try {
+            export(absPath, new PrefetchingDocumentViewExporter(
+                    this, contentHandler, !noRecurse, !skipBinary, prefetcher));
+        } finally {
+            if (prefetcher != null) {
+                prefetcher.close();
+            }
+        }
+    }
+
+    /**
+     * Returns a prefetcher for a recursive export by this session. The
+     * prefetcher only loads states into the caches of the workspace, so
+     * the access checks of the exporter still apply.
+     *
+     * @param noRecurse whether the export is not recursive
+     * @return export prefetcher, or <code>null</code>
+     * @throws RepositoryException if the workspace can not be accessed
+     */
+    private ExportPrefetcher getExportPrefetcher(boolean noRecurse)
+            throws RepositoryException {
+        if (noRecurse) {
+            return null;
+        }
+        return new ExportPrefetcher(
+                context.getWorkspace().getSharedItemStateManager(),
+                repositoryContext.getExecutor());
+    }
+
 
     //------------------------------------------------------< locking support >
     /**
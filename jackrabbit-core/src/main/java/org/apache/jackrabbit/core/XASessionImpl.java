@@ -37,6 +37,9 @@ import javax.transaction.xa.Xid;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Session extension that provides XA support.
@@ -244,6 +247,9 @@ public class XASessionImpl extends SessionImpl
             throw new XAException(XAException.XAER_INVAL);
         }
 
+        // changes saved asynchronously must not end up in the transaction
+        repositoryContext.getSessionSaveExecutor().await(context);
+
         associate(tx);
     }
 
@@ -386,6 +392,27 @@ public class XASessionImpl extends SessionImpl
         return tx != null;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Changes made within a transaction are saved synchronously, as the
+     * transaction is bound to the calling thread.
+     */
+    @Override
+    public Future<Void> saveAsync() throws RepositoryException {
+        if (isAssociated()) {
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                public Void call() throws RepositoryException {
+                    save();
+                    return null;
+                }
+            });
+            task.run();
+            return task;
+        }
+        return super.saveAsync();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -18,10 +18,13 @@ package org.apache.jackrabbit.core.gc;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -47,6 +50,7 @@ import org.apache.jackrabbit.api.management.DataStoreGarbageCollector;
 import org.apache.jackrabbit.api.management.MarkEventListener;
 import org.apache.jackrabbit.core.RepositoryContext;
 import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
@@ -108,6 +112,23 @@ public class GarbageCollector implements DataStoreGarbageCollector {
 
     }
 
+    private class CollectIdentifiersTask implements Callable<Void> {
+
+        private List<NodeId> nodeList;
+        private PersistenceManager pm;
+
+        public CollectIdentifiersTask(List<NodeId> nodeList, PersistenceManager pm) {
+            this.nodeList = nodeList;
+            this.pm = pm;
+        }
+
+        public Void call() throws Exception {
+            collectIdentifiers(nodeList, pm);
+            return null;
+        }
+
+    }
+
     /** logger instance */
     static final Logger LOG = LoggerFactory.getLogger(GarbageCollector.class);
 
@@ -122,6 +143,14 @@ public class GarbageCollector implements DataStoreGarbageCollector {
      */
     private static final boolean NODE_ID_SCAN = Boolean.getBoolean("org.apache.jackrabbit.garbagecollector.node_id.scan");
 
+    /**
+     * Set this System Property to true to stream the node infos of the persistence managers
+     * to a pool of worker threads that collect the identifiers of all referenced binaries,
+     * instead of updating the modified date of each binary when it is found. The sweep
+     * then deletes the records that were not collected.
+     */
+    private static final boolean IDENTIFIER_SCAN = Boolean.getBoolean("org.apache.jackrabbit.garbagecollector.identifier.scan");
+
     private MarkEventListener callback;
 
     private long sleepBetweenNodes;
@@ -148,6 +177,14 @@ public class GarbageCollector implements DataStoreGarbageCollector {
 
     private boolean persistenceManagerScan;
 
+    private boolean identifierScan = IDENTIFIER_SCAN;
+
+    /**
+     * The identifiers of the data records referenced by the persistence managers.
+     * Only used (and not null) if the mark phase ran as an identifier scan.
+     */
+    private IdentifierSet markedIdentifiers;
+
     private volatile RepositoryException observationException;
 
     /**
@@ -224,7 +261,9 @@ public class GarbageCollector implements DataStoreGarbageCollector {
             }
         } else {
             try {
-                if (!NODE_ID_SCAN) {
+                if (identifierScan) {
+                    scanPersistenceManagersByIdentifiers();
+                } else if (!NODE_ID_SCAN) {
                     scanPersistenceManagersByNodeInfos();
                 } else {
                     scanPersistenceManagersByNodeIds();
@@ -254,6 +293,26 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         return persistenceManagerScan;
     }
 
+    /**
+     * Enable or disable the identifier scan. If enabled (and the persistence
+     * managers are scanned), the mark phase streams the node infos of each
+     * persistence manager batch by batch to {@link #getConcurrentThreadSize()}
+     * worker threads, which collect the identifiers of all binaries still in
+     * use. Instead of deleting all records that were not touched, the sweep
+     * then compares the collected identifiers with
+     * {@link DataStore#getAllIdentifiers()} and deletes the records that are
+     * not referenced and were not modified since the scan started.
+     *
+     * @param identifierScan true to enable the identifier scan
+     */
+    public void setIdentifierScan(boolean identifierScan) {
+        this.identifierScan = identifierScan;
+    }
+
+    public boolean isIdentifierScan() {
+        return identifierScan;
+    }
+
     private void scanPersistenceManagersByNodeInfos() throws RepositoryException, ItemStateException {
         int pmCount = 0;
         for (IterablePersistenceManager pm : pmList) {
@@ -363,6 +422,117 @@ public class GarbageCollector implements DataStoreGarbageCollector {
         }
     }
 
+    private void scanPersistenceManagersByIdentifiers() throws RepositoryException, ItemStateException {
+        if (markedIdentifiers == null) {
+            markedIdentifiers = new IdentifierSet();
+        }
+        final int threads = getConcurrentThreadSize();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            int pmCount = 0;
+            for (IterablePersistenceManager pm : pmList) {
+                pmCount++;
+                int count = 0;
+                LinkedList<Future<Void>> pending = new LinkedList<Future<Void>>();
+                Map<NodeId,NodeInfo> batch = pm.getAllNodeInfos(null, NODESATONCE);
+                while (!batch.isEmpty()) {
+                    NodeId lastId = null;
+                    List<NodeId> nodesWithBlobs = new ArrayList<NodeId>();
+                    for (NodeInfo info : batch.values()) {
+                        count++;
+                        lastId = info.getId();
+                        if (callback != null) {
+                            callback.beforeScanning(null);
+                        }
+                        if (info.hasBlobsInDataStore()) {
+                            nodesWithBlobs.add(info.getId());
+                        }
+                    }
+                    LOG.debug(pm.toString() + " (" + pmCount + "/" + pmList.length + "): analyzed " + count + " nodes...");
+                    if (!nodesWithBlobs.isEmpty()) {
+                        pending.add(executorService.submit(new CollectIdentifiersTask(nodesWithBlobs, pm)));
+                    }
+                    // only keep a bounded number of batches in memory
+                    while (pending.size() > threads) {
+                        waitFor(pending.removeFirst());
+                    }
+                    batch = pm.getAllNodeInfos(lastId, NODESATONCE);
+                }
+                while (!pending.isEmpty()) {
+                    waitFor(pending.removeFirst());
+                }
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        NodeInfo.clearPool();
+        LOG.debug("Found " + markedIdentifiers.size() + " referenced data records");
+    }
+
+    private void collectIdentifiers(List<NodeId> nodeList, PersistenceManager pm) throws ItemStateException {
+        for (NodeId id : nodeList) {
+            try {
+                NodeState state = pm.load(id);
+                Set<Name> propertyNames = state.getPropertyNames();
+                for (Name name : propertyNames) {
+                    PropertyId pid = new PropertyId(id, name);
+                    PropertyState ps = pm.load(pid);
+                    if (ps.getType() == PropertyType.BINARY) {
+                        for (InternalValue v : ps.getValues()) {
+                            DataIdentifier identifier = v.getDataIdentifier();
+                            if (identifier != null) {
+                                markedIdentifiers.add(identifier.toString());
+                            }
+                        }
+                    }
+                }
+            } catch (NoSuchItemStateException e) {
+                // the node may have been deleted in the meantime
+            }
+        }
+    }
+
+    private static void waitFor(Future<Void> future) throws RepositoryException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            throw new RepositoryException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) {
+                throw (RepositoryException) cause;
+            }
+            throw new RepositoryException(cause);
+        }
+    }
+
+    /**
+     * Delete the data records that were not collected by the identifier scan,
+     * in batches of {@link #NODESATONCE} records.
+     *
+     * @return the number of deleted records
+     */
+    private int deleteUnmarkedIdentifiers() throws RepositoryException {
+        int count = 0;
+        List<DataIdentifier> unmarked = new ArrayList<DataIdentifier>();
+        Iterator<DataIdentifier> it = store.getAllIdentifiers();
+        while (it.hasNext()) {
+            DataIdentifier identifier = it.next();
+            if (!markedIdentifiers.contains(identifier.toString())) {
+                unmarked.add(identifier);
+                if (unmarked.size() >= NODESATONCE) {
+                    count += store.deleteRecords(unmarked, startScanTimestamp);
+                    unmarked.clear();
+                }
+            }
+        }
+        if (!unmarked.isEmpty()) {
+            count += store.deleteRecords(unmarked, startScanTimestamp);
+        }
+        LOG.debug("Deleted " + count + " unreferenced data records");
+        return count;
+    }
+
     private <T> List<List<T>> splitIntoParts(List<T> ls, int parts) {
         final List<List<T>> listParts = new ArrayList<List<T>>();
         final int chunkSize = ls.size() / parts;
@@ -404,6 +574,46 @@ public class GarbageCollector implements DataStoreGarbageCollector {
             throw new RepositoryException("scan must be called first");
         }
         stopScan();
+        if (markedIdentifiers != null) {
+            try {
+                return deleteUnmarkedIdentifiers();
+            } catch (UnsupportedOperationException e) {
+                LOG.info("Data store does not support deleting records by"
+                        + " identifier, touching the marked records instead");
+                return touchMarkedIdentifiers();
+            } finally {
+                markedIdentifiers = null;
+            }
+        }
+        return store.deleteAllOlderThan(startScanTimestamp);
+    }
+
+    /**
+     * Fallback of the identifier scan for data stores that do not support
+     * {@link DataStore#deleteRecords(java.util.Collection, long)}: updates
+     * the modified date of the marked records, in batches of
+     * {@link #NODESATONCE} records, and then deletes all records that are
+     * older than the start of the scan.
+     *
+     * @return the number of deleted records
+     */
+    private int touchMarkedIdentifiers() throws RepositoryException {
+        store.updateModifiedDateOnAccess(startScanTimestamp);
+        try {
+            List<DataIdentifier> marked = new ArrayList<DataIdentifier>();
+            for (String identifier : markedIdentifiers) {
+                marked.add(new DataIdentifier(identifier));
+                if (marked.size() >= NODESATONCE) {
+                    store.touchAll(marked);
+                    marked.clear();
+                }
+            }
+            if (!marked.isEmpty()) {
+                store.touchAll(marked);
+            }
+        } finally {
+            store.updateModifiedDateOnAccess(0);
+        }
         return store.deleteAllOlderThan(startScanTimestamp);
     }
 
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.gc;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact set of data record identifiers, used by the identifier scan of
+ * the {@link GarbageCollector}. Identifiers are normally lower case hex
+ * encoded digests of the same length, which are kept as raw bytes in a
+ * single open addressing hash table instead of as strings. This needs a
+ * fraction of the memory of a <code>HashSet&lt;String&gt;</code>.
+ * Other identifiers are kept in a regular set.
+ * <p>
+ * All methods are synchronized, as the identifiers are added by several
+ * scan threads.
+ */
+class IdentifierSet implements Iterable<String> {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Number of bytes of the identifiers in the table, or 0 until the
+     * first hex identifier has been added.
+     */
+    private int width;
+
+    /**
+     * Hash table with <code>width</code> bytes per slot.
+     */
+    private byte[] table;
+
+    /**
+     * Flags of the used slots.
+     */
+    private boolean[] used;
+
+    private int tableSize;
+
+    /**
+     * Identifiers that are not hex encoded or that have another length.
+     */
+    private final Set<String> others = new HashSet<String>();
+
+    public synchronized void add(String identifier) {
+        byte[] key = toKey(identifier, true);
+        if (key == null) {
+            others.add(identifier);
+            return;
+        }
+        if ((tableSize + 1) * 4 > used.length * 3) {
+            rehash(used.length * 2);
+        }
+        int slot = find(table, used, key);
+        if (!used[slot]) {
+            System.arraycopy(key, 0, table, slot * width, width);
+            used[slot] = true;
+            tableSize++;
+        }
+    }
+
+    public synchronized boolean contains(String identifier) {
+        byte[] key = toKey(identifier, false);
+        if (key == null) {
+            return others.contains(identifier);
+        }
+        return used[find(table, used, key)];
+    }
+
+    public synchronized int size() {
+        return tableSize + others.size();
+    }
+
+    /**
+     * Iterates over the identifiers. The set must not be modified while
+     * it is iterated.
+     */
+    public Iterator<String> iterator() {
+        final Iterator<String> other = others.iterator();
+        return new Iterator<String>() {
+            private int slot = -1;
+            private boolean found;
+            public boolean hasNext() {
+                if (!found && used != null) {
+                    for (slot++; slot < used.length && !used[slot]; slot++) {
+                        // skip empty slots
+                    }
+                    found = true;
+                }
+                return (used != null && slot < used.length) || other.hasNext();
+            }
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (used != null && slot < used.length) {
+                    found = false;
+                    return toIdentifier(slot);
+                }
+                return other.next();
+            }
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Converts a lower case hex identifier to its bytes.
+     *
+     * @param identifier the identifier
+     * @param init whether the table is created for the length of the
+     *             identifier if it does not exist yet
+     * @return the bytes, or null if the identifier is not kept in the table
+     */
+    private byte[] toKey(String identifier, boolean init) {
+        int length = identifier.length();
+        if (length == 0 || length % 2 != 0
+                || (width != 0 && length != width * 2)
+                || (width == 0 && !init)) {
+            return null;
+        }
+        byte[] key = new byte[length / 2];
+        for (int i = 0; i < key.length; i++) {
+            int high = Character.digit(identifier.charAt(2 * i), 16);
+            int low = Character.digit(identifier.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0
+                    || Character.isUpperCase(identifier.charAt(2 * i))
+                    || Character.isUpperCase(identifier.charAt(2 * i + 1))) {
+                return null;
+            }
+            key[i] = (byte) ((high << 4) | low);
+        }
+        if (width == 0) {
+            width = key.length;
+            table = new byte[INITIAL_CAPACITY * width];
+            used = new boolean[INITIAL_CAPACITY];
+        }
+        return key;
+    }
+
+    private String toIdentifier(int slot) {
+        char[] chars = new char[width * 2];
+        for (int i = 0; i < width; i++) {
+            int b = table[slot * width + i] & 0xff;
+            chars[2 * i] = HEX[b >> 4];
+            chars[2 * i + 1] = HEX[b & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the slot of the given key, or the free slot where it is to
+     * be added.
+     */
+    private int find(byte[] table, boolean[] used, byte[] key) {
+        int hash = 0;
+        for (byte b : key) {
+            hash = 31 * hash + b;
+        }
+        int slot = (hash & 0x7fffffff) % used.length;
+        while (used[slot] && !matches(table, slot, key)) {
+            slot = (slot + 1) % used.length;
+        }
+        return slot;
+    }
+
+    private boolean matches(byte[] table, int slot, byte[] key) {
+        int offset = slot * width;
+        for (int i = 0; i < width; i++) {
+            if (table[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        byte[] newTable = new byte[capacity * width];
+        boolean[] newUsed = new boolean[capacity];
+        byte[] key = new byte[width];
+        for (int slot = 0; slot < used.length; slot++) {
+            if (used[slot]) {
+                System.arraycopy(table, slot * width, key, 0, width);
+                int newSlot = find(newTable, newUsed, key);
+                System.arraycopy(key, 0, newTable, newSlot * width, width);
+                newUsed[newSlot] = true;
+            }
+        }
+        table = newTable;
+        used = newUsed;
+    }
+
+}
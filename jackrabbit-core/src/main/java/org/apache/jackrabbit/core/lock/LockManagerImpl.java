@@ -23,9 +23,15 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.PropertyType;
@@ -83,11 +89,43 @@ public class LockManagerImpl
      */
     private static final String LOCKS_FILE = "locks";
 
+    /**
+     * Name of the lock journal file
+     */
+    private static final String JOURNAL_FILE = "locks.journal";
+
+    /**
+     * Name of the system property defining the number of journal records
+     * after which the locks file is rewritten. A value of zero or less
+     * disables the journal and rewrites the locks file upon every change.
+     */
+    private static final String JOURNAL_SIZE_PROPERTY =
+            "org.apache.jackrabbit.core.lock.LockManagerImpl.journalSize";
+
+    /**
+     * Default number of journal records after which the locks file is
+     * rewritten.
+     */
+    private static final int DEFAULT_JOURNAL_SIZE = 1000;
+
     /**
      * Path map containing all locks at the leaves.
      */
     private final PathMap<LockInfo> lockMap = new PathMap<LockInfo>();
 
+    /**
+     * All locks contained in the path map, indexed by the identifier of the
+     * locked node. Modified together with the path map while holding the
+     * lock on it, but read without doing so.
+     */
+    private final ConcurrentMap<NodeId, LockInfo> lockIndex =
+            new ConcurrentHashMap<NodeId, LockInfo>();
+
+    /**
+     * Number of deep locks contained in the index.
+     */
+    private final AtomicInteger deepLocks = new AtomicInteger();
+
     /**
      * XA/Thread aware lock to path map.
      */
@@ -113,6 +151,22 @@ public class LockManagerImpl
      */
     private final FileSystemResource locksFile;
 
+    /**
+     * Journal of the open-scoped locks added and removed since the locks
+     * file has last been written.
+     */
+    private final FileSystemResource journalFile;
+
+    /**
+     * Records of the journal, the journal file is written from.
+     */
+    private final List<String> journal = new ArrayList<String>();
+
+    /**
+     * Number of journal records after which the locks file is rewritten.
+     */
+    private final int journalSize;
+
     /**
      * Flag indicating whether automatic saving is disabled.
      */
@@ -137,13 +191,15 @@ public class LockManagerImpl
 
         this.sysSession = session;
         this.locksFile = new FileSystemResource(fs, FileSystem.SEPARATOR + LOCKS_FILE);
+        this.journalFile = new FileSystemResource(fs, FileSystem.SEPARATOR + JOURNAL_FILE);
+        this.journalSize = Integer.getInteger(JOURNAL_SIZE_PROPERTY, DEFAULT_JOURNAL_SIZE);
 
         session.getWorkspace().getObservationManager().
                 addEventListener(this, Event.NODE_ADDED | Event.NODE_REMOVED,
                         "/", true, null, null, true);
 
         try {
-            if (locksFile.exists()) {
+            if (locksFile.exists() || journalFile.exists()) {
                 load();
             }
         } catch (FileSystemException e) {
@@ -171,18 +227,15 @@ public class LockManagerImpl
      *      JSR 283: Locking
      */
     private class TimeoutHandler implements Runnable {
-        private final TimeoutHandlerVisitor visitor = new TimeoutHandlerVisitor();
 
         public void run() {
-            lockMap.traverse(visitor, false);
+            for (LockInfo info : lockIndex.values()) {
+                expire(info);
+            }
         }
-    }
 
-    private class TimeoutHandlerVisitor implements
-            PathMap.ElementVisitor<LockInfo> {
-        public void elementVisited(PathMap.Element<LockInfo> element) {
-            LockInfo info = element.get();
-            if (info != null && info.isLive() && info.isExpired()) {
+        private void expire(LockInfo info) {
+            if (info.isLive() && info.isExpired()) {
                 NodeId id = info.getId();
                 SessionImpl holder = info.getLockHolder();
                 if (holder == null) {
@@ -201,26 +254,87 @@ public class LockManagerImpl
     }
 
     /**
-     * Read locks from locks file and populate path map
+     * Read locks from locks file, replay the journal and populate path map.
+     * A replayed journal is merged into the locks file.
      */
     private void load() throws FileSystemException {
+        Map<String, String> lines = new LinkedHashMap<String, String>();
+        if (locksFile.exists()) {
+            for (String s : readLines(locksFile)) {
+                lines.put(getToken(s), s);
+            }
+        }
+        boolean replayed = false;
+        if (journalFile.exists()) {
+            for (String s : readLines(journalFile)) {
+                if (s.startsWith("+")) {
+                    lines.put(getToken(s.substring(1)), s.substring(1));
+                } else if (s.startsWith("-")) {
+                    lines.remove(s.substring(1));
+                } else {
+                    log.warn("Ignoring malformed lock journal record: " + s);
+                }
+            }
+            replayed = true;
+        }
+        for (String s : lines.values()) {
+            reapplyLock(s);
+        }
+        if (replayed) {
+            acquire();
+            try {
+                save();
+            } finally {
+                release();
+            }
+        }
+    }
+
+    /**
+     * Read the lines of the given file up to the first empty one.
+     */
+    private static List<String> readLines(FileSystemResource file)
+            throws FileSystemException {
+        List<String> lines = new ArrayList<String>();
         BufferedReader reader = null;
 
         try {
             reader = new BufferedReader(
-                    new InputStreamReader(locksFile.getInputStream()));
+                    new InputStreamReader(file.getInputStream()));
             while (true) {
                 String s = reader.readLine();
                 if (s == null || s.equals("")) {
                     break;
                 }
-                reapplyLock(s);
+                lines.add(s);
             }
         } catch (IOException e) {
             throw new FileSystemException("error while reading locks file", e);
         } finally {
             IOUtils.closeQuietly(reader);
         }
+        return lines;
+    }
+
+    /**
+     * Return the lock token of a line of the locks file.
+     */
+    private static String getToken(String lockTokenLine) {
+        int index = lockTokenLine.indexOf(',');
+        return (index == -1) ? lockTokenLine : lockTokenLine.substring(0, index);
+    }
+
+    /**
+     * Return the line of the locks file representing a lock.
+     */
+    private static String getLine(LockInfo info) {
+        String line = info.getLockToken();
+
+        // Store the timeout hint, if one is specified
+        if (info.getTimeoutHint() != Long.MAX_VALUE) {
+            line += "," + info.getTimeoutHint();
+        }
+        return line;
     }
 
     /**
@@ -255,6 +369,7 @@ public class LockManagerImpl
                     timeoutHint);
             info.setLive(true);
             lockMap.put(path, info);
+            index(info);
         } catch (RepositoryException e) {
             log.warn("Unable to recreate lock '" + token + "': " + e.getMessage());
             log.debug("Root cause: ", e);
@@ -264,52 +379,112 @@ public class LockManagerImpl
     }
 
     /**
-     * Write locks to locks file
+     * Write locks to locks file and discard the journal
      */
     private void save() {
         if (savingDisabled) {
             return;
         }
 
-        final ArrayList<LockInfo> list = new ArrayList<LockInfo>();
+        final ArrayList<String> list = new ArrayList<String>();
+        for (LockInfo info : lockIndex.values()) {
+            if (!info.isSessionScoped()) {
+                list.add(getLine(info));
+            }
+        }
 
-        lockMap.traverse(new PathMap.ElementVisitor<LockInfo>() {
-            public void elementVisited(PathMap.Element<LockInfo> element) {
-                LockInfo info = element.get();
-                if (!info.isSessionScoped()) {
-                    list.add(info);
+        if (write(locksFile, list)) {
+            journal.clear();
+            try {
+                if (journalFile.exists()) {
+                    journalFile.delete();
                 }
+            } catch (FileSystemException fse) {
+                log.warn("I/O error while deleting lock journal '"
+                        + journalFile.getPath() + "': " + fse.getMessage());
+                log.debug("Root cause: ", fse);
             }
-        }, false);
+        }
+    }
 
+    /**
+     * Record an added or removed open-scoped lock in the journal. Rewrites
+     * the locks file instead once the journal has reached its maximum size.
+     *
+     * @param info lock info
+     * @param added whether the lock has been added or removed
+     */
+    private void journal(LockInfo info, boolean added) {
+        journal.add(added ? "+" + getLine(info) : "-" + info.getLockToken());
+        flush();
+    }
 
+    /**
+     * Write the journal file, or the locks file if the journal has reached
+     * its maximum size.
+     */
+    private void flush() {
+        if (savingDisabled || journal.isEmpty()) {
+            return;
+        }
+        if (journal.size() >= journalSize) {
+            save();
+        } else {
+            write(journalFile, journal);
+        }
+    }
+
+    /**
+     * Write lines to a file.
+     *
+     * @return <code>true</code> if the file has been written
+     */
+    private boolean write(FileSystemResource file, List<String> lines) {
         BufferedWriter writer = null;
 
         try {
             writer = new BufferedWriter(
-                    new OutputStreamWriter(locksFile.getOutputStream()));
-            for (LockInfo info : list) {
-                writer.write(info.getLockToken());
-
-                // Store the timeout hint, if one is specified
-                if (info.getTimeoutHint() != Long.MAX_VALUE) {
-                    writer.write(',');
-                    writer.write(Long.toString(info.getTimeoutHint()));
-                }
-
+                    new OutputStreamWriter(file.getOutputStream()));
+            for (String line : lines) {
+                writer.write(line);
                 writer.newLine();
             }
+            writer.close();
+            return true;
         } catch (FileSystemException fse) {
             log.warn("I/O error while saving locks to '"
-                    + locksFile.getPath() + "': " + fse.getMessage());
+                    + file.getPath() + "': " + fse.getMessage());
             log.debug("Root cause: ", fse);
         } catch (IOException ioe) {
             log.warn("I/O error while saving locks to '"
-                    + locksFile.getPath() + "': " + ioe.getMessage());
+                    + file.getPath() + "': " + ioe.getMessage());
             log.debug("Root cause: ", ioe);
         } finally {
             IOUtils.closeQuietly(writer);
         }
+        return false;
+    }
+
+    /**
+     * Add a lock contained in the path map to the index.
+     */
+    private void index(LockInfo info) {
+        LockInfo previous = lockIndex.put(info.getId(), info);
+        if (previous != null && previous.isDeep()) {
+            deepLocks.decrementAndGet();
+        }
+        if (info.isDeep()) {
+            deepLocks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove a lock no longer contained in the path map from the index.
+     */
+    private void unindex(LockInfo info) {
+        if (lockIndex.remove(info.getId(), info) && info.isDeep()) {
+            deepLocks.decrementAndGet();
+        }
     }
 
     static SessionLockManager getSessionLockManager(SessionImpl session) throws RepositoryException {
@@ -378,9 +553,10 @@ public class LockManagerImpl
                 getSessionLockManager(session).lockTokenAdded(info.getLockToken());
             }
             lockMap.put(path, info);
+            index(info);
 
             if (!info.isSessionScoped()) {
-                save();
+                journal(info, true);
                 successful = true;
             }
             return info;
@@ -429,9 +605,10 @@ public class LockManagerImpl
 
             element.set(null);
             info.setLive(false);
+            unindex(info);
 
             if (!info.isSessionScoped()) {
-                save();
+                journal(info, false);
                 successful = true;
             }
             return true;
@@ -450,16 +627,13 @@ public class LockManagerImpl
      * @param session session
      * @return an array of <code>AbstractLockInfo</code>s
      */
-    LockInfo[] getLockInfos(final SessionImpl session) {
-        final ArrayList<LockInfo> infos = new ArrayList<LockInfo>();
-        lockMap.traverse(new PathMap.ElementVisitor<LockInfo>() {
-            public void elementVisited(PathMap.Element<LockInfo> element) {
-                LockInfo info = element.get();
-                if (info.isLive() && info.isLockHolder(session)) {
-                    infos.add(info);
-                }
+    LockInfo[] getLockInfos(SessionImpl session) {
+        ArrayList<LockInfo> infos = new ArrayList<LockInfo>();
+        for (LockInfo info : lockIndex.values()) {
+            if (info.isLive() && info.isLockHolder(session)) {
+                infos.add(info);
             }
-        }, false);
+        }
         return infos.toArray(new LockInfo[infos.size()]);
     }
 
@@ -479,6 +653,7 @@ public class LockManagerImpl
                 if (info.isLive() && !info.isSessionScoped()) {
                     try {
                         lockMap.put(element.getPath(), info);
+                        index(info);
                     } catch (MalformedPathException e) {
                         log.warn("Ignoring invalid lock path: " + info, e);
                     }
@@ -495,6 +670,16 @@ public class LockManagerImpl
      * @throws RepositoryException if an error occurs
      */
     public LockInfo getLockInfo(NodeId id) throws RepositoryException {
+        if (lockIndex.isEmpty()) {
+            return null;
+        }
+        LockInfo direct = lockIndex.get(id);
+        if (direct != null) {
+            return direct;
+        } else if (deepLocks.get() == 0) {
+            return null;
+        }
+
         Path path;
         try {
             path = getPath(sysSession, id);
@@ -541,6 +726,13 @@ public class LockManagerImpl
     public Lock getLock(NodeImpl node)
             throws LockException, RepositoryException {
 
+        LockInfo direct = lockIndex.get(node.getNodeId());
+        if (direct != null) {
+            return new LockImpl(direct, node);
+        } else if (deepLocks.get() == 0) {
+            throw new LockException("Node not locked: " + node);
+        }
+
         acquire();
 
         try {
@@ -601,27 +793,19 @@ public class LockManagerImpl
      * {@inheritDoc}
      */
     public boolean holdsLock(NodeImpl node) throws RepositoryException {
-        acquire();
-
-        try {
-            SessionImpl session = (SessionImpl) node.getSession();
-            PathMap.Element<LockInfo> element =
-                lockMap.map(getPath(session, node.getId()), true);
-            if (element == null) {
-                return false;
-            }
-            return element.get() != null;
-        } catch (ItemNotFoundException e) {
-            return false;
-        } finally {
-            release();
-        }
+        return lockIndex.containsKey(node.getNodeId());
     }
 
     /**
      * {@inheritDoc}
      */
     public boolean isLocked(NodeImpl node) throws RepositoryException {
+        if (lockIndex.containsKey(node.getNodeId())) {
+            return true;
+        } else if (deepLocks.get() == 0) {
+            return false;
+        }
+
         acquire();
 
         try {
@@ -652,7 +836,12 @@ public class LockManagerImpl
             throws LockException, RepositoryException {
 
         SessionImpl session = (SessionImpl) node.getSession();
-        checkLock(getPath(session, node.getId()), session);
+        LockInfo direct = lockIndex.get(node.getNodeId());
+        if (direct != null) {
+            checkLock(direct, session);
+        } else if (deepLocks.get() > 0) {
+            checkLock(getPath(session, node.getId()), session);
+        }
     }
 
     /**
@@ -661,6 +850,10 @@ public class LockManagerImpl
     public void checkLock(Path path, Session session)
             throws LockException, RepositoryException {
 
+        if (lockIndex.isEmpty()) {
+            return;
+        }
+
         acquire();
         try {
             PathMap.Element<LockInfo> element = lockMap.map(path, false);
@@ -880,7 +1073,7 @@ public class LockManagerImpl
      */
     public void endUpdate() {
         savingDisabled = false;
-        save();
+        flush();
         release();
     }
 
@@ -1154,7 +1347,6 @@ public class LockManagerImpl
      */
     private void refresh(PathMap.Element<LockInfo> element) {
         final ArrayList<LockInfo> infos = new ArrayList<LockInfo>();
-        boolean needsSave = false;
 
         // save away non-empty children
         element.traverse(new PathMap.ElementVisitor<LockInfo>() {
@@ -1178,18 +1370,14 @@ public class LockManagerImpl
                 lockMap.put(node.getPrimaryPath(), info);
             } catch (RepositoryException e) {
                 info.setLive(false);
+                unindex(info);
                 if (!info.isSessionScoped()) {
-                    needsSave = true;
+                    journal(info, false);
                 }
             } finally {
             	release();
             }
         }
-
-        // save if required
-        if (needsSave) {
-            save();
-        }
     }
 
     /**
@@ -1355,8 +1543,9 @@ public class LockManagerImpl
                     nodeId, false, isDeep, lockOwner, Long.MAX_VALUE);
             info.setLive(true);
             lockMap.put(path, info);
+            index(info);
 
-            save();
+            journal(info, true);
         } finally {
             release();
         }
@@ -1380,8 +1569,9 @@ public class LockManagerImpl
             }
             element.set(null);
             info.setLive(false);
+            unindex(info);
 
-            save();
+            journal(info, false);
 
         } finally {
             release();
@@ -19,16 +19,16 @@ package org.apache.jackrabbit.core.nodetype;
 import org.apache.jackrabbit.core.nodetype.EffectiveNodeTypeCache.Key;
 import org.apache.jackrabbit.spi.Name;
 
-import java.util.TreeSet;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.ArrayList;
-
-import EDU.oswego.cs.dl.util.concurrent.ConcurrentReaderHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * Implements an effective node type cache that uses a bit set for storing the
  * information about participating node types in a set.
+ * <p>
+ * Lookups do not lock; modifications are synchronized by the node type
+ * registry.
  */
 public class BitSetENTCacheImpl implements EffectiveNodeTypeCache {
 
@@ -50,12 +50,12 @@ public class BitSetENTCacheImpl implements EffectiveNodeTypeCache {
     /**
      * An ordered set of the keys. This is used for {@link #findBest(Key)}.
      */
-    private final TreeSet<Key> sortedKeys;
+    private final ConcurrentSkipListSet<Key> sortedKeys;
 
     /**
      * cache of pre-built aggregations of node types
      */
-    private final HashMap<Key, EffectiveNodeType> aggregates;
+    private final ConcurrentHashMap<Key, EffectiveNodeType> aggregates;
 
     /**
      * A lookup table for bit numbers for a given name.
@@ -64,19 +64,20 @@ public class BitSetENTCacheImpl implements EffectiveNodeTypeCache {
      * be stored in the node type registry since only registered node type names
      * are allowed in the keys.
      */
-    private final ConcurrentReaderHashMap nameIndex = new ConcurrentReaderHashMap();
+    private final ConcurrentHashMap<Name, Integer> nameIndex =
+            new ConcurrentHashMap<Name, Integer>();
 
     /**
      * The reverse lookup table for bit numbers to names
      */
-    private Name[] names = new Name[1024];
+    private volatile Name[] names = new Name[1024];
 
     /**
      * Creates a new bitset effective node type cache
      */
     BitSetENTCacheImpl() {
-        sortedKeys = new TreeSet<Key>();
-        aggregates = new HashMap<Key, EffectiveNodeType>();
+        sortedKeys = new ConcurrentSkipListSet<Key>();
+        aggregates = new ConcurrentHashMap<Key, EffectiveNodeType>();
     }
 
     /**
@@ -109,9 +110,7 @@ public class BitSetENTCacheImpl implements EffectiveNodeTypeCache {
         if (contains(key)) {
             return key;
         }
-        // clone TreeSet first to prevent ConcurrentModificationException
-        TreeSet<Key> keys = (TreeSet<Key>) sortedKeys.clone();
-        Iterator<Key> iter = keys.iterator();
+        Iterator<Key> iter = sortedKeys.iterator();
         while (iter.hasNext()) {
             Key k = iter.next();
             if (key.contains(k)) {
@@ -127,13 +126,10 @@ public class BitSetENTCacheImpl implements EffectiveNodeTypeCache {
     public void invalidate(Name name) {
         /**
          * remove all affected effective node types from aggregates cache
-         * (copy keys first to prevent ConcurrentModificationException)
          */
-        ArrayList<Key> keys = new ArrayList<Key>(aggregates.keySet());
-        for (Iterator<Key> keysIter = keys.iterator(); keysIter.hasNext();) {
-            Key k = keysIter.next();
+        for (Key k : aggregates.keySet()) {
             EffectiveNodeType ent = get(k);
-            if (ent.includesNodeType(name)) {
+            if (ent != null && ent.includesNodeType(name)) {
                 remove(k);
             }
         }
@@ -161,24 +157,27 @@ public class BitSetENTCacheImpl implements EffectiveNodeTypeCache {
      * @return the bit number for the given name
      */
     private int getBitNumber(Name name) {
-        Integer i = (Integer) nameIndex.get(name);
+        Integer i = nameIndex.get(name);
         if (i == null) {
             synchronized (nameIndex) {
-                i = (Integer) nameIndex.get(name);
+                i = nameIndex.get(name);
                 if (i == null) {
                     int idx = nameIndex.size();
-                    i = new Integer(idx);
-                    nameIndex.put(name, i);
-                    if (idx >= names.length) {
-                        Name[] newNames = new Name[names.length * 2];
-                        System.arraycopy(names, 0, newNames, 0, names.length);
-                        names = newNames;
+                    i = idx;
+                    Name[] n = names;
+                    if (idx >= n.length) {
+                        Name[] newNames = new Name[n.length * 2];
+                        System.arraycopy(n, 0, newNames, 0, n.length);
+                        n = newNames;
                     }
-                    names[idx] = name;
+                    n[idx] = name;
+                    // publish the name before its bit number
+                    names = n;
+                    nameIndex.put(name, i);
                 }
             }
         }
-        return i.intValue();
+        return i;
     }
 
     /**
@@ -265,10 +264,15 @@ public class BitSetENTCacheImpl implements EffectiveNodeTypeCache {
          */
         public BitSetKey(Name[] names, int maxBit) {
             this.names = names;
+            // names may be added concurrently, so size by the actual bits
+            int[] numbers = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                numbers[i] = getBitNumber(names[i]);
+                maxBit = Math.max(maxBit, numbers[i]);
+            }
             bits = new long[maxBit / BPW + 1];
 
-            for (int i = 0; i < names.length; i++) {
-                int n = getBitNumber(names[i]);
+            for (int n : numbers) {
                 bits[n / BPW] |= OR_MASK[n % BPW];
             }
             hashCode = calcHashCode();
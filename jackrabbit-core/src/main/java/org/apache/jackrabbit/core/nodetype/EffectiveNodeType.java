@@ -49,6 +49,11 @@ import java.util.HashSet;
 public class EffectiveNodeType implements Cloneable {
     private static Logger log = LoggerFactory.getLogger(EffectiveNodeType.class);
 
+    /**
+     * Number of property types, used to index the property definition tables.
+     */
+    private static final int TYPE_COUNT = PropertyType.DECIMAL + 1;
+
     // list of explicitly aggregated {i.e. merged) node types
     private final TreeSet<Name> mergedNodeTypes;
     // list of implicitly aggregated {through inheritance) node types
@@ -66,6 +71,9 @@ public class EffectiveNodeType implements Cloneable {
 
     private Name primaryItemName;
 
+    // lookup tables for the item definitions, built on first use
+    private volatile DefinitionLookup lookup;
+
     /**
      * private constructor.
      */
@@ -699,14 +707,26 @@ public class EffectiveNodeType implements Cloneable {
             entTarget = null;
         }
 
+        DefinitionLookup lookup = getLookup();
+        if (entTarget == null) {
+            // the definition only depends on the name
+            QNodeDefinition nd = lookup.defaultNodeDefs.get(name);
+            if (nd == null) {
+                nd = lookup.residualDefaultNodeDef;
+            }
+            if (nd != null) {
+                return nd;
+            }
+            throw new ConstraintViolationException("no matching child node definition found for " + name);
+        }
+
         // try named node definitions first
-        QItemDefinition[] defs = getNamedItemDefs(name);
-        for (QItemDefinition def : defs) {
-            if (def.definesNode()) {
-                QNodeDefinition nd = (QNodeDefinition) def;
+        QNodeDefinition[] defs = lookup.namedNodeDefs.get(name);
+        if (defs != null) {
+            for (QNodeDefinition nd : defs) {
                 Name[] types = nd.getRequiredPrimaryTypes();
                 // node definition with that name exists
-                if (entTarget != null && types != null) {
+                if (types != null) {
                     // check 'required primary types' constraint
                     if (entTarget.includesNodeTypes(types)) {
                         // found named node definition
@@ -721,7 +741,7 @@ public class EffectiveNodeType implements Cloneable {
 
         // no item with that name defined;
         // try residual node definitions
-        QNodeDefinition[] nda = getUnnamedNodeDefs();
+        QNodeDefinition[] nda = lookup.unnamedNodeDefs;
         for (QNodeDefinition nd : nda) {
             if (entTarget != null && nd.getRequiredPrimaryTypes() != null) {
                 // check 'required primary types' constraint
@@ -764,6 +784,15 @@ public class EffectiveNodeType implements Cloneable {
     public QPropertyDefinition getApplicablePropertyDef(Name name, int type,
                                             boolean multiValued)
             throws ConstraintViolationException {
+        if (type >= 0 && type < TYPE_COUNT) {
+            QPropertyDefinition match =
+                    getLookup().getPropDef(name, type * 3 + (multiValued ? 1 : 0));
+            if (match != null) {
+                return match;
+            }
+            throw new ConstraintViolationException("no matching property definition found for " + name);
+        }
+
         // try named property definitions first
         QPropertyDefinition match =
                 getMatchingPropDef(getNamedPropDefs(name), type, multiValued);
@@ -805,6 +834,14 @@ public class EffectiveNodeType implements Cloneable {
      */
     public QPropertyDefinition getApplicablePropertyDef(Name name, int type)
             throws ConstraintViolationException {
+        if (type >= 0 && type < TYPE_COUNT) {
+            QPropertyDefinition match = getLookup().getPropDef(name, type * 3 + 2);
+            if (match != null) {
+                return match;
+            }
+            throw new ConstraintViolationException("no matching property definition found for " + name);
+        }
+
         // try named property definitions first
         QPropertyDefinition match = getMatchingPropDef(getNamedPropDefs(name), type);
         if (match != null) {
@@ -822,7 +859,7 @@ public class EffectiveNodeType implements Cloneable {
         throw new ConstraintViolationException("no matching property definition found for " + name);
     }
 
-    private QPropertyDefinition getMatchingPropDef(QPropertyDefinition[] defs, int type) {
+    private static QPropertyDefinition getMatchingPropDef(QPropertyDefinition[] defs, int type) {
         QPropertyDefinition match = null;
         for (QPropertyDefinition pd : defs) {
             int reqType = pd.getRequiredType();
@@ -857,8 +894,8 @@ public class EffectiveNodeType implements Cloneable {
         return match;
     }
 
-    private QPropertyDefinition getMatchingPropDef(QPropertyDefinition[] defs, int type,
-                                       boolean multiValued) {
+    private static QPropertyDefinition getMatchingPropDef(QPropertyDefinition[] defs, int type,
+                                                          boolean multiValued) {
         QPropertyDefinition match = null;
         for (QPropertyDefinition pd : defs) {
             int reqType = pd.getRequiredType();
@@ -983,6 +1020,7 @@ public class EffectiveNodeType implements Cloneable {
      */
     private synchronized void internalMerge(EffectiveNodeType other, boolean supertype)
             throws NodeTypeConflictException {
+        lookup = null;
         Name[] nta = other.getAllNodeTypes();
         int includedCount = 0;
         for (Name aNta : nta) {
@@ -1161,4 +1199,103 @@ public class EffectiveNodeType implements Cloneable {
         clone.primaryItemName = primaryItemName;
         return clone;
     }
+
+    /**
+     * Returns the lookup tables for the item definitions of this effective
+     * node type. The tables are built on first use; since the instance is
+     * immutable once published, concurrent builds yield equal tables.
+     *
+     * @return the lookup tables
+     */
+    private DefinitionLookup getLookup() {
+        DefinitionLookup l = lookup;
+        if (l == null) {
+            l = new DefinitionLookup(this);
+            lookup = l;
+        }
+        return l;
+    }
+
+    /**
+     * Precomputed item definitions of an effective node type. The property
+     * definition tables hold the result of the matching rules for every
+     * property type, at index <code>type * 3</code> for single-valued,
+     * <code>type * 3 + 1</code> for multi-valued properties and
+     * <code>type * 3 + 2</code> if the multiValued flag is not taken into
+     * account.
+     */
+    private static final class DefinitionLookup {
+
+        private final Map<Name, QNodeDefinition[]> namedNodeDefs =
+                new HashMap<Name, QNodeDefinition[]>();
+
+        private final QNodeDefinition[] unnamedNodeDefs;
+
+        // named node definitions with a default primary type
+        private final Map<Name, QNodeDefinition> defaultNodeDefs =
+                new HashMap<Name, QNodeDefinition>();
+
+        // first residual node definition with a default primary type
+        private final QNodeDefinition residualDefaultNodeDef;
+
+        private final Map<Name, QPropertyDefinition[]> namedPropDefs =
+                new HashMap<Name, QPropertyDefinition[]>();
+
+        private final QPropertyDefinition[] residualPropDefs;
+
+        private DefinitionLookup(EffectiveNodeType ent) {
+            for (Name name : ent.namedItemDefs.keySet()) {
+                QNodeDefinition[] nda = ent.getNamedNodeDefs(name);
+                if (nda.length > 0) {
+                    namedNodeDefs.put(name, nda);
+                    QNodeDefinition nd = getDefaultNodeDef(nda);
+                    if (nd != null) {
+                        defaultNodeDefs.put(name, nd);
+                    }
+                }
+                QPropertyDefinition[] pda = ent.getNamedPropDefs(name);
+                if (pda.length > 0) {
+                    namedPropDefs.put(name, getPropDefTable(pda));
+                }
+            }
+            unnamedNodeDefs = ent.getUnnamedNodeDefs();
+            residualDefaultNodeDef = getDefaultNodeDef(unnamedNodeDefs);
+            residualPropDefs = getPropDefTable(ent.getUnnamedPropDefs());
+        }
+
+        private static QNodeDefinition getDefaultNodeDef(QNodeDefinition[] defs) {
+            for (QNodeDefinition nd : defs) {
+                if (nd.getDefaultPrimaryType() != null) {
+                    return nd;
+                }
+            }
+            return null;
+        }
+
+        private static QPropertyDefinition[] getPropDefTable(QPropertyDefinition[] defs) {
+            QPropertyDefinition[] table = new QPropertyDefinition[TYPE_COUNT * 3];
+            for (int type = 0; type < TYPE_COUNT; type++) {
+                table[type * 3] = getMatchingPropDef(defs, type, false);
+                table[type * 3 + 1] = getMatchingPropDef(defs, type, true);
+                table[type * 3 + 2] = getMatchingPropDef(defs, type);
+            }
+            return table;
+        }
+
+        /**
+         * Returns the applicable property definition, named definitions
+         * taking precedence over residual ones.
+         *
+         * @param name property name
+         * @param index index in the property definition tables
+         * @return the definition, or <code>null</code> if none applies
+         */
+        private QPropertyDefinition getPropDef(Name name, int index) {
+            QPropertyDefinition[] table = namedPropDefs.get(name);
+            if (table != null && table[index] != null) {
+                return table[index];
+            }
+            return residualPropDefs[index];
+        }
+    }
 }
@@ -20,35 +20,37 @@ import org.apache.jackrabbit.spi.Name;
 
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * <code>EffectiveNodeTypeCache</code> implementation that uses an array of
  * node type names as key for caching the effective node types.
+ * <p>
+ * Lookups do not lock; modifications are synchronized by the node type
+ * registry.
  */
 public class EffectiveNodeTypeCacheImpl implements EffectiveNodeTypeCache {
 
     /**
      * ordered set of keys
      */
-    private final TreeSet<Key> sortedKeys;
+    private final ConcurrentSkipListSet<Key> sortedKeys;
 
     /**
      * cache of pre-built aggregations of node types
      */
-    private final HashMap<Key, EffectiveNodeType> aggregates;
+    private final ConcurrentHashMap<Key, EffectiveNodeType> aggregates;
 
     /**
      * Creates a new effective node type cache.
      */
     EffectiveNodeTypeCacheImpl() {
-        sortedKeys = new TreeSet<Key>();
-        aggregates = new HashMap<Key, EffectiveNodeType>();
+        sortedKeys = new ConcurrentSkipListSet<Key>();
+        aggregates = new ConcurrentHashMap<Key, EffectiveNodeType>();
     }
 
     /**
@@ -125,12 +127,9 @@ public class EffectiveNodeTypeCacheImpl implements EffectiveNodeTypeCache {
      */
     public void invalidate(Name name) {
         // remove all affected effective node types from aggregates cache
-        // (copy keys first to prevent ConcurrentModificationException)
-        ArrayList<Key> keys = new ArrayList<Key>(sortedKeys);
-        for (Iterator<Key> keysIter = keys.iterator(); keysIter.hasNext();) {
-            Key k = keysIter.next();
+        for (Key k : sortedKeys) {
             EffectiveNodeType ent = get(k);
-            if (ent.includesNodeType(name)) {
+            if (ent != null && ent.includesNodeType(name)) {
                 remove(k);
             }
         }
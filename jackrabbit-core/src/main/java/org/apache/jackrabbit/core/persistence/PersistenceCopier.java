@@ -18,32 +18,67 @@ package org.apache.jackrabbit.core.persistence;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 
+import org.apache.jackrabbit.core.data.DataIdentifier;
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeReferences;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.PropertyState;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Tool for copying item states from one persistence manager to another.
  * Used for backing up or migrating repository content.
+ * <p>
+ * The {@link #copy(NodeId)} method copies a subtree node by node. If the
+ * source persistence manager is an {@link IterablePersistenceManager},
+ * the {@link #copyAll(int, int)} method can be used instead to copy all
+ * the nodes in batches of node ids that are copied by multiple threads.
+ * With a bundle persistence manager as the source, each node is then read
+ * together with its properties from a single bundle.
+ * <p>
+ * Binary values are not copied again if the target data store already
+ * contains a record with the same identifier, e.g. when the source and
+ * the target repository share the same data store.
  *
  * @since Apache Jackrabbit 1.6
  */
 public class PersistenceCopier {
 
+    /**
+     * Logger instance
+     */
+    private static final Logger log =
+        LoggerFactory.getLogger(PersistenceCopier.class);
+
     /**
      * Source persistence manager.
      */
@@ -67,6 +102,17 @@ public class PersistenceCopier {
      */
     private final Set<NodeId> exclude = new HashSet<NodeId>();
 
+    /**
+     * Identifiers of the roots of the subtrees copied by
+     * {@link #copyAll(int, int)}, or an empty set to copy all nodes.
+     */
+    private final Set<NodeId> include = new HashSet<NodeId>();
+
+    /**
+     * Number of nodes copied so far.
+     */
+    private final AtomicLong copied = new AtomicLong();
+
     /**
      * Creates a tool for copying content from one persistence manager
      * to another.
@@ -86,6 +132,7 @@ public class PersistenceCopier {
     /**
      * Explicitly exclude the identified node from being copied. Used for
      * excluding virtual nodes like "/jcr:system" from the copy process.
+     * The descendants of an excluded node are not copied either.
      *
      * @param id identifier of the node to be excluded
      */
@@ -93,6 +140,17 @@ public class PersistenceCopier {
         exclude.add(id);
     }
 
+    /**
+     * Limits {@link #copyAll(int, int)} to the subtree of the identified
+     * node and the subtrees of the other included nodes. By default all
+     * the nodes are copied.
+     *
+     * @param id identifier of the root of a subtree to be copied
+     */
+    public void includeNode(NodeId id) {
+        include.add(id);
+    }
+
     /**
      * Recursively copies the identified node and all its descendants.
      * Explicitly excluded nodes and nodes that have already been copied
@@ -118,6 +176,171 @@ public class PersistenceCopier {
         }
     }
 
+    /**
+     * Copies all the nodes of the source persistence manager, except the
+     * explicitly excluded ones. The node ids are read from the source in
+     * batches of the given size, and each batch is copied by one of the
+     * given number of threads and stored in the target persistence manager
+     * with a single change log.
+     * <p>
+     * Unlike {@link #copy(NodeId)}, this method also copies nodes that are
+     * not reachable from the root node. A node is skipped if it or one of
+     * its ancestors is excluded, or if it is not in the subtree of an
+     * {@link #includeNode(NodeId) included} node. The ancestors are read
+     * from the source while the batches are copied.
+     *
+     * @param threads number of copying threads
+     * @param batchSize number of nodes copied at once
+     * @throws RepositoryException if the source persistence manager can not
+     *                             be iterated or the copy operation fails
+     */
+    public void copyAll(int threads, int batchSize) throws RepositoryException {
+        if (!(source instanceof IterablePersistenceManager)) {
+            throw new RepositoryException(
+                    "Source persistence manager can not be iterated: " + source);
+        }
+        IterablePersistenceManager iterable = (IterablePersistenceManager) source;
+        threads = Math.max(1, threads);
+        batchSize = Math.max(1, batchSize);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> batches = new LinkedList<Future<Void>>();
+        try {
+            List<NodeId> ids = iterable.getAllNodeIds(null, batchSize);
+            while (!ids.isEmpty()) {
+                final List<NodeId> batch = ids;
+                batches.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws RepositoryException {
+                        copy(batch);
+                        return null;
+                    }
+                }));
+                // limit the number of batches held in memory
+                while (batches.size() > 2 * threads) {
+                    batches.remove(0).get();
+                }
+                ids = iterable.getAllNodeIds(ids.get(ids.size() - 1), batchSize);
+            }
+            while (!batches.isEmpty()) {
+                batches.remove(0).get();
+            }
+            log.info("Copied {} nodes", copied.get());
+        } catch (ItemStateException e) {
+            throw new RepositoryException("Unable to read node ids", e);
+        } catch (InterruptedException e) {
+            throw new RepositoryException("Copy operation interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new RepositoryException("Copy operation failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Checks whether a node with the given parent is copied by
+     * {@link #copyAll(int, int)}. The ancestors are read from the source
+     * until an excluded or included node, or the root, is reached.
+     * Ancestors that are not stored in the source, like the virtual
+     * "/jcr:system" node in a workspace, end the walk like the root.
+     *
+     * @param id identifier of the node
+     * @param parentId identifier of the parent node, or <code>null</code>
+     * @param ancestors ancestors whose outcome is already known
+     * @return whether the node is copied
+     * @throws ItemStateException if an ancestor can not be read
+     */
+    private boolean isIncluded(
+            NodeId id, NodeId parentId, Map<NodeId, Boolean> ancestors)
+            throws ItemStateException {
+        if (include.contains(id)) {
+            return true;
+        }
+        List<NodeId> path = new ArrayList<NodeId>();
+        NodeId current = parentId;
+        Boolean included = null;
+        while (included == null) {
+            if (current == null) {
+                included = include.isEmpty();
+            } else if (exclude.contains(current)) {
+                included = false;
+            } else if (include.contains(current)) {
+                included = true;
+            } else {
+                included = ancestors.get(current);
+                if (included == null) {
+                    path.add(current);
+                    if (source.exists(current)) {
+                        current = source.load(current).getParentId();
+                    } else {
+                        current = null;
+                    }
+                }
+            }
+        }
+        for (NodeId ancestor : path) {
+            ancestors.put(ancestor, included);
+        }
+        return included;
+    }
+
+    /**
+     * Returns the number of nodes copied so far.
+     *
+     * @return number of copied nodes
+     */
+    public long getCopiedNodes() {
+        return copied.get();
+    }
+
+    /**
+     * Copies the identified nodes and stores them in a single change log.
+     * Nodes that are excluded or not included are skipped.
+     *
+     * @param ids identifiers of the nodes to be copied
+     * @throws RepositoryException if the copy operation fails
+     */
+    private void copy(List<NodeId> ids) throws RepositoryException {
+        ChangeLog changes = new ChangeLog();
+        Map<NodeId, Boolean> ancestors = new HashMap<NodeId, Boolean>();
+        int count = 0;
+        for (NodeId id : ids) {
+            if (!exclude.contains(id)) {
+                try {
+                    NodeState node;
+                    NodePropBundle bundle = null;
+                    if (source instanceof AbstractBundlePersistenceManager) {
+                        bundle = ((AbstractBundlePersistenceManager) source).readBundle(id);
+                        if (bundle == null) {
+                            // removed since the ids were read
+                            continue;
+                        }
+                        node = bundle.createNodeState(source);
+                    } else {
+                        node = source.load(id);
+                    }
+                    if (!isIncluded(id, node.getParentId(), ancestors)) {
+                        continue;
+                    }
+                    copy(node, bundle, changes);
+                    count++;
+                } catch (ItemStateException e) {
+                    throw new RepositoryException("Unable to copy " + id, e);
+                }
+            }
+        }
+        try {
+            target.store(changes);
+        } catch (ItemStateException e) {
+            throw new RepositoryException(
+                    "Unable to store " + count + " nodes", e);
+        }
+        long total = copied.addAndGet(count);
+        log.debug("Copied {} nodes", total);
+    }
+
     /**
      * Copies the given node state and all associated property states
      * to the target persistence manager.
@@ -126,9 +349,30 @@ public class PersistenceCopier {
      * @throws RepositoryException if the copy operation fails
      */
     private void copy(NodeState sourceNode) throws RepositoryException {
+        ChangeLog changes = new ChangeLog();
+        copy(sourceNode, null, changes);
         try {
-            ChangeLog changes = new ChangeLog();
+            // Persist the copied states
+            target.store(changes);
+        } catch (ItemStateException e) {
+            throw new RepositoryException("Unable to copy " + sourceNode, e);
+        }
+        copied.incrementAndGet();
+    }
 
+    /**
+     * Copies the given node state and all associated property states
+     * to the given change log of the target persistence manager.
+     *
+     * @param sourceNode source node state
+     * @param bundle bundle of the source node to read the properties from,
+     *               or <code>null</code> to load them from the source
+     * @param changes change log of the target persistence manager
+     * @throws RepositoryException if the copy operation fails
+     */
+    private void copy(NodeState sourceNode, NodePropBundle bundle,
+                      ChangeLog changes) throws RepositoryException {
+        try {
             // Copy the node state
             NodeState targetNode = target.createNew(sourceNode.getNodeId());
             targetNode.setParentId(sourceNode.getParentId());
@@ -136,7 +380,9 @@ public class PersistenceCopier {
             targetNode.setMixinTypeNames(sourceNode.getMixinTypeNames());
             targetNode.setPropertyNames(sourceNode.getPropertyNames());
             targetNode.setChildNodeEntries(sourceNode.getChildNodeEntries());
-            if (target.exists(targetNode.getNodeId())) {
+            // properties of a new node can not exist in the target yet
+            boolean exists = target.exists(targetNode.getNodeId());
+            if (exists) {
                 changes.modified(targetNode);
             } else {
                 changes.added(targetNode);
@@ -145,26 +391,29 @@ public class PersistenceCopier {
             // Copy all associated property states
             for (Name name : sourceNode.getPropertyNames()) {
                 PropertyId id = new PropertyId(sourceNode.getNodeId(), name);
-                PropertyState sourceState = source.load(id);
                 PropertyState targetState = target.createNew(id);
-                targetState.setType(sourceState.getType());
-                targetState.setMultiValued(sourceState.isMultiValued());
-                InternalValue[] values = sourceState.getValues();
+                InternalValue[] values;
+                if (bundle != null) {
+                    values = readProperty(bundle, targetState);
+                } else {
+                    PropertyState sourceState = source.load(id);
+                    targetState.setType(sourceState.getType());
+                    targetState.setMultiValued(sourceState.isMultiValued());
+                    values = sourceState.getValues();
+                }
 
                 // special case copy of binary values
-                if (sourceState.getType() == PropertyType.BINARY) {
+                if (targetState.getType() == PropertyType.BINARY) {
                     InternalValue[] convertedValues = new InternalValue[values.length];
                     for (int i = 0; i < values.length; i++) {
-                        try (InputStream stream = values[i].getStream()) {
-                            convertedValues[i] = InternalValue.create(stream, store);
-                        }
+                        convertedValues[i] = copyBinary(values[i]);
                     }
                     targetState.setValues(convertedValues);
                 } else {
                     targetState.setValues(values);
                 }
 
-                if (target.exists(targetState.getPropertyId())) {
+                if (exists && target.exists(targetState.getPropertyId())) {
                     changes.modified(targetState);
                 } else {
                     changes.added(targetState);
@@ -180,9 +429,6 @@ public class PersistenceCopier {
                 references.clearAllReferences();
                 changes.modified(references);
             }
-
-            // Persist the copied states
-            target.store(changes);
         } catch (IOException e) {
             throw new RepositoryException(
                     "Unable to copy binary values of " + sourceNode, e);
@@ -191,4 +437,67 @@ public class PersistenceCopier {
         }
     }
 
+    /**
+     * Reads the type and values of a property from the bundle of its node,
+     * like {@link AbstractBundlePersistenceManager#load(PropertyId)} does.
+     * The type is set on the given property state.
+     *
+     * @param bundle bundle of the source node
+     * @param state property state whose type is set
+     * @return values of the property
+     * @throws NoSuchItemStateException if the bundle has no such property
+     */
+    private static InternalValue[] readProperty(
+            NodePropBundle bundle, PropertyState state)
+            throws NoSuchItemStateException {
+        Name name = state.getName();
+        NodePropBundle.PropertyEntry entry = bundle.getPropertyEntry(name);
+        if (entry != null) {
+            state.setType(entry.getType());
+            state.setMultiValued(entry.isMultiValued());
+            return entry.getValues();
+        } else if (name.equals(NameConstants.JCR_UUID)) {
+            state.setType(PropertyType.STRING);
+            state.setMultiValued(false);
+            return new InternalValue[] {
+                    InternalValue.create(bundle.getId().toString()) };
+        } else if (name.equals(NameConstants.JCR_PRIMARYTYPE)) {
+            state.setType(PropertyType.NAME);
+            state.setMultiValued(false);
+            return new InternalValue[] {
+                    InternalValue.create(bundle.getNodeTypeName()) };
+        } else if (name.equals(NameConstants.JCR_MIXINTYPES)) {
+            state.setType(PropertyType.NAME);
+            state.setMultiValued(true);
+            Set<Name> mixins = bundle.getMixinTypeNames();
+            return InternalValue.create(mixins.toArray(new Name[mixins.size()]));
+        } else {
+            throw new NoSuchItemStateException(state.getId().toString());
+        }
+    }
+
+    /**
+     * Copies the given binary value to the target data store. The binary
+     * is not copied again if the target data store already contains a
+     * record with the same identifier.
+     *
+     * @param value binary value
+     * @return copied value
+     * @throws IOException if the binary can not be read
+     * @throws RepositoryException if the binary can not be copied
+     */
+    private InternalValue copyBinary(InternalValue value)
+            throws IOException, RepositoryException {
+        DataIdentifier identifier = value.getDataIdentifier();
+        if (store != null && identifier != null) {
+            InternalValue existing = InternalValue.create(store, identifier);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        try (InputStream stream = value.getStream()) {
+            return InternalValue.create(stream, store);
+        }
+    }
+
 }
@@ -20,6 +20,7 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_MIXINTYPE
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_PRIMARYTYPE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_UUID;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -92,6 +93,7 @@ import org.slf4j.LoggerFactory;
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/&gt;
+ * <li>&lt;param name="{@link #setConsistencyCheckThreads(String) consistencyCheckThreads}" value="0"/&gt;
  * </ul>
  */
 public abstract class AbstractBundlePersistenceManager implements
@@ -178,6 +180,9 @@ public abstract class AbstractBundlePersistenceManager implements
     /** The update event channel to use by the consistency checker when fixing inconsistencies */
     private UpdateEventChannel eventChannel;
 
+    /** number of threads of a full consistency check, or 0 to check in memory */
+    private int consistencyCheckThreads = 0;
+
     /**
      * Returns the size of the bundle cache in megabytes.
      * @return the size of the bundle cache in megabytes.
@@ -196,6 +201,28 @@ public abstract class AbstractBundlePersistenceManager implements
         this.bundleCacheSize = Long.parseLong(bundleCacheSize) * 1024 * 1024;
     }
 
+    /**
+     * Returns the number of threads used by a consistency check of all
+     * the bundles.
+     * @return the number of consistency check threads.
+     */
+    public String getConsistencyCheckThreads() {
+        return String.valueOf(consistencyCheckThreads);
+    }
+
+    /**
+     * Sets the number of threads used by a consistency check of all the
+     * bundles. If set to a positive value, the parent/child links are
+     * verified with an on-disk edge table in the "consistencyCheck" folder
+     * of the persistence manager home directory instead of in memory, and
+     * an interrupted check is resumed by the next one. The default is 0.
+     *
+     * @param consistencyCheckThreads the number of threads.
+     */
+    public void setConsistencyCheckThreads(String consistencyCheckThreads) {
+        this.consistencyCheckThreads = Integer.parseInt(consistencyCheckThreads);
+    }
+
     /**
      * Creates the folder path for the given node id that is suitable for
      * storing states in a filesystem.
@@ -382,6 +409,21 @@ public abstract class AbstractBundlePersistenceManager implements
         return infos;
     }
 
+    /**
+     * Reads the bundle of the identified node from the underlying system,
+     * bypassing the bundle cache. Used by tools like
+     * {@link org.apache.jackrabbit.core.persistence.PersistenceCopier} that
+     * visit every node once: the node and all its properties are read with
+     * a single access, and the cached bundles are not evicted.
+     *
+     * @param id the node id of the bundle
+     * @return the bundle or <code>null</code> if the bundle does not exist
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    public NodePropBundle readBundle(NodeId id) throws ItemStateException {
+        return loadBundle(id);
+    }
+
     //----------------------------------------------------------------< spi >---
 
     /**
@@ -823,7 +865,7 @@ public abstract class AbstractBundlePersistenceManager implements
     public void checkConsistency(String[] uuids, boolean recursive, boolean fix) {
         try {
             ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(this, null, null, eventChannel);
-            checker.check(uuids, recursive);
+            check(checker, uuids, recursive);
             checker.doubleCheckErrors();
             if (fix) {
                 checker.repair();
@@ -844,7 +886,7 @@ public abstract class AbstractBundlePersistenceManager implements
             boolean fix, String lostNFoundId, ConsistencyCheckListener listener)
             throws RepositoryException {
         ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(this, listener, lostNFoundId, eventChannel);
-        checker.check(uuids, recursive);
+        check(checker, uuids, recursive);
         checker.doubleCheckErrors();
         if (fix) {
             checker.repair();
@@ -852,6 +894,15 @@ public abstract class AbstractBundlePersistenceManager implements
         return checker.getReport();
     }
 
+    private void check(ConsistencyCheckerImpl checker, String[] uuids, boolean recursive)
+            throws RepositoryException {
+        if (uuids == null && consistencyCheckThreads > 0) {
+            checker.check(new File(context.getHomeDir(), "consistencyCheck"), consistencyCheckThreads);
+        } else {
+            checker.check(uuids, recursive);
+        }
+    }
+
     /**
      * Evicts the bundle with <code>id</code> from the bundle cache.
      *
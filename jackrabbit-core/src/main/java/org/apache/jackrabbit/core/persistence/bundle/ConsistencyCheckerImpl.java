@@ -16,15 +16,28 @@
  */
 package org.apache.jackrabbit.core.persistence.bundle;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.jcr.RepositoryException;
 
@@ -33,6 +46,7 @@ import org.apache.jackrabbit.core.cluster.Update;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.observation.EventState;
+import org.apache.jackrabbit.core.persistence.bundle.EdgeTable.Edge;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyReport;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyReportImpl;
@@ -60,6 +74,41 @@ public class ConsistencyCheckerImpl {
      */
     private static final int NODESATONCE = Integer.getInteger("org.apache.jackrabbit.checker.nodesatonce", 1024 * 8);
 
+    /**
+     * The number of edges kept in memory before they are spilled to the edge
+     * table by {@link #check(File, int)}. Defaults to 256k
+     */
+    private static final int EDGESATONCE = Integer.getInteger("org.apache.jackrabbit.checker.edgesatonce", 1024 * 256);
+
+    /**
+     * The number of edge table partitions that are verified independently
+     * by {@link #check(File, int)}.
+     */
+    private static final int PARTITIONS = Integer.getInteger("org.apache.jackrabbit.checker.partitions", 16);
+
+    /**
+     * Name of the file that records the progress of {@link #check(File, int)}.
+     */
+    private static final String CHECKPOINT = "checkpoint.properties";
+
+    /**
+     * The maximum age in milliseconds of a checkpoint of
+     * {@link #check(File, int)} that is resumed. Defaults to 24 hours
+     */
+    private static final long MAXCHECKPOINTAGE = Long.getLong("org.apache.jackrabbit.checker.maxcheckpointage", 24L * 60 * 60 * 1000);
+
+    private static final String CHECKPOINT_STARTED = "started";
+
+    private static final String CHECKPOINT_LAST_ID = "lastId";
+
+    private static final String CHECKPOINT_SEQUENCE = "sequence";
+
+    private static final String CHECKPOINT_COUNT = "count";
+
+    private static final String CHECKPOINT_PARTITIONS = "partitions";
+
+    private static final String CHECKPOINT_COMPLETE = "complete";
+
     /**
      * Attribute name used to store the size of the update.
      */
@@ -100,6 +149,39 @@ public class ConsistencyCheckerImpl {
         elapsedTime = System.currentTimeMillis() - tstart;
     }
 
+    /**
+     * Check all the bundles for inconsistencies using bounded memory.
+     * <p>
+     * Unlike {@link #check(String[], boolean)}, which keeps the infos of all
+     * the nodes in memory, this method writes the parent/child links of the
+     * scanned bundles to an on-disk edge table in the given directory.
+     * Sorting and spilling the edges and verifying the partitions of the
+     * table are done by the given number of threads. The bundles themselves
+     * are read with a single cursor, as the iteration order of the node ids
+     * is specific to the persistence manager.
+     * <p>
+     * The progress of the scan is recorded in the directory. If a previous
+     * check in the same directory was interrupted, the scan is resumed after
+     * the last recorded node. Changes made to the content in the meantime
+     * may cause false positives, which are removed by
+     * {@link #doubleCheckErrors()}, and may hide inconsistencies. A check
+     * is therefore only resumed if it was started less than 24 hours ago,
+     * or the time set by the
+     * <code>org.apache.jackrabbit.checker.maxcheckpointage</code> system
+     * property in milliseconds. The progress of an older check is discarded
+     * with a warning, and the check starts over.
+     *
+     * @param directory work directory for the edge table
+     * @param threads number of threads
+     * @throws RepositoryException
+     */
+    public void check(File directory, int threads) throws RepositoryException {
+        errors = new ArrayList<ConsistencyCheckerError>();
+        long tstart = System.currentTimeMillis();
+        nodeCount = internalCheckConsistency(directory, Math.max(1, threads));
+        elapsedTime = System.currentTimeMillis() - tstart;
+    }
+
     /**
      * Do a double check on the errors found during {@link #check}.
      * Removes all false positives from the report.
@@ -304,6 +386,309 @@ public class ConsistencyCheckerImpl {
         return count;
     }
 
+    private int internalCheckConsistency(File directory, int threads) throws RepositoryException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new RepositoryException("Unable to create directory " + directory);
+        }
+        File checkpointFile = new File(directory, CHECKPOINT);
+        Properties checkpoint = loadCheckpoint(checkpointFile);
+        if (!checkpoint.isEmpty()) {
+            long started = 0;
+            try {
+                started = Long.parseLong(checkpoint.getProperty(CHECKPOINT_STARTED, "0"));
+            } catch (NumberFormatException e) {
+                // discard the checkpoint
+            }
+            long age = System.currentTimeMillis() - started;
+            if (age > MAXCHECKPOINTAGE) {
+                log.warn(pm + ": discarding the progress of a consistency check started "
+                        + (age / 1000) + "s ago in " + directory);
+                new EdgeTable(directory, 1).clear();
+                checkpointFile.delete();
+                checkpoint.clear();
+            }
+        }
+        if (checkpoint.isEmpty()) {
+            checkpoint.setProperty(CHECKPOINT_STARTED, String.valueOf(System.currentTimeMillis()));
+        }
+        EdgeTable table = new EdgeTable(directory, Integer.parseInt(
+                checkpoint.getProperty(CHECKPOINT_PARTITIONS, String.valueOf(Math.max(1, PARTITIONS)))));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            int count;
+            if (Boolean.parseBoolean(checkpoint.getProperty(CHECKPOINT_COMPLETE))) {
+                count = Integer.parseInt(checkpoint.getProperty(CHECKPOINT_COUNT));
+                info(null, "Resuming consistency check after the scan of " + count + " bundles");
+            } else {
+                count = scanBundles(table, checkpoint, checkpointFile, executor, threads);
+            }
+            verifyEdges(table, executor);
+
+            table.clear();
+            checkpointFile.delete();
+
+            log.info(pm + ": checked " + count + " bundles.");
+            return count;
+        } catch (ItemStateException e) {
+            throw new RepositoryException("Error loading nodes", e);
+        } catch (IOException e) {
+            throw new RepositoryException("Error accessing the edge table in " + directory, e);
+        } catch (InterruptedException e) {
+            throw new RepositoryException("Consistency check interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw new RepositoryException("Error accessing the edge table in " + directory, e.getCause());
+            }
+            throw new RepositoryException("Consistency check failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            NodeInfo.clearPool();
+        }
+    }
+
+    /**
+     * Reads all the bundles after the last checkpoint and writes their
+     * edges to the given table.
+     *
+     * @return the total number of scanned bundles
+     */
+    private int scanBundles(final EdgeTable table, Properties checkpoint, File checkpointFile,
+                            ExecutorService executor, int threads)
+            throws ItemStateException, RepositoryException, IOException, InterruptedException,
+            ExecutionException {
+        long sequence = Long.parseLong(checkpoint.getProperty(CHECKPOINT_SEQUENCE, "-1"));
+        int count = Integer.parseInt(checkpoint.getProperty(CHECKPOINT_COUNT, "0"));
+        NodeId lastId = null;
+        if (checkpoint.getProperty(CHECKPOINT_LAST_ID) != null) {
+            lastId = new NodeId(checkpoint.getProperty(CHECKPOINT_LAST_ID));
+            info(null, "Resuming consistency check after node " + lastId + " (" + count + " bundles scanned)");
+        }
+        table.truncate(sequence);
+        checkpoint.setProperty(CHECKPOINT_PARTITIONS, String.valueOf(table.getPartitions()));
+
+        LinkedList<Spill> spills = new LinkedList<Spill>();
+        List<Edge> edges = new ArrayList<Edge>();
+        long tstart = System.currentTimeMillis();
+        int scanned = 0;
+
+        Map<NodeId, NodeInfo> batch = pm.getAllNodeInfos(lastId, NODESATONCE);
+        while (!batch.isEmpty()) {
+            for (Map.Entry<NodeId, NodeInfo> entry : batch.entrySet()) {
+                lastId = entry.getKey();
+                if (listener != null) {
+                    listener.startCheck(lastId.toString());
+                }
+                addEdges(lastId, entry.getValue(), edges);
+                count++;
+                scanned++;
+            }
+            batch = pm.getAllNodeInfos(lastId, NODESATONCE);
+
+            if (edges.size() >= EDGESATONCE || batch.isEmpty()) {
+                spills.add(new Spill(table, ++sequence, edges, lastId, count, executor));
+                edges = new ArrayList<Edge>();
+
+                // record the spills that are done, and limit the number of
+                // edge buffers held in memory
+                while (!spills.isEmpty() && (spills.size() > threads || spills.getFirst().future.isDone())) {
+                    spills.removeFirst().commit(checkpoint, checkpointFile);
+                }
+
+                long elapsed = Math.max(1, System.currentTimeMillis() - tstart);
+                info(null, "Scanned " + count + " bundles (" + (scanned * 1000L / elapsed) + " bundles/s)");
+            }
+        }
+        while (!spills.isEmpty()) {
+            spills.removeFirst().commit(checkpoint, checkpointFile);
+        }
+
+        checkpoint.setProperty(CHECKPOINT_COUNT, String.valueOf(count));
+        checkpoint.setProperty(CHECKPOINT_COMPLETE, "true");
+        storeCheckpoint(checkpoint, checkpointFile);
+        return count;
+    }
+
+    /**
+     * Adds the edges of the given bundle to the given list. Like in
+     * {@link #checkBundleConsistency(NodeId, NodeInfo, Map)}, the links of
+     * virtual nodes other than the root node are not checked, but every
+     * node is recorded as existing and with its child node entries.
+     */
+    private void addEdges(NodeId nodeId, NodeInfo nodeInfo, List<Edge> edges) {
+        boolean checked = isRoot(nodeId) || !isVirtualNode(nodeId);
+        NodeId parentId = nodeInfo.getParentId();
+
+        edges.add(new Edge(nodeId, EdgeTable.EXISTS, parentId));
+        for (NodeId childNodeId : nodeInfo.getChildren()) {
+            edges.add(new Edge(nodeId, EdgeTable.LISTS, childNodeId));
+            if (checked && !isVirtualNode(childNodeId)) {
+                edges.add(new Edge(childNodeId, EdgeTable.CHILD, nodeId));
+            }
+        }
+        if (checked && parentId != null && !isRoot(nodeId)) {
+            edges.add(new Edge(parentId, EdgeTable.CLAIM, nodeId));
+        }
+    }
+
+    /**
+     * Merges and verifies the partitions of the given table in parallel.
+     */
+    private void verifyEdges(final EdgeTable table, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        List<Future<Long>> partitions = new ArrayList<Future<Long>>();
+        for (int i = 0; i < table.getPartitions(); i++) {
+            final int partition = i;
+            partitions.add(executor.submit(new Callable<Long>() {
+                public Long call() throws IOException {
+                    EdgeVerifier verifier = new EdgeVerifier();
+                    table.merge(partition, verifier);
+                    verifier.finish();
+                    return verifier.edges;
+                }
+            }));
+        }
+        long tstart = System.currentTimeMillis();
+        long edges = 0;
+        for (int i = 0; i < partitions.size(); i++) {
+            edges += partitions.get(i).get();
+            long elapsed = Math.max(1, System.currentTimeMillis() - tstart);
+            info(null, "Verified " + (i + 1) + "/" + partitions.size() + " partitions ("
+                    + (edges * 1000L / elapsed) + " edges/s)");
+        }
+    }
+
+    private static Properties loadCheckpoint(File file) throws RepositoryException {
+        Properties checkpoint = new Properties();
+        if (file.exists()) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    checkpoint.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                throw new RepositoryException("Unable to read checkpoint " + file, e);
+            }
+        }
+        return checkpoint;
+    }
+
+    private static void storeCheckpoint(Properties checkpoint, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            checkpoint.store(out, "Consistency check progress");
+        } finally {
+            out.close();
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("Unable to write checkpoint " + file);
+        }
+    }
+
+    /**
+     * A buffer of edges that is being spilled to the edge table.
+     */
+    private static class Spill {
+
+        private final long sequence;
+        private final NodeId lastId;
+        private final int count;
+        private final Future<Void> future;
+
+        Spill(final EdgeTable table, final long sequence, final List<Edge> edges,
+              NodeId lastId, int count, ExecutorService executor) {
+            this.sequence = sequence;
+            this.lastId = lastId;
+            this.count = count;
+            this.future = executor.submit(new Callable<Void>() {
+                public Void call() throws IOException {
+                    table.spill(sequence, edges);
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Waits for the spill to finish and records it as the last
+         * checkpoint. Spills must be committed in sequence order.
+         */
+        void commit(Properties checkpoint, File checkpointFile)
+                throws IOException, InterruptedException, ExecutionException {
+            future.get();
+            checkpoint.setProperty(CHECKPOINT_SEQUENCE, String.valueOf(sequence));
+            checkpoint.setProperty(CHECKPOINT_LAST_ID, lastId.toString());
+            checkpoint.setProperty(CHECKPOINT_COUNT, String.valueOf(count));
+            storeCheckpoint(checkpoint, checkpointFile);
+        }
+    }
+
+    /**
+     * Verifies the sorted edges of one partition. All the edges of a key
+     * are adjacent, starting with its {@link EdgeTable#EXISTS} edge if the
+     * node exists, and the edges between the key and another node are
+     * adjacent within the key.
+     */
+    private class EdgeVerifier implements EdgeTable.EdgeHandler {
+
+        private long edges;
+        private NodeId key;
+        private boolean exists;
+        private NodeId parentId;
+        private NodeId other;
+        private boolean lists;
+        private boolean claim;
+
+        public void handle(Edge edge) {
+            edges++;
+            if (!edge.key.equals(key)) {
+                finishOther();
+                key = edge.key;
+                exists = false;
+                parentId = null;
+            }
+            if (edge.type == EdgeTable.EXISTS) {
+                exists = true;
+                parentId = edge.other;
+                return;
+            }
+            if (!edge.other.equals(other)) {
+                finishOther();
+                other = edge.other;
+            }
+            if (edge.type == EdgeTable.CHILD) {
+                if (!exists) {
+                    addError(new MissingChild(other, key));
+                } else if (!other.equals(parentId)) {
+                    addError(new DisconnectedChild(other, key, parentId));
+                }
+            } else if (edge.type == EdgeTable.LISTS) {
+                lists = true;
+            } else if (edge.type == EdgeTable.CLAIM) {
+                claim = true;
+            }
+        }
+
+        void finish() {
+            finishOther();
+        }
+
+        private void finishOther() {
+            if (other != null && claim) {
+                if (!exists) {
+                    addError(new OrphanedNode(other, key));
+                } else if (!lists) {
+                    addError(new AbandonedNode(other, key));
+                }
+            }
+            other = null;
+            lists = false;
+            claim = false;
+        }
+    }
+
     /**
      * Checks a single bundle for inconsistencies, ie. inexistent child nodes, inexistent parents, and other
      * structural inconsistencies.
@@ -376,7 +761,7 @@ public class ConsistencyCheckerImpl {
         return "cafebabe-cafe-babe-cafe-babecafebabe".equals(nodeId.toString());
     }
 
-    private void addError(ConsistencyCheckerError error) {
+    private synchronized void addError(ConsistencyCheckerError error) {
         if (listener != null) {
             listener.report(error.getReportItem());
         }
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.bundle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * On-disk table of the parent/child edges of the bundles, used by the
+ * {@link ConsistencyCheckerImpl} to verify the links between the nodes
+ * with a sort/merge pass instead of keeping all node infos in memory.
+ * <p>
+ * Edges are collected in bounded in-memory buffers. A full buffer is sorted
+ * and spilled to one run file per partition, where the partition of an edge
+ * is derived from the hash code of its key. All the edges with the same key
+ * therefore end up in the same partition, and each partition can be merged
+ * and verified independently of the others.
+ * <p>
+ * The run files are named after the sequence number of the buffer they were
+ * spilled from, which allows an interrupted scan to drop the runs written
+ * after its last checkpoint and continue from there.
+ */
+class EdgeTable {
+
+    /**
+     * The node identified by the key exists; the other id is its parent.
+     */
+    static final byte EXISTS = 0;
+
+    /**
+     * The other node has a child node entry for the key node.
+     */
+    static final byte CHILD = 1;
+
+    /**
+     * The key node has a child node entry for the other node.
+     */
+    static final byte LISTS = 2;
+
+    /**
+     * The other node claims the key node as its parent.
+     */
+    static final byte CLAIM = 3;
+
+    /**
+     * Flag set on the serialized type if the other id is <code>null</code>.
+     */
+    private static final byte NO_OTHER = (byte) 0x80;
+
+    /**
+     * Maximum number of run files merged at once.
+     */
+    private static final int MERGE_FAN_IN = 64;
+
+    private static final String RUN_PREFIX = "run-";
+
+    private static final String RUN_SUFFIX = ".edges";
+
+    /**
+     * A single edge of the table.
+     */
+    static final class Edge implements Comparable<Edge> {
+
+        final NodeId key;
+
+        final byte type;
+
+        final NodeId other;
+
+        Edge(NodeId key, byte type, NodeId other) {
+            this.key = key;
+            this.type = type;
+            this.other = other;
+        }
+
+        /**
+         * Orders the edges by key. Within a key the {@link #EXISTS} edge
+         * comes first, followed by the other edges ordered by the other id,
+         * so that the edges connecting the same pair of nodes are adjacent.
+         */
+        public int compareTo(Edge that) {
+            int c = key.compareTo(that.key);
+            if (c == 0) {
+                c = (type == EXISTS ? 0 : 1) - (that.type == EXISTS ? 0 : 1);
+            }
+            if (c == 0 && other != that.other) {
+                if (other == null) {
+                    c = -1;
+                } else if (that.other == null) {
+                    c = 1;
+                } else {
+                    c = other.compareTo(that.other);
+                }
+            }
+            if (c == 0) {
+                c = type - that.type;
+            }
+            return c;
+        }
+
+    }
+
+    /**
+     * Receives the edges of a partition in sorted order.
+     */
+    interface EdgeHandler {
+
+        void handle(Edge edge);
+
+    }
+
+    private final File directory;
+
+    private final int partitions;
+
+    EdgeTable(File directory, int partitions) {
+        this.directory = directory;
+        this.partitions = partitions;
+    }
+
+    int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Sorts the given edges and writes them to one new run file per
+     * partition.
+     *
+     * @param sequence sequence number of the buffer
+     * @param edges edges to be written, the list is sorted in place
+     * @throws IOException if a run file can not be written
+     */
+    void spill(long sequence, List<Edge> edges) throws IOException {
+        List<List<Edge>> parts = new ArrayList<List<Edge>>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            parts.add(new ArrayList<Edge>());
+        }
+        Collections.sort(edges);
+        for (Edge edge : edges) {
+            parts.get(partitionOf(edge.key)).add(edge);
+        }
+        for (int i = 0; i < partitions; i++) {
+            if (!parts.get(i).isEmpty()) {
+                File file = new File(directory, RUN_PREFIX + i + "-" + sequence + RUN_SUFFIX);
+                File tmp = new File(directory, file.getName() + ".tmp");
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmp)));
+                try {
+                    for (Edge edge : parts.get(i)) {
+                        write(out, edge);
+                    }
+                } finally {
+                    out.close();
+                }
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("Failed to create run file " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the run files spilled after the given sequence number, as
+     * well as any incomplete run files.
+     *
+     * @param sequence last sequence number to be kept
+     */
+    void truncate(long sequence) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(RUN_PREFIX)
+                        && (!name.endsWith(RUN_SUFFIX) || sequenceOf(name) > sequence)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the run files of the given partition and passes the edges to
+     * the given handler in sorted order. At most {@link #MERGE_FAN_IN} run
+     * files are open at the same time; larger partitions are merged in
+     * several passes.
+     *
+     * @param partition partition number
+     * @param handler edge handler
+     * @throws IOException if a run file can not be read or written
+     */
+    void merge(int partition, EdgeHandler handler) throws IOException {
+        List<File> runs = new ArrayList<File>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            String prefix = RUN_PREFIX + partition + "-";
+            for (File file : files) {
+                if (file.getName().startsWith(prefix) && file.getName().endsWith(RUN_SUFFIX)) {
+                    runs.add(file);
+                }
+            }
+        }
+        int pass = 0;
+        while (runs.size() > MERGE_FAN_IN) {
+            List<File> next = new ArrayList<File>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                List<File> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+                File merged = new File(directory,
+                        "merge-" + partition + "-" + pass + "-" + i + RUN_SUFFIX);
+                final DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(merged)));
+                try {
+                    merge(group, new EdgeHandler() {
+                        public void handle(Edge edge) {
+                            try {
+                                write(out, edge);
+                            } catch (IOException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    });
+                } catch (IllegalStateException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw e;
+                } finally {
+                    out.close();
+                }
+                if (pass > 0) {
+                    for (File file : group) {
+                        file.delete();
+                    }
+                }
+                next.add(merged);
+            }
+            runs = next;
+            pass++;
+        }
+        try {
+            merge(runs, handler);
+        } finally {
+            if (pass > 0) {
+                for (File file : runs) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the files of this table.
+     */
+    void clear() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(RUN_PREFIX) || file.getName().startsWith("merge-")) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private int partitionOf(NodeId id) {
+        return (id.hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+
+    private static long sequenceOf(String name) {
+        try {
+            String s = name.substring(0, name.length() - RUN_SUFFIX.length());
+            return Long.parseLong(s.substring(s.lastIndexOf('-') + 1));
+        } catch (RuntimeException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private static void merge(List<File> runs, EdgeHandler handler) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()));
+        try {
+            for (File run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                handler.handle(reader.current);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+    }
+
+    private static void write(DataOutputStream out, Edge edge) throws IOException {
+        out.writeLong(edge.key.getMostSignificantBits());
+        out.writeLong(edge.key.getLeastSignificantBits());
+        if (edge.other == null) {
+            out.writeByte(edge.type | NO_OTHER);
+        } else {
+            out.writeByte(edge.type);
+            out.writeLong(edge.other.getMostSignificantBits());
+            out.writeLong(edge.other.getLeastSignificantBits());
+        }
+    }
+
+    /**
+     * Sequential reader of a run file.
+     */
+    private static final class RunReader implements Comparable<RunReader> {
+
+        private final DataInputStream in;
+
+        private Edge current;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+
+        boolean next() throws IOException {
+            long msb;
+            try {
+                msb = in.readLong();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            NodeId key = new NodeId(msb, in.readLong());
+            byte type = in.readByte();
+            NodeId other = null;
+            if ((type & NO_OTHER) == 0) {
+                other = new NodeId(in.readLong(), in.readLong());
+            }
+            current = new Edge(key, (byte) (type & ~NO_OTHER), other);
+            return true;
+        }
+
+        void close() {
+            IOUtils.closeQuietly(in);
+        }
+
+        public int compareTo(RunReader that) {
+            return current.compareTo(that.current);
+        }
+
+    }
+
+}
@@ -0,0 +1,427 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authentication;
+
+import java.io.UnsupportedEncodingException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.Credentials;
+import javax.jcr.GuestCredentials;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.security.auth.Subject;
+import javax.security.auth.login.LoginException;
+
+import org.apache.jackrabbit.api.security.authentication.token.TokenCredentials;
+import org.apache.jackrabbit.api.security.principal.ItemBasedPrincipal;
+import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+import org.apache.jackrabbit.core.security.authentication.token.TokenBasedAuthentication;
+import org.apache.jackrabbit.util.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>AuthenticationCache</code> remembers the principals a login with
+ * given credentials resolved to, such that subsequent logins with equal
+ * credentials within the expiration time are served without running the
+ * login modules (see {@link #getAuthContext(String, Credentials)}).
+ * <p>
+ * Credentials are identified by a salted digest and never stored. Only
+ * {@link SimpleCredentials} without attributes, {@link TokenCredentials} and
+ * {@link GuestCredentials} are cached; any other login, including
+ * impersonation and logins requesting a new token, is always authenticated
+ * by the login modules. A change of a user node invalidates the cached
+ * logins of that user only, while a change below the node groups are stored
+ * at invalidates the complete cache, since the members added to a group
+ * cannot be told from the event. Changes of login tokens are ignored: a
+ * cached token login is only served while the token node exists and has not
+ * expired; unlike a login through the login modules it does not extend the
+ * expiration time of the token. Principals provided from outside the
+ * repository are refreshed after the expiration time only.
+ */
+public class AuthenticationCache implements SynchronousEventListener {
+
+    private static final Logger log = LoggerFactory.getLogger(AuthenticationCache.class);
+
+    private static final int ALL_EVENTS = Event.NODE_ADDED | Event.NODE_REMOVED
+            | Event.NODE_MOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED
+            | Event.PROPERTY_REMOVED;
+
+    /**
+     * Name of the node the login tokens of a user are stored at.
+     */
+    private static final String TOKENS_NODE_NAME = ".tokens";
+
+    private final ConcurrentCache<String, Entry> cache;
+
+    private final long expiration;
+
+    private final String salt;
+
+    /**
+     * The session passed to {@link #init(Session, String, String)}. It is
+     * shared by all logins, so it is only used while holding its lock.
+     */
+    private Session session;
+
+    private String usersPath;
+
+    private String groupsPath;
+
+    /**
+     * Incremented upon each invalidation.
+     */
+    private volatile long generation;
+
+    /**
+     * @param maxSize The maximum number of cached logins.
+     * @param expiration The time in milliseconds a login is cached.
+     */
+    public AuthenticationCache(int maxSize, long expiration) {
+        this.expiration = expiration;
+        cache = new ConcurrentCache<String, Entry>("AuthenticationCache", 16);
+        cache.setMaxMemorySize(maxSize);
+
+        SecureRandom random = new SecureRandom();
+        salt = Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+    }
+
+    /**
+     * Starts listening to changes of the users and groups in the workspace
+     * of the given session.
+     *
+     * @param session The system session of the workspace users are stored in.
+     * @param usersPath The path of the node users are stored at.
+     * @param groupsPath The path of the node groups are stored at.
+     * @throws RepositoryException If an error occurs.
+     */
+    public void init(Session session, String usersPath, String groupsPath) throws RepositoryException {
+        this.session = session;
+        this.usersPath = usersPath;
+        this.groupsPath = groupsPath;
+        // a listener is registered for a single path: use the common ancestor
+        String path = usersPath;
+        while (!Text.isDescendantOrEqual(path, groupsPath)) {
+            path = Text.getRelativeParent(path, 1);
+        }
+        session.getWorkspace().getObservationManager().addEventListener(
+                this, ALL_EVENTS, path, true, null, null, false);
+    }
+
+    /**
+     * Stops listening to changes and clears the cache.
+     *
+     * @param session The session passed to {@link #init(Session, String, String)}.
+     */
+    public void close(Session session) {
+        try {
+            session.getWorkspace().getObservationManager().removeEventListener(this);
+        } catch (RepositoryException e) {
+            log.warn("Failed to stop listening to changes", e);
+        }
+        invalidate();
+    }
+
+    /**
+     * Returns the key identifying the specified credentials in this cache.
+     *
+     * @param credentials The login credentials.
+     * @return The key or <code>null</code> if logins with the specified
+     * credentials cannot be cached.
+     */
+    public String getKey(Credentials credentials) {
+        // every field is prefixed with its length, such that no two
+        // different credentials result in the same string.
+        StringBuilder sb = new StringBuilder(salt);
+        if (credentials instanceof SimpleCredentials) {
+            SimpleCredentials sc = (SimpleCredentials) credentials;
+            if (sc.getUserID() == null || sc.getAttributeNames().length > 0) {
+                return null;
+            }
+            sb.append("simple");
+            appendField(sb, sc.getUserID());
+            appendField(sb, new String(sc.getPassword()));
+        } else if (credentials instanceof TokenCredentials) {
+            TokenCredentials tc = (TokenCredentials) credentials;
+            sb.append("token");
+            appendField(sb, tc.getToken());
+            String[] names = tc.getAttributeNames();
+            Arrays.sort(names);
+            for (String name : names) {
+                appendField(sb, name);
+                appendField(sb, tc.getAttribute(name));
+            }
+        } else if (credentials instanceof GuestCredentials) {
+            sb.append("guest");
+        } else {
+            return null;
+        }
+        try {
+            return Text.digest("SHA-256", sb.toString(), "UTF-8");
+        } catch (NoSuchAlgorithmException e) {
+            log.warn("Unable to compute key for credentials", e);
+        } catch (UnsupportedEncodingException e) {
+            log.warn("Unable to compute key for credentials", e);
+        }
+        return null;
+    }
+
+    private static void appendField(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("-1:");
+        } else {
+            sb.append(value.length()).append(':').append(value);
+        }
+    }
+
+    /**
+     * Returns an <code>AuthContext</code> that authenticates with the
+     * principals cached for the specified key.
+     *
+     * @param key The key of the login credentials.
+     * @param credentials The login credentials.
+     * @return The context or <code>null</code> if no unexpired login is
+     * cached for the specified key or if the token of cached token
+     * credentials is no longer valid.
+     */
+    public AuthContext getAuthContext(String key, Credentials credentials) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < System.currentTimeMillis() || !isValidToken(credentials)) {
+            cache.remove(key);
+            return null;
+        }
+        return new CachedAuthContext(entry.principals, credentials);
+    }
+
+    /**
+     * Returns an <code>AuthContext</code> that delegates to the given context
+     * and caches the principals upon successful login.
+     *
+     * @param key The key of the login credentials.
+     * @param context The context authenticating the login.
+     * @return The caching context.
+     */
+    public AuthContext cache(String key, AuthContext context) {
+        return new CachingAuthContext(key, context);
+    }
+
+    /**
+     * @return <code>false</code> if the specified credentials are token
+     * credentials whose token has expired or has been removed.
+     */
+    private boolean isValidToken(Credentials credentials) {
+        if (credentials instanceof TokenCredentials) {
+            try {
+                synchronized (session) {
+                    return TokenBasedAuthentication.isValid((TokenCredentials) credentials, session);
+                }
+            } catch (RepositoryException e) {
+                log.debug("Unable to validate token of cached login", e);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clears the cache.
+     */
+    public void invalidate() {
+        generation++;
+        cache.clear();
+    }
+
+    //------------------------------------------------------< EventListener >---
+    /**
+     * @see javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)
+     */
+    public void onEvent(EventIterator events) {
+        Set<String> changedPaths = new HashSet<String>();
+        try {
+            while (events.hasNext()) {
+                String path = events.nextEvent().getPath();
+                if (isToken(path)) {
+                    // token logins are validated on every cache hit
+                    continue;
+                }
+                if (Text.isDescendantOrEqual(groupsPath, path)
+                        || !Text.isDescendant(usersPath, path)) {
+                    // group membership, or the users node itself
+                    invalidate();
+                    log.debug("Authentication cache cleared because of change at {}", path);
+                    return;
+                }
+                changedPaths.add(path);
+            }
+        } catch (RepositoryException e) {
+            invalidate();
+            log.warn("Authentication cache cleared: unable to read observation event", e);
+            return;
+        }
+        if (!changedPaths.isEmpty()) {
+            invalidate(changedPaths);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the given path is at or below the login
+     * tokens of a user.
+     */
+    private static boolean isToken(String path) {
+        return path.endsWith("/" + TOKENS_NODE_NAME)
+                || path.contains("/" + TOKENS_NODE_NAME + "/");
+    }
+
+    /**
+     * Removes the cached logins whose principals are stored at, below or
+     * above any of the given paths.
+     */
+    private void invalidate(Set<String> changedPaths) {
+        generation++;
+        for (Entry entry : cache.values()) {
+            if (entry.isAffected(changedPaths)) {
+                cache.remove(entry.key);
+                log.debug("Cached login removed because of changes at {}", changedPaths);
+            }
+        }
+    }
+
+    //--------------------------------------------------------------------------
+    private static final class Entry {
+
+        private final String key;
+
+        private final Set<Principal> principals;
+
+        /**
+         * The paths of the principals stored in the repository.
+         */
+        private final Set<String> paths = new HashSet<String>();
+
+        private final long expires;
+
+        private Entry(String key, Set<Principal> principals, long expires) {
+            this.key = key;
+            this.principals = principals;
+            this.expires = expires;
+            for (Principal principal : principals) {
+                if (principal instanceof ItemBasedPrincipal) {
+                    try {
+                        paths.add(((ItemBasedPrincipal) principal).getPath());
+                    } catch (RepositoryException e) {
+                        log.debug("Unable to determine path of principal {}", principal.getName());
+                    }
+                }
+            }
+        }
+
+        private boolean isAffected(Set<String> changedPaths) {
+            for (String path : paths) {
+                for (String changedPath : changedPaths) {
+                    if (Text.isDescendantOrEqual(path, changedPath)
+                            || Text.isDescendant(changedPath, path)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Context of a login resolving to cached principals.
+     */
+    private static final class CachedAuthContext implements AuthContext {
+
+        private final Subject subject = new Subject();
+
+        private final Set<Principal> principals;
+
+        private final Credentials credentials;
+
+        private CachedAuthContext(Set<Principal> principals, Credentials credentials) {
+            this.principals = principals;
+            this.credentials = credentials;
+        }
+
+        public void login() {
+            subject.getPrincipals().addAll(principals);
+            subject.getPublicCredentials().add(credentials);
+        }
+
+        public Subject getSubject() {
+            return subject;
+        }
+
+        public void logout() {
+            subject.getPrincipals().clear();
+            subject.getPublicCredentials().clear();
+        }
+    }
+
+    /**
+     * Context caching the principals of a successful login.
+     */
+    private final class CachingAuthContext implements AuthContext {
+
+        private final String key;
+
+        private final AuthContext context;
+
+        private CachingAuthContext(String key, AuthContext context) {
+            this.key = key;
+            this.context = context;
+        }
+
+        public void login() throws LoginException {
+            long gen = generation;
+            context.login();
+            Subject subject = context.getSubject();
+            if (subject != null && !subject.getPrincipals().isEmpty()) {
+                Set<Principal> principals = Collections.unmodifiableSet(
+                        new HashSet<Principal>(subject.getPrincipals()));
+                Entry entry = new Entry(key, principals, System.currentTimeMillis() + expiration);
+                cache.put(key, entry, 1);
+                if (gen != generation) {
+                    // invalidated during login, the principals may be outdated.
+                    cache.remove(key);
+                }
+            }
+        }
+
+        public Subject getSubject() {
+            return context.getSubject();
+        }
+
+        public void logout() throws LoginException {
+            context.logout();
+        }
+    }
+}
@@ -211,6 +211,28 @@ public class TokenBasedAuthentication implements Authentication {
         }
     }
 
+    /**
+     * Returns <code>true</code> if the token of the specified credentials
+     * still exists and has not expired. Other than
+     * {@link #authenticate(Credentials)} this neither verifies the token key
+     * nor resets the expiration time of the token. Like any session, the
+     * given session must not be used by other threads at the same time.
+     *
+     * @param tokenCredentials
+     * @param session
+     * @return <code>true</code> if the token is valid.
+     * @throws RepositoryException If the token cannot be read.
+     */
+    public static boolean isValid(TokenCredentials tokenCredentials, Session session) throws RepositoryException {
+        TokenInfo tokenInfo;
+        if (compatMode()) {
+            tokenInfo = new CompatTokenProvider((SessionImpl) session, TOKEN_EXPIRATION).getTokenInfo(tokenCredentials.getToken());
+        } else {
+            tokenInfo = new TokenProvider((SessionImpl) session, TOKEN_EXPIRATION).getTokenInfo(tokenCredentials.getToken());
+        }
+        return tokenInfo != null && !tokenInfo.isExpired(new Date().getTime());
+    }
+
     private static boolean compatMode() {
         return Boolean.parseBoolean(System.getProperty(PARAM_COMPAT));
     }
@@ -88,6 +88,13 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
      */
     public static final String PARAM_ALLOW_UNKNOWN_PRINCIPALS = "allow-unknown-principals";
 
+    /**
+     * Constant for the name of the configuration option {@code shared-permission-cache}.
+     * The option is a flag indicating whether the permissions evaluated for a set of principals are cached
+     * for all sessions of these principals instead of for each session individually. the default is {@code true}.
+     */
+    public static final String PARAM_SHARED_PERMISSION_CACHE = "shared-permission-cache";
+
     /**
      * the default logger
      */
@@ -105,6 +112,12 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
      */
     private EntryCollector entryCollector;
 
+    /**
+     * Permissions shared by all sessions of the same principals or
+     * <code>null</code> if permissions are cached per session.
+     */
+    private PermissionCache permissionCache;
+
     /**
      * controls if unknown principals are allowed in ACLs
      */
@@ -132,11 +145,19 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
         }
 
         entryCollector = createEntryCollector(session);
+        if (!"false".equals(configuration.get(PARAM_SHARED_PERMISSION_CACHE))) {
+            permissionCache = new PermissionCache();
+            entryCollector.addListener(permissionCache);
+        }
     }
 
     @Override
     public void close() {
         super.close();        
+        if (permissionCache != null) {
+            entryCollector.removeListener(permissionCache);
+            permissionCache.clear();
+        }
         entryCollector.close();
     }
 
@@ -251,7 +272,7 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
         } else if (isReadOnly(principals)) {
             return getReadOnlyPermissions();
         } else {
-            return new CompiledPermissionsImpl(principals, session, entryCollector, this, true);
+            return new CompiledPermissionsImpl(principals, session, entryCollector, this, true, permissionCache);
         }
     }
 
@@ -263,7 +284,7 @@ public class ACLProvider extends AbstractAccessControlProvider implements Access
         if (isAdminOrSystem(principals)) {
             return true;
         } else {
-            CompiledPermissions cp = new CompiledPermissionsImpl(principals, session, entryCollector, this, false);
+            CompiledPermissions cp = new CompiledPermissionsImpl(principals, session, entryCollector, this, false, permissionCache);
             try {
                 return cp.canRead(null, rootNodeId);
             } finally {
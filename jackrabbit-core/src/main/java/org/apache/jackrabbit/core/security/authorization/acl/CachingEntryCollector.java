@@ -16,9 +16,15 @@
  */
 package org.apache.jackrabbit.core.security.authorization.acl;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 
 import javax.jcr.RepositoryException;
 
@@ -33,6 +39,22 @@ import org.slf4j.LoggerFactory;
 /**
  * <code>CachingEntryCollector</code> extends <code>EntryCollector</code> by
  * keeping a cache of ACEs per access controlled nodeId.
+ * <p>
+ * The update strategy is selected with the system property
+ * <code>org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.strategy</code>:
+ * <ul>
+ * <li>"S": cache updates are fully synchronized,</li>
+ * <li>"T": concurrent updates for the same node are throttled (default),</li>
+ * <li>"P": cache updates run fully parallel,</li>
+ * <li>"C": the cache is accessed without any locking. Cached entries are
+ * never modified but replaced by a copy (see
+ * {@link EntryCollector.Entries#Entries(EntryCollector.Entries, NodeId)}),
+ * and modified entries are re-read in the background while the previous
+ * entries continue to be served for at most the consistency window given
+ * in milliseconds by the system property
+ * <code>org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.consistencyWindow</code>
+ * (default 1000). A window of 0 drops modified entries immediately.</li>
+ * </ul>
  */
 class CachingEntryCollector extends EntryCollector {
 
@@ -52,6 +74,24 @@ class CachingEntryCollector extends EntryCollector {
     private final String strategy;
     private final boolean cacheNoAcl;
 
+    /**
+     * The time in milliseconds modified entries may still be served in
+     * the concurrent strategy while they are re-read in the background.
+     */
+    private final long consistencyWindow;
+
+    /**
+     * The ids of the nodes whose cached entries are outdated, mapped to the
+     * time of the modification.
+     */
+    private final ConcurrentMap<NodeId, Long> stale = new ConcurrentHashMap<NodeId, Long>();
+
+    /**
+     * Executor re-reading modified entries in the background, or
+     * <code>null</code> if modified entries are dropped immediately.
+     */
+    private final ExecutorService refresher;
+
     /**
      * Create a new instance.
      *
@@ -61,17 +101,40 @@ class CachingEntryCollector extends EntryCollector {
      */
     CachingEntryCollector(SessionImpl systemSession, NodeId rootID) throws RepositoryException {
         super(systemSession, rootID);
-        cache = new EntryCache();
 
         // for testing purposes, see JCR-2950
         String propname = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.strategy";
         strategy = System.getProperty(propname, "T");
-        if (!("S".equals(strategy) || "T".equals(strategy) || "P".equals(strategy))) {
+        if (!("S".equals(strategy) || "T".equals(strategy) || "P".equals(strategy) || "C".equals(strategy))) {
             throw new RepositoryException("Invalid value " + strategy + " specified for system property " + propname);
         }
 
         log.info("Cache Update Strategy: " + strategy);
 
+        cache = new EntryCache("C".equals(strategy));
+
+        long window = 1000;
+        propname = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.consistencyWindow";
+        try {
+            window = Long.parseLong(System.getProperty(propname, Long.toString(window)));
+        } catch (NumberFormatException ex) {
+            log.debug("Parsing system property " + propname + " with value: " + System.getProperty(propname), ex);
+        }
+        consistencyWindow = window;
+
+        if ("C".equals(strategy) && consistencyWindow > 0) {
+            log.info("Consistency window for modified entries: " + consistencyWindow + "ms");
+            refresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "CachingEntryCollector-refresh");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        } else {
+            refresher = null;
+        }
+
         propname = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.cacheNoACL";
         cacheNoAcl = Boolean.parseBoolean(System.getProperty(propname, "false"));
 
@@ -81,6 +144,10 @@ class CachingEntryCollector extends EntryCollector {
     @Override
     protected void close() {
         super.close();
+        if (refresher != null) {
+            refresher.shutdownNow();
+        }
+        stale.clear();
         cache.clear();
     }
 
@@ -95,6 +162,8 @@ class CachingEntryCollector extends EntryCollector {
         if (entries == null) {
             // fetch entries and update the cache
             entries = updateCache(node);
+        } else if (!stale.isEmpty()) {
+            entries = checkStale(nodeId, entries);
         }
         return entries;
     }
@@ -109,6 +178,8 @@ class CachingEntryCollector extends EntryCollector {
             // fetch entries and update the cache
             NodeImpl n = getNodeById(nodeId);
             entries = updateCache(n);
+        } else if (!stale.isEmpty()) {
+            entries = checkStale(nodeId, entries);
         }
         return entries;
     }
@@ -122,8 +193,8 @@ class CachingEntryCollector extends EntryCollector {
      * @throws RepositoryException If an error occurs.
      */
     private Entries internalUpdateCache(NodeImpl node) throws RepositoryException {
-        Entries entries = super.getEntries(node);
-        if (cacheNoAcl || (isRootId(node.getNodeId()) && cache.specialCasesRoot()) || !entries.isEmpty()) {
+        Entries entries = readEntries(node);
+        if (isCacheable(node, entries)) {
             // adjust the 'nextId' to point to the next access controlled
             // ancestor node instead of the parent and remember the entries.
             entries.setNextId(getNextID(node));
@@ -132,6 +203,92 @@ class CachingEntryCollector extends EntryCollector {
         return entries;
     }
 
+    /**
+     * @param node The target node
+     * @param entries The entries present on the specified node.
+     * @return <code>true</code> if the entries of the given node are kept
+     * in the cache.
+     */
+    private boolean isCacheable(NodeImpl node, Entries entries) {
+        return cacheNoAcl || (isRootId(node.getNodeId()) && cache.specialCasesRoot()) || !entries.isEmpty();
+    }
+
+    /**
+     * Returns the given cached entries unless they are outdated for longer
+     * than the consistency window, in which case they are read again.
+     *
+     * @param nodeId The id of the target node.
+     * @param entries The cached entries.
+     * @return The entries to use.
+     * @throws RepositoryException If an error occurs.
+     */
+    private Entries checkStale(NodeId nodeId, Entries entries) throws RepositoryException {
+        Long since = stale.get(nodeId);
+        if (since != null && System.currentTimeMillis() - since >= consistencyWindow) {
+            log.debug("Consistency window exceeded for nodeId {}", nodeId);
+            return refresh(nodeId, since);
+        }
+        return entries;
+    }
+
+    /**
+     * Read the outdated entries of the specified node again, replace them
+     * in the cache and notify the listeners, which may have evaluated
+     * permissions based on the outdated entries.
+     *
+     * @param nodeId The id of the target node.
+     * @param since The time the entries have been marked outdated.
+     * @return The list of entries present on the specified node or an empty list.
+     * @throws RepositoryException If an error occurs.
+     */
+    private Entries refresh(NodeId nodeId, Long since) throws RepositoryException {
+        try {
+            NodeImpl node = getNodeById(nodeId);
+            Entries entries = internalUpdateCache(node);
+            if (!isCacheable(node, entries)) {
+                // no longer access controlled
+                cache.remove(nodeId, true);
+            }
+            return entries;
+        } catch (RepositoryException e) {
+            // drop the outdated entries -> reload upon next access
+            cache.remove(nodeId, true);
+            throw e;
+        } finally {
+            stale.remove(nodeId, since);
+            super.notifyListeners(new AccessControlModifications<NodeId>(
+                    Collections.singletonMap(nodeId, POLICY_MODIFIED)));
+        }
+    }
+
+    /**
+     * Mark the cached entries of the specified node as outdated and re-read
+     * them in the background.
+     *
+     * @param nodeId The id of the modified node.
+     */
+    private void scheduleRefresh(final NodeId nodeId) {
+        stale.put(nodeId, System.currentTimeMillis());
+        try {
+            refresher.execute(new Runnable() {
+                public void run() {
+                    Long since = stale.get(nodeId);
+                    if (since != null) {
+                        try {
+                            refresh(nodeId, since);
+                        } catch (RepositoryException e) {
+                            log.debug("Unable to refresh entries of nodeId " + nodeId, e);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closed
+            stale.remove(nodeId);
+            cache.remove(nodeId, false);
+        }
+    }
+
     /**
      * Update cache for the given node id
      * @param node The target node
@@ -143,7 +300,7 @@ class CachingEntryCollector extends EntryCollector {
             return throttledUpdateCache(node);
         } else if ("S".equals(strategy)) {
             return synchronizedUpdateCache(node);
-        } else if ("P".equals(strategy)) {
+        } else if ("P".equals(strategy) || "C".equals(strategy)) {
             return parallelUpdateCache(node);
         } else {
             // panic
@@ -279,18 +436,26 @@ class CachingEntryCollector extends EntryCollector {
                 // clear the complete cache since the nextAcNodeId may
                 // have changed due to the added ACL.
                 log.debug("Policy added, clearing the cache");
+                stale.clear();
                 cache.clear();
                 break; // no need for further processing.
             } else if ((type & POLICY_REMOVED) == POLICY_REMOVED) {
                 // clear the entry and change the entries having a nextID
                 // pointing to this node.
+                stale.remove(nodeId);
                 cache.remove(nodeId, true);
             } else if ((type & POLICY_MODIFIED) == POLICY_MODIFIED) {
-                // simply clear the cache entry -> reload upon next access.
-                cache.remove(nodeId, false);
+                if (refresher != null && cache.containsKey(nodeId)) {
+                    // keep serving the cached entry until it has been re-read
+                    scheduleRefresh(nodeId);
+                } else {
+                    // simply clear the cache entry -> reload upon next access.
+                    cache.remove(nodeId, false);
+                }
             } else if ((type & MOVE) == MOVE) {
                 // some sort of move operation that may affect the cache
                 log.debug("Move operation, clearing the cache");
+                stale.clear();
                 cache.clear();
                 break; // no need for further processing.
             }
@@ -342,15 +507,21 @@ class CachingEntryCollector extends EntryCollector {
      * node. The internal map uses the ID of the node as key while the value
      * consists of {@Entries} objects that not only provide the ACEs defined
      * for that node but also the ID of the next access controlled parent node.
+     * <p>
+     * In concurrent mode the map is accessed without locking, cached entries
+     * are replaced instead of modified and arbitrary entries are evicted
+     * once the maximum size is reached.
      */
     private class EntryCache {
 
         private final Map<NodeId, Entries> cache;
-        private Entries rootEntries;
+        private volatile Entries rootEntries;
         private boolean specialCaseRoot = true;
+        private final boolean concurrent;
+        private final int maxsize;
 
         @SuppressWarnings("unchecked")
-        public EntryCache() {
+        public EntryCache(boolean concurrent) {
             int maxsize = 5000;
             String propname = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.maxsize";
             try {
@@ -361,7 +532,13 @@ class CachingEntryCollector extends EntryCollector {
 
             log.info("Creating cache with max size of: " + maxsize);
 
-            cache = new GrowingLRUMap(1024, maxsize);
+            this.concurrent = concurrent;
+            this.maxsize = maxsize;
+            if (concurrent) {
+                cache = new ConcurrentHashMap<NodeId, Entries>(1024);
+            } else {
+                cache = new GrowingLRUMap(1024, maxsize);
+            }
 
             String propsrname = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.scroot";
             specialCaseRoot = Boolean.parseBoolean(System.getProperty(propsrname, "true"));
@@ -376,6 +553,8 @@ class CachingEntryCollector extends EntryCollector {
         public boolean containsKey(NodeId id) {
             if (specialCaseRoot && isRootId(id)) {
                 return rootEntries != null;
+            } else if (concurrent) {
+                return cache.containsKey(id);
             } else {
                 synchronized (cache) {
                     return cache.containsKey(id);
@@ -385,8 +564,12 @@ class CachingEntryCollector extends EntryCollector {
 
         public void clear() {
             rootEntries = null;
-            synchronized (cache) {
+            if (concurrent) {
                 cache.clear();
+            } else {
+                synchronized (cache) {
+                    cache.clear();
+                }
             }
         }
 
@@ -395,6 +578,8 @@ class CachingEntryCollector extends EntryCollector {
 
             if (specialCaseRoot && isRootId(id)) {
                 result = rootEntries;
+            } else if (concurrent) {
+                result = cache.get(id);
             } else {
                 synchronized (cache) {
                     result = cache.get(id);
@@ -420,6 +605,15 @@ class CachingEntryCollector extends EntryCollector {
 
             if (specialCaseRoot && isRootId(id)) {
                 rootEntries = entries;
+            } else if (concurrent) {
+                if (cache.size() >= maxsize && !cache.containsKey(id)) {
+                    Iterator<NodeId> it = cache.keySet().iterator();
+                    if (it.hasNext()) {
+                        it.next();
+                        it.remove();
+                    }
+                }
+                cache.put(id, entries);
             } else {
                 synchronized (cache) {
                     cache.put(id, entries);
@@ -429,6 +623,10 @@ class CachingEntryCollector extends EntryCollector {
 
         public void remove(NodeId id, boolean adjustNextIds) {
             log.debug("Removing nodeId {} from cache", id);
+            if (concurrent) {
+                concurrentRemove(id, adjustNextIds);
+                return;
+            }
             Entries result;
             synchronized (cache) {
                 if (specialCaseRoot && isRootId(id)) {
@@ -452,5 +650,33 @@ class CachingEntryCollector extends EntryCollector {
                 }
             }
         }
+
+        private void concurrentRemove(NodeId id, boolean adjustNextIds) {
+            Entries result;
+            if (specialCaseRoot && isRootId(id)) {
+                result = rootEntries;
+                rootEntries = null;
+            } else {
+                result = cache.remove(id);
+            }
+
+            if (adjustNextIds && result != null) {
+                NodeId nextId = result.getNextId();
+                for (Map.Entry<NodeId, Entries> entry : cache.entrySet()) {
+                    Entries entries = entry.getValue();
+                    if (id.equals(entries.getNextId())) {
+                        // fail early on potential cache corruption
+                        if (id.equals(nextId)) {
+                            throw new IllegalArgumentException("Trying to update cache entry for " + id + " with a circular reference");
+                        }
+                        // entries concurrently put with the outdated nextID
+                        // still resolve correctly as the removed node is
+                        // read again with its parent as nextID.
+                        ((ConcurrentMap<NodeId, Entries>) cache).replace(
+                                entry.getKey(), entries, new Entries(entries, nextId));
+                    }
+                }
+            }
+        }
     }
 }
\ No newline at end of file
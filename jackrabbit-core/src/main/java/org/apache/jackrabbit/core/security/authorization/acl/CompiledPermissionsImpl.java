@@ -67,6 +67,20 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
     private final EntryCollector entryCollector;
     private final AccessControlUtils util;
 
+    /**
+     * Permissions shared with other sessions or <code>null</code> if only
+     * the caches of this instance are used. The shared permissions are not
+     * used while the session has transient changes, as the evaluation then
+     * depends on the transient hierarchy of the session.
+     */
+    private final PermissionCache permissionCache;
+
+    /**
+     * The sorted principal names identifying the cached permissions and
+     * the precompiled entries of the principals.
+     */
+    private final List<String> principalKey;
+
     /*
      * Start with initial map size of 1024 and grow up to 5000 before
      * removing LRU items.
@@ -78,16 +92,20 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
 
     CompiledPermissionsImpl(Set<Principal> principals, SessionImpl session,
                             EntryCollector entryCollector, AccessControlUtils util,
-                            boolean listenToEvents) throws RepositoryException {
+                            boolean listenToEvents, PermissionCache permissionCache) throws RepositoryException {
         this.session = session;
         this.entryCollector = entryCollector;
         this.util = util;
+        this.permissionCache = permissionCache;
 
         principalNames = new ArrayList<String>(principals.size());
         for (Principal princ : principals) {
             principalNames.add(princ.getName());
         }
+        principalKey = PermissionCache.getKey(principalNames);
 
+        // the shared cache is cleared by the permission cache itself, the
+        // caches of this instance are still used for transient evaluations.
         if (listenToEvents) {
             /*
             Make sure this AclPermission recalculates the permissions if
@@ -158,6 +176,23 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
     }
 
     //------------------------------------< AbstractCompiledPermissions >---
+    /**
+     * @see AbstractCompiledPermissions#getResult(org.apache.jackrabbit.spi.Path)
+     */
+    @Override
+    public Result getResult(Path absPath) throws RepositoryException {
+        if (!useSharedCache()) {
+            return super.getResult(absPath);
+        }
+        PermissionCache.Permissions permissions = permissionCache.getPermissions(principalKey);
+        Result result = permissions.getResult(absPath);
+        if (result == null) {
+            result = (absPath == null) ? buildRepositoryResult() : buildResult(absPath);
+            permissions.putResult(absPath, result);
+        }
+        return result;
+    }
+
     /**
      * @see AbstractCompiledPermissions#buildResult(org.apache.jackrabbit.spi.Path)
      */
@@ -199,12 +234,12 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
         }
 
         boolean isAcItem = util.isAcItem(absPath);
-        return buildResult(node, existingNode, isAcItem, new EntryFilterImpl(principalNames, absPath, session));
+        return buildResult(node, existingNode, isAcItem, new EntryFilterImpl(principalNames, principalKey, absPath, session));
     }
 
     @Override
     protected Result buildRepositoryResult() throws RepositoryException {
-        return buildResult(null, true, false, new EntryFilterImpl(principalNames, session.getQPath("/"), session));
+        return buildResult(null, true, false, new EntryFilterImpl(principalNames, principalKey, session.getQPath("/"), session));
     }
 
     /**
@@ -242,50 +277,73 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
      */
     public boolean canRead(Path path, ItemId itemId) throws RepositoryException {
         ItemId id = (itemId == null) ? session.getHierarchyManager().resolvePath(path) : itemId;
-        // no extra check for existence as method may only be called for existing items.
-        boolean isExistingNode = id.denotesNode();
-        boolean canRead = false;
+        boolean canRead;
+        if (useSharedCache()) {
+            PermissionCache.Permissions permissions = permissionCache.getPermissions(principalKey);
+            Boolean cached = permissions.getRead(id);
+            if (cached != null) {
+                canRead = cached;
+            } else {
+                canRead = evaluateRead(path, id);
+                permissions.putRead(id, canRead);
+            }
+            return canRead;
+        }
         synchronized (monitor) {
             if (readCache.containsKey(id)) {
                 canRead = readCache.get(id);
             } else {
-                ItemManager itemMgr = session.getItemManager();
-                NodeId nodeId = (isExistingNode) ? (NodeId) id : ((PropertyId) id).getParentId();
-                NodeImpl node = (NodeImpl) itemMgr.getItem(nodeId);
-
-                boolean isAcItem = util.isAcItem(node);
-                EntryFilterImpl filter;
-                if (path == null) {
-                    filter = new EntryFilterImpl(principalNames, id, session);
-                } else {
-                    filter = new EntryFilterImpl(principalNames, path, session);
-                }
-
-                if (isAcItem) {
-                    /* item defines ac content -> regular evaluation */
-                    Result result = buildResult(node, isExistingNode, isAcItem, filter);
-                    canRead = result.grants(Permission.READ);
-                } else {
-                    /*
-                     simplified evaluation focusing on READ permission. this allows
-                     to omit evaluation of parent node permissions that are
-                     required when calculating the complete set of permissions
-                     (see special treatment of remove, create or ac-specific
-                      permissions).
-                     */
-                    for (Entry ace : entryCollector.collectEntries(node, filter)) {
-                        if (ace.getPrivilegeBits().includesRead()) {
-                            canRead = ace.isAllow();
-                            break;
-                        }
-                    }
-                }
+                canRead = evaluateRead(path, id);
                 readCache.put(id, canRead);
             }
         }
         return canRead;
     }
 
+    /**
+     * Returns <code>true</code> if the permissions shared with other
+     * sessions may be used. Items and paths are resolved in the hierarchy
+     * of this session, so results evaluated while it contains transient
+     * changes (e.g. moved or removed nodes) are only kept in the caches of
+     * this instance.
+     */
+    private boolean useSharedCache() throws RepositoryException {
+        return permissionCache != null && !session.hasPendingChanges();
+    }
+
+    private boolean evaluateRead(Path path, ItemId id) throws RepositoryException {
+        // no extra check for existence as method may only be called for existing items.
+        boolean isExistingNode = id.denotesNode();
+        boolean canRead = false;
+        ItemManager itemMgr = session.getItemManager();
+        NodeId nodeId = (isExistingNode) ? (NodeId) id : ((PropertyId) id).getParentId();
+        NodeImpl node = (NodeImpl) itemMgr.getItem(nodeId);
+
+        boolean isAcItem = util.isAcItem(node);
+        EntryFilterImpl filter;
+        if (path == null) {
+            filter = new EntryFilterImpl(principalNames, principalKey, id, session);
+        } else {
+            filter = new EntryFilterImpl(principalNames, principalKey, path, session);
+        }
+
+        if (isAcItem) {
+            /* item defines ac content -> regular evaluation */
+            Result result = buildResult(node, isExistingNode, isAcItem, filter);
+            canRead = result.grants(Permission.READ);
+        } else {
+            /*
+             simplified evaluation focusing on READ permission. this allows
+             to omit evaluation of parent node permissions that are
+             required when calculating the complete set of permissions
+             (see special treatment of remove, create or ac-specific
+              permissions).
+             */
+            canRead = entryCollector.canRead(node, filter);
+        }
+        return canRead;
+    }
+
     //----------------------------------------< ACLModificationListener >---
     /**
      * @see org.apache.jackrabbit.core.security.authorization.AccessControlListener#acModified(org.apache.jackrabbit.core.security.authorization.AccessControlModifications)
@@ -37,11 +37,15 @@ import javax.jcr.observation.EventIterator;
 import javax.jcr.observation.EventListener;
 import javax.jcr.observation.ObservationManager;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <code>EntryCollector</code> collects ACEs defined and effective for a
@@ -68,6 +72,19 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
 
     private final EventListener moveListener;
 
+    /**
+     * The last entries read for each access controlled node, whose compiled
+     * programs are reused as long as the entries do not change. Only used
+     * by this implementation, which reads the entries on every call.
+     */
+    private final ConcurrentMap<NodeId, Entries> compiledEntries =
+            new ConcurrentHashMap<NodeId, Entries>();
+
+    /**
+     * The programs compiled for the entries read by this collector.
+     */
+    private final ProgramCache programCache = new ProgramCache();
+
     /**
      *
      * @param systemSession
@@ -141,11 +158,11 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
                 filterEntries(filter, Entry.readEntries(aclNode, null), userAces, groupAces);
             }
         } else {
-            filterEntries(filter, getEntries(node).getACEs(), userAces, groupAces);
+            filterEntries(filter, getEntries(node), userAces, groupAces);
             NodeId next = node.getParentId();
             while (next != null) {
                 Entries entries = getEntries(next);
-                filterEntries(filter, entries.getACEs(), userAces, groupAces);
+                filterEntries(filter, entries, userAces, groupAces);
                 next = entries.getNextId();
             }
         }
@@ -157,6 +174,74 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
         return entries;
     }
 
+    /**
+     * Evaluate if READ is granted at the given node. The result is the same
+     * as that of the first entry returned by
+     * {@link #collectEntries(NodeImpl, EntryFilter)} that includes the READ
+     * privilege, but only the precompiled read entries of the access
+     * controlled ancestors are inspected (see {@link EntryProgram}) and the
+     * evaluation stops at the first user entry that applies.
+     *
+     * @param node
+     * @param filter
+     * @return <code>true</code> if READ is granted.
+     * @throws RepositoryException
+     */
+    protected boolean canRead(NodeImpl node, EntryFilterImpl filter) throws RepositoryException {
+        List<EntryProgram> groupPrograms = null;
+        Entries entries = getEntries(node);
+        NodeId next = node.getParentId();
+        while (true) {
+            EntryProgram program = entries.getProgram(filter);
+            // entries of the user principal take precedence over those of
+            // all group principals, irrespective of the node they are defined at.
+            Boolean canRead = program.getUserRead(filter);
+            if (canRead != null) {
+                return canRead;
+            }
+            if (program.hasGroupReadEntries()) {
+                if (groupPrograms == null) {
+                    groupPrograms = new ArrayList<EntryProgram>();
+                }
+                groupPrograms.add(program);
+            }
+            if (next == null) {
+                break;
+            }
+            entries = getEntries(next);
+            next = entries.getNextId();
+        }
+        if (groupPrograms != null) {
+            for (EntryProgram program : groupPrograms) {
+                Boolean canRead = program.getGroupRead(filter);
+                if (canRead != null) {
+                    return canRead;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Filter the access control entries of the specified <code>entries</code>
+     * using their precompiled {@link EntryProgram} if possible.
+     *
+     * @param filter
+     * @param entries
+     * @param userAces
+     * @param groupAces
+     */
+    private static void filterEntries(EntryFilter filter, Entries entries,
+                                      LinkedList<Entry> userAces,
+                                      LinkedList<Entry> groupAces) {
+        if (filter instanceof EntryFilterImpl) {
+            EntryFilterImpl filterImpl = (EntryFilterImpl) filter;
+            entries.getProgram(filterImpl).collect(filterImpl, userAces, groupAces);
+        } else {
+            filterEntries(filter, entries.getACEs(), userAces, groupAces);
+        }
+    }
+
     /**
      * Filter the specified access control <code>entries</code>
      *
@@ -177,13 +262,41 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
     /**
      * Retrieve the access control entries defined for the given node. If the
      * node is not access controlled or if the ACL is empty this method returns
-     * an empty list.
+     * an empty list. The entries are read on every call, but the programs
+     * compiled for them are reused until they change.
      * 
      * @param node
      * @return
      * @throws RepositoryException
      */
     protected Entries getEntries(NodeImpl node) throws RepositoryException {
+        Entries entries = readEntries(node);
+        if (entries.isEmpty()) {
+            return entries;
+        }
+        NodeId nodeId = node.getNodeId();
+        Entries compiled = compiledEntries.get(nodeId);
+        if (compiled != null && compiled.getACEs().equals(entries.getACEs())) {
+            // same entries as before: share the programs compiled for them
+            return new Entries(compiled, entries.getNextId());
+        }
+        if (compiledEntries.size() >= CompiledPermissionsImpl.MAX_CACHE_SIZE) {
+            compiledEntries.clear();
+        }
+        compiledEntries.put(nodeId, entries);
+        return entries;
+    }
+
+    /**
+     * Read the access control entries defined for the given node. If the
+     * node is not access controlled or if the ACL is empty this method returns
+     * an empty list.
+     *
+     * @param node
+     * @return
+     * @throws RepositoryException
+     */
+    protected Entries readEntries(NodeImpl node) throws RepositoryException {
         List<Entry> aces;
         if (ACLProvider.isAccessControlled(node)) {
             // collect the aces of that node.
@@ -193,7 +306,7 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
             // not access controlled
             aces = Collections.emptyList();
         }
-        return new Entries(aces, node.getParentId());
+        return new Entries(aces, node.getParentId(), programCache);
     }
 
     /**
@@ -440,9 +553,43 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
         private final List<Entry> aces;
         private NodeId nextId;
 
+        /**
+         * The index of the principal of each entry, computed lazily.
+         */
+        private volatile PrincipalIndex principalIndex;
+
+        /**
+         * The bitmaps of the principal indexes for the sets of principals,
+         * created lazily.
+         */
+        private volatile ConcurrentMap<List<String>, BitSet> principalBits;
+
+        private final ProgramCache programCache;
+
         Entries(List<Entry> aces, NodeId nextId) {
+            this(aces, nextId, new ProgramCache());
+        }
+
+        Entries(List<Entry> aces, NodeId nextId, ProgramCache programCache) {
             this.aces = aces;
             this.nextId = nextId;
+            this.programCache = programCache;
+        }
+
+        /**
+         * Creates a copy of the given entries that points to another access
+         * controlled ancestor. The ACEs and the compiled programs are shared
+         * with the original, which is left unmodified.
+         *
+         * @param base
+         * @param nextId
+         */
+        Entries(Entries base, NodeId nextId) {
+            this.aces = base.aces;
+            this.nextId = nextId;
+            this.principalIndex = base.principalIndex;
+            this.principalBits = base.principalBits;
+            this.programCache = base.programCache;
         }
 
         List<Entry> getACEs() {
@@ -461,6 +608,53 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
             return aces.isEmpty();
         }
 
+        /**
+         * Returns the entries applying to the principals of the given filter,
+         * precompiled for evaluation. Only the bitmap of the principals of
+         * these entries is kept for each set of principals. The programs are
+         * kept in the {@link ProgramCache}, so that all sets of principals
+         * matching the same principals share one program.
+         *
+         * @param filter
+         * @return the program.
+         */
+        EntryProgram getProgram(EntryFilterImpl filter) {
+            if (aces.isEmpty()) {
+                return EntryProgram.EMPTY;
+            }
+            PrincipalIndex index = principalIndex;
+            if (index == null) {
+                principalIndex = index = new PrincipalIndex(aces);
+            }
+            BitSet bits;
+            List<String> key = filter.getPrincipalKey();
+            if (key == null) {
+                bits = index.getBits(filter.getPrincipalNames());
+            } else {
+                ConcurrentMap<List<String>, BitSet> map = principalBits;
+                if (map == null) {
+                    synchronized (this) {
+                        map = principalBits;
+                        if (map == null) {
+                            principalBits = map = new ConcurrentHashMap<List<String>, BitSet>();
+                        }
+                    }
+                }
+                bits = map.get(key);
+                if (bits == null) {
+                    if (map.size() >= PermissionCache.MAX_PRINCIPAL_SETS) {
+                        map.clear();
+                    }
+                    bits = index.getBits(filter.getPrincipalNames());
+                    map.put(key, bits);
+                }
+            }
+            if (bits.isEmpty()) {
+                return EntryProgram.EMPTY;
+            }
+            return programCache.getProgram(aces, index.entryPrincipals, bits);
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
@@ -469,4 +663,123 @@ public class EntryCollector extends AccessControlObserver implements AccessContr
             return sb.toString();
         }
     }
+
+    /**
+     * The programs compiled for the entries of access control lists, keyed by
+     * the list and by the bitmap of the principals they are compiled for.
+     * The cache is bounded for all lists together: it is cleared if it
+     * exceeds {@link #MAX_PROGRAMS}.
+     */
+    static class ProgramCache {
+
+        public static final int DEFAULT_MAX_PROGRAMS = 10000;
+
+        public static final int MAX_PROGRAMS = Integer.getInteger(
+                "org.apache.jackrabbit.core.security.authorization.acl.EntryCollector.programs",
+                DEFAULT_MAX_PROGRAMS
+        );
+
+        private final ConcurrentMap<ProgramKey, EntryProgram> programs =
+                new ConcurrentHashMap<ProgramKey, EntryProgram>();
+
+        /**
+         * @param aces The entries of the list.
+         * @param principalIndexes The index of the principal of each entry.
+         * @param principals The indexes of the principals to compile the
+         * entries for. Must not be modified afterwards.
+         * @return the cached or newly compiled program.
+         */
+        EntryProgram getProgram(List<Entry> aces, int[] principalIndexes, BitSet principals) {
+            ProgramKey key = new ProgramKey(aces, principals);
+            EntryProgram program = programs.get(key);
+            if (program == null) {
+                if (programs.size() >= MAX_PROGRAMS) {
+                    programs.clear();
+                }
+                program = EntryProgram.compile(aces, principalIndexes, principals);
+                programs.put(key, program);
+            }
+            return program;
+        }
+
+        int size() {
+            return programs.size();
+        }
+    }
+
+    /**
+     * Key of a {@link ProgramCache} entry. Lists of entries are compared by
+     * identity, as the lists read for an access controlled node are shared
+     * as long as they do not change.
+     */
+    private static final class ProgramKey {
+
+        private final List<Entry> aces;
+        private final BitSet principals;
+
+        private ProgramKey(List<Entry> aces, BitSet principals) {
+            this.aces = aces;
+            this.principals = principals;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(aces) + principals.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj instanceof ProgramKey) {
+                ProgramKey other = (ProgramKey) obj;
+                return aces == other.aces && principals.equals(other.principals);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Assigns an index to each principal of a list of entries, such that the
+     * principals of an evaluation are represented by a bitmap.
+     */
+    private static class PrincipalIndex {
+
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+        private final int[] entryPrincipals;
+
+        private PrincipalIndex(List<Entry> aces) {
+            entryPrincipals = new int[aces.size()];
+            for (int i = 0; i < entryPrincipals.length; i++) {
+                String principalName = aces.get(i).getPrincipalName();
+                Integer index = indexes.get(principalName);
+                if (index == null) {
+                    index = indexes.size();
+                    indexes.put(principalName, index);
+                }
+                entryPrincipals[i] = index;
+            }
+        }
+
+        /**
+         * @param principalNames the principal names or <code>null</code> for
+         * all principals.
+         * @return the bitmap of the indexes of the given principals.
+         */
+        private BitSet getBits(Collection<String> principalNames) {
+            BitSet bits = new BitSet(indexes.size());
+            if (principalNames == null) {
+                bits.set(0, indexes.size());
+            } else {
+                for (String principalName : principalNames) {
+                    Integer index = indexes.get(principalName);
+                    if (index != null) {
+                        bits.set(index);
+                    }
+                }
+            }
+            return bits;
+        }
+    }
 }
@@ -38,12 +38,15 @@ class EntryFilterImpl implements EntryFilter {
     private static final Logger log = LoggerFactory.getLogger(EntryFilterImpl.class);
 
     private final Collection<String> principalNames;
+    private final List<String> principalKey;
     private final PathProvider pathProvider;
 
     private String itemPath;
 
-    EntryFilterImpl(Collection<String> principalNames, final ItemId id, final SessionImpl sessionImpl) {
+    EntryFilterImpl(Collection<String> principalNames, List<String> principalKey,
+                    final ItemId id, final SessionImpl sessionImpl) {
         this.principalNames = principalNames;
+        this.principalKey = principalKey;
         this.pathProvider = new PathProvider() {
             public String getPath() throws RepositoryException {
                 Path p = sessionImpl.getHierarchyManager().getPath(id);
@@ -52,8 +55,10 @@ class EntryFilterImpl implements EntryFilter {
         };
     }
 
-    EntryFilterImpl(Collection<String> principalNames, final Path absPath, final PathResolver pathResolver) {
+    EntryFilterImpl(Collection<String> principalNames, List<String> principalKey,
+                    final Path absPath, final PathResolver pathResolver) {
         this.principalNames = principalNames;
+        this.principalKey = principalKey;
         this.pathProvider = new PathProvider() {
             public String getPath() throws RepositoryException {
                 return pathResolver.getJCRPath(absPath);
@@ -100,25 +105,53 @@ class EntryFilterImpl implements EntryFilter {
 
     private boolean matches(Entry entry) {
         if (principalNames == null || principalNames.contains(entry.getPrincipalName())) {
-            if (!entry.hasRestrictions()) {
-                // short cut: there is no glob-restriction -> the entry matches
-                // because it is either defined on the node or inherited.
-                return true;
-            } else {
-                // there is a glob-restriction: check if the target path matches
-                // this entry.
-                try {
-                    return entry.matches(getPath());
-                } catch (RepositoryException e) {
-                    log.error("Cannot determine ACE match.", e);
-                }
-            }
+            return matchesRestrictions(entry);
         }
 
         // doesn't match this filter -> ignore
         return false;
     }
 
+    /**
+     * @param entry
+     * @return <code>true</code> if the given entry has no restrictions or if
+     * its restrictions match the path of the target item, irrespective of the
+     * principal of the entry.
+     */
+    boolean matchesRestrictions(Entry entry) {
+        if (!entry.hasRestrictions()) {
+            // short cut: there is no glob-restriction -> the entry matches
+            // because it is either defined on the node or inherited.
+            return true;
+        } else {
+            // there is a glob-restriction: check if the target path matches
+            // this entry.
+            try {
+                return entry.matches(getPath());
+            } catch (RepositoryException e) {
+                log.error("Cannot determine ACE match.", e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the principal names of this filter or <code>null</code> if the
+     * entries of all principals match.
+     */
+    Collection<String> getPrincipalNames() {
+        return principalNames;
+    }
+
+    /**
+     * @return the key identifying the principal names of this filter (see
+     * {@link PermissionCache#getKey(Collection)}) or <code>null</code> if
+     * it is not known.
+     */
+    List<String> getPrincipalKey() {
+        return principalKey;
+    }
+
     String getPath() throws RepositoryException {
         if (itemPath == null) {
             itemPath = pathProvider.getPath();
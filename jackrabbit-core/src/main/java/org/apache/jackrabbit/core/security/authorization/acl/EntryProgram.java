@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization.acl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * <code>EntryProgram</code> contains the entries of a single access control
+ * list that apply to a given set of principals, precompiled for evaluation:
+ * the entries are selected with a bitmap of the principal indexes of the
+ * list, split into user and group entries and ordered as expected by
+ * {@link EntryCollector#collectEntries}. The entries that include the READ
+ * privilege are kept separately, so that read access is evaluated without
+ * looking at any other entry.
+ */
+class EntryProgram {
+
+    static final EntryProgram EMPTY = new EntryProgram(
+            new ArrayList<Entry>(), new ArrayList<Entry>());
+
+    private final Entry[] userEntries;
+    private final Entry[] groupEntries;
+    private final Entry[] userReadEntries;
+    private final Entry[] groupReadEntries;
+
+    private EntryProgram(List<Entry> userEntries, List<Entry> groupEntries) {
+        this.userEntries = userEntries.toArray(new Entry[userEntries.size()]);
+        this.groupEntries = groupEntries.toArray(new Entry[groupEntries.size()]);
+        this.userReadEntries = getReadEntries(userEntries);
+        this.groupReadEntries = getReadEntries(groupEntries);
+    }
+
+    /**
+     * Compiles the entries of an access control list for a set of principals.
+     *
+     * @param aces The entries of the list.
+     * @param principalIndexes The index of the principal of each entry.
+     * @param principals The indexes of the principals to compile the entries
+     * for.
+     * @return The program.
+     */
+    static EntryProgram compile(List<Entry> aces, int[] principalIndexes, BitSet principals) {
+        List<Entry> userEntries = new ArrayList<Entry>();
+        List<Entry> groupEntries = new ArrayList<Entry>();
+        /*
+         NOTE: access control entries must be evaluated in reverse order (see
+         EntryFilterImpl#filterEntries).
+         */
+        for (int i = aces.size() - 1; i >= 0; i--) {
+            if (principals.get(principalIndexes[i])) {
+                Entry ace = aces.get(i);
+                if (ace.isGroupEntry()) {
+                    groupEntries.add(ace);
+                } else {
+                    userEntries.add(ace);
+                }
+            }
+        }
+        if (userEntries.isEmpty() && groupEntries.isEmpty()) {
+            return EMPTY;
+        }
+        return new EntryProgram(userEntries, groupEntries);
+    }
+
+    private static Entry[] getReadEntries(List<Entry> entries) {
+        List<Entry> readEntries = new ArrayList<Entry>();
+        for (Entry ace : entries) {
+            if (ace.getPrivilegeBits().includesRead()) {
+                readEntries.add(ace);
+            }
+        }
+        return readEntries.toArray(new Entry[readEntries.size()]);
+    }
+
+    /**
+     * Adds the entries matching the restrictions of the filter to the given
+     * lists, in evaluation order.
+     */
+    void collect(EntryFilterImpl filter, List<Entry> userAces, List<Entry> groupAces) {
+        collect(filter, userEntries, userAces);
+        collect(filter, groupEntries, groupAces);
+    }
+
+    private static void collect(EntryFilterImpl filter, Entry[] entries, List<Entry> aces) {
+        for (Entry ace : entries) {
+            if (filter.matchesRestrictions(ace)) {
+                aces.add(ace);
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if READ is granted, <code>false</code> if it
+     * is denied by the user entries of this program, or <code>null</code> if
+     * none of them applies.
+     */
+    Boolean getUserRead(EntryFilterImpl filter) {
+        return getRead(filter, userReadEntries);
+    }
+
+    /**
+     * @return <code>true</code> if READ is granted, <code>false</code> if it
+     * is denied by the group entries of this program, or <code>null</code> if
+     * none of them applies.
+     */
+    Boolean getGroupRead(EntryFilterImpl filter) {
+        return getRead(filter, groupReadEntries);
+    }
+
+    boolean hasGroupReadEntries() {
+        return groupReadEntries.length > 0;
+    }
+
+    private static Boolean getRead(EntryFilterImpl filter, Entry[] readEntries) {
+        for (Entry ace : readEntries) {
+            if (filter.matchesRestrictions(ace)) {
+                return ace.isAllow();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization.acl;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.security.authorization.AbstractCompiledPermissions.Result;
+import org.apache.jackrabbit.core.security.authorization.AccessControlListener;
+import org.apache.jackrabbit.core.security.authorization.AccessControlModifications;
+import org.apache.jackrabbit.spi.Path;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <code>PermissionCache</code> holds the permissions evaluated by
+ * {@link CompiledPermissionsImpl} for each set of principals, such that all
+ * sessions of the same principals share them and new sessions do not have
+ * to repeat the evaluation. Only evaluations against the persisted
+ * hierarchy are cached here: sessions with transient changes use the
+ * caches of their own {@link CompiledPermissionsImpl}.
+ * <p>
+ * Lookups do not lock. Any access control modification replaces the
+ * complete cache, so that an evaluation that was started before the
+ * modification can only add its result to the discarded cache. As the
+ * {@link CachingEntryCollector} updates its own cache before informing its
+ * listeners, evaluations started afterwards see the modified entries.
+ * <p>
+ * The caches are bounded: if a cache exceeds its maximum size it is cleared.
+ */
+class PermissionCache implements AccessControlListener {
+
+    public static final int DEFAULT_MAX_PRINCIPAL_SETS = 1000;
+
+    public static final int MAX_PRINCIPAL_SETS = Integer.getInteger(
+            "org.apache.jackrabbit.core.security.authorization.acl.PermissionCache.principalSets",
+            DEFAULT_MAX_PRINCIPAL_SETS
+    );
+
+    private volatile ConcurrentMap<List<String>, Permissions> cache =
+            new ConcurrentHashMap<List<String>, Permissions>();
+
+    /**
+     * Returns the key identifying the given set of principal names.
+     *
+     * @param principalNames The principal names.
+     * @return The sorted, unmodifiable list of principal names.
+     */
+    static List<String> getKey(Collection<String> principalNames) {
+        List<String> key = new ArrayList<String>(principalNames);
+        Collections.sort(key);
+        return Collections.unmodifiableList(key);
+    }
+
+    /**
+     * Returns the cached permissions of the given set of principals. The
+     * returned instance must not be kept across evaluations, since it is
+     * discarded upon access control modifications.
+     *
+     * @param key The key as returned by {@link #getKey(Collection)}.
+     * @return The cached permissions of the principals.
+     */
+    Permissions getPermissions(List<String> key) {
+        ConcurrentMap<List<String>, Permissions> map = cache;
+        Permissions permissions = map.get(key);
+        if (permissions == null) {
+            if (map.size() >= MAX_PRINCIPAL_SETS) {
+                map.clear();
+            }
+            permissions = new Permissions();
+            Permissions existing = map.putIfAbsent(key, permissions);
+            if (existing != null) {
+                permissions = existing;
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * Discards all cached permissions.
+     */
+    void clear() {
+        cache = new ConcurrentHashMap<List<String>, Permissions>();
+    }
+
+    //----------------------------------------< AccessControlListener >---
+    /**
+     * @see AccessControlListener#acModified(org.apache.jackrabbit.core.security.authorization.AccessControlModifications)
+     */
+    public void acModified(AccessControlModifications modifications) {
+        // same as the caches of the individual CompiledPermissionsImpl:
+        // ignore the details of the modifications and clear all permissions.
+        clear();
+    }
+
+    //--------------------------------------------------------< inner class >---
+    /**
+     * The read permissions and results evaluated for a set of principals.
+     */
+    static class Permissions {
+
+        private final ConcurrentMap<ItemId, Boolean> readCache =
+                new ConcurrentHashMap<ItemId, Boolean>();
+
+        private final ConcurrentMap<Path, Result> resultCache =
+                new ConcurrentHashMap<Path, Result>();
+
+        private volatile Result repositoryResult;
+
+        Boolean getRead(ItemId id) {
+            return readCache.get(id);
+        }
+
+        void putRead(ItemId id, boolean canRead) {
+            if (readCache.size() >= CompiledPermissionsImpl.MAX_CACHE_SIZE) {
+                readCache.clear();
+            }
+            readCache.put(id, canRead);
+        }
+
+        /**
+         * @param absPath The absolute path or <code>null</code> for the
+         * repository level result.
+         */
+        Result getResult(Path absPath) {
+            return (absPath == null) ? repositoryResult : resultCache.get(absPath);
+        }
+
+        /**
+         * @param absPath The absolute path or <code>null</code> for the
+         * repository level result.
+         */
+        void putResult(Path absPath, Result result) {
+            if (absPath == null) {
+                repositoryResult = result;
+            } else {
+                if (resultCache.size() >= CompiledPermissionsImpl.MAX_CACHE_SIZE) {
+                    resultCache.clear();
+                }
+                resultCache.put(absPath, result);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.jackrabbit.core.security.user;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Set;
 
 import javax.jcr.AccessDeniedException;
@@ -48,6 +49,12 @@ import org.slf4j.LoggerFactory;
 
 /**
  * <code>MembershipCache</code>...
+ * <p>
+ * If the system property <code>org.apache.jackrabbit.MembershipCache.index</code>
+ * is set to <code>true</code>, the memberships are looked up in a
+ * {@link MembershipIndex}, which is kept up to date with the saved
+ * membership changes, instead of resolving the references to the
+ * authorizable node.
  */
 public class MembershipCache implements UserConstants, SynchronousEventListener, SessionListener {
 
@@ -62,16 +69,30 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
     private static final int MAX_CACHE_SIZE =
             Integer.getInteger("org.apache.jackrabbit.MembershipCache", 5000);
 
+    /**
+     * Whether the memberships are looked up in a {@link MembershipIndex}.
+     */
+    private static final boolean USE_INDEX =
+            Boolean.getBoolean("org.apache.jackrabbit.MembershipCache.index");
+
     private final SessionImpl systemSession;
     private final String groupsPath;
     private final boolean useMembersNode;
     private final String pMembers;
     private final ConcurrentCache<String, Collection<String>> cache;
+    private final MembershipIndex index;
+    private final RemovalListener removalListener;
 
     MembershipCache(SessionImpl systemSession, String groupsPath, boolean useMembersNode) throws RepositoryException {
+        this(systemSession, groupsPath, useMembersNode, USE_INDEX);
+    }
+
+    MembershipCache(SessionImpl systemSession, String groupsPath, boolean useMembersNode,
+                    boolean useIndex) throws RepositoryException {
         this.systemSession = systemSession;
         this.groupsPath = (groupsPath == null) ? UserConstants.GROUPS_PATH : groupsPath;
         this.useMembersNode = useMembersNode;
+        this.index = useIndex ? new MembershipIndex(this.groupsPath, MAX_CACHE_SIZE) : null;
 
         pMembers = systemSession.getJCRName(UserManagerImpl.P_MEMBERS);
         cache = new ConcurrentCache<String, Collection<String>>("MembershipCache", 16);
@@ -89,10 +110,18 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
                 null,
                 ntNames,
                 false);
+        if (index != null) {
+            // removing a group node doesn't result in property events
+            removalListener = new RemovalListener();
+            systemSession.getWorkspace().getObservationManager().addEventListener(removalListener,
+                    Event.NODE_REMOVED, groupsPath, true, null, null, false);
+        } else {
+            removalListener = null;
+        }
         // make sure the membership cache is informed if the system session is
         // logged out in order to stop listening to events.
         systemSession.addListener(this);
-        log.debug("Membership cache initialized. Max Size = {}", MAX_CACHE_SIZE);
+        log.debug("Membership cache initialized. Max Size = {}, Index = {}", MAX_CACHE_SIZE, useIndex);
     }
 
 
@@ -103,19 +132,25 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
     public void onEvent(EventIterator eventIterator) {
         // evaluate if the membership cache needs to be cleared;
         boolean clear = false;
-        while (eventIterator.hasNext() && !clear) {
+        // the groups whose membership needs to be updated in the index
+        Set<String> groupIds = (index == null) ? null : new HashSet<String>();
+        while (eventIterator.hasNext() && (!clear || groupIds != null)) {
             Event ev = eventIterator.nextEvent();
+            boolean affected = false;
             try {
                 if (pMembers.equals(Text.getName(ev.getPath()))) {
                     // simple case: a rep:members property that is affected
-                    clear = true;
+                    affected = true;
+                    if (groupIds != null) {
+                        groupIds.add(ev.getIdentifier());
+                    }
                 } else if (useMembersNode) {
                     // test if it affects a property defined by rep:Members node type.
                     int type = ev.getType();
                     if (type == Event.PROPERTY_ADDED || type == Event.PROPERTY_CHANGED) {
                         Property p = systemSession.getProperty(ev.getPath());
                         Name declNtName = ((NodeTypeImpl) p.getDefinition().getDeclaringNodeType()).getQName();
-                        clear = NT_REP_MEMBERS.equals(declNtName);
+                        affected = NT_REP_MEMBERS.equals(declNtName);
                     } else {
                         // PROPERTY_REMOVED
                         // test if the primary node type of the parent node is rep:Members
@@ -126,21 +161,32 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
                         String parentId = ev.getIdentifier();
                         Node n = systemSession.getNodeByIdentifier(parentId);
                         Name ntName = ((NodeTypeImpl) n.getPrimaryNodeType()).getQName();
-                        clear = (UserConstants.NT_REP_MEMBERS.equals(ntName));
+                        affected = (UserConstants.NT_REP_MEMBERS.equals(ntName));
+                    }
+                    if (affected && groupIds != null) {
+                        groupIds.add(getGroupIdentifier(ev.getIdentifier()));
                     }
                 }
             } catch (RepositoryException e) {
                 log.warn(e.getMessage());
                 // exception while processing the event -> clear the cache to
                 // be sure it isn't outdated.
-                clear = true;
+                affected = true;
+                groupIds = null;
+                if (index != null) {
+                    index.clear();
+                }
             }
+            clear |= affected;
         }
 
         if (clear) {
             cache.clear();
             log.debug("Membership cache cleared because of observation event.");
         }
+        if (groupIds != null && !groupIds.isEmpty()) {
+            updateIndex(groupIds);
+        }
     }
 
     //----------------------------------------------------< SessionListener >---
@@ -150,6 +196,9 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
     public void loggingOut(SessionImpl session) {
         try {
             systemSession.getWorkspace().getObservationManager().removeEventListener(this);
+            if (removalListener != null) {
+                systemSession.getWorkspace().getObservationManager().removeEventListener(removalListener);
+            }
         } catch (RepositoryException e) {
             log.error("Unexpected error: Failed to stop event listening of MembershipCache.", e);
         }
@@ -172,6 +221,9 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
      * @throws RepositoryException If an error occurs.
      */
     Collection<String> getDeclaredMemberOf(String authorizableNodeIdentifier) throws RepositoryException {
+        if (index != null) {
+            return indexedDeclaredMemberOf(authorizableNodeIdentifier);
+        }
         return declaredMemberOf(authorizableNodeIdentifier);
     }
 
@@ -183,6 +235,9 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
      * @throws RepositoryException If an error occurs.
      */
     Collection<String> getMemberOf(String authorizableNodeIdentifier) throws RepositoryException {
+        if (index != null) {
+            return indexedMemberOf(authorizableNodeIdentifier);
+        }
         Set<String> groupNodeIds = new HashSet<String>();
         memberOf(authorizableNodeIdentifier, groupNodeIds);
         return Collections.unmodifiableCollection(groupNodeIds);
@@ -201,6 +256,9 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
      */
     void clear() {
         cache.clear();
+        if (index != null) {
+            index.clear();
+        }
     }
 
     /**
@@ -305,6 +363,88 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
         return groupNodeIds;
     }
 
+    /**
+     * Looks up the groups where the given authorizable is a declared member of in the index.
+     *
+     * @param authorizableNodeIdentifier Identifier of the authorizable node
+     * @return the collection of groups where the authorizable is a declared member of
+     * @throws RepositoryException if an error occurs
+     */
+    private Collection<String> indexedDeclaredMemberOf(String authorizableNodeIdentifier) throws RepositoryException {
+        if (!index.isBuilt()) {
+            Session session = getSession();
+            try {
+                index.build(session);
+            } finally {
+                // release session if it isn't the original system session
+                if (session != systemSession) {
+                    session.logout();
+                }
+            }
+        }
+        return Collections.unmodifiableCollection(select(
+                index.getPropertyMemberOf(authorizableNodeIdentifier),
+                index.getNodeMemberOf(authorizableNodeIdentifier)));
+    }
+
+    /**
+     * Collects the groups where the given authorizable is a member of from the index and caches the result
+     * until the membership of the authorizable or any of its groups changes.
+     *
+     * @param authorizableNodeIdentifier Identifier of the authorizable node
+     * @return the collection of groups where the authorizable is a member of
+     * @throws RepositoryException if an error occurs
+     */
+    private Collection<String> indexedMemberOf(String authorizableNodeIdentifier) throws RepositoryException {
+        Collection<String> groupNodeIds = index.getClosure(authorizableNodeIdentifier);
+        if (groupNodeIds == null) {
+            long generation = index.getGeneration();
+            Set<String> ids = new HashSet<String>();
+            LinkedList<String> pending = new LinkedList<String>();
+            pending.add(authorizableNodeIdentifier);
+            while (!pending.isEmpty()) {
+                for (String identifier : indexedDeclaredMemberOf(pending.removeFirst())) {
+                    if (ids.add(identifier)) {
+                        pending.add(identifier);
+                    }
+                }
+            }
+            groupNodeIds = Collections.unmodifiableCollection(ids);
+            index.putClosure(authorizableNodeIdentifier, groupNodeIds, generation);
+        }
+        return groupNodeIds;
+    }
+
+    /**
+     * Updates the membership of the specified groups in the index.
+     *
+     * @param groupIds Identifiers of the modified group nodes
+     */
+    private void updateIndex(Collection<String> groupIds) {
+        try {
+            index.update(groupIds, systemSession);
+        } catch (RepositoryException e) {
+            log.warn("Failed to update membership index: {}", e.getMessage());
+            index.clear();
+        }
+    }
+
+    /**
+     * Returns the identifier of the group node that holds the given
+     * <code>rep:Members</code> node.
+     *
+     * @param membersNodeIdentifier Identifier of a node in the members tree of a group
+     * @return the identifier of the group node
+     * @throws RepositoryException if an error occurs, e.g. if the node does not exist anymore
+     */
+    private String getGroupIdentifier(String membersNodeIdentifier) throws RepositoryException {
+        NodeImpl n = (NodeImpl) systemSession.getNodeByIdentifier(membersNodeIdentifier);
+        while (n.isNodeType(NT_REP_MEMBERS)) {
+            n = (NodeImpl) n.getParent();
+        }
+        return n.getIdentifier();
+    }
+
     /**
      * Collects the groups where the given authorizable is a member of by recursively fetching the declared memberships
      * via {@link #declaredMemberOf(String)} (cached).
@@ -558,4 +698,43 @@ public class MembershipCache implements UserConstants, SynchronousEventListener,
         }
         return refs;
     }
-}
\ No newline at end of file
+
+    /**
+     * Removes the groups from the index whose node is removed, and updates the
+     * groups whose <code>rep:Members</code> nodes are removed.
+     */
+    private class RemovalListener implements SynchronousEventListener {
+
+        public void onEvent(EventIterator eventIterator) {
+            Set<String> groupIds = new HashSet<String>();
+            while (eventIterator.hasNext()) {
+                Event ev = eventIterator.nextEvent();
+                try {
+                    groupIds.add(ev.getIdentifier());
+                    // the closest existing ancestor may be a group whose
+                    // members node has been removed
+                    String path = Text.getRelativeParent(ev.getPath(), 1);
+                    while (path.length() > groupsPath.length() && !systemSession.nodeExists(path)) {
+                        path = Text.getRelativeParent(path, 1);
+                    }
+                    if (path.length() > groupsPath.length()) {
+                        NodeImpl n = (NodeImpl) systemSession.getNode(path);
+                        while (n.isNodeType(NT_REP_MEMBERS)) {
+                            n = (NodeImpl) n.getParent();
+                        }
+                        if (n.isNodeType(NT_REP_GROUP)) {
+                            groupIds.add(n.getIdentifier());
+                        }
+                    }
+                } catch (RepositoryException e) {
+                    log.warn(e.getMessage());
+                    index.clear();
+                    return;
+                }
+            }
+            if (!groupIds.isEmpty()) {
+                updateIndex(groupIds);
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.user;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.PropertyImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <code>MembershipIndex</code> maps the identifier of a member to the
+ * identifiers of the groups below the groups path that declare it as member,
+ * separately for the members recorded in the <code>rep:members</code>
+ * property and in the <code>rep:Members</code> node tree of a group.
+ * <p>
+ * The index is built by a single traversal of the groups tree upon first
+ * access. Afterwards only the groups affected by a save are read again (see
+ * {@link #update(Collection, Session)}) and the membership of their added and
+ * removed members is adjusted. The index in addition caches the transitive
+ * closure of the memberships, of which only those entries are invalidated
+ * upon an update that include a changed member.
+ */
+class MembershipIndex implements UserConstants {
+
+    /**
+     * logger instance
+     */
+    private static final Logger log = LoggerFactory.getLogger(MembershipIndex.class);
+
+    private static final Members NO_MEMBERS =
+            new Members(Collections.<String>emptySet(), Collections.<String>emptySet());
+
+    private final String groupsPath;
+
+    private final int maxClosures;
+
+    /**
+     * The declared members of each indexed group. Guarded by this.
+     */
+    private final Map<String, Members> groups = new HashMap<String, Members>();
+
+    /**
+     * Member id -> ids of the groups listing it in their members property.
+     */
+    private final ConcurrentMap<String, Set<String>> propertyIndex = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * Member id -> ids of the groups listing it in their members node tree.
+     */
+    private final ConcurrentMap<String, Set<String>> nodeIndex = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * Member id -> ids of all groups it is a direct or indirect member of.
+     */
+    private final ConcurrentMap<String, Collection<String>> closures = new ConcurrentHashMap<String, Collection<String>>();
+
+    /**
+     * Incremented upon each update of the index.
+     */
+    private volatile long generation;
+
+    private volatile boolean built;
+
+    MembershipIndex(String groupsPath, int maxClosures) {
+        this.groupsPath = groupsPath;
+        this.maxClosures = maxClosures;
+    }
+
+    /**
+     * @return <code>true</code> if the index has been built.
+     */
+    boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Builds the index unless this has already been done.
+     *
+     * @param session The session used to read the groups tree.
+     * @throws RepositoryException If an error occurs.
+     */
+    synchronized void build(Session session) throws RepositoryException {
+        if (built) {
+            return;
+        }
+        final long t0 = System.nanoTime();
+        Map<String, Set<String>> pIndex = new HashMap<String, Set<String>>();
+        Map<String, Set<String>> nIndex = new HashMap<String, Set<String>>();
+        if (session.nodeExists(groupsPath)) {
+            traverse((NodeImpl) session.getNode(groupsPath), pIndex, nIndex);
+        } // else: no groups exist -> nothing to do.
+
+        publish(pIndex, propertyIndex);
+        publish(nIndex, nodeIndex);
+        built = true;
+
+        log.info("Membership index built for {} groups in {}ms",
+                groups.size(), (System.nanoTime() - t0) / 1000000);
+    }
+
+    /**
+     * Reads the declared members of the specified groups again and adjusts the
+     * index to any added or removed member. Groups that no longer exist are
+     * removed from the index.
+     *
+     * @param groupIds The identifiers of the modified group nodes.
+     * @param session The session used to read the groups.
+     * @throws RepositoryException If an error occurs.
+     */
+    synchronized void update(Collection<String> groupIds, Session session) throws RepositoryException {
+        if (!built) {
+            // the current state is read once the index is built.
+            return;
+        }
+        Set<String> changed = new HashSet<String>();
+        for (String groupId : groupIds) {
+            Members members = NO_MEMBERS;
+            try {
+                NodeImpl n = (NodeImpl) session.getNodeByIdentifier(groupId);
+                if (n.isNodeType(NT_REP_GROUP)) {
+                    members = readMembers(n);
+                }
+            } catch (ItemNotFoundException e) {
+                // group has been removed
+            }
+            Members old = groups.get(groupId);
+            if (old == null) {
+                old = NO_MEMBERS;
+            }
+            if (members == NO_MEMBERS) {
+                groups.remove(groupId);
+            } else {
+                groups.put(groupId, members);
+            }
+            update(groupId, old.propertyMembers, members.propertyMembers, propertyIndex, changed);
+            update(groupId, old.nodeMembers, members.nodeMembers, nodeIndex, changed);
+        }
+
+        if (!changed.isEmpty()) {
+            generation++;
+            for (Iterator<Map.Entry<String, Collection<String>>> it = closures.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Collection<String>> entry = it.next();
+                if (changed.contains(entry.getKey()) || !Collections.disjoint(changed, entry.getValue())) {
+                    it.remove();
+                }
+            }
+            log.debug("Membership index updated for {} members", changed.size());
+        }
+    }
+
+    /**
+     * Drops the index. It is built again upon next access.
+     */
+    synchronized void clear() {
+        built = false;
+        generation++;
+        groups.clear();
+        propertyIndex.clear();
+        nodeIndex.clear();
+        closures.clear();
+    }
+
+    /**
+     * @param memberId The identifier of a member node.
+     * @return The identifiers of the groups declaring the member in their
+     * members property.
+     */
+    Set<String> getPropertyMemberOf(String memberId) {
+        Set<String> groupIds = propertyIndex.get(memberId);
+        return (groupIds == null) ? Collections.<String>emptySet() : groupIds;
+    }
+
+    /**
+     * @param memberId The identifier of a member node.
+     * @return The identifiers of the groups declaring the member in their
+     * members node tree.
+     */
+    Set<String> getNodeMemberOf(String memberId) {
+        Set<String> groupIds = nodeIndex.get(memberId);
+        return (groupIds == null) ? Collections.<String>emptySet() : groupIds;
+    }
+
+    /**
+     * @return A value that changes with each update of the index.
+     */
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param memberId The identifier of a member node.
+     * @return The cached identifiers of all groups the member is a direct or
+     * indirect member of or <code>null</code>.
+     */
+    Collection<String> getClosure(String memberId) {
+        return closures.get(memberId);
+    }
+
+    /**
+     * Caches the transitive membership of the specified member unless the
+     * index has been updated since the given generation.
+     *
+     * @param memberId The identifier of a member node.
+     * @param groupIds The identifiers of all groups the member is a direct or
+     * indirect member of.
+     * @param generation The generation the membership has been computed with.
+     */
+    void putClosure(String memberId, Collection<String> groupIds, long generation) {
+        if (closures.size() >= maxClosures) {
+            closures.clear();
+        }
+        closures.put(memberId, groupIds);
+        if (generation != this.generation) {
+            // concurrently updated, the closure may be outdated.
+            closures.remove(memberId, groupIds);
+        }
+    }
+
+    /**
+     * @return The number of cached transitive memberships.
+     */
+    int getClosureCount() {
+        return closures.size();
+    }
+
+    //------------------------------------------------------------< private >---
+    private void traverse(NodeImpl node, Map<String, Set<String>> pIndex,
+                          Map<String, Set<String>> nIndex) throws RepositoryException {
+        if (node.isNodeType(NT_REP_GROUP)) {
+            String groupId = node.getIdentifier();
+            Members members = readMembers(node);
+            groups.put(groupId, members);
+            for (String id : members.propertyMembers) {
+                add(pIndex, id, groupId);
+            }
+            for (String id : members.nodeMembers) {
+                add(nIndex, id, groupId);
+            }
+        } else {
+            NodeIterator iter = node.getNodes();
+            while (iter.hasNext()) {
+                traverse((NodeImpl) iter.nextNode(), pIndex, nIndex);
+            }
+        }
+    }
+
+    private static Members readMembers(NodeImpl group) throws RepositoryException {
+        Set<String> pIds = new HashSet<String>();
+        if (group.hasProperty(P_MEMBERS)) {
+            for (Value value : group.getProperty(P_MEMBERS).getValues()) {
+                pIds.add(value.getString());
+            }
+        }
+        Set<String> nIds = new HashSet<String>();
+        NodeIterator iter = group.getNodes();
+        while (iter.hasNext()) {
+            NodeImpl child = (NodeImpl) iter.nextNode();
+            if (child.isNodeType(NT_REP_MEMBERS)) {
+                readMembersNode(child, nIds);
+            }
+        }
+        if (pIds.isEmpty() && nIds.isEmpty()) {
+            return new Members(Collections.<String>emptySet(), Collections.<String>emptySet());
+        }
+        return new Members(pIds, nIds);
+    }
+
+    private static void readMembersNode(NodeImpl node, Set<String> nIds) throws RepositoryException {
+        PropertyIterator pIter = node.getProperties();
+        while (pIter.hasNext()) {
+            PropertyImpl p = (PropertyImpl) pIter.nextProperty();
+            if (p.getType() == PropertyType.WEAKREFERENCE) {
+                if (p.isMultiple()) {
+                    for (Value v : p.getValues()) {
+                        nIds.add(v.getString());
+                    }
+                } else {
+                    nIds.add(p.getValue().getString());
+                }
+            }
+        }
+        NodeIterator iter = node.getNodes();
+        while (iter.hasNext()) {
+            NodeImpl child = (NodeImpl) iter.nextNode();
+            if (child.isNodeType(NT_REP_MEMBERS)) {
+                readMembersNode(child, nIds);
+            }
+        }
+    }
+
+    private static void update(String groupId, Set<String> oldIds, Set<String> newIds,
+                               ConcurrentMap<String, Set<String>> index, Set<String> changed) {
+        for (String id : oldIds) {
+            if (!newIds.contains(id)) {
+                Set<String> groupIds = new HashSet<String>(index.get(id));
+                groupIds.remove(groupId);
+                if (groupIds.isEmpty()) {
+                    index.remove(id);
+                } else {
+                    index.put(id, Collections.unmodifiableSet(groupIds));
+                }
+                changed.add(id);
+            }
+        }
+        for (String id : newIds) {
+            if (!oldIds.contains(id)) {
+                Set<String> groupIds = index.get(id);
+                groupIds = (groupIds == null) ? new HashSet<String>() : new HashSet<String>(groupIds);
+                groupIds.add(groupId);
+                index.put(id, Collections.unmodifiableSet(groupIds));
+                changed.add(id);
+            }
+        }
+    }
+
+    private static void add(Map<String, Set<String>> index, String memberId, String groupId) {
+        Set<String> groupIds = index.get(memberId);
+        if (groupIds == null) {
+            groupIds = new HashSet<String>();
+            index.put(memberId, groupIds);
+        }
+        groupIds.add(groupId);
+    }
+
+    private static void publish(Map<String, Set<String>> built, ConcurrentMap<String, Set<String>> index) {
+        index.clear();
+        for (Map.Entry<String, Set<String>> entry : built.entrySet()) {
+            index.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+        }
+    }
+
+    /**
+     * The declared members of a group.
+     */
+    private static final class Members {
+
+        private final Set<String> propertyMembers;
+
+        private final Set<String> nodeMembers;
+
+        private Members(Set<String> propertyMembers, Set<String> nodeMembers) {
+            this.propertyMembers = propertyMembers;
+            this.nodeMembers = nodeMembers;
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.session;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executor of asynchronous session saves. A save submitted to this executor
+ * is performed by a background thread as a normal {@link SessionSaveOperation},
+ * so it is serialized with the other operations of the session by the
+ * {@link SessionState} lock, and the submitting thread can continue with
+ * work that does not need the session until the save has completed.
+ * <p>
+ * No snapshot of the transient space is taken when a save is submitted.
+ * Instead, {@link #save(SessionContext)} blocks until the save thread has
+ * acquired the session lock, so that the save persists the transient
+ * changes made before its submission, and the changes made after it wait
+ * for the save to complete. The submitting thread blocks on its next
+ * session operation anyway, so an asynchronous save only gains the time
+ * that thread spends on other work. A save that is submitted by another
+ * thread while an earlier save of the same session is still waiting to be
+ * started is merged into the earlier one: both callers get the same
+ * future. The future of a save completes once all the changes
+ * made before its submission have been persisted, or fails with the
+ * exception thrown by the save operation, in which case the changes are
+ * kept in the transient space of the session like after a failed
+ * {@link javax.jcr.Session#save()}. As the futures may be shared and a
+ * started save can not be undone, they can not be cancelled.
+ * <p>
+ * The executor keeps counters about the submitted, merged, completed and
+ * failed saves and about the depth of the pipeline, i.e. the number of
+ * saves that have been submitted but have not yet completed.
+ */
+public class SessionSaveExecutor {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger log =
+        LoggerFactory.getLogger(SessionSaveExecutor.class);
+
+    /**
+     * Default number of threads performing asynchronous saves.
+     */
+    private static final int DEFAULT_THREADS = Integer.getInteger(
+            "org.apache.jackrabbit.core.session.saveThreads",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Thread counter for generating unique names for the threads.
+     */
+    private static final AtomicInteger counter = new AtomicInteger(1);
+
+    /**
+     * Thread factory for creating the save threads.
+     */
+    private static final ThreadFactory factory = new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(
+                    runnable, "jackrabbit-save-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            thread.setContextClassLoader(
+                    SessionSaveExecutor.class.getClassLoader());
+            return thread;
+        }
+    };
+
+    /**
+     * Completed future returned when there are no changes to be saved.
+     */
+    private static final FutureTask<Void> NOTHING_TO_SAVE =
+        new FutureTask<Void>(new Runnable() {
+            public void run() {
+            }
+        }, null);
+
+    static {
+        NOTHING_TO_SAVE.run();
+    }
+
+    /**
+     * The threads performing the saves.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The last submitted save of each session, until it has completed.
+     */
+    private final Map<SessionContext, SaveTask> pending =
+        new HashMap<SessionContext, SaveTask>();
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private final AtomicLong merged = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong duration = new AtomicLong();
+
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicInteger maxDepth = new AtomicInteger();
+
+    /**
+     * Creates an executor with the default number of threads, taken from
+     * the <code>org.apache.jackrabbit.core.session.saveThreads</code>
+     * system property.
+     */
+    public SessionSaveExecutor() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * Creates an executor with the given number of threads. The threads are
+     * only started when saves are submitted, and stopped when idle.
+     *
+     * @param threads number of threads performing saves
+     */
+    public SessionSaveExecutor(int threads) {
+        executor = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), factory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Submits a save of the transient changes of the given session and
+     * waits until the save has locked the session.
+     *
+     * @param context component context of the session
+     * @return future of the save
+     * @throws RepositoryException if the session has been closed
+     */
+    public Future<Void> save(SessionContext context)
+            throws RepositoryException {
+        context.getSessionState().checkAlive();
+
+        SaveTask task;
+        synchronized (this) {
+            task = pending.get(context);
+            if (task != null && !task.merge()) {
+                task = null;
+            }
+        }
+        if (task != null) {
+            // the changes are saved by the pending save
+            merged.incrementAndGet();
+            task.awaitLocked();
+            return task;
+        }
+
+        // checked under the session lock, as the transient space is
+        // modified by a running save
+        boolean changes = context.getSessionState().perform(
+                new SessionOperation<Boolean>() {
+                    public Boolean perform(SessionContext context) {
+                        return context.getItemStateManager()
+                                .hasAnyTransientItemStates();
+                    }
+                    public String toString() {
+                        return "session.hasPendingChanges()";
+                    }
+                });
+
+        boolean merge;
+        synchronized (this) {
+            task = pending.get(context);
+            merge = task != null && (task.merge() || !changes);
+            if (task == null && !changes) {
+                // JCR-3131: nothing to save
+                return NOTHING_TO_SAVE;
+            } else if (!merge) {
+                task = new SaveTask(context);
+                pending.put(context, task);
+            }
+        }
+        if (merge) {
+            // the changes are saved by the pending save
+            merged.incrementAndGet();
+            task.awaitLocked();
+            return task;
+        }
+
+        submitted.incrementAndGet();
+        int d = depth.incrementAndGet();
+        for (int max = maxDepth.get(); d > max; max = maxDepth.get()) {
+            if (maxDepth.compareAndSet(max, d)) {
+                break;
+            }
+        }
+
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // the executor has been shut down, save in the calling thread
+            log.debug("Performing {} synchronously", task);
+            task.run();
+        }
+        task.awaitLocked();
+        return task;
+    }
+
+    /**
+     * Waits until the pending saves of the given session have completed.
+     * Called before the session is closed. Failures of the saves are
+     * ignored, as they have been reported through the futures.
+     *
+     * @param context component context of the session
+     */
+    public void await(SessionContext context) {
+        SaveTask task;
+        synchronized (this) {
+            task = pending.get(context);
+        }
+        if (task != null) {
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                log.debug("Asynchronous save failed", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops the save threads after the already submitted saves have been
+     * performed. Saves submitted after this method has been called are
+     * performed synchronously. This method does not return before all
+     * the submitted saves have completed, so that the workspaces can be
+     * disposed afterwards, and it is therefore not interrupted either.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                        return;
+                    }
+                    log.warn("Waiting for " + depth.get()
+                            + " asynchronous saves to complete");
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of saves that have been submitted but have not
+     * yet completed.
+     *
+     * @return current pipeline depth
+     */
+    public int getPipelineDepth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the largest pipeline depth seen so far.
+     *
+     * @return maximum pipeline depth
+     */
+    public int getMaxPipelineDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * Returns the number of saves that have been submitted to the threads.
+     * Merged saves are not included.
+     *
+     * @return number of submitted saves
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     * Returns the number of saves that have been merged into a pending
+     * save of the same session.
+     *
+     * @return number of merged saves
+     */
+    public long getMergedCount() {
+        return merged.get();
+    }
+
+    /**
+     * Returns the number of saves that have completed successfully.
+     *
+     * @return number of completed saves
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of saves that have failed.
+     *
+     * @return number of failed saves
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the total time spent performing saves, including the time
+     * spent waiting for the session lock.
+     *
+     * @return duration in nanoseconds
+     */
+    public long getTotalDuration() {
+        return duration.get();
+    }
+
+    /**
+     * A submitted save.
+     */
+    private final class SaveTask extends FutureTask<Void> {
+
+        private final SessionContext context;
+
+        /**
+         * Released once the save holds the session lock, or when the save
+         * has completed without getting that far.
+         */
+        private final CountDownLatch locked;
+
+        /**
+         * Flag to indicate that the save has been started, after which no
+         * more saves can be merged into it.
+         */
+        private boolean started = false;
+
+        /**
+         * Flag to indicate that this save has been removed from the pipeline.
+         */
+        private boolean finished = false;
+
+        SaveTask(SessionContext context) {
+            this(context, new CountDownLatch(1));
+        }
+
+        private SaveTask(
+                final SessionContext context, final CountDownLatch locked) {
+            super(new Callable<Void>() {
+                public Void call() throws RepositoryException {
+                    context.getSessionState().perform(
+                            new SessionSaveOperation(true) {
+                                @Override
+                                public Object perform(SessionContext context)
+                                        throws RepositoryException {
+                                    // the session lock is held from here on
+                                    locked.countDown();
+                                    return super.perform(context);
+                                }
+                            });
+                    return null;
+                }
+            });
+            this.context = context;
+            this.locked = locked;
+        }
+
+        /**
+         * Waits until this save holds the session lock, so that the
+         * changes made by the calling thread after this method returns
+         * are not included in the save. An interrupt ends the wait early
+         * and is passed on to the caller.
+         */
+        void awaitLocked() {
+            try {
+                locked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Merges a save into this one if it has not been started yet.
+         *
+         * @return <code>true</code> if the save was merged
+         */
+        synchronized boolean merge() {
+            return !started;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                started = true;
+            }
+            long start = System.nanoTime();
+            try {
+                super.run();
+            } finally {
+                duration.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        protected void set(Void value) {
+            finish();
+            completed.incrementAndGet();
+            super.set(value);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            finish();
+            failed.incrementAndGet();
+            log.debug("Asynchronous save of " + context.getSessionImpl()
+                    + " failed", t);
+            super.setException(t);
+        }
+
+        /**
+         * Saves can not be cancelled, as the future may be shared by merged
+         * saves and a started save can not be undone.
+         *
+         * @return <code>false</code>
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        /**
+         * Removes this save from the pipeline. Called before the future
+         * is completed, so that the waiting threads see the updated
+         * pipeline state.
+         */
+        private void finish() {
+            locked.countDown();
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            synchronized (SessionSaveExecutor.this) {
+                if (pending.get(context) == this) {
+                    pending.remove(context);
+                }
+            }
+            depth.decrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return "session.saveAsync() of " + context.getSessionImpl();
+        }
+
+    }
+
+}
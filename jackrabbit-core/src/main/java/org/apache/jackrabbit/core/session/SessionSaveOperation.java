@@ -32,6 +32,39 @@ public class SessionSaveOperation implements SessionWriteOperation<Object> {
     private static final Logger LOG = LoggerFactory.getLogger(SessionSaveOperation.class);
     private static final boolean LOG_WITH_STACKTRACE = Boolean.getBoolean("org.jackrabbit.logWithStackTrace");
 
+    /**
+     * Flag to indicate that this save was submitted asynchronously and is
+     * performed by a background thread instead of the session owner.
+     */
+    private final boolean background;
+
+    /**
+     * Creates a save operation performed by the thread using the session.
+     */
+    public SessionSaveOperation() {
+        this(false);
+    }
+
+    /**
+     * Creates a save operation.
+     *
+     * @param background whether the operation is performed by a background
+     *                   thread on behalf of the session owner
+     * @see SessionSaveExecutor
+     */
+    public SessionSaveOperation(boolean background) {
+        this.background = background;
+    }
+
+    /**
+     * Checks whether this operation is performed by a background thread.
+     *
+     * @return <code>true</code> for asynchronous saves
+     */
+    public boolean isBackground() {
+        return background;
+    }
+
     /**
      * Persists transient changes by delegating to the save() method of the
      * root node (or the parent of transient changes if access to the root
@@ -73,7 +106,7 @@ public class SessionSaveOperation implements SessionWriteOperation<Object> {
      * Returns a string representation of this operation.
      */
     public String toString() {
-        return "session.save()";
+        return background ? "session.saveAsync()" : "session.save()";
     }
 
 }
\ No newline at end of file
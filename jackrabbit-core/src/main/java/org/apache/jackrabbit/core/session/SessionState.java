@@ -20,7 +20,7 @@ import static org.apache.jackrabbit.api.stats.RepositoryStatistics.Type;
 
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
@@ -42,7 +42,9 @@ import org.slf4j.LoggerFactory;
  * Concurrent access to session internals is controlled by the
  * {@link #perform(SessionOperation)} method that guarantees that no two
  * {@link SessionOperation operations} are performed concurrently on the
- * same session.
+ * same session. Sessions that are shared by multiple reading threads can
+ * enable {@link #setConcurrentReads(boolean) concurrent reads}, in which
+ * case only write operations are performed exclusively.
  *
  * @see <a href="https://issues.apache.org/jira/browse/JCR-890">JCR-890</a>
  */
@@ -88,9 +90,15 @@ public class SessionState {
      * The lock used to guarantee synchronized execution of repository
      * operations. An explicit lock is used instead of normal Java
      * synchronization in order to be able to log attempts to concurrently
-     * use a session.
+     * use a session. Operations acquire the write lock, unless concurrent
+     * reads are enabled, in which case read operations share the read lock.
      */
-    private final Lock lock = new ReentrantLock();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Flag to indicate that read operations may be performed concurrently.
+     */
+    private volatile boolean concurrentReads = false;
 
     /**
      * Flag to indicate that the current operation is a write operation.
@@ -98,6 +106,13 @@ public class SessionState {
      */
     private volatile boolean isWriteOperation = false;
 
+    /**
+     * Flag to indicate that the current write operation is an asynchronous
+     * save performed by a background thread. The session owner is expected
+     * to block on such an operation, so no warning is logged for it.
+     */
+    private volatile boolean isBackgroundSave = false;
+
     /**
      * Flag to indicate a closed session. When <code>null</code>, the session
      * is still alive. And when the session is closed, this reference is set
@@ -153,6 +168,58 @@ public class SessionState {
         }
     }
 
+    /**
+     * Checks whether read operations of this session may be performed
+     * concurrently.
+     *
+     * @return <code>true</code> if concurrent reads are enabled
+     */
+    public boolean isConcurrentReads() {
+        return concurrentReads;
+    }
+
+    /**
+     * Enables or disables concurrent read operations. When enabled, read
+     * operations of multiple threads are no longer serialized, while write
+     * operations still get exclusive access to the session internals.
+     *
+     * @param concurrentReads whether to enable concurrent reads
+     */
+    public void setConcurrentReads(boolean concurrentReads) {
+        this.concurrentReads = concurrentReads;
+    }
+
+    /**
+     * Returns the lock to be held while performing the given operation.
+     * Nested operations keep using the lock already held by the current
+     * thread. A read lock can not be upgraded to the write lock, so a write
+     * operation nested in a concurrent read operation is rejected.
+     *
+     * @param operation session operation
+     * @return read or write lock
+     * @throws RepositoryException if a write operation is nested in a
+     *                             concurrent read operation
+     */
+    private Lock getLock(SessionOperation<?> operation)
+            throws RepositoryException {
+        if (lock.isWriteLockedByCurrentThread()) {
+            return lock.writeLock();
+        } else if (lock.getReadHoldCount() > 0) {
+            if (operation instanceof SessionWriteOperation) {
+                throw new RepositoryException(
+                        "Unable to perform " + operation
+                        + " within a concurrent read of "
+                        + context.getSessionImpl());
+            }
+            return lock.readLock();
+        } else if (concurrentReads
+                && !(operation instanceof SessionWriteOperation)) {
+            return lock.readLock();
+        } else {
+            return lock.writeLock();
+        }
+    }
+
     /**
      * Performs the given operation within a synchronized block. Special care
      * is made to detect attempts to access the session concurrently and to
@@ -170,8 +237,10 @@ public class SessionState {
         // Acquire the exclusive lock for accessing session internals.
         // No other session should be holding the lock, so we log a
         // message to let the user know of such cases.
+        Lock lock = getLock(operation);
+        boolean shared = lock == this.lock.readLock();
         if (!lock.tryLock()) {
-            if (isWriteOperation
+            if (isWriteOperation && !isBackgroundSave
                     && operation instanceof SessionWriteOperation) {
                 Exception trace = new Exception(
                         "Stack trace of concurrent access to " + session);
@@ -181,6 +250,9 @@ public class SessionState {
                         + " thread is finished using this session. Please"
                         + " review your code to avoid concurrent use of"
                         + " a session.", trace);
+            } else if (isBackgroundSave) {
+                log.debug("Waiting for a pending asynchronous save of {}"
+                        + " before performing {}", session, operation);
             } else if (log.isDebugEnabled()) {
                 Exception trace = new Exception(
                         "Stack trace of concurrent access to " + session);
@@ -202,10 +274,12 @@ public class SessionState {
             // Raise the isWriteOperation flag for write operations.
             // The flag is used to set the appropriate log level above.
             boolean wasWriteOperation = isWriteOperation;
-            if (!wasWriteOperation
+            if (!shared && !wasWriteOperation
                     && operation instanceof SessionWriteOperation) {
                 isWriteOperation = true;
                 isOutermostWriteOperation = true;
+                isBackgroundSave = operation instanceof SessionSaveOperation
+                        && ((SessionSaveOperation) operation).isBackground();
             }
 
             try {
@@ -218,7 +292,7 @@ public class SessionState {
                     long time = System.nanoTime() - start;
 
                     // JCR-3040: Increment the operation counters
-                    if (isWriteOperation) {
+                    if (isWriteOperation && !shared) {
                         writeCounter.incrementAndGet();
                         writeDuration.addAndGet(time);
                     } else {
@@ -229,7 +303,12 @@ public class SessionState {
                     log.debug("Performed {} in {}ns", operation, time);
                 }
             } finally {
-                isWriteOperation = wasWriteOperation;
+                if (!shared) {
+                    isWriteOperation = wasWriteOperation;
+                }
+                if (isOutermostWriteOperation) {
+                    isBackgroundSave = false;
+                }
             }
         } finally {
             lock.unlock();
@@ -259,6 +338,7 @@ public class SessionState {
     public boolean close() {
         String session = context.getSessionImpl().toString();
 
+        Lock lock = this.lock.writeLock();
         if (!lock.tryLock()) {
             Exception trace = new Exception(
                     "Stack trace of concurrent access to " + session);
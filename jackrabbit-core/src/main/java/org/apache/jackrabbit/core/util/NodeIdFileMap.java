@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * Map from node ids to node ids that is stored in a temporary file. The
+ * file is an open addressing hash table with fixed size slots, so a lookup
+ * reads a few slots of the file and does not depend on the number of
+ * entries. The table is doubled when it gets half full.
+ */
+class NodeIdFileMap {
+
+    /**
+     * Size of a slot: a used flag followed by the key and the value.
+     */
+    private static final int SLOT_SIZE = 1 + 4 * 8;
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+
+    /**
+     * Number of slots read at once when the table is resized.
+     */
+    private static final int RESIZE_CHUNK = 1024;
+
+    private File file;
+
+    private RandomAccessFile table;
+
+    private int capacity;
+
+    private int size;
+
+    private final byte[] slot = new byte[SLOT_SIZE];
+
+    NodeIdFileMap() throws IOException {
+        capacity = INITIAL_CAPACITY;
+        file = createFile(capacity);
+        table = new RandomAccessFile(file, "rw");
+    }
+
+    int size() {
+        return size;
+    }
+
+    void put(NodeId key, NodeId value) throws IOException {
+        if (2 * (size + 1) > capacity) {
+            resize();
+        }
+        if (put(table, capacity, key, value)) {
+            size++;
+        }
+    }
+
+    NodeId get(NodeId key) throws IOException {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        for (int i = indexOf(key, capacity); ; i = (i + 1) & (capacity - 1)) {
+            table.seek((long) i * SLOT_SIZE);
+            table.readFully(slot);
+            if (slot[0] == 0) {
+                return null;
+            } else if (getLong(slot, 1) == msb && getLong(slot, 9) == lsb) {
+                return new NodeId(getLong(slot, 17), getLong(slot, 25));
+            }
+        }
+    }
+
+    /**
+     * Closes and deletes the file of this map.
+     */
+    void close() {
+        try {
+            table.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        file.delete();
+    }
+
+    private void resize() throws IOException {
+        int newCapacity = capacity * 2;
+        File newFile = createFile(newCapacity);
+        RandomAccessFile newTable = new RandomAccessFile(newFile, "rw");
+        try {
+            byte[] chunk = new byte[RESIZE_CHUNK * SLOT_SIZE];
+            table.seek(0);
+            for (int i = 0; i < capacity; i += RESIZE_CHUNK) {
+                int n = Math.min(RESIZE_CHUNK, capacity - i);
+                table.readFully(chunk, 0, n * SLOT_SIZE);
+                for (int j = 0; j < n * SLOT_SIZE; j += SLOT_SIZE) {
+                    if (chunk[j] != 0) {
+                        put(newTable, newCapacity,
+                                new NodeId(getLong(chunk, j + 1), getLong(chunk, j + 9)),
+                                new NodeId(getLong(chunk, j + 17), getLong(chunk, j + 25)));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            newTable.close();
+            newFile.delete();
+            throw e;
+        }
+        close();
+        file = newFile;
+        table = newTable;
+        capacity = newCapacity;
+    }
+
+    /**
+     * Stores the given entry in the given table.
+     *
+     * @return <code>true</code> if the key was added, <code>false</code>
+     *         if the value of an existing key was replaced
+     */
+    private boolean put(RandomAccessFile table, int capacity, NodeId key, NodeId value)
+            throws IOException {
+        long msb = key.getMostSignificantBits();
+        long lsb = key.getLeastSignificantBits();
+        byte[] current = new byte[SLOT_SIZE];
+        for (int i = indexOf(key, capacity); ; i = (i + 1) & (capacity - 1)) {
+            long pos = (long) i * SLOT_SIZE;
+            table.seek(pos);
+            table.readFully(current);
+            boolean added = current[0] == 0;
+            if (added || (getLong(current, 1) == msb && getLong(current, 9) == lsb)) {
+                current[0] = 1;
+                putLong(current, 1, msb);
+                putLong(current, 9, lsb);
+                putLong(current, 17, value.getMostSignificantBits());
+                putLong(current, 25, value.getLeastSignificantBits());
+                table.seek(pos);
+                table.write(current);
+                return added;
+            }
+        }
+    }
+
+    private static int indexOf(NodeId key, int capacity) {
+        // mix all the bits, as NodeId.hashCode() folds msb and lsb together
+        long h = key.getMostSignificantBits() * 0x9E3779B97F4A7C15L
+                + key.getLeastSignificantBits();
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32)) & (capacity - 1);
+    }
+
+    private static File createFile(int capacity) throws IOException {
+        File file = File.createTempFile("idmap", ".tmp");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength((long) capacity * SLOT_SIZE);
+        } finally {
+            raf.close();
+        }
+        return file;
+    }
+
+    private static long getLong(byte[] b, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (b[offset + i] & 0xff);
+        }
+        return value;
+    }
+
+    private static void putLong(byte[] b, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            b[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+}
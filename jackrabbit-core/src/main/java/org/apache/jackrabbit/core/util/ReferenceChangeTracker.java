@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.util;
 
 import org.apache.jackrabbit.core.id.NodeId;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -29,6 +30,10 @@ import java.util.List;
  * (e.g. if the id of an imported or copied node is mapped to a new id)
  * and processed (e.g. imported or copied) reference properties that might
  * need correcting depending on the id mappings.
+ * <p>
+ * The number of id mappings kept in memory can be limited, in which case
+ * the mappings beyond that limit are spilled to a temporary file. Such a
+ * tracker must be {@link #clear() cleared} when it is no longer used.
  */
 public class ReferenceChangeTracker {
 
@@ -37,17 +42,48 @@ public class ReferenceChangeTracker {
      */
     private final Map<NodeId, NodeId> idMap = new HashMap<NodeId, NodeId>();
 
+    /**
+     * maximum number of id mappings kept in memory
+     */
+    private final int maxMappings;
+
+    /**
+     * id mappings spilled to a temporary file, or <code>null</code>
+     */
+    private NodeIdFileMap spilledIdMap;
+
     /**
      * list of processed reference properties that might need correcting
      */
     private final ArrayList<Object> references = new ArrayList<Object>();
 
+    /**
+     * Creates a tracker that keeps all id mappings in memory.
+     */
+    public ReferenceChangeTracker() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates a tracker that keeps at most the given number of id mappings
+     * in memory and spills the others to a temporary file.
+     *
+     * @param maxMappings maximum number of id mappings kept in memory
+     */
+    public ReferenceChangeTracker(int maxMappings) {
+        this.maxMappings = maxMappings;
+    }
+
     /**
      * Resets all internal state.
      */
     public void clear() {
         idMap.clear();
         references.clear();
+        if (spilledIdMap != null) {
+            spilledIdMap.close();
+            spilledIdMap = null;
+        }
     }
 
     /**
@@ -58,7 +94,18 @@ public class ReferenceChangeTracker {
      * @param newId new node id
      */
     public void mappedId(NodeId oldId, NodeId newId) {
-        idMap.put(oldId, newId);
+        if (idMap.size() < maxMappings || idMap.containsKey(oldId)) {
+            idMap.put(oldId, newId);
+        } else {
+            try {
+                if (spilledIdMap == null) {
+                    spilledIdMap = new NodeIdFileMap();
+                }
+                spilledIdMap.put(oldId, newId);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to spill id mapping of " + oldId, e);
+            }
+        }
     }
 
     /**
@@ -80,7 +127,15 @@ public class ReferenceChangeTracker {
      * @see #mappedId(NodeId, NodeId)
      */
     public NodeId getMappedId(NodeId oldId) {
-        return idMap.get(oldId);
+        NodeId newId = idMap.get(oldId);
+        if (newId == null && spilledIdMap != null) {
+            try {
+                newId = spilledIdMap.get(oldId);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to read id mapping of " + oldId, e);
+            }
+        }
+        return newId;
     }
 
     /**
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reference properties buffered in a temporary file, so that bulk
+ * operations can write them in a final pass without keeping them in
+ * memory. The properties are first {@link #add added}, then read back
+ * one at a time with {@link #next()} after {@link #startReading()} has
+ * been called. The buffer must be {@link #close() closed} when it is no
+ * longer used.
+ */
+public class ReferencePropertyBuffer {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger log =
+        LoggerFactory.getLogger(ReferencePropertyBuffer.class);
+
+    private final File file;
+
+    private DataOutputStream out;
+
+    private DataInputStream in;
+
+    private int size;
+
+    private NodeId parentId;
+
+    private Name name;
+
+    private int type;
+
+    private boolean multiValued;
+
+    private NodeId[] values;
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @throws IOException if the temporary file can not be created
+     */
+    public ReferencePropertyBuffer() throws IOException {
+        file = File.createTempFile("references", ".tmp");
+        file.deleteOnExit();
+        out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Buffers the given reference property.
+     *
+     * @param id id of the property
+     * @param type property type, either reference or weak reference
+     * @param multiValued whether the property is multi-valued
+     * @param values reference values
+     * @throws IOException if the property can not be buffered
+     */
+    public void add(PropertyId id, int type, boolean multiValued,
+                    InternalValue[] values) throws IOException {
+        NodeId parentId = id.getParentId();
+        out.writeLong(parentId.getMostSignificantBits());
+        out.writeLong(parentId.getLeastSignificantBits());
+        out.writeUTF(id.getName().toString());
+        out.writeInt(type);
+        out.writeBoolean(multiValued);
+        out.writeInt(values.length);
+        for (InternalValue value : values) {
+            out.writeLong(value.getNodeId().getMostSignificantBits());
+            out.writeLong(value.getNodeId().getLeastSignificantBits());
+        }
+        size++;
+    }
+
+    /**
+     * Returns the number of buffered properties.
+     *
+     * @return number of properties
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Switches from buffering to reading the buffered properties.
+     *
+     * @throws IOException if the buffer can not be read
+     */
+    public void startReading() throws IOException {
+        out.close();
+        out = null;
+        in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    /**
+     * Reads the next buffered property, whose fields are then returned by
+     * the accessors of this buffer.
+     *
+     * @return <code>false</code> if there are no more properties
+     * @throws IOException if the buffer can not be read
+     */
+    public boolean next() throws IOException {
+        long msb;
+        try {
+            msb = in.readLong();
+        } catch (EOFException e) {
+            return false;
+        }
+        parentId = new NodeId(msb, in.readLong());
+        name = NameFactoryImpl.getInstance().create(in.readUTF());
+        type = in.readInt();
+        multiValued = in.readBoolean();
+        values = new NodeId[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new NodeId(in.readLong(), in.readLong());
+        }
+        return true;
+    }
+
+    /**
+     * @return id of the parent node of the current property
+     */
+    public NodeId getParentId() {
+        return parentId;
+    }
+
+    /**
+     * @return name of the current property
+     */
+    public Name getName() {
+        return name;
+    }
+
+    /**
+     * @return type of the current property
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return whether the current property is multi-valued
+     */
+    public boolean isMultiValued() {
+        return multiValued;
+    }
+
+    /**
+     * @return ids of the nodes referenced by the current property
+     */
+    public NodeId[] getValues() {
+        return values;
+    }
+
+    /**
+     * Closes and deletes the buffer.
+     */
+    public void close() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            if (in != null) {
+                in.close();
+                in = null;
+            }
+        } catch (IOException e) {
+            log.debug("failed to close reference buffer", e);
+        }
+        file.delete();
+    }
+
+}
@@ -104,6 +104,16 @@ class BLOBInDataStore extends BLOBFileValue implements ReferenceBinary {
         return getDataRecord().getStream();
     }
 
+    /**
+     * Reads the data at the given position using
+     * {@link DataRecord#read(byte[], long)}, so that data stores that
+     * support it do not need to read the record up to the position.
+     */
+    @Override
+    public int read(byte[] b, long position) throws RepositoryException {
+        return getDataRecord().read(b, position);
+    }
+
     @Override
     public String getReference() {
         try {
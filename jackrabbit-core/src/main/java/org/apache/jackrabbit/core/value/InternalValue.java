@@ -408,6 +408,19 @@ public class InternalValue extends AbstractQValue {
         return new InternalValue(getBLOBFileValue(store, id));
     }
 
+    /**
+     * Create a binary object for an existing record of the given data store.
+     *
+     * @param store the data store
+     * @param identifier the identifier of the record
+     * @return the value, or null if the data store has no such record
+     * @throws DataStoreException if the data store can not be accessed
+     */
+    public static InternalValue create(DataStore store, DataIdentifier identifier)
+            throws DataStoreException {
+        return getInternalValue(identifier, store, true);
+    }
+
     /**
      * @param value
      * @return the created value
@@ -641,6 +654,20 @@ public class InternalValue extends AbstractQValue {
         return val instanceof BLOBInDataStore;
     }
 
+    /**
+     * Returns the identifier of the data store record that holds this
+     * binary value.
+     *
+     * @return the data identifier, or <code>null</code> if this value is
+     *         not stored in the data store
+     */
+    public DataIdentifier getDataIdentifier() {
+        if (val instanceof BLOBInDataStore) {
+            return ((BLOBInDataStore) val).getDataIdentifier();
+        }
+        return null;
+    }
+
     //-------------------------------------------------------------< QValue >---
     /**
      * @see org.apache.jackrabbit.spi.QValue#getLength()
@@ -74,6 +74,11 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
      */
     private Map<Name, NodeId> nameCache = new LinkedHashMap<Name, NodeId>();
 
+    /**
+     * the name of the version added last to {@link #nameCache}
+     */
+    private Name headName;
+
     /**
      * the hashmap of all versions
      * key = version id (NodeId)
@@ -115,12 +120,16 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
     }
 
     /**
-     * Initializes the history and loads all internal caches
+     * Initializes the history and loads all internal caches. The names of
+     * all versions and all labels are loaded eagerly, which is linear in the
+     * size of the history; the version objects themselves are created on
+     * demand.
      *
      * @throws RepositoryException if an error occurs
      */
     private synchronized void init() throws RepositoryException {
         nameCache.clear();
+        headName = null;
         versionCache.clear();
         labelCache.clear();
 
@@ -160,6 +169,7 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
                 continue;
             }
             nameCache.put(child.getName(), child.getId());
+            headName = child.getName();
         }
     }
 
@@ -205,10 +215,9 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
             vMgr.versionCreated(v);
 
             // add labels
-            for (Name labelName: labelCache.keySet()) {
-                Name versionName = labelCache.get(labelName);
-                if (v.getName().equals(versionName)) {
-                    v.internalAddLabel(labelName);
+            for (Map.Entry<Name, Name> entry : labelCache.entrySet()) {
+                if (v.getName().equals(entry.getValue())) {
+                    v.internalAddLabel(entry.getKey());
                 }
             }
             return v;
@@ -325,16 +334,39 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
     private synchronized InternalVersion getCachedVersion(NodeId id) {
         InternalVersion v = versionCache.get(id);
         if (v == null) {
-            for (Name versionName : nameCache.keySet()) {
-                if (nameCache.get(versionName).equals(id)) {
-                    v = createVersionInstance(versionName);
-                    break;
-                }
+            Name versionName = getVersionName(id);
+            if (versionName != null) {
+                v = createVersionInstance(versionName);
             }
         }
         return v;
     }
 
+    /**
+     * Returns the name of the version with the given id, or <code>null</code>
+     * if there is no such version in this history. The id is resolved through
+     * the child node entries of the history node, which are indexed by id.
+     * @param id the id of the version
+     * @return the name of the version or <code>null</code>
+     */
+    private Name getVersionName(NodeId id) {
+        ChildNodeEntry entry = node.getState().getChildNodeEntry(id);
+        if (entry != null && id.equals(nameCache.get(entry.getName()))) {
+            return entry.getName();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the version added last to this history, which is
+     * the 'head' version in simple versioning.
+     *
+     * @return the name of the head version
+     */
+    synchronized Name getHeadVersionName() {
+        return headName;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -394,12 +426,14 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
      * <p>
      * all successors of the removed version become successors of the
      * predecessors of the removed version and vice versa. then, the entire
-     * version node and all its subnodes are removed.
+     * version node and all its subnodes are removed. If only the root version
+     * remains and the history is not referenced, the history is removed too.
      *
      * @param versionName name of the version to remove
+     * @return <code>true</code> if the history itself has been removed
      * @throws VersionException if removal is not possible
      */
-    synchronized void removeVersion(Name versionName) throws RepositoryException {
+    synchronized boolean removeVersion(Name versionName) throws RepositoryException {
 
         InternalVersionImpl v = (InternalVersionImpl) getVersion(versionName);
         if (v.equals(rootVersion)) {
@@ -433,9 +467,16 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
         // and remove from history
         versionCache.remove(v.getId());
         nameCache.remove(versionName);
+        if (versionName.equals(headName)) {
+            headName = null;
+            for (Name name : nameCache.keySet()) {
+                headName = name;
+            }
+        }
         vMgr.versionDestroyed(v);
 
         // Check if this was the last version in addition to the root version
+        boolean historyRemoved = false;
         if (!vMgr.hasItemReferences(node.getNodeId())) {
             log.debug("Current version history has no references");
             NodeStateEx[] childNodes = node.getChildNodes();
@@ -448,6 +489,7 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
                 parentNode.removeNode(node.getName());
                 // store changes for this node and his children
                 parentNode.store();
+                historyRemoved = true;
             } else {
                 node.store();
             }
@@ -461,6 +503,7 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
         for (Name label : labels) {
             labelCache.remove(label);
         }
+        return historyRemoved;
     }
 
     /**
@@ -547,7 +590,7 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
             for (InternalValue pred: predecessors) {
                 NodeId predId = pred.getNodeId();
                 // check if version exist
-                if (!nameCache.containsValue(predId)) {
+                if (getVersionName(predId) == null) {
                     throw new RepositoryException(
                             "Invalid predecessor in source node: " + predId);
                 }
@@ -555,11 +598,7 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
         } else {
             // with simple versioning, the node does not contain a predecessors
             // property and we just use the 'head' version as predecessor
-            Iterator<NodeId> iter = nameCache.values().iterator();
-            NodeId last = null;
-            while (iter.hasNext()) {
-                last = iter.next();
-            }
+            NodeId last = (headName == null) ? null : nameCache.get(headName);
             if (last == null) {
                 // should never happen
                 last = rootVersion.getId();
@@ -602,6 +641,7 @@ class InternalVersionHistoryImpl extends InternalVersionItemImpl
         // update cache
         versionCache.put(version.getId(), version);
         nameCache.put(version.getName(), version.getId());
+        headName = version.getName();
 
         return version;
     }
@@ -22,6 +22,7 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_VERSIONHI
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.MIX_VERSIONABLE;
 
 import java.util.Calendar;
+import java.util.Collection;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.ReferentialIntegrityException;
@@ -171,9 +172,9 @@ abstract class InternalVersionManagerBase implements InternalVersionManager {
      * simple versioning.
      */
     public InternalVersion getHeadVersionOfNode(NodeId id) throws RepositoryException {
-        InternalVersionHistory vh = getVersionHistoryOfNode(id);
-        Name[] names = vh.getVersionNames();
-        InternalVersion last = vh.getVersion(names[names.length - 1]);
+        InternalVersionHistoryImpl vh =
+            (InternalVersionHistoryImpl) getVersionHistoryOfNode(id);
+        InternalVersion last = vh.getVersion(vh.getHeadVersionName());
         return getVersion(last.getId());
     }
 
@@ -710,8 +711,7 @@ abstract class InternalVersionManagerBase implements InternalVersionManager {
         InternalVersion best = null;
         if (simple) {
             // 1. in simple versioning just take the 'head' version
-            Name[] names = history.getVersionNames();
-            best = history.getVersion(names[names.length - 1]);
+            best = history.getVersion(history.getHeadVersionName());
         } else {
             // 1. search a predecessor, suitable for generating the new name
             InternalValue[] values = node.getPropertyValues(NameConstants.JCR_PREDECESSORS);
@@ -786,6 +786,66 @@ abstract class InternalVersionManagerBase implements InternalVersionManager {
         }
     }
 
+    /**
+     * Removes the specified versions from the history in a single write
+     * operation. Versions that do not exist anymore or that are still
+     * referenced are skipped. Once the removals leave the history orphaned,
+     * the history itself is removed and the remaining versions are skipped.
+     *
+     * @param history the version history from where to remove the versions.
+     * @param names the names of the versions to remove.
+     * @return the number of removed versions
+     * @throws javax.jcr.RepositoryException if the changes could not be stored
+     */
+    protected int internalRemoveVersions(InternalVersionHistoryImpl history,
+                                         Collection<Name> names)
+            throws RepositoryException {
+        int removed = 0;
+        boolean saved = false;
+        WriteOperation operation = startWriteOperation();
+        try {
+            if (!stateMgr.hasItemState(history.getId())) {
+                // removed by an earlier batch
+                log.debug("Version history {} does not exist anymore", history.getId());
+                return 0;
+            }
+            for (Name name : names) {
+                try {
+                    boolean historyRemoved = history.removeVersion(name);
+                    removed++;
+                    if (historyRemoved) {
+                        log.debug("Version history {} removed, skipping remaining versions",
+                                history.getId());
+                        break;
+                    }
+                } catch (VersionException e) {
+                    log.debug("Skipping version {}: {}", name, e.getMessage());
+                } catch (ReferentialIntegrityException e) {
+                    log.debug("Skipping version {}: {}", name, e.getMessage());
+                }
+            }
+            operation.save();
+            saved = true;
+            return removed;
+        } catch (ItemStateException e) {
+            throw new RepositoryException("Unable to remove versions of " + history.getId(), e);
+        } finally {
+            operation.close();
+            if (!saved && removed > 0) {
+                // the removals have been canceled, but are still
+                // reflected by the caches of the history
+                VersioningLock.ReadLock lock = acquireReadLock();
+                try {
+                    history.reload();
+                } catch (RepositoryException e) {
+                    log.warn("Unable to reload version history: " + e.toString());
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
     /**
      * Removes the specified history from the storage
      *
@@ -442,6 +442,28 @@ public class InternalVersionManagerImpl extends InternalVersionManagerBase
         });
     }
 
+    /**
+     * Removes the given versions from the history in a single write
+     * operation on behalf of the given session. Versions that do not exist
+     * anymore or that are still referenced are skipped.
+     *
+     * @param session event source
+     * @param history version history
+     * @param names names of the versions to remove
+     * @return the number of removed versions
+     * @throws RepositoryException if the changes could not be stored
+     */
+    int removeVersions(Session session,
+                       final InternalVersionHistoryImpl history,
+                       final Collection<Name> names)
+            throws RepositoryException {
+        return (Integer) escFactory.doSourced((SessionImpl) session, new SourcedTarget() {
+            public Object run() throws RepositoryException {
+                return internalRemoveVersions(history, names);
+            }
+        });
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -0,0 +1,385 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.version;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.LowPriorityTask;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Purges old versions from the version storage in the background, based on
+ * a {@link VersionRetentionPolicy}.
+ * <p>
+ * A purge run traverses the version storage one folder at a time. Each step
+ * is executed as a {@link LowPriorityTask}, so that the repository thread
+ * pool defers the run while the repository is busy. The purgeable versions
+ * of a version history are removed in batches of at most
+ * {@link #getBatchSize()} versions, each one stored as a single change log.
+ * <p>
+ * The manager implements {@link VersionPurgeManagerMBean}. The repository
+ * registers it with the platform MBean server under the name
+ * <code>org.apache.jackrabbit:type=VersionPurgeManager,repository=&lt;home&gt;</code>,
+ * where <code>&lt;home&gt;</code> is the quoted repository home directory.
+ */
+public class VersionPurgeManager implements VersionPurgeManagerMBean {
+
+    /**
+     * Logger instance.
+     */
+    private static final Logger log =
+            LoggerFactory.getLogger(VersionPurgeManager.class);
+
+    /**
+     * Name of the system property for the default batch size.
+     */
+    public static final String BATCH_SIZE_PROPERTY =
+            "org.apache.jackrabbit.core.version.VersionPurgeManager.batchSize";
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final InternalVersionManagerImpl vMgr;
+
+    /**
+     * Session used as the event source of the removals.
+     */
+    private final SessionImpl session;
+
+    private final Executor executor;
+
+    private volatile int maxVersions = -1;
+
+    private volatile long maxAge = -1;
+
+    private volatile boolean keepLabeled = true;
+
+    private volatile int batchSize =
+            Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE);
+
+    /**
+     * Folders of the version storage still to be traversed by the current run.
+     */
+    private final Deque<NodeStateEx> pending = new ArrayDeque<NodeStateEx>();
+
+    /**
+     * Retention policy of the current run.
+     */
+    private VersionRetentionPolicy policy;
+
+    private volatile boolean running;
+
+    private volatile boolean stopped;
+
+    private final AtomicLong scannedHistories = new AtomicLong();
+
+    private final AtomicLong purgedVersions = new AtomicLong();
+
+    private final AtomicLong skippedVersions = new AtomicLong();
+
+    private final AtomicLong failedVersions = new AtomicLong();
+
+    private volatile long startTime;
+
+    private volatile long endTime;
+
+    /**
+     * Creates a new version purge manager.
+     *
+     * @param vMgr version manager of the repository
+     * @param session system session used as the event source of the removals
+     * @param executor executor running the purge steps
+     */
+    public VersionPurgeManager(InternalVersionManagerImpl vMgr,
+                               SessionImpl session, Executor executor) {
+        this.vMgr = vMgr;
+        this.session = session;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the retention policy for the next purge run.
+     *
+     * @return retention policy
+     */
+    public VersionRetentionPolicy getRetentionPolicy() {
+        return new VersionRetentionPolicy(maxVersions, maxAge, keepLabeled);
+    }
+
+    //-------------------------------------------< VersionPurgeManagerMBean >
+
+    public synchronized boolean start() {
+        if (!begin()) {
+            return false;
+        }
+        try {
+            executor.execute(new PurgeTask());
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to start version purge", e);
+            finish();
+        }
+        return true;
+    }
+
+    /**
+     * Runs a complete purge in the calling thread, instead of in the
+     * background like {@link #start()}.
+     *
+     * @return <code>false</code> if a purge is already running
+     */
+    synchronized boolean run() {
+        if (!begin()) {
+            return false;
+        }
+        try {
+            while (step()) {
+                // next folder
+            }
+        } finally {
+            finish();
+        }
+        return true;
+    }
+
+    /**
+     * Initializes a purge run.
+     *
+     * @return <code>false</code> if a purge is already running
+     */
+    private boolean begin() {
+        if (running) {
+            return false;
+        }
+        policy = getRetentionPolicy();
+        if (policy.getMaxVersions() < 0 && policy.getMaxAge() < 0) {
+            log.warn("No version retention configured, nothing to purge");
+        }
+        pending.clear();
+        pending.push(vMgr.getHistoryRoot());
+        scannedHistories.set(0);
+        purgedVersions.set(0);
+        skippedVersions.set(0);
+        failedVersions.set(0);
+        startTime = System.currentTimeMillis();
+        endTime = 0;
+        stopped = false;
+        running = true;
+        log.info("Starting version purge with {}", policy);
+        return true;
+    }
+
+    public void stop() {
+        // not synchronized, checked by the step in progress between batches
+        stopped = true;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getMaxVersions() {
+        return maxVersions;
+    }
+
+    public void setMaxVersions(int maxVersions) {
+        this.maxVersions = maxVersions;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public void setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    public boolean isKeepLabeled() {
+        return keepLabeled;
+    }
+
+    public void setKeepLabeled(boolean keepLabeled) {
+        this.keepLabeled = keepLabeled;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getScannedHistories() {
+        return scannedHistories.get();
+    }
+
+    public long getPurgedVersions() {
+        return purgedVersions.get();
+    }
+
+    public long getSkippedVersions() {
+        return skippedVersions.get();
+    }
+
+    public long getFailedVersions() {
+        return failedVersions.get();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public double getThroughput() {
+        long start = startTime;
+        if (start == 0) {
+            return 0;
+        }
+        long end = running ? System.currentTimeMillis() : endTime;
+        return purgedVersions.get() * 1000.0 / Math.max(end - start, 1);
+    }
+
+    //-----------------------------------------------------< implementation >
+
+    /**
+     * Traverses the next folder of the version storage and purges the
+     * version histories it contains.
+     *
+     * @return <code>true</code> if there are more folders to traverse
+     */
+    private synchronized boolean step() {
+        if (stopped || pending.isEmpty()) {
+            return false;
+        }
+
+        NodeStateEx folder = pending.pop();
+        List<NodeId> histories = new ArrayList<NodeId>();
+        VersioningLock.ReadLock lock = vMgr.acquireReadLock();
+        try {
+            for (NodeStateEx child : folder.getChildNodes()) {
+                if (NameConstants.NT_VERSIONHISTORY.equals(
+                        child.getState().getNodeTypeName())) {
+                    histories.add(child.getNodeId());
+                } else {
+                    pending.push(child);
+                }
+            }
+        } catch (RepositoryException e) {
+            log.warn("Unable to traverse version storage folder "
+                    + folder.getNodeId(), e);
+        } finally {
+            lock.release();
+        }
+
+        long now = System.currentTimeMillis();
+        for (NodeId id : histories) {
+            if (stopped) {
+                return false;
+            }
+            purge(id, policy, now);
+        }
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Removes the versions of the given history not retained by the given
+     * policy.
+     *
+     * @param id id of the version history
+     * @param policy retention policy
+     * @param now current time in milliseconds
+     */
+    void purge(NodeId id, VersionRetentionPolicy policy, long now) {
+        InternalVersionHistoryImpl history;
+        try {
+            history = (InternalVersionHistoryImpl) vMgr.getVersionHistory(id);
+        } catch (RepositoryException e) {
+            log.debug("Version history {} not available: {}", id, e.getMessage());
+            return;
+        }
+        if (history == null) {
+            return;
+        }
+        scannedHistories.incrementAndGet();
+
+        List<Name> names = policy.getPurgeableVersions(history, now);
+        for (int i = 0; i < names.size() && !stopped; i += batchSize) {
+            List<Name> batch = names.subList(i, Math.min(i + batchSize, names.size()));
+            try {
+                int removed = vMgr.removeVersions(session, history, batch);
+                purgedVersions.addAndGet(removed);
+                skippedVersions.addAndGet(batch.size() - removed);
+            } catch (RepositoryException e) {
+                log.warn("Unable to purge versions of history " + id, e);
+                failedVersions.addAndGet(batch.size());
+            }
+        }
+    }
+
+    private synchronized void finish() {
+        pending.clear();
+        endTime = System.currentTimeMillis();
+        running = false;
+        log.info("Version purge {}: scanned {} histories, removed {} versions in {}ms",
+                new Object[] { stopped ? "stopped" : "completed",
+                        scannedHistories.get(), purgedVersions.get(),
+                        endTime - startTime });
+    }
+
+    /**
+     * Executes one step of a purge run and schedules the next one.
+     */
+    private class PurgeTask implements LowPriorityTask {
+
+        public void run() {
+            boolean more = false;
+            try {
+                more = step();
+            } catch (RuntimeException e) {
+                log.error("Version purge failed", e);
+            }
+            if (more) {
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    log.debug("Version purge aborted: {}", e.getMessage());
+                }
+            }
+            finish();
+        }
+
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.version;
+
+/**
+ * JMX interface of the {@link VersionPurgeManager}: configures the retention
+ * policy, starts and stops purge runs and reports the progress of the
+ * current or last run.
+ */
+public interface VersionPurgeManagerMBean {
+
+    String NAME = "org.apache.jackrabbit:type=VersionPurgeManager";
+
+    /**
+     * Starts a purge run in the background.
+     *
+     * @return <code>false</code> if a purge run is already in progress
+     */
+    boolean start();
+
+    /**
+     * Stops the current purge run after the batch in progress.
+     */
+    void stop();
+
+    /**
+     * @return <code>true</code> if a purge run is in progress
+     */
+    boolean isRunning();
+
+    /**
+     * @return number of newest versions retained per history, or a negative
+     *         value if versions are not retained based on their number
+     */
+    int getMaxVersions();
+
+    void setMaxVersions(int maxVersions);
+
+    /**
+     * @return age in milliseconds up to which versions are retained, or a
+     *         negative value if versions are not retained based on their age
+     */
+    long getMaxAge();
+
+    void setMaxAge(long maxAge);
+
+    /**
+     * @return <code>true</code> if labeled versions are retained
+     */
+    boolean isKeepLabeled();
+
+    void setKeepLabeled(boolean keepLabeled);
+
+    /**
+     * @return maximum number of versions removed in a single change log
+     */
+    int getBatchSize();
+
+    void setBatchSize(int batchSize);
+
+    /**
+     * @return number of version histories scanned by the current or last run
+     */
+    long getScannedHistories();
+
+    /**
+     * @return number of versions removed by the current or last run
+     */
+    long getPurgedVersions();
+
+    /**
+     * @return number of purgeable versions that were skipped by the current
+     *         or last run because they are still referenced
+     */
+    long getSkippedVersions();
+
+    /**
+     * @return number of purgeable versions whose removal failed in the
+     *         current or last run
+     */
+    long getFailedVersions();
+
+    /**
+     * @return start time of the current or last run, or 0 if never started
+     */
+    long getStartTime();
+
+    /**
+     * @return end time of the last run, or 0 if no run completed yet
+     */
+    long getEndTime();
+
+    /**
+     * @return removed versions per second of the current or last run
+     */
+    double getThroughput();
+
+}
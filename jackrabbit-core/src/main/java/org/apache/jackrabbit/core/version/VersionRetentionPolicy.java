@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.version;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.jcr.version.VersionException;
+
+import org.apache.jackrabbit.spi.Name;
+
+/**
+ * Retention policy that decides which versions of a version history may be
+ * purged. A version is retained if it is one of the <code>maxVersions</code>
+ * newest versions, if it is younger than <code>maxAge</code> milliseconds or
+ * if it is labeled and labeled versions are kept. A negative
+ * <code>maxVersions</code> or <code>maxAge</code> disables the respective
+ * criterion; if both are disabled, all versions are retained.
+ * <p>
+ * The root version is always retained. Versions that are still referenced,
+ * for example as the base version of a node, are skipped when purging.
+ */
+public class VersionRetentionPolicy {
+
+    /**
+     * Orders versions from the newest to the oldest one.
+     */
+    private static final Comparator<InternalVersion> NEWEST_FIRST =
+            new Comparator<InternalVersion>() {
+        public int compare(InternalVersion v1, InternalVersion v2) {
+            return v2.getCreated().compareTo(v1.getCreated());
+        }
+    };
+
+    private final int maxVersions;
+
+    private final long maxAge;
+
+    private final boolean keepLabeled;
+
+    /**
+     * Creates a new retention policy.
+     *
+     * @param maxVersions number of newest versions to retain, or a negative
+     *                    value to not retain versions based on their number
+     * @param maxAge age in milliseconds up to which versions are retained,
+     *               or a negative value to not retain versions based on
+     *               their age
+     * @param keepLabeled whether labeled versions are retained
+     */
+    public VersionRetentionPolicy(int maxVersions, long maxAge, boolean keepLabeled) {
+        this.maxVersions = maxVersions;
+        this.maxAge = maxAge;
+        this.keepLabeled = keepLabeled;
+    }
+
+    public int getMaxVersions() {
+        return maxVersions;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    public boolean isKeepLabeled() {
+        return keepLabeled;
+    }
+
+    /**
+     * Returns the names of the versions of the given history that are not
+     * retained by this policy, oldest first.
+     *
+     * @param history version history
+     * @param now current time in milliseconds
+     * @return names of the versions to purge
+     */
+    public List<Name> getPurgeableVersions(InternalVersionHistory history, long now) {
+        if (maxVersions < 0 && maxAge < 0) {
+            return Collections.emptyList();
+        }
+
+        List<InternalVersion> versions = new ArrayList<InternalVersion>();
+        for (Name name : history.getVersionNames()) {
+            try {
+                InternalVersion v = history.getVersion(name);
+                if (!v.isRootVersion()) {
+                    versions.add(v);
+                }
+            } catch (VersionException e) {
+                // removed concurrently
+            }
+        }
+        Collections.sort(versions, NEWEST_FIRST);
+
+        List<Name> names = new ArrayList<Name>();
+        for (int i = versions.size() - 1; i >= 0; i--) {
+            InternalVersion v = versions.get(i);
+            if (maxVersions >= 0 && i < maxVersions) {
+                break;
+            }
+            if (maxAge >= 0 && now - v.getCreated().getTimeInMillis() < maxAge) {
+                // all remaining versions are even younger
+                break;
+            }
+            if (keepLabeled && v.getLabels().length > 0) {
+                continue;
+            }
+            names.add(v.getName());
+        }
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        return "VersionRetentionPolicy[maxVersions=" + maxVersions
+                + ", maxAge=" + maxAge + ", keepLabeled=" + keepLabeled + "]";
+    }
+}
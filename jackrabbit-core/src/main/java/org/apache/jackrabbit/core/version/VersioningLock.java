@@ -26,6 +26,11 @@ import EDU.oswego.cs.dl.util.concurrent.Sync;
  * synchronization. Unlike a normal reentrant lock, this one allows the lock
  * to be re-entered not just by a thread that's already holding the lock but
  * by any thread within the same transaction.
+ * <p>
+ * The lock is global to the version storage rather than per version history:
+ * all versioning writes go through the single item state manager of the
+ * version manager, to which the cached version histories are bound, so
+ * writes on different histories cannot run in parallel anyway.
  */
 public class VersioningLock {
 
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.xml;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ChildNodeEntry;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.jackrabbit.core.state.SharedItemStateManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the child nodes of exported nodes ahead of an exporter.
+ * <p>
+ * An XML export walks the content tree node by node through the session,
+ * so every node bundle is read from the persistence manager just when the
+ * exporter reaches it. When the exporter starts with a node, it passes the
+ * node to {@link #prefetch(NodeId)}, which queues it. Worker threads take
+ * the queued nodes in order and load the states of their descendants down
+ * to a fixed depth through the shared item state manager. The exporter
+ * then finds the bundles of the following nodes in the caches of the
+ * persistence layer. The export itself, and thus the order of the
+ * generated events, is not affected.
+ * <p>
+ * The prefetched states are only loaded into the caches and never handed
+ * out, so the access checks of the exporter still apply. The exporter
+ * calls {@link #close()} when it is done, which drops the requests that
+ * have not been processed yet.
+ */
+public class ExportPrefetcher {
+
+    private static Logger log = LoggerFactory.getLogger(ExportPrefetcher.class);
+
+    /**
+     * Number of levels below an exported node that are loaded ahead.
+     */
+    private static final int DEPTH = Integer.getInteger(
+            "org.apache.jackrabbit.core.xml.exportPrefetchDepth", 3);
+
+    /**
+     * Maximum number of child nodes loaded for a single node.
+     */
+    private static final int MAX_CHILD_NODES = Integer.getInteger(
+            "org.apache.jackrabbit.core.xml.exportPrefetchSize", 1000);
+
+    /**
+     * Maximum number of prefetch tasks that process the queued requests
+     * concurrently.
+     */
+    private static final int MAX_TASKS = Integer.getInteger(
+            "org.apache.jackrabbit.core.xml.exportPrefetchTasks",
+            Runtime.getRuntime().availableProcessors());
+
+    private final SharedItemStateManager stateMgr;
+
+    private final Executor executor;
+
+    private final Semaphore tasks = new Semaphore(MAX_TASKS);
+
+    /**
+     * Nodes whose descendants are still to be loaded.
+     */
+    private final Queue<NodeId> queue = new ConcurrentLinkedQueue<NodeId>();
+
+    /**
+     * Number of node states loaded by this prefetcher.
+     */
+    private final AtomicLong prefetched = new AtomicLong();
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param stateMgr shared item state manager of the exported workspace
+     * @param executor executor that runs the prefetch tasks
+     */
+    public ExportPrefetcher(SharedItemStateManager stateMgr, Executor executor) {
+        this.stateMgr = stateMgr;
+        this.executor = executor;
+    }
+
+    /**
+     * Queues the given node, so that its descendants are loaded ahead of
+     * the exporter, and starts a prefetch task if less than the maximum
+     * number are running.
+     *
+     * @param id id of a node that is about to be exported
+     */
+    public void prefetch(NodeId id) {
+        if (DEPTH <= 0 || MAX_CHILD_NODES <= 0) {
+            return;
+        }
+        queue.add(id);
+        startTasks();
+    }
+
+    /**
+     * Drops the requests that have not been processed yet. The running
+     * prefetch tasks end once they have loaded their current node.
+     */
+    public void close() {
+        queue.clear();
+    }
+
+    /**
+     * Returns the number of node states loaded so far.
+     *
+     * @return number of prefetched node states
+     */
+    public long getPrefetchedNodes() {
+        return prefetched.get();
+    }
+
+    /**
+     * Starts prefetch tasks for the queued requests, as long as the
+     * maximum number of tasks is not reached.
+     */
+    private void startTasks() {
+        while (!queue.isEmpty() && tasks.tryAcquire()) {
+            try {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            NodeId id = queue.poll();
+                            while (id != null) {
+                                load(id, DEPTH);
+                                id = queue.poll();
+                            }
+                        } finally {
+                            tasks.release();
+                        }
+                        // requests queued while this task was ending
+                        startTasks();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                tasks.release();
+                log.debug("Export prefetch task rejected", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Loads the states of the descendants of the given node down to the
+     * given depth.
+     *
+     * @param id node id
+     * @param depth number of levels to load
+     */
+    private void load(NodeId id, int depth) {
+        try {
+            NodeState state = (NodeState) stateMgr.getItemState(id);
+            int count = 0;
+            for (ChildNodeEntry entry : state.getChildNodeEntries()) {
+                if (count++ >= MAX_CHILD_NODES) {
+                    break;
+                }
+                if (depth > 1) {
+                    load(entry.getId(), depth - 1);
+                } else {
+                    stateMgr.getItemState(entry.getId());
+                }
+                prefetched.incrementAndGet();
+            }
+        } catch (ItemStateException e) {
+            // the exporter will run into the same problem, if at all
+            log.debug("Failed to prefetch the child nodes of " + id, e);
+        }
+    }
+
+}
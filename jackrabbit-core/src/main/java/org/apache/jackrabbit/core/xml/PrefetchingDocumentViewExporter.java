@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.xml;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.jackrabbit.commons.xml.DocumentViewExporter;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Document view exporter that loads the child nodes of each exported node
+ * ahead of the export using an {@link ExportPrefetcher}.
+ */
+public class PrefetchingDocumentViewExporter extends DocumentViewExporter {
+
+    private final ExportPrefetcher prefetcher;
+
+    /**
+     * Creates a document view exporter.
+     *
+     * @param session current session
+     * @param handler SAX event handler for the export
+     * @param recurse whether to recursively export the whole subtree
+     * @param binary whether to export binary values
+     * @param prefetcher prefetcher for the child nodes,
+     *                   or <code>null</code> to disable prefetching
+     */
+    public PrefetchingDocumentViewExporter(
+            Session session, ContentHandler handler,
+            boolean recurse, boolean binary, ExportPrefetcher prefetcher) {
+        super(session, handler, recurse, binary);
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Starts prefetching the child nodes before exporting the given node.
+     */
+    protected void exportNode(String uri, String local, Node node)
+            throws RepositoryException, SAXException {
+        if (prefetcher != null && node instanceof NodeImpl) {
+            prefetcher.prefetch(((NodeImpl) node).getNodeId());
+        }
+        super.exportNode(uri, local, node);
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.xml;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.apache.jackrabbit.commons.xml.SystemViewExporter;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.value.ValueHelper;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * System view exporter that loads the child nodes of each exported node
+ * ahead of the export using an {@link ExportPrefetcher}.
+ * <p>
+ * Optionally, binary values that are kept in the data store are exported
+ * as references to their data store records instead of inlining their
+ * base64 encoded content. Such a value is exported as
+ * <code>&lt;sv:value xsi:type="xs:anyURI"&gt;dataStore:<em>identifier</em>&lt;/sv:value&gt;</code>,
+ * where <em>identifier</em> is the data identifier of the record. Such
+ * an export is only meaningful along with a copy of the data store, and
+ * it can not be imported again: the importer rejects these values.
+ */
+public class PrefetchingSystemViewExporter extends SystemViewExporter {
+
+    /**
+     * The <code>sv</code> namespace URI.
+     */
+    private static final String SV = "http://www.jcp.org/jcr/sv/1.0";
+
+    /**
+     * The <code>xs</code> namespace URI.
+     */
+    private static final String XS = "http://www.w3.org/2001/XMLSchema";
+
+    /**
+     * The <code>xsi</code> namespace URI.
+     */
+    private static final String XSI =
+        "http://www.w3.org/2001/XMLSchema-instance";
+
+    /**
+     * Prefix of exported data store references.
+     */
+    public static final String DATA_STORE_PREFIX = "dataStore:";
+
+    private final ExportPrefetcher prefetcher;
+
+    /**
+     * Whether binary values are exported as data store references.
+     */
+    private final boolean binaryReferences;
+
+    /**
+     * Creates a system view exporter.
+     *
+     * @param session current session
+     * @param handler SAX event handler for the export
+     * @param recurse whether to recursively export the whole subtree
+     * @param binary whether to export binary values
+     * @param prefetcher prefetcher for the child nodes,
+     *                   or <code>null</code> to disable prefetching
+     * @param binaryReferences whether binary values in the data store are
+     *                         exported as references
+     */
+    public PrefetchingSystemViewExporter(
+            Session session, ContentHandler handler,
+            boolean recurse, boolean binary,
+            ExportPrefetcher prefetcher, boolean binaryReferences) {
+        super(session, handler, recurse, binary);
+        this.prefetcher = prefetcher;
+        this.binaryReferences = binary && binaryReferences;
+    }
+
+    /**
+     * Starts prefetching the child nodes before exporting the given node.
+     */
+    protected void exportNode(String uri, String local, Node node)
+            throws RepositoryException, SAXException {
+        if (prefetcher != null && node instanceof NodeImpl) {
+            prefetcher.prefetch(((NodeImpl) node).getNodeId());
+        }
+        super.exportNode(uri, local, node);
+    }
+
+    /**
+     * Exports binary values as data store references, if enabled.
+     */
+    protected void exportProperty(String uri, String local, Value value)
+            throws RepositoryException, SAXException {
+        if (binaryReferences && value.getType() == PropertyType.BINARY) {
+            addAttribute(SV, "name", getXMLName(uri, local));
+            addAttribute(SV, "type", PropertyType.TYPENAME_BINARY);
+            startElement(SV, "property");
+            exportBinaryValue(value);
+            endElement(SV, "property");
+        } else {
+            super.exportProperty(uri, local, value);
+        }
+    }
+
+    /**
+     * Exports binary values as data store references, if enabled.
+     */
+    protected void exportProperty(
+            String uri, String local, int type, Value[] values)
+            throws RepositoryException, SAXException {
+        if (binaryReferences && type == PropertyType.BINARY) {
+            addAttribute(SV, "name", getXMLName(uri, local));
+            addAttribute(SV, "type", PropertyType.TYPENAME_BINARY);
+            addAttribute(SV, "multiple", Boolean.TRUE.toString());
+            startElement(SV, "property");
+            for (Value value : values) {
+                exportBinaryValue(value);
+            }
+            endElement(SV, "property");
+        } else {
+            super.exportProperty(uri, local, type, values);
+        }
+    }
+
+    /**
+     * Exports the given binary value as an <code>sv:value</code> element,
+     * either as a data store reference or base64 encoded.
+     *
+     * @param value binary value
+     */
+    private void exportBinaryValue(Value value)
+            throws RepositoryException, SAXException {
+        String identity = null;
+        if (value instanceof JackrabbitValue) {
+            identity = ((JackrabbitValue) value).getContentIdentity();
+        }
+
+        addNamespace("xs", XS);
+        addNamespace("xsi", XSI);
+        if (identity != null) {
+            addAttribute(XSI, "type", getXMLName(XS, "anyURI"));
+            startElement(SV, "value");
+            char[] ch = (DATA_STORE_PREFIX + identity).toCharArray();
+            characters(ch, 0, ch.length);
+            endElement(SV, "value");
+            return;
+        }
+
+        addAttribute(XSI, "type", getXMLName(XS, "base64Binary"));
+        startElement(SV, "value");
+        try {
+            ValueHelper.serialize(value, false, true, new Writer() {
+                public void write(char[] cbuf, int off, int len)
+                        throws IOException {
+                    try {
+                        PrefetchingSystemViewExporter.this.characters(
+                                cbuf, off, len);
+                    } catch (Exception e) {
+                        IOException exception = new IOException();
+                        exception.initCause(e);
+                        throw exception;
+                    }
+                }
+                public void close() {
+                }
+                public void flush() {
+                }
+            });
+        } catch (IOException e) {
+            // check if the exception wraps a SAXException
+            // (see Writer.write(char[], int, int) above)
+            if (e.getCause() instanceof SAXException) {
+                throw (SAXException) e.getCause();
+            } else {
+                throw new RepositoryException(e);
+            }
+        }
+        endElement(SV, "value");
+    }
+
+}
@@ -188,6 +188,14 @@ class SysViewImportHandler extends TargetImportHandler {
             // sv:value element
             currentPropValue = new BufferedStringValue(resolver, valueFactory);
             String xsiType = atts.getValue("xsi:type");
+            if (currentPropType == PropertyType.BINARY
+                    && "xs:anyURI".equals(xsiType)) {
+                // data store reference written by an export with the
+                // SessionImpl.EXPORT_BINARY_REFERENCES attribute
+                throw new SAXException(new InvalidSerializedDataException(
+                        "Binary values exported as data store references"
+                        + " can not be imported"));
+            }
             currentPropValue.setBase64("xs:base64Binary".equals(xsiType));
         } else {
             throw new SAXException(new InvalidSerializedDataException(
@@ -29,6 +29,7 @@ import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.NodeState;
 import org.apache.jackrabbit.core.state.PropertyState;
 import org.apache.jackrabbit.core.util.ReferenceChangeTracker;
+import org.apache.jackrabbit.core.util.ReferencePropertyBuffer;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.version.InternalVersionManager;
 import org.apache.jackrabbit.core.version.VersionHistoryInfo;
@@ -51,6 +52,7 @@ import javax.jcr.lock.LockException;
 import javax.jcr.nodetype.ConstraintViolationException;
 import javax.jcr.version.VersionException;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -58,12 +60,49 @@ import java.util.Stack;
 
 /**
  * <code>WorkspaceImporter</code> ...
+ * <p>
+ * By default the whole import is collected in a single change log that is
+ * committed in {@link #end()}. If the {@link SessionImpl#BULK_IMPORT}
+ * attribute is set on the importing session, the importer runs in bulk
+ * mode instead: the changes are committed every {@link #getBatchSize()}
+ * completed nodes, so that the change log does not grow with the size of
+ * the imported content. Reference properties are then not written along
+ * with their nodes but buffered in a temporary file and written in a final
+ * pass at the end of the import, once all their targets exist. The id
+ * mappings of nodes imported with new ids are kept in memory up to a fixed
+ * number and spilled to a temporary file beyond that.
+ * <p>
+ * Mandatory reference properties can not be deferred, as their nodes would
+ * not be valid without them. They are written along with their nodes, so
+ * in bulk mode a mandatory <code>REFERENCE</code> property fails the commit
+ * of its batch if it refers to a node that is imported by a later batch.
+ * <p>
+ * The batches committed before a failure are not undone, and removing
+ * them is up to the caller. Nodes are completed in document order, so
+ * {@link #getLastCommittedNodeId()} marks how far the import got: that
+ * node and all the nodes that precede its end in the document have been
+ * committed. The marker is also logged with every commit, and an import
+ * can be resumed after removing the incomplete ancestors of that node.
  */
 public class WorkspaceImporter implements Importer {
 
     private static Logger log = LoggerFactory.getLogger(WorkspaceImporter.class);
 
-    private final NodeState importTarget;
+    /**
+     * Number of nodes committed at once in bulk mode, unless specified by
+     * the value of the {@link SessionImpl#BULK_IMPORT} attribute.
+     */
+    private static final int DEFAULT_BATCH_SIZE = Integer.getInteger(
+            "org.apache.jackrabbit.core.xml.bulkImportBatchSize", 1000);
+
+    /**
+     * Number of id mappings of imported nodes that a bulk import keeps in
+     * memory. The other mappings are spilled to a temporary file.
+     */
+    private static final int BULK_IMPORT_ID_MAPPINGS = Integer.getInteger(
+            "org.apache.jackrabbit.core.xml.bulkImportIdMappings", 100000);
+
+    private NodeState importTarget;
     private final WorkspaceImpl wsp;
     private final SessionImpl session;
     private final InternalVersionManager versionManager;
@@ -81,6 +120,39 @@ public class WorkspaceImporter implements Importer {
      */
     private final ReferenceChangeTracker refTracker;
 
+    /**
+     * Number of nodes after which the pending changes are committed,
+     * or <code>0</code> if the import is not run in bulk mode.
+     */
+    private final int batchSize;
+
+    /**
+     * Number of nodes completed since the last commit (bulk mode only).
+     */
+    private int pendingNodes;
+
+    /**
+     * Number of nodes committed so far (bulk mode only).
+     */
+    private long committedNodes;
+
+    /**
+     * Id of the node completed last (bulk mode only).
+     */
+    private NodeId lastCompletedNode;
+
+    /**
+     * Id of the node completed last before the last commit, or
+     * <code>null</code> if no node has been committed yet (bulk mode only).
+     */
+    private NodeId lastCommittedNode;
+
+    /**
+     * Reference properties that are written at the end of a bulk import,
+     * or <code>null</code> if none have been deferred yet.
+     */
+    private ReferencePropertyBuffer deferredReferences;
+
     /**
      * Creates a new <code>WorkspaceImporter</code> instance.
      *
@@ -151,11 +223,18 @@ public class WorkspaceImporter implements Importer {
 
         aborted = false;
 
-        refTracker = new ReferenceChangeTracker();
-
         parents = new Stack<NodeState>();
         parents.push(importTarget);
 
+        batchSize = getBatchSize(session.getAttribute(SessionImpl.BULK_IMPORT));
+        if (batchSize > 0) {
+            log.info("Bulk import into " + itemOps.safeGetJCRPath(parentPath)
+                    + ", committing every " + batchSize + " nodes");
+            refTracker = new ReferenceChangeTracker(BULK_IMPORT_ID_MAPPINGS);
+        } else {
+            refTracker = new ReferenceChangeTracker();
+        }
+
         // TODO: TOBEFIXED importer doesn't yet pass protected items to the configured importers.
         // for the time being log an exception if an importer is configured that
         // is expected to work with workspace import. see JCR-2521
@@ -170,6 +249,70 @@ public class WorkspaceImporter implements Importer {
         }
     }
 
+    /**
+     * Returns the batch size specified by the value of the
+     * {@link SessionImpl#BULK_IMPORT} session attribute.
+     *
+     * @param value attribute value, or <code>null</code>
+     * @return batch size, or <code>0</code> if bulk mode is not enabled
+     */
+    private static int getBatchSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        int size = DEFAULT_BATCH_SIZE;
+        if (value instanceof Number) {
+            size = ((Number) value).intValue();
+        } else {
+            try {
+                size = Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                // any other value enables bulk mode with the default size
+            }
+        }
+        return size > 0 ? size : DEFAULT_BATCH_SIZE;
+    }
+
+    /**
+     * Returns whether this importer runs in bulk mode.
+     *
+     * @return <code>true</code> if the changes are committed in batches
+     */
+    public boolean isBulkImport() {
+        return batchSize > 0;
+    }
+
+    /**
+     * Returns the number of nodes after which the changes are committed
+     * in bulk mode.
+     *
+     * @return batch size, or <code>0</code> if not in bulk mode
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the number of imported nodes that have already been
+     * committed in bulk mode.
+     *
+     * @return number of committed nodes
+     */
+    public long getCommittedNodes() {
+        return committedNodes;
+    }
+
+    /**
+     * Returns the id of the node completed last before the last commit in
+     * bulk mode. This node and all the nodes completed before it have been
+     * committed, so an import that fails later can be resumed after it.
+     *
+     * @return node id, or <code>null</code> if no node has been committed
+     */
+    public NodeId getLastCommittedNodeId() {
+        return lastCommittedNode;
+    }
+
     /**
      * @param parent parent node state
      * @param conflicting conflicting node state
@@ -419,14 +562,66 @@ public class WorkspaceImporter implements Importer {
                 return;
             }
 
+            int targetType = pInfo.getTargetType(def);
+            if (isBulkImport() && !def.isMandatory()
+                    && (targetType == PropertyType.REFERENCE
+                    || targetType == PropertyType.WEAKREFERENCE)) {
+                // write reference at the end of the import, when all
+                // referenced nodes have been committed
+                PropertyId id = new PropertyId(node.getNodeId(), name);
+                InternalValue[] values = getValues(id, pInfo, def);
+                try {
+                    if (deferredReferences == null) {
+                        deferredReferences = new ReferencePropertyBuffer();
+                    }
+                    deferredReferences.add(
+                            id, targetType, def.isMultiple(), values);
+                } catch (IOException e) {
+                    String msg = "failed to buffer reference property "
+                            + itemOps.safeGetJCRPath(id);
+                    log.debug(msg);
+                    throw new RepositoryException(msg, e);
+                }
+                return;
+            }
+
             // create new property
             prop = itemOps.createPropertyState(node, name, type, def);
         }
 
+        // set values
+        prop.setValues(getValues(prop.getPropertyId(), pInfo, def));
+
+        // make sure property is valid according to its definition
+        itemOps.validate(prop);
+
+        if (prop.getType() == PropertyType.REFERENCE
+                || prop.getType() == PropertyType.WEAKREFERENCE) {
+            // store reference for later resolution
+            refTracker.processedReference(prop);
+        }
+
+        // store property
+        itemOps.store(prop);
+    }
+
+    /**
+     * Converts the serialized values of an imported property to
+     * <code>InternalValue</code> objects.
+     *
+     * @param id id of the property
+     * @param pInfo the imported property
+     * @param def the applicable property definition
+     * @return the converted values
+     * @throws RepositoryException if the values can not be converted
+     */
+    private InternalValue[] getValues(
+            PropertyId id, PropInfo pInfo, QPropertyDefinition def)
+            throws RepositoryException {
         // check multi-valued characteristic
         TextValue[] values = pInfo.getTextValues();
         if (values.length != 1 && !def.isMultiple()) {
-            throw new ConstraintViolationException(itemOps.safeGetJCRPath(prop.getPropertyId())
+            throw new ConstraintViolationException(itemOps.safeGetJCRPath(id)
                     + " is not multi-valued");
         }
 
@@ -436,21 +631,127 @@ public class WorkspaceImporter implements Importer {
         for (int i = 0; i < values.length; i++) {
             iva[i] = values[i].getInternalValue(targetType);
         }
+        return iva;
+    }
 
-        // set values
-        prop.setValues(iva);
+    /**
+     * Adjusts reference values that refer to uuids which have been mapped
+     * to newly generated uuids on import.
+     *
+     * @param type property type
+     * @param values reference values
+     * @return adjusted values, or <code>null</code> if no value was mapped
+     */
+    private InternalValue[] getMappedValues(int type, InternalValue[] values) {
+        boolean modified = false;
+        InternalValue[] newVals = new InternalValue[values.length];
+        for (int i = 0; i < values.length; i++) {
+            NodeId adjusted =
+                refTracker.getMappedId(values[i].getNodeId());
+            if (adjusted != null) {
+                newVals[i] = InternalValue.create(
+                        adjusted,
+                        type != PropertyType.REFERENCE);
+                modified = true;
+            } else {
+                // reference doesn't need adjusting, just copy old value
+                newVals[i] = values[i];
+            }
+        }
+        return modified ? newVals : null;
+    }
 
-        // make sure property is valid according to its definition
-        itemOps.validate(prop);
+    /**
+     * Writes the reference properties deferred in bulk mode, adjusting the
+     * references to nodes that have been imported with new ids.
+     *
+     * @throws RepositoryException if a property can not be written
+     */
+    private void writeDeferredReferences() throws RepositoryException {
+        if (deferredReferences == null) {
+            return;
+        }
+        try {
+            deferredReferences.startReading();
+            int pending = 0;
+            while (deferredReferences.next()) {
+                NodeState node = itemOps.getNodeState(deferredReferences.getParentId());
+                Name name = deferredReferences.getName();
+                int type = deferredReferences.getType();
+                if (node.hasPropertyName(name)) {
+                    throw new ItemExistsException(itemOps.safeGetJCRPath(
+                            new PropertyId(node.getNodeId(), name)));
+                }
+                NodeId[] ids = deferredReferences.getValues();
+                InternalValue[] values = new InternalValue[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    NodeId adjusted = refTracker.getMappedId(ids[i]);
+                    values[i] = InternalValue.create(
+                            adjusted != null ? adjusted : ids[i],
+                            type == PropertyType.WEAKREFERENCE);
+                }
+                QPropertyDefinition def = itemOps.findApplicablePropertyDefinition(
+                        name, type, deferredReferences.isMultiValued(), node);
+                PropertyState prop =
+                    itemOps.createPropertyState(node, name, type, def);
+                prop.setValues(values);
+                itemOps.validate(prop);
+                itemOps.store(prop);
+                itemOps.store(node);
+                if (++pending >= batchSize) {
+                    checkpoint();
+                    pending = 0;
+                }
+            }
+        } catch (IOException e) {
+            String msg = "failed to read the buffered reference properties";
+            log.debug(msg);
+            throw new RepositoryException(msg, e);
+        } finally {
+            deferredReferences.close();
+            deferredReferences = null;
+        }
+    }
 
-        if (prop.getType() == PropertyType.REFERENCE
-                || prop.getType() == PropertyType.WEAKREFERENCE) {
-            // store reference for later resolution
-            refTracker.processedReference(prop);
+    /**
+     * Releases the temporary files of an aborted import.
+     */
+    private void dispose() {
+        if (deferredReferences != null) {
+            deferredReferences.close();
+            deferredReferences = null;
         }
+        refTracker.clear();
+    }
 
-        // store property
-        itemOps.store(prop);
+    /**
+     * Commits the changes made since the last commit in bulk mode and
+     * starts a new update operation. The states of the nodes that are still
+     * being imported are reloaded from the new update operation.
+     *
+     * @throws RepositoryException if the changes can not be committed
+     */
+    private void checkpoint() throws RepositoryException {
+        itemOps.update();
+        committedNodes += pendingNodes;
+        pendingNodes = 0;
+        lastCommittedNode = lastCompletedNode;
+        itemOps.edit();
+
+        for (int i = 0; i < parents.size(); i++) {
+            NodeState state = parents.get(i);
+            if (state != null) {
+                parents.set(i, itemOps.getNodeState(state.getNodeId()));
+            }
+        }
+        importTarget = itemOps.getNodeState(importTarget.getNodeId());
+
+        String msg = "Bulk import: committed " + committedNodes + " nodes";
+        if (lastCommittedNode != null) {
+            msg += ", last committed node " + lastCommittedNode
+                    + " at " + itemOps.safeGetJCRPath(lastCommittedNode);
+        }
+        log.info(msg);
     }
 
     /**
@@ -642,6 +943,7 @@ public class WorkspaceImporter implements Importer {
                 // update operation failed, cancel all modifications
                 aborted = true;
                 itemOps.cancel();
+                dispose();
             }
         }
     }
@@ -672,12 +974,20 @@ public class WorkspaceImporter implements Importer {
 
             // we're done with that node, now store its state
             itemOps.store(node);
+
+            if (isBulkImport()) {
+                lastCompletedNode = node.getNodeId();
+                if (++pendingNodes >= batchSize) {
+                    checkpoint();
+                }
+            }
             succeeded = true;
         } finally {
             if (!succeeded) {
                 // update operation failed, cancel all modifications
                 aborted = true;
                 itemOps.cancel();
+                dispose();
             }
         }
     }
@@ -696,6 +1006,10 @@ public class WorkspaceImporter implements Importer {
             // check sanity of workspace/session first
             wsp.sanityCheck();
 
+            if (isBulkImport()) {
+                writeDeferredReferences();
+            }
+
             /**
              * adjust references that refer to uuids which have been mapped to
              * newly generated uuids on import
@@ -703,28 +1017,18 @@ public class WorkspaceImporter implements Importer {
             Iterator<Object> iter = refTracker.getProcessedReferences();
             while (iter.hasNext()) {
                 PropertyState prop = (PropertyState) iter.next();
+                if (isBulkImport()) {
+                    // the state may have been committed in the meantime
+                    prop = (PropertyState) itemOps.getItemState(prop.getPropertyId());
+                }
                 // being paranoid...
                 if (prop.getType() != PropertyType.REFERENCE
                     && prop.getType() != PropertyType.WEAKREFERENCE) {
                     continue;
                 }
-                boolean modified = false;
-                InternalValue[] values = prop.getValues();
-                InternalValue[] newVals = new InternalValue[values.length];
-                for (int i = 0; i < values.length; i++) {
-                    NodeId adjusted =
-                        refTracker.getMappedId(values[i].getNodeId());
-                    if (adjusted != null) {
-                        newVals[i] = InternalValue.create(
-                                adjusted,
-                                prop.getType() != PropertyType.REFERENCE);
-                        modified = true;
-                    } else {
-                        // reference doesn't need adjusting, just copy old value
-                        newVals[i] = values[i];
-                    }
-                }
-                if (modified) {
+                InternalValue[] newVals =
+                    getMappedValues(prop.getType(), prop.getValues());
+                if (newVals != null) {
                     prop.setValues(newVals);
                     itemOps.store(prop);
                 }
@@ -743,12 +1047,20 @@ public class WorkspaceImporter implements Importer {
                 // update operation failed, cancel all modifications
                 aborted = true;
                 itemOps.cancel();
+                dispose();
             }
         }
 
         if (!aborted) {
             // finish update
             itemOps.update();
+            if (isBulkImport()) {
+                committedNodes += pendingNodes;
+                pendingNodes = 0;
+                lastCommittedNode = lastCompletedNode;
+                log.info("Bulk import completed: committed "
+                        + committedNodes + " nodes");
+            }
         }
     }
 
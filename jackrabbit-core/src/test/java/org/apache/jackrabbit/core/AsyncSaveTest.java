@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.nodetype.ConstraintViolationException;
+
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests asynchronous session saves.
+ */
+public class AsyncSaveTest extends AbstractJCRTest {
+
+    /**
+     * Tests that the changes of consecutive asynchronous saves are
+     * persisted once their futures have completed.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testSaveAsync() throws Exception {
+        AsyncSaveSession session = (AsyncSaveSession) superuser;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 10; i++) {
+            testRootNode.addNode("n" + i, testNodeType).setProperty("p", i);
+            futures.add(session.saveAsync());
+        }
+        for (Future<Void> future : futures) {
+            assertNull(future.get());
+            assertTrue(future.isDone());
+        }
+        assertFalse(superuser.hasPendingChanges());
+
+        Session other = getHelper().getSuperuserSession();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Node node = other.getNode(testRoot + "/n" + i);
+                assertEquals(i, node.getProperty("p").getLong());
+            }
+        } finally {
+            other.logout();
+        }
+    }
+
+    /**
+     * Tests asynchronous saves of a session that is modified right after
+     * the saves are submitted. Only the changes made before a save was
+     * submitted are persisted by it, the later ones are persisted by a
+     * later save, and the futures can not be cancelled.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testSaveAsyncWithConcurrentChanges() throws Exception {
+        AsyncSaveSession session = (AsyncSaveSession) superuser;
+        Session other = getHelper().getSuperuserSession();
+        try {
+            for (int i = 0; i < 10; i++) {
+                Node node = testRootNode.addNode("n" + i, testNodeType);
+                node.setProperty("p", i);
+                Future<Void> future = session.saveAsync();
+                assertFalse(future.cancel(true));
+                // modified while the save is running
+                node.setProperty("p", i + 10);
+                testRootNode.addNode("m" + i, testNodeType);
+
+                future.get();
+                assertFalse(future.isCancelled());
+                other.refresh(false);
+                assertEquals(i, other.getNode(testRoot + "/n" + i).getProperty("p").getLong());
+                assertFalse(other.nodeExists(testRoot + "/m" + i));
+            }
+            superuser.save();
+
+            other.refresh(false);
+            for (int i = 0; i < 10; i++) {
+                Node node = other.getNode(testRoot + "/n" + i);
+                assertEquals(i + 10, node.getProperty("p").getLong());
+                assertTrue(other.nodeExists(testRoot + "/m" + i));
+            }
+        } finally {
+            other.logout();
+        }
+    }
+
+    /**
+     * Tests that a failed asynchronous save is reported through its future
+     * and that the changes are kept in the transient space.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testFailedSaveAsync() throws Exception {
+        // nt:file requires a jcr:content child node
+        testRootNode.addNode("file", "nt:file");
+        Future<Void> future = ((AsyncSaveSession) superuser).saveAsync();
+        try {
+            future.get();
+            fail("Save of an incomplete nt:file node must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConstraintViolationException);
+        }
+        assertTrue(superuser.hasPendingChanges());
+        superuser.refresh(false);
+        assertFalse(testRootNode.hasNode("file"));
+    }
+
+    /**
+     * Tests that an asynchronous save without transient changes completes
+     * immediately.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testSaveAsyncWithoutChanges() throws Exception {
+        superuser.save();
+        Future<Void> future = ((AsyncSaveSession) superuser).saveAsync();
+        assertTrue(future.isDone());
+        assertNull(future.get());
+    }
+
+}
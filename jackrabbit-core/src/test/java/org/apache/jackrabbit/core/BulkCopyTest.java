@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.ObservationManager;
+
+import org.apache.jackrabbit.core.observation.SynchronousEventListener;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests workspace copy operations in bulk mode.
+ */
+public class BulkCopyTest extends AbstractJCRTest {
+
+    /**
+     * Tests a bulk copy that is committed in several batches and that
+     * contains references to copied nodes.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testBulkCopy() throws Exception {
+        Node source = testRootNode.addNode("source", "nt:unstructured");
+        Node target = source.addNode("target", "nt:unstructured");
+        target.addMixin("mix:referenceable");
+        Node outside = testRootNode.addNode("outside", "nt:unstructured");
+        outside.addMixin("mix:referenceable");
+        for (int i = 0; i < 10; i++) {
+            Node child = source.addNode("c" + i, "nt:unstructured");
+            child.setProperty("ref", target);
+            child.setProperty("weak", vf.createValue(target, true));
+            child.setProperty("outside", outside);
+            child.addNode("grandchild", "nt:unstructured").setProperty("p", i);
+        }
+        superuser.save();
+
+        SimpleCredentials sc =
+            (SimpleCredentials) getHelper().getSuperuserCredentials();
+        SimpleCredentials credentials =
+            new SimpleCredentials(sc.getUserID(), sc.getPassword());
+        credentials.setAttribute(SessionImpl.BULK_COPY, 3);
+        Session session = getHelper().getRepository().login(credentials);
+        try {
+            session.getWorkspace().copy(
+                    source.getPath(), testRoot + "/copy");
+
+            Node copy = session.getNode(testRoot + "/copy");
+            Node copiedTarget = copy.getNode("target");
+            assertFalse(copiedTarget.getIdentifier().equals(target.getIdentifier()));
+            for (int i = 0; i < 10; i++) {
+                Node child = copy.getNode("c" + i);
+                assertEquals(copiedTarget.getIdentifier(),
+                        child.getProperty("ref").getNode().getIdentifier());
+                assertEquals(PropertyType.WEAKREFERENCE,
+                        child.getProperty("weak").getType());
+                assertEquals(copiedTarget.getIdentifier(),
+                        child.getProperty("weak").getNode().getIdentifier());
+                assertEquals(outside.getIdentifier(),
+                        child.getProperty("outside").getNode().getIdentifier());
+                assertEquals(i, child.getNode("grandchild").getProperty("p").getLong());
+            }
+            assertEquals(11, copy.getNodes().getSize());
+        } finally {
+            session.logout();
+        }
+    }
+
+    /**
+     * Tests that every batch committed by a bulk copy leaves the copied
+     * nodes linked to their parents, also when the batches end deep
+     * within the copied tree.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testBulkCopyBatchesAreConnected() throws Exception {
+        Node source = testRootNode.addNode("source", "nt:unstructured");
+        addChildren(source, 4);
+        superuser.save();
+
+        final Session other = getHelper().getSuperuserSession();
+        final List<String> errors = new ArrayList<String>();
+        final int[] batches = new int[1];
+        SynchronousEventListener listener = new SynchronousEventListener() {
+            public void onEvent(EventIterator events) {
+                batches[0]++;
+                while (events.hasNext()) {
+                    Event event = events.nextEvent();
+                    try {
+                        // the node must be reachable through its parents
+                        Node node = other.getNodeByIdentifier(event.getIdentifier());
+                        assertEquals(event.getPath(), node.getPath());
+                        assertEquals(node.getIdentifier(),
+                                other.getNode(event.getPath()).getIdentifier());
+                    } catch (RepositoryException e) {
+                        errors.add(e.toString());
+                    } catch (AssertionError e) {
+                        errors.add(e.toString());
+                    }
+                }
+            }
+        };
+        ObservationManager obsMgr =
+            other.getWorkspace().getObservationManager();
+        obsMgr.addEventListener(listener, Event.NODE_ADDED,
+                testRoot + "/copy", true, null, null, false);
+
+        SimpleCredentials sc =
+            (SimpleCredentials) getHelper().getSuperuserCredentials();
+        SimpleCredentials credentials =
+            new SimpleCredentials(sc.getUserID(), sc.getPassword());
+        credentials.setAttribute(SessionImpl.BULK_COPY, 2);
+        Session session = getHelper().getRepository().login(credentials);
+        try {
+            session.getWorkspace().copy(
+                    source.getPath(), testRoot + "/copy");
+            assertTrue("copy must be committed in several batches",
+                    batches[0] > 1);
+            assertTrue(errors.toString(), errors.isEmpty());
+            assertEquals(30, countDescendants(other.getNode(testRoot + "/copy")));
+        } finally {
+            obsMgr.removeEventListener(listener);
+            session.logout();
+            other.logout();
+        }
+    }
+
+    /**
+     * Tests that the protected reference properties of a versionable node
+     * are written along with the node by a bulk copy.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testBulkCopyVersionable() throws Exception {
+        Node source = testRootNode.addNode("source", "nt:unstructured");
+        for (int i = 0; i < 5; i++) {
+            source.addNode("v" + i, "nt:unstructured").addMixin("mix:versionable");
+        }
+        superuser.save();
+
+        SimpleCredentials sc =
+            (SimpleCredentials) getHelper().getSuperuserCredentials();
+        SimpleCredentials credentials =
+            new SimpleCredentials(sc.getUserID(), sc.getPassword());
+        credentials.setAttribute(SessionImpl.BULK_COPY, 2);
+        Session session = getHelper().getRepository().login(credentials);
+        try {
+            session.getWorkspace().copy(
+                    source.getPath(), testRoot + "/copy");
+
+            for (int i = 0; i < 5; i++) {
+                Node original = source.getNode("v" + i);
+                Node copy = session.getNode(testRoot + "/copy/v" + i);
+                assertTrue(copy.isCheckedOut());
+                assertFalse(original.getProperty("jcr:versionHistory").getString().equals(
+                        copy.getProperty("jcr:versionHistory").getString()));
+                assertEquals(copy.getProperty("jcr:versionHistory").getNode().getIdentifier(),
+                        copy.getProperty("jcr:baseVersion").getNode().getParent().getIdentifier());
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    private static void addChildren(Node node, int depth)
+            throws RepositoryException {
+        if (depth > 0) {
+            for (int i = 0; i < 2; i++) {
+                addChildren(node.addNode("n" + i, "nt:unstructured"), depth - 1);
+            }
+        }
+    }
+
+    private static int countDescendants(Node node) throws RepositoryException {
+        int count = 0;
+        for (NodeIterator it = node.getNodes(); it.hasNext(); ) {
+            count += 1 + countDescendants(it.nextNode());
+        }
+        return count;
+    }
+
+}
@@ -314,6 +314,52 @@ public class CachingHierarchyManagerTest extends TestCase {
         assertEquals(toPath("/a1/b1"), path);
     }
 
+    /**
+     * Fill the cache beyond its upper limit and verify that entries are
+     * evicted while paths are still resolved correctly.
+     */
+    public void testEviction() throws Exception {
+        StaticItemStateManager ism = new StaticItemStateManager();
+        cache = new CachingHierarchyManager(ism.getRootNodeId(), ism, 5);
+        cache.enableConsistencyChecks(true);
+        ism.setContainer(cache);
+        NodeState a = ism.addNode(ism.getRoot(), "a");
+        NodeState[] children = new NodeState[20];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = ism.addNode(a, "b" + i);
+            assertEquals(toPath("/a/b" + i), cache.getPath(children[i].getNodeId()));
+        }
+        assertTrue(cache.getCacheStatistics().getSize() <= 5);
+        for (int i = 0; i < children.length; i++) {
+            assertEquals(children[i].getNodeId(), cache.resolveNodePath(toPath("/a/b" + i)));
+            assertEquals(toPath("/a/b" + i), cache.getPath(children[i].getNodeId()));
+        }
+        assertTrue(cache.getCacheStatistics().getSize() <= 5);
+    }
+
+    /**
+     * Verify that cache hits and misses are counted.
+     */
+    public void testCacheStatistics() throws Exception {
+        StaticItemStateManager ism = new StaticItemStateManager();
+        cache = new CachingHierarchyManager(ism.getRootNodeId(), ism);
+        ism.setContainer(cache);
+        NodeState a = ism.addNode(ism.getRoot(), "a");
+        NodeState b = ism.addNode(a, "b");
+        CachingHierarchyManager.CacheStatistics statistics = cache.getCacheStatistics();
+        assertEquals(0.0, statistics.getHitRatio());
+
+        cache.getPath(b.getNodeId());
+        long hits = statistics.getHitCount();
+        assertTrue(statistics.getMissCount() > 0);
+
+        cache.getPath(b.getNodeId());
+        cache.resolveNodePath(toPath("/a/b"));
+        assertEquals(hits + 2, statistics.getHitCount());
+        assertTrue(statistics.getHitRatio() > 0);
+        assertTrue(statistics.getSize() > 0);
+    }
+
     /**
      * Static item state manager, that can be filled programmatically and that
      * keeps a hash map of item states. <code>ItemId</code>s generated by
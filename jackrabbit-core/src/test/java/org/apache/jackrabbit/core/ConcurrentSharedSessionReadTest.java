@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.jackrabbit.core.session.SessionContext;
+import org.apache.jackrabbit.core.session.SessionOperation;
+import org.apache.jackrabbit.core.session.SessionState;
+import org.apache.jackrabbit.core.session.SessionWriteOperation;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * <code>ConcurrentSharedSessionReadTest</code> reads from a single session
+ * with concurrent reads enabled from a number of threads.
+ */
+public class ConcurrentSharedSessionReadTest extends AbstractJCRTest {
+
+    private static final int NUM_NODES = 10;
+
+    private static final int NUM_THREADS = 10;
+
+    private static final int NUM_READS = 500;
+
+    private Session shared;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < NUM_NODES; i++) {
+            Node n = testRootNode.addNode("node" + i);
+            for (int j = 0; j < NUM_NODES; j++) {
+                n.addNode("node" + j).setProperty("value", i * NUM_NODES + j);
+            }
+        }
+        superuser.save();
+
+        SimpleCredentials sc =
+            (SimpleCredentials) getHelper().getSuperuserCredentials();
+        SimpleCredentials credentials =
+            new SimpleCredentials(sc.getUserID(), sc.getPassword());
+        credentials.setAttribute(SessionImpl.CONCURRENT_READS, Boolean.TRUE);
+        shared = getHelper().getRepository().login(credentials);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (shared != null) {
+            shared.logout();
+            shared = null;
+        }
+        super.tearDown();
+    }
+
+    public void testConcurrentReadsEnabled() throws Exception {
+        SessionImpl session = (SessionImpl) shared;
+        assertTrue(session.context.getSessionState().isConcurrentReads());
+        assertFalse(((SessionImpl) superuser).context.getSessionState().isConcurrentReads());
+    }
+
+    public void testConcurrentReads() throws Exception {
+        final List<Throwable> exceptions =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[NUM_THREADS];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                public void run() {
+                    Random random = new Random();
+                    try {
+                        for (int r = 0; r < NUM_READS; r++) {
+                            int i = random.nextInt(NUM_NODES);
+                            int j = random.nextInt(NUM_NODES);
+                            Node n = shared.getNode(
+                                    testRoot + "/node" + i + "/node" + j);
+                            assertEquals(i * NUM_NODES + j,
+                                    n.getProperty("value").getLong());
+                            NodeIterator it = n.getParent().getNodes();
+                            assertEquals(NUM_NODES, it.getSize());
+                        }
+                    } catch (Throwable e) {
+                        exceptions.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (!exceptions.isEmpty()) {
+            throw new Exception(exceptions.get(0));
+        }
+    }
+
+    public void testWrite() throws Exception {
+        Node n = shared.getNode(testRoot + "/node0/node0");
+        n.setProperty("value", -1);
+        shared.save();
+
+        superuser.refresh(false);
+        assertEquals(-1, superuser.getNode(testRoot + "/node0/node0")
+                .getProperty("value").getLong());
+    }
+
+    public void testWriteWithinRead() throws Exception {
+        final SessionState state = ((SessionImpl) shared).context.getSessionState();
+        try {
+            state.perform(new SessionOperation<Object>() {
+                public Object perform(SessionContext context)
+                        throws RepositoryException {
+                    return state.perform(new SessionWriteOperation<Object>() {
+                        public Object perform(SessionContext context) {
+                            return null;
+                        }
+                    });
+                }
+            });
+            fail("A write operation within a concurrent read must fail");
+        } catch (RepositoryException e) {
+            // expected
+        }
+
+        // the session is still usable for writing
+        testWrite();
+    }
+}
@@ -40,6 +40,9 @@ import junit.framework.TestCase;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
 
 public class RepositoryCopierTest extends TestCase {
 
@@ -96,6 +99,63 @@ public class RepositoryCopierTest extends TestCase {
         }
     }
 
+    public void testBatchedRepositoryCopy() throws Exception {
+        RepositoryImpl repository = createSourceRepository();
+        try {
+            RepositoryImpl target =
+                RepositoryImpl.create(RepositoryConfig.install(TARGET1));
+            try {
+                RepositoryCopier copier = new RepositoryCopier(repository, target);
+                copier.setBatchSize(2);
+                copier.setThreads(3);
+                copier.copy();
+                assertNoOrphans(target);
+                assertVersionStoreContent(target);
+            } finally {
+                target.shutdown();
+            }
+            verifyTargetRepository(TARGET1);
+        } finally {
+            repository.shutdown();
+        }
+    }
+
+    private void assertNoOrphans(RepositoryImpl repository) throws Exception {
+        for (String name : repository.getWorkspaceNames()) {
+            PersistenceManager pm =
+                repository.getWorkspaceInfo(name).getPersistenceManager();
+            if (pm instanceof IterablePersistenceManager) {
+                for (NodeId id : ((IterablePersistenceManager) pm).getAllNodeIds(null, 0)) {
+                    NodeId parentId = pm.load(id).getParentId();
+                    if (parentId != null) {
+                        assertTrue("Orphaned node " + id + " in " + name,
+                                pm.exists(parentId));
+                    }
+                }
+            }
+        }
+    }
+
+    private void assertVersionStoreContent(RepositoryImpl repository)
+            throws Exception {
+        PersistenceManager pm = repository.getRepositoryContext()
+                .getInternalVersionManager().getPersistenceManager();
+        if (pm instanceof IterablePersistenceManager) {
+            for (NodeId id : ((IterablePersistenceManager) pm).getAllNodeIds(null, 0)) {
+                NodeId current = id;
+                while (current != null
+                        && !current.equals(RepositoryImpl.VERSION_STORAGE_NODE_ID)
+                        && !current.equals(RepositoryImpl.ACTIVITIES_NODE_ID)) {
+                    assertTrue("Node " + id + " outside of the version store",
+                            pm.exists(current));
+                    current = pm.load(current).getParentId();
+                }
+                assertNotNull("Node " + id + " outside of the version store",
+                        current);
+            }
+        }
+    }
+
     private RepositoryImpl createSourceRepository() throws Exception {
         RepositoryImpl repository = RepositoryImpl.create(RepositoryConfig.install(SOURCE));
 
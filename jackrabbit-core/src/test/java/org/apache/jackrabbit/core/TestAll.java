@@ -47,6 +47,8 @@ public class TestAll extends TestCase {
         suite.addTestSuite(SessionGarbageCollectedTest.class);
         suite.addTestSuite(ReferencesTest.class);
         suite.addTestSuite(ReplaceTest.class);
+        suite.addTestSuite(BulkCopyTest.class);
+        suite.addTestSuite(AsyncSaveTest.class);
 
         // test related to NodeStateMerger
         suite.addTestSuite(ConcurrentImportTest.class);
@@ -59,6 +61,7 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ConcurrentAddRemoveNodeTest.class);
 
         suite.addTestSuite(LostFromCacheIssueTest.class);
+        suite.addTestSuite(ConcurrentSharedSessionReadTest.class);
 
         // TODO: These tests pass, but they cause some instability in other
         // parts of the test suite, most likely due to uncleaned test data
@@ -16,12 +16,19 @@
  */
 package org.apache.jackrabbit.core.data;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.jcr.RepositoryException;
@@ -40,6 +47,7 @@ import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
 import org.apache.jackrabbit.core.observation.EventState;
 import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.bundle.ConsistencyCheckerImpl;
+import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
 import org.apache.jackrabbit.core.persistence.check.ReportItem;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
@@ -52,6 +60,8 @@ import org.apache.jackrabbit.spi.commons.name.NameConstants;
 import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 
+import org.apache.commons.io.FileUtils;
+
 import junit.framework.TestCase;
 
 public class ConsistencyCheckerImplTest extends TestCase {
@@ -406,6 +416,113 @@ public class ConsistencyCheckerImplTest extends TestCase {
 
     }
 
+    public void testEdgeTableCheck() throws RepositoryException {
+        MockPersistenceManager pm = createInconsistentPersistenceManager();
+
+        ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(pm, null, null, null);
+        checker.check(null, false);
+        Set<ReportItem> expected = checker.getReport().getItems();
+        assertEquals(4, expected.size());
+
+        File directory = new File("target/ConsistencyCheckerImplTest");
+        FileUtils.deleteQuietly(directory);
+        checker = new ConsistencyCheckerImpl(pm, null, null, null);
+        checker.check(directory, 2);
+        assertEquals(5, checker.getReport().getNodeCount());
+        assertEquals(toStrings(expected), toStrings(checker.getReport().getItems()));
+
+        // the edge table is removed after a completed check
+        assertEquals(0, directory.list().length);
+    }
+
+    public void testEdgeTableCheckResume() throws Exception {
+        MockPersistenceManager pm = createInconsistentPersistenceManager();
+
+        ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(pm, null, null, null);
+        checker.check(null, false);
+        Set<String> expected = toStrings(checker.getReport().getItems());
+
+        File directory = new File("target/ConsistencyCheckerImplTest");
+        File checkpointFile = new File(directory, "checkpoint.properties");
+        FileUtils.deleteQuietly(directory);
+
+        // interrupt a check after the scan, and resume it
+        interruptEdgeTableCheck(pm, directory);
+        assertTrue(checkpointFile.exists());
+        TestConsistencyCheckListener listener = new TestConsistencyCheckListener(false);
+        checker = new ConsistencyCheckerImpl(pm, listener, null, null);
+        checker.check(directory, 2);
+        assertEquals(0, listener.started);
+        assertEquals(5, checker.getReport().getNodeCount());
+        assertEquals(expected, toStrings(checker.getReport().getItems()));
+        assertFalse(checkpointFile.exists());
+
+        // a check started too long ago is not resumed
+        interruptEdgeTableCheck(pm, directory);
+        Properties checkpoint = new Properties();
+        InputStream in = new FileInputStream(checkpointFile);
+        try {
+            checkpoint.load(in);
+        } finally {
+            in.close();
+        }
+        checkpoint.setProperty("started", "0");
+        OutputStream out = new FileOutputStream(checkpointFile);
+        try {
+            checkpoint.store(out, null);
+        } finally {
+            out.close();
+        }
+        listener = new TestConsistencyCheckListener(false);
+        checker = new ConsistencyCheckerImpl(pm, listener, null, null);
+        checker.check(directory, 2);
+        assertEquals(5, listener.started);
+        assertEquals(5, checker.getReport().getNodeCount());
+        assertEquals(expected, toStrings(checker.getReport().getItems()));
+        assertEquals(0, directory.list().length);
+    }
+
+    private void interruptEdgeTableCheck(MockPersistenceManager pm, File directory)
+            throws RepositoryException {
+        ConsistencyCheckerImpl checker = new ConsistencyCheckerImpl(
+                pm, new TestConsistencyCheckListener(true), null, null);
+        try {
+            checker.check(directory, 2);
+            fail("The check should have been interrupted");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    private MockPersistenceManager createInconsistentPersistenceManager() {
+        NodePropBundle bundle1 = new NodePropBundle(new NodeId(0, 0));
+        NodePropBundle bundle2 = new NodePropBundle(new NodeId(0, 1));
+        NodePropBundle bundle3 = new NodePropBundle(new NodeId(1, 0));
+        NodePropBundle bundle4 = new NodePropBundle(new NodeId(1, 1));
+        NodePropBundle bundle5 = new NodePropBundle(new NodeId(2, 0));
+
+        // node1 has child node3, which has node2 as parent (disconnected)
+        bundle1.addChildNodeEntry(nameFactory.create("", "test"), bundle3.getId());
+        bundle2.addChildNodeEntry(nameFactory.create("", "test"), bundle3.getId());
+        bundle3.setParentId(bundle2.getId());
+        // node2 has an inexistent child (missing)
+        bundle2.addChildNodeEntry(nameFactory.create("", "missing"), new NodeId(3, 0));
+        // node4 has node1 as parent without a child node entry (abandoned)
+        bundle4.setParentId(bundle1.getId());
+        // node5 has an inexistent parent (orphaned)
+        bundle5.setParentId(new NodeId(3, 1));
+
+        return new MockPersistenceManager(
+                Arrays.asList(bundle1, bundle2, bundle3, bundle4, bundle5));
+    }
+
+    private static Set<String> toStrings(Set<ReportItem> items) {
+        Set<String> strings = new HashSet<String>();
+        for (ReportItem item : items) {
+            strings.add(item.getType() + " " + item.getNodeId() + " " + item.getMessage());
+        }
+        return strings;
+    }
+
     private ClusterNode createClusterNode(String id) throws Exception {
         final MemoryJournal journal = new MemoryJournal() {
             protected boolean syncAgainOnNewRecords() {
@@ -500,6 +617,37 @@ public class ConsistencyCheckerImplTest extends TestCase {
         }
     }
 
+    /**
+     * Listener counting the scanned nodes. Optionally interrupts the check
+     * when the verification of the edge table starts.
+     */
+    private static class TestConsistencyCheckListener implements ConsistencyCheckListener {
+
+        private final boolean interrupt;
+
+        private int started;
+
+        TestConsistencyCheckListener(boolean interrupt) {
+            this.interrupt = interrupt;
+        }
+
+        public void startCheck(String id) {
+            started++;
+        }
+
+        public void report(ReportItem item) {
+        }
+
+        public void error(String id, String message) {
+        }
+
+        public void info(String id, String message) {
+            if (interrupt && message.startsWith("Verified")) {
+                throw new IllegalStateException("interrupted");
+            }
+        }
+    }
+
     private static class TestUpdateEventListener implements UpdateEventListener {
 
         private ChangeLog changes;
@@ -19,6 +19,8 @@ package org.apache.jackrabbit.core.data;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.data.db.DbDataStore;
@@ -30,7 +32,7 @@ import org.apache.jackrabbit.test.JUnitTest;
  */
 public class DBDataStoreTest extends JUnitTest {
 
-    private DbDataStore store = new DbDataStore();
+    private TestDbDataStore store = new TestDbDataStore();
 
     private byte[] data = new byte[1024];
 
@@ -186,4 +188,87 @@ public class DBDataStoreTest extends JUnitTest {
         }
     }
 
+    public void testReadAtPosition() throws Exception {
+        DataRecord record = store.getRecord(identifier);
+        byte[] buffer = new byte[100];
+        assertEquals(buffer.length, record.read(buffer, 500));
+        for (int i = 0; i < buffer.length; i++) {
+            assertEquals(data[500 + i], buffer[i]);
+        }
+        assertEquals(24, record.read(buffer, 1000));
+        for (int i = 0; i < 24; i++) {
+            assertEquals(data[1000 + i], buffer[i]);
+        }
+        assertEquals(-1, record.read(buffer, data.length));
+    }
+
+    public void testStreamingAddRecord() throws Exception {
+        store.close();
+        store = new TestDbDataStore();
+        store.setConnectionFactory(new ConnectionFactory());
+        store.setUrl("jdbc:derby:target/test-db-datastore/db;create=true");
+        store.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        store.setStoreStream(DbDataStore.STORE_STREAM);
+        store.init("target/test-db-datastore");
+
+        // adding the same content again must not create a new record
+        DataRecord record = store.addRecord(new ByteArrayInputStream(data));
+        assertEquals(identifier, record.getIdentifier());
+        assertEquals(data.length, record.getLength());
+
+        byte[] data2 = new byte[100000];
+        new Random(987654321).nextBytes(data2);
+        DataRecord record2 = store.addRecord(new ByteArrayInputStream(data2));
+        assertEquals(data2.length, record2.getLength());
+        InputStream stream = store.getRecord(record2.getIdentifier()).getStream();
+        try {
+            for (int i = 0; i < data2.length; i++) {
+                assertEquals((data2[i]) & 0xff, stream.read());
+            }
+            assertEquals(-1, stream.read());
+        } finally {
+            stream.close();
+        }
+    }
+
+    public void testTouchAllAndDeleteRecords() throws Exception {
+        byte[] data2 = new byte[1024];
+        new Random(987654321).nextBytes(data2);
+        DataIdentifier identifier2 =
+            store.addRecord(new ByteArrayInputStream(data2)).getIdentifier();
+
+        // both records were last modified before the scan started
+        long before = System.currentTimeMillis() - 60 * 1000;
+        store.setLastModified(identifier, before - 1000);
+        store.setLastModified(identifier2, before - 1000);
+
+        store.updateModifiedDateOnAccess(before);
+        List<DataIdentifier> touch = new ArrayList<DataIdentifier>();
+        touch.add(identifier);
+        store.touchAll(touch);
+        store.updateModifiedDateOnAccess(0);
+
+        store.clearInUse();
+        List<DataIdentifier> delete = new ArrayList<DataIdentifier>();
+        delete.add(identifier);
+        delete.add(identifier2);
+        assertEquals(1, store.deleteRecords(delete, before));
+        assertNotNull(store.getRecordIfStored(identifier));
+        assertNull(store.getRecordIfStored(identifier2));
+    }
+
+    /**
+     * Data store whose modified dates can be set by the tests.
+     */
+    private static class TestDbDataStore extends DbDataStore {
+
+        void setLastModified(DataIdentifier identifier, long time)
+                throws Exception {
+            // UPDATE DATASTORE SET LAST_MODIFIED=? WHERE ID=? AND LAST_MODIFIED<?
+            conHelper.update(updateLastModifiedSQL, time,
+                    identifier.toString(), Long.MAX_VALUE);
+        }
+
+    }
+
 }
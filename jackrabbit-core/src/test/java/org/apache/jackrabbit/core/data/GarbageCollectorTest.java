@@ -25,6 +25,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import EDU.oswego.cs.dl.util.concurrent.SynchronousChannel;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
@@ -185,6 +186,65 @@ public class GarbageCollectorTest extends AbstractJCRTest implements ScanEventLi
         gc.close();
     }
 
+    public void testGCWithIdentifierScan() throws Exception {
+        Node root = testRootNode;
+        Session session = root.getSession();
+
+        deleteMyNodes();
+        runGC(session, true);
+
+        ValueFactory vf = session.getValueFactory();
+        Node n = root.addNode("node4").addNode("nodeWithBlob");
+        n.setProperty("test", vf.createBinary(new RandomInputStream(30, 1000)));
+        session.save();
+        Node t = root.addNode("node5").addNode("nodeWithTemporaryBlob");
+        t.setProperty("test", vf.createBinary(new RandomInputStream(31, 1000)));
+        session.save();
+
+        t.remove();
+        session.save();
+
+        GarbageCollector gc = ((SessionImpl)session).createDataStoreGarbageCollector();
+        if (!gc.isPersistenceManagerScan()) {
+            // the persistence managers are not iterable
+            gc.close();
+            return;
+        }
+        gc.getDataStore().clearInUse();
+        gc.setIdentifierScan(true);
+        gc.setConcurrentThreadSize(2);
+
+        if (gc.getDataStore() instanceof FileDataStore) {
+            // make sure the files are older than the scan
+            backdate(new File(((FileDataStore) gc.getDataStore()).getPath()),
+                    System.currentTimeMillis() - 60 * 1000);
+        }
+
+        gc.mark();
+        int count = listIdentifiers(gc);
+        gc.getDataStore().clearInUse();
+        assertTrue(gc.sweep() > 0);
+        assertTrue(listIdentifiers(gc) < count);
+
+        // the binary that is still referenced must not be deleted
+        InputStream in = n.getProperty("test").getBinary().getStream();
+        InputStream in2 = new RandomInputStream(30, 1000);
+        verifyInputStream(in, in2);
+
+        gc.close();
+    }
+
+    private static void backdate(File file, long time) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                backdate(f, time);
+            }
+        } else {
+            file.setLastModified(time);
+        }
+    }
+
     /**
      *  Test to validate that two  GC cannot run simultaneously. One 
      *  exits throwing exception.
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.gc;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the compact identifier set of the garbage collector.
+ */
+public class IdentifierSetTest extends TestCase {
+
+    public void testAddContains() {
+        Random random = new Random(1);
+        IdentifierSet set = new IdentifierSet();
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 10000; i++) {
+            byte[] digest = new byte[20];
+            random.nextBytes(digest);
+            String identifier = toHex(digest);
+            set.add(identifier);
+            expected.add(identifier);
+        }
+        // duplicates and identifiers that are not kept in the table
+        set.add(expected.iterator().next());
+        set.add("not-hex");
+        set.add("ABCDEF");
+        set.add("abcd");
+        expected.add("not-hex");
+        expected.add("ABCDEF");
+        expected.add("abcd");
+
+        assertEquals(expected.size(), set.size());
+        for (String identifier : expected) {
+            assertTrue(identifier, set.contains(identifier));
+        }
+        assertFalse(set.contains(toHex(new byte[20])));
+        assertFalse(set.contains("abcdef"));
+
+        Set<String> iterated = new HashSet<String>();
+        for (String identifier : set) {
+            assertTrue(iterated.add(identifier));
+        }
+        assertEquals(expected, iterated);
+    }
+
+    public void testEmpty() {
+        IdentifierSet set = new IdentifierSet();
+        assertEquals(0, set.size());
+        assertFalse(set.contains("abcdef"));
+        assertFalse(set.iterator().hasNext());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder buff = new StringBuilder();
+        for (byte b : bytes) {
+            buff.append(String.format("%02x", b & 0xff));
+        }
+        return buff.toString();
+    }
+
+}
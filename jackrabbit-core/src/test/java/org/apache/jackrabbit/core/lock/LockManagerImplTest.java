@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.lock;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.fs.FileSystem;
+import org.apache.jackrabbit.core.fs.mem.MemoryFileSystem;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests the lock journal and the lock index of {@link LockManagerImpl}.
+ */
+public class LockManagerImplTest extends AbstractJCRTest {
+
+    private static final String JOURNAL_SIZE_PROPERTY =
+            "org.apache.jackrabbit.core.lock.LockManagerImpl.journalSize";
+
+    private FileSystem fs;
+    private ScheduledExecutorService executor;
+    private String journalSize;
+
+    private NodeImpl n1;
+    private NodeImpl n2;
+    private NodeImpl n3;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        fs = new MemoryFileSystem();
+        fs.init();
+        executor = Executors.newSingleThreadScheduledExecutor();
+        journalSize = System.setProperty(JOURNAL_SIZE_PROPERTY, "3");
+
+        n1 = addLockable(nodeName1);
+        n2 = addLockable(nodeName2);
+        n3 = addLockable(nodeName3);
+        superuser.save();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            if (journalSize == null) {
+                System.clearProperty(JOURNAL_SIZE_PROPERTY);
+            } else {
+                System.setProperty(JOURNAL_SIZE_PROPERTY, journalSize);
+            }
+            executor.shutdown();
+            fs.close();
+            n1 = null;
+            n2 = null;
+            n3 = null;
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    private NodeImpl addLockable(String name) throws Exception {
+        NodeImpl n = (NodeImpl) testRootNode.addNode(name, testNodeType);
+        n.addMixin(mixLockable);
+        return n;
+    }
+
+    private LockManagerImpl createLockManager() throws Exception {
+        return new LockManagerImpl((SessionImpl) superuser, fs, executor);
+    }
+
+    private void unlock(LockManagerImpl lockMgr, NodeImpl n) throws Exception {
+        // reloaded open-scoped locks are not held by any session
+        String token = lockMgr.getLockInfo(n.getNodeId()).getLockToken();
+        lockMgr.addLockToken((SessionImpl) superuser, token);
+        lockMgr.unlock(n);
+    }
+
+    public void testJournal() throws Exception {
+        LockManagerImpl lockMgr = createLockManager();
+        lockMgr.lock(n1, false, false);
+        lockMgr.lock(n2, false, false);
+        assertTrue(fs.exists("/locks.journal"));
+        assertFalse(fs.exists("/locks"));
+
+        // the journal is replayed and merged into the locks file
+        LockManagerImpl lockMgr2 = createLockManager();
+        assertNotNull(lockMgr2.getLockInfo(n1.getNodeId()));
+        assertNotNull(lockMgr2.getLockInfo(n2.getNodeId()));
+        assertNull(lockMgr2.getLockInfo(n3.getNodeId()));
+        assertFalse(fs.exists("/locks.journal"));
+        assertTrue(fs.exists("/locks"));
+
+        unlock(lockMgr2, n1);
+        assertTrue(fs.exists("/locks.journal"));
+
+        LockManagerImpl lockMgr3 = createLockManager();
+        assertNull(lockMgr3.getLockInfo(n1.getNodeId()));
+        assertNotNull(lockMgr3.getLockInfo(n2.getNodeId()));
+        unlock(lockMgr3, n2);
+
+        lockMgr.close();
+        lockMgr2.close();
+        lockMgr3.close();
+    }
+
+    public void testCompaction() throws Exception {
+        LockManagerImpl lockMgr = createLockManager();
+        lockMgr.lock(n1, false, false);
+        lockMgr.lock(n2, false, false);
+        assertTrue(fs.exists("/locks.journal"));
+
+        // the third record rewrites the locks file
+        lockMgr.lock(n3, false, false);
+        assertFalse(fs.exists("/locks.journal"));
+        assertTrue(fs.exists("/locks"));
+
+        lockMgr.unlock(n1);
+        lockMgr.close();
+        assertFalse(fs.exists("/locks.journal"));
+
+        LockManagerImpl lockMgr2 = createLockManager();
+        assertNull(lockMgr2.getLockInfo(n1.getNodeId()));
+        assertNotNull(lockMgr2.getLockInfo(n2.getNodeId()));
+        assertNotNull(lockMgr2.getLockInfo(n3.getNodeId()));
+        unlock(lockMgr2, n2);
+        unlock(lockMgr2, n3);
+        lockMgr2.close();
+    }
+
+    public void testSessionScopedLocksNotPersisted() throws Exception {
+        LockManagerImpl lockMgr = createLockManager();
+        lockMgr.lock(n1, false, true);
+        assertFalse(fs.exists("/locks.journal"));
+        assertTrue(lockMgr.holdsLock(n1));
+
+        lockMgr.unlock(n1);
+        assertFalse(lockMgr.holdsLock(n1));
+        lockMgr.close();
+    }
+
+    public void testDeepLock() throws Exception {
+        NodeImpl child = (NodeImpl) n1.addNode(nodeName2, testNodeType);
+        superuser.save();
+
+        LockManagerImpl lockMgr = createLockManager();
+        assertFalse(lockMgr.isLocked(n1));
+        assertFalse(lockMgr.isLocked(child));
+
+        lockMgr.lock(n1, false, true);
+        assertTrue(lockMgr.isLocked(n1));
+        assertFalse(lockMgr.isLocked(child));
+        assertNull(lockMgr.getLockInfo(child.getNodeId()));
+        lockMgr.unlock(n1);
+
+        lockMgr.lock(n1, true, true);
+        assertTrue(lockMgr.isLocked(n1));
+        assertTrue(lockMgr.isLocked(child));
+        assertTrue(lockMgr.holdsLock(n1));
+        assertFalse(lockMgr.holdsLock(child));
+        assertEquals(n1.getNodeId(), lockMgr.getLockInfo(child.getNodeId()).getId());
+        assertEquals(n1.getPath(), lockMgr.getLock(child).getNode().getPath());
+        lockMgr.unlock(n1);
+
+        assertFalse(lockMgr.isLocked(child));
+        lockMgr.close();
+    }
+}
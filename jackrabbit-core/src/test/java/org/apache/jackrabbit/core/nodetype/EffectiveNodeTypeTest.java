@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.nodetype;
+
+import java.util.Collections;
+
+import javax.jcr.PropertyType;
+import javax.jcr.nodetype.ConstraintViolationException;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.QNodeDefinition;
+import org.apache.jackrabbit.spi.QPropertyDefinition;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests the item definition lookups of {@link EffectiveNodeType}.
+ */
+public class EffectiveNodeTypeTest extends AbstractJCRTest {
+
+    private static final Name NAME =
+            NameFactoryImpl.getInstance().create("", "anyName");
+
+    private NodeTypeRegistry ntReg;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ntReg = ((SessionImpl) superuser).getNodeTypeManager().getNodeTypeRegistry();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ntReg = null;
+        super.tearDown();
+    }
+
+    public void testResidualPropertyDefs() throws Exception {
+        EffectiveNodeType ent = ntReg.getEffectiveNodeType(NameConstants.NT_UNSTRUCTURED);
+
+        QPropertyDefinition single = ent.getApplicablePropertyDef(NAME, PropertyType.STRING, false);
+        assertFalse(single.isMultiple());
+        assertEquals(PropertyType.UNDEFINED, single.getRequiredType());
+        QPropertyDefinition multi = ent.getApplicablePropertyDef(NAME, PropertyType.STRING, true);
+        assertTrue(multi.isMultiple());
+        assertEquals(single, ent.getApplicablePropertyDef(NAME, PropertyType.LONG));
+
+        // types outside of the lookup tables are matched as well
+        assertEquals(single, ent.getApplicablePropertyDef(NAME, 99, false));
+        assertEquals(single, ent.getApplicablePropertyDef(NAME, 99));
+    }
+
+    public void testNamedPropertyDefs() throws Exception {
+        EffectiveNodeType ent = ntReg.getEffectiveNodeType(NameConstants.NT_RESOURCE);
+
+        QPropertyDefinition pd = ent.getApplicablePropertyDef(
+                NameConstants.JCR_DATA, PropertyType.BINARY, false);
+        assertEquals(NameConstants.JCR_DATA, pd.getName());
+        assertEquals(pd, ent.getApplicablePropertyDef(
+                NameConstants.JCR_DATA, PropertyType.UNDEFINED, false));
+        assertEquals(pd, ent.getApplicablePropertyDef(
+                NameConstants.JCR_DATA, PropertyType.BINARY));
+
+        try {
+            ent.getApplicablePropertyDef(NameConstants.JCR_DATA, PropertyType.BINARY, true);
+            fail("jcr:data is single-valued");
+        } catch (ConstraintViolationException e) {
+            // expected
+        }
+        try {
+            ent.getApplicablePropertyDef(NAME, PropertyType.STRING, false);
+            fail("nt:resource has no residual property definitions");
+        } catch (ConstraintViolationException e) {
+            // expected
+        }
+
+        // named definitions take precedence over residual ones
+        EffectiveNodeType merged = ntReg.getEffectiveNodeType(
+                NameConstants.NT_UNSTRUCTURED,
+                Collections.singleton(NameConstants.MIX_MIMETYPE));
+        pd = merged.getApplicablePropertyDef(
+                NameConstants.JCR_MIMETYPE, PropertyType.STRING, false);
+        assertEquals(NameConstants.JCR_MIMETYPE, pd.getName());
+        pd = merged.getApplicablePropertyDef(
+                NameConstants.JCR_MIMETYPE, PropertyType.STRING, true);
+        assertEquals(NameConstants.ANY_NAME, pd.getName());
+    }
+
+    public void testChildNodeDefs() throws Exception {
+        EffectiveNodeType ent = ntReg.getEffectiveNodeType(NameConstants.NT_FILE);
+
+        QNodeDefinition nd = ent.getApplicableChildNodeDef(
+                NameConstants.JCR_CONTENT, NameConstants.NT_RESOURCE, ntReg);
+        assertEquals(NameConstants.JCR_CONTENT, nd.getName());
+        try {
+            // no default primary type
+            ent.getApplicableChildNodeDef(NameConstants.JCR_CONTENT, null, ntReg);
+            fail("jcr:content requires a node type");
+        } catch (ConstraintViolationException e) {
+            // expected
+        }
+        try {
+            ent.getApplicableChildNodeDef(NAME, NameConstants.NT_RESOURCE, ntReg);
+            fail("nt:file has no residual child node definitions");
+        } catch (ConstraintViolationException e) {
+            // expected
+        }
+
+        ent = ntReg.getEffectiveNodeType(NameConstants.NT_UNSTRUCTURED);
+        nd = ent.getApplicableChildNodeDef(NAME, null, ntReg);
+        assertEquals(NameConstants.NT_UNSTRUCTURED, nd.getDefaultPrimaryType());
+        assertEquals(nd, ent.getApplicableChildNodeDef(NAME, NameConstants.NT_FOLDER, ntReg));
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authentication;
+
+import java.security.Principal;
+import java.util.Collections;
+
+import javax.jcr.GuestCredentials;
+import javax.jcr.Node;
+import javax.jcr.SimpleCredentials;
+import javax.security.auth.Subject;
+import javax.security.auth.login.FailedLoginException;
+import javax.security.auth.login.LoginException;
+
+import org.apache.jackrabbit.api.security.authentication.token.TokenCredentials;
+import org.apache.jackrabbit.api.security.principal.ItemBasedPrincipal;
+import org.apache.jackrabbit.core.security.principal.PrincipalImpl;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.apache.jackrabbit.util.Text;
+
+/**
+ * <code>AuthenticationCacheTest</code>...
+ */
+public class AuthenticationCacheTest extends AbstractJCRTest {
+
+    private static final Principal PRINCIPAL = new PrincipalImpl("cached");
+
+    private AuthenticationCache cache;
+
+    private String authorizablesPath;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        authorizablesPath = testRoot + "/" + nodeName1;
+        cache = new AuthenticationCache(10, 60000);
+        cache.init(superuser, authorizablesPath + "/users", authorizablesPath + "/groups");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.close(superuser);
+        super.tearDown();
+    }
+
+    private static SimpleCredentials creds(String uid, String pw) {
+        return new SimpleCredentials(uid, pw.toCharArray());
+    }
+
+    private static Subject login(AuthContext ctx) throws LoginException {
+        ctx.login();
+        return ctx.getSubject();
+    }
+
+    public void testGetKey() {
+        String key = cache.getKey(creds("u", "pw"));
+        assertNotNull(key);
+        assertEquals(key, cache.getKey(creds("u", "pw")));
+        assertFalse(key.equals(cache.getKey(creds("u", "pw2"))));
+        assertFalse(key.equals(cache.getKey(creds("u2", "pw"))));
+        assertFalse(key.equals(cache.getKey(new TokenCredentials("pw"))));
+        assertFalse(cache.getKey(creds("u\nx", "pw")).equals(cache.getKey(creds("u", "x\npw"))));
+        assertNotNull(cache.getKey(new GuestCredentials()));
+
+        // the credentials are not part of the key
+        assertEquals(-1, key.indexOf("pw"));
+
+        // credentials with attributes are never cached
+        SimpleCredentials sc = creds("u", "pw");
+        sc.setAttribute(".token", "");
+        assertNull(cache.getKey(sc));
+
+        // neither are the keys of different caches equal
+        assertFalse(key.equals(new AuthenticationCache(10, 60000).getKey(creds("u", "pw"))));
+    }
+
+    public void testCachedLogin() throws Exception {
+        SimpleCredentials sc = creds("u", "pw");
+        String key = cache.getKey(sc);
+        assertNull(cache.getAuthContext(key, sc));
+
+        login(cache.cache(key, new TestAuthContext(true)));
+
+        SimpleCredentials sc2 = creds("u", "pw");
+        AuthContext ctx = cache.getAuthContext(cache.getKey(sc2), sc2);
+        assertNotNull(ctx);
+        Subject subject = login(ctx);
+        assertEquals(Collections.singleton(PRINCIPAL), subject.getPrincipals());
+        assertEquals(Collections.singleton(sc2), subject.getPublicCredentials());
+
+        ctx.logout();
+        assertTrue(subject.getPrincipals().isEmpty());
+    }
+
+    public void testFailedLogin() throws Exception {
+        SimpleCredentials sc = creds("u", "wrong");
+        String key = cache.getKey(sc);
+        try {
+            login(cache.cache(key, new TestAuthContext(false)));
+            fail("login must fail");
+        } catch (FailedLoginException e) {
+            // success
+        }
+        assertNull(cache.getAuthContext(key, sc));
+    }
+
+    public void testExpiration() throws Exception {
+        cache = new AuthenticationCache(10, -1);
+        SimpleCredentials sc = creds("u", "pw");
+        String key = cache.getKey(sc);
+        login(cache.cache(key, new TestAuthContext(true)));
+        assertNull(cache.getAuthContext(key, sc));
+    }
+
+    public void testInvalidation() throws Exception {
+        Node authorizables = testRootNode.addNode(nodeName1, testNodeType);
+        superuser.save();
+
+        SimpleCredentials sc = creds("u", "pw");
+        String key = cache.getKey(sc);
+        login(cache.cache(key, new TestAuthContext(true)));
+        assertNotNull(cache.getAuthContext(key, sc));
+
+        // changes outside of the users and groups are ignored
+        testRootNode.addNode(nodeName2, testNodeType);
+        superuser.save();
+        assertNotNull(cache.getAuthContext(key, sc));
+
+        authorizables.addNode("users", testNodeType);
+        superuser.save();
+        assertNull(cache.getAuthContext(key, sc));
+    }
+
+    public void testUserInvalidation() throws Exception {
+        Node authorizables = testRootNode.addNode(nodeName1, testNodeType);
+        Node users = authorizables.addNode("users", testNodeType);
+        Node u1 = users.addNode("u1", testNodeType);
+        Node u2 = users.addNode("u2", testNodeType);
+        superuser.save();
+
+        SimpleCredentials sc1 = creds("u1", "pw");
+        String key1 = cache.getKey(sc1);
+        login(cache.cache(key1, new TestAuthContext(new TestItemBasedPrincipal(u1.getPath()))));
+        SimpleCredentials sc2 = creds("u2", "pw");
+        String key2 = cache.getKey(sc2);
+        login(cache.cache(key2, new TestAuthContext(new TestItemBasedPrincipal(u2.getPath()))));
+
+        // changes of tokens are ignored
+        u1.addNode(".tokens", testNodeType).addNode("token", testNodeType);
+        superuser.save();
+        assertNotNull(cache.getAuthContext(key1, sc1));
+        assertNotNull(cache.getAuthContext(key2, sc2));
+
+        // a change of a user only invalidates the logins of that user
+        u1.setProperty(propertyName1, "changed");
+        superuser.save();
+        assertNull(cache.getAuthContext(key1, sc1));
+        assertNotNull(cache.getAuthContext(key2, sc2));
+
+        // a change of the groups invalidates all logins
+        authorizables.addNode("groups", testNodeType);
+        superuser.save();
+        assertNull(cache.getAuthContext(key2, sc2));
+    }
+
+    public void testInvalidToken() throws Exception {
+        // the token does not refer to an existing token node
+        TokenCredentials tc = new TokenCredentials("invalid");
+        String key = cache.getKey(tc);
+        login(cache.cache(key, new TestAuthContext(true)));
+        assertNull(cache.getAuthContext(key, tc));
+    }
+
+    private static final class TestAuthContext implements AuthContext {
+
+        private final Subject subject = new Subject();
+
+        private final boolean success;
+
+        private final Principal principal;
+
+        private TestAuthContext(boolean success) {
+            this.success = success;
+            this.principal = PRINCIPAL;
+        }
+
+        private TestAuthContext(Principal principal) {
+            this.success = true;
+            this.principal = principal;
+        }
+
+        public void login() throws LoginException {
+            if (!success) {
+                throw new FailedLoginException();
+            }
+            subject.getPrincipals().add(principal);
+        }
+
+        public Subject getSubject() {
+            return subject;
+        }
+
+        public void logout() {
+            subject.getPrincipals().clear();
+        }
+    }
+
+    private static final class TestItemBasedPrincipal extends PrincipalImpl implements ItemBasedPrincipal {
+
+        private final String path;
+
+        private TestItemBasedPrincipal(String path) {
+            super(Text.getName(path));
+            this.path = path;
+        }
+
+        public String getPath() {
+            return path;
+        }
+    }
+}
@@ -40,7 +40,11 @@ import org.apache.jackrabbit.api.security.JackrabbitAccessControlManager;
 import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.api.security.user.User;
 import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.security.TestPrincipal;
+import org.apache.jackrabbit.core.security.authorization.AccessControlListener;
+import org.apache.jackrabbit.core.security.authorization.AccessControlModifications;
 import org.apache.jackrabbit.test.NotExecutableException;
 import org.apache.jackrabbit.test.api.security.AbstractAccessControlTest;
 
@@ -322,6 +326,73 @@ public class EntryCollectorTest extends AbstractAccessControlTest {
         }
     }
 
+    public void testConcurrentStrategy() throws Exception {
+        String strategy = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.strategy";
+        String window = "org.apache.jackrabbit.core.security.authorization.acl.CachingEntryCollector.consistencyWindow";
+        String oldStrategy = System.getProperty(strategy);
+        String oldWindow = System.getProperty(window);
+
+        modifyPrivileges(path, testGroup.getPrincipal(), privilegesFromName(Privilege.JCR_READ), true);
+
+        // the collector must not observe the changes made by superuser
+        // as its own.
+        SessionImpl s = (SessionImpl) getHelper().getSuperuserSession();
+        CachingEntryCollector collector;
+        System.setProperty(strategy, "C");
+        System.setProperty(window, "60000");
+        try {
+            collector = new CachingEntryCollector(s, ((NodeImpl) s.getRootNode()).getNodeId());
+        } catch (RepositoryException e) {
+            s.logout();
+            throw e;
+        } finally {
+            restoreProperty(strategy, oldStrategy);
+            restoreProperty(window, oldWindow);
+        }
+
+        final int[] notifications = new int[1];
+        collector.addListener(new AccessControlListener() {
+            public void acModified(AccessControlModifications modifications) {
+                synchronized (notifications) {
+                    notifications[0]++;
+                }
+            }
+        });
+        try {
+            NodeImpl node = (NodeImpl) s.getNode(path);
+            assertEquals(1, collector.getEntries(node).getACEs().size());
+
+            // the modified entries are re-read in the background long
+            // before the consistency window expires
+            modifyPrivileges(path, testGroup.getPrincipal(), privilegesFromName(Privilege.JCR_WRITE), false);
+            long end = System.currentTimeMillis() + 10000;
+            while (collector.getEntries(node).getACEs().size() != 2 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, collector.getEntries(node).getACEs().size());
+            synchronized (notifications) {
+                // once for the modification and once for the refresh
+                assertTrue(notifications[0] >= 2);
+            }
+
+            // removed entries are dropped immediately
+            acMgr.removePolicy(path, acMgr.getPolicies(path)[0]);
+            superuser.save();
+            assertTrue(collector.getEntries(node).isEmpty());
+        } finally {
+            collector.close();
+            s.logout();
+        }
+    }
+
+    private static void restoreProperty(String name, String value) {
+        if (value == null) {
+            System.clearProperty(name);
+        } else {
+            System.setProperty(name, value);
+        }
+    }
+
     static interface TestInvokation {
         public void runTest() throws Exception;
     }
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.authorization.acl;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.Privilege;
+
+import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.security.authorization.AbstractEvaluationTest;
+import org.apache.jackrabbit.core.security.principal.EveryonePrincipal;
+import org.apache.jackrabbit.test.NotExecutableException;
+
+/**
+ * <code>EntryProgramTest</code> verifies that the precompiled
+ * {@link EntryProgram}s select the same entries as the principal name
+ * filtering of {@link EntryFilterImpl#filterEntries(List, List[])}.
+ */
+public class EntryProgramTest extends AbstractEvaluationTest {
+
+    private String path;
+    private List<Entry> aces;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        path = testRootNode.getPath();
+
+        Principal user = testUser.getPrincipal();
+        Principal group = getTestGroup().getPrincipal();
+        Principal everyone = EveryonePrincipal.getInstance();
+        Map<String, Value> secret = new HashMap<String, Value>();
+        secret.put(ACLTemplate.P_GLOB.toString(), superuser.getValueFactory().createValue("*/secret"));
+
+        modifyPrivileges(path, everyone, privilegesFromName(Privilege.JCR_READ), true, getRestrictions(superuser, path));
+        modifyPrivileges(path, group, privilegesFromName(Privilege.JCR_READ), false, getRestrictions(superuser, path));
+        modifyPrivileges(path, group, privilegesFromName(Privilege.JCR_READ_ACCESS_CONTROL), true, getRestrictions(superuser, path));
+        modifyPrivileges(path, user, privilegesFromName(Privilege.JCR_WRITE), true, getRestrictions(superuser, path));
+        modifyPrivileges(path, user, privilegesFromName(Privilege.JCR_READ), false, secret);
+
+        NodeImpl aclNode = (NodeImpl) superuser.getNode(path + "/rep:policy");
+        aces = Entry.readEntries(aclNode, path);
+        assertEquals(5, aces.size());
+    }
+
+    @Override
+    protected boolean isExecutable() {
+        return EvaluationUtil.isExecutable(acMgr);
+    }
+
+    @Override
+    protected JackrabbitAccessControlList getPolicy(AccessControlManager acM, String path, Principal principal) throws RepositoryException, AccessDeniedException, NotExecutableException {
+        return EvaluationUtil.getPolicy(acM, path, principal);
+    }
+
+    @Override
+    protected Map<String, Value> getRestrictions(Session s, String path) {
+        return Collections.emptyMap();
+    }
+
+    private List<Collection<String>> getPrincipalSets() throws Exception {
+        String user = testUser.getPrincipal().getName();
+        String group = getTestGroup().getPrincipal().getName();
+        String everyone = EveryonePrincipal.getInstance().getName();
+
+        List<Collection<String>> sets = new ArrayList<Collection<String>>();
+        sets.add(Arrays.asList(user));
+        sets.add(Arrays.asList(user, everyone));
+        sets.add(Arrays.asList(group, everyone));
+        sets.add(Arrays.asList(everyone, group, user));
+        sets.add(Arrays.asList("unknown"));
+        sets.add(null);
+        return sets;
+    }
+
+    private EntryFilterImpl createFilter(Collection<String> principalNames, String jcrPath) throws RepositoryException {
+        SessionImpl s = (SessionImpl) superuser;
+        List<String> key = (principalNames == null) ? null : PermissionCache.getKey(principalNames);
+        return new EntryFilterImpl(principalNames, key, s.getQPath(jcrPath), s);
+    }
+
+    private static Boolean getRead(List<Entry> aces) {
+        for (Entry ace : aces) {
+            if (ace.getPrivilegeBits().includesRead()) {
+                return ace.isAllow();
+            }
+        }
+        return null;
+    }
+
+    public void testCollect() throws Exception {
+        String[] paths = new String[] {path, path + "/a", path + "/a/secret"};
+        for (Collection<String> principalNames : getPrincipalSets()) {
+            for (String p : paths) {
+                String msg = principalNames + " at " + p;
+
+                List<Entry> userAces = new LinkedList<Entry>();
+                List<Entry> groupAces = new LinkedList<Entry>();
+                createFilter(principalNames, p).filterEntries(aces, userAces, groupAces);
+
+                EntryFilterImpl filter = createFilter(principalNames, p);
+                EntryProgram program = new EntryCollector.Entries(aces, null).getProgram(filter);
+                List<Entry> programUserAces = new LinkedList<Entry>();
+                List<Entry> programGroupAces = new LinkedList<Entry>();
+                program.collect(filter, programUserAces, programGroupAces);
+
+                assertEquals(msg, userAces, programUserAces);
+                assertEquals(msg, groupAces, programGroupAces);
+
+                assertEquals(msg, getRead(userAces), program.getUserRead(filter));
+                assertEquals(msg, getRead(groupAces), program.getGroupRead(filter));
+                assertEquals(msg, getRead(groupAces) != null, program.hasGroupReadEntries());
+            }
+        }
+    }
+
+    public void testReadEntries() throws Exception {
+        String user = testUser.getPrincipal().getName();
+        String group = getTestGroup().getPrincipal().getName();
+        String everyone = EveryonePrincipal.getInstance().getName();
+        EntryCollector.Entries entries = new EntryCollector.Entries(aces, null);
+
+        // the user entry denying READ only applies below 'secret'
+        EntryFilterImpl filter = createFilter(Arrays.asList(user, everyone), path + "/a");
+        assertNull(entries.getProgram(filter).getUserRead(filter));
+        assertEquals(Boolean.TRUE, entries.getProgram(filter).getGroupRead(filter));
+        filter = createFilter(Arrays.asList(user, everyone), path + "/a/secret");
+        assertEquals(Boolean.FALSE, entries.getProgram(filter).getUserRead(filter));
+
+        // the group entry granting jcr:readAccessControl does not decide
+        filter = createFilter(Arrays.asList(group, everyone), path);
+        assertEquals(Boolean.FALSE, entries.getProgram(filter).getGroupRead(filter));
+
+        // no entry applies to an unknown principal
+        filter = createFilter(Arrays.asList("unknown"), path);
+        assertSame(EntryProgram.EMPTY, entries.getProgram(filter));
+    }
+
+    public void testProgramCache() throws Exception {
+        String user = testUser.getPrincipal().getName();
+        String everyone = EveryonePrincipal.getInstance().getName();
+        EntryCollector.Entries entries = new EntryCollector.Entries(aces, null);
+
+        EntryFilterImpl filter = createFilter(Arrays.asList(user, everyone), path);
+        EntryProgram program = entries.getProgram(filter);
+        // same principals in a different order: same key and program
+        assertSame(program, entries.getProgram(createFilter(Arrays.asList(everyone, user), path)));
+        // copies of the entries share the compiled programs
+        assertSame(program, new EntryCollector.Entries(entries, null).getProgram(filter));
+        // different principals: different program
+        assertNotSame(program, entries.getProgram(createFilter(Arrays.asList(user), path)));
+        // principals without entries in the list: same program
+        assertSame(program, entries.getProgram(createFilter(Arrays.asList(user, everyone, "unknown"), path)));
+    }
+
+    public void testProgramCacheBounded() throws Exception {
+        EntryCollector.ProgramCache cache = new EntryCollector.ProgramCache();
+        int[] principalIndexes = new int[aces.size()];
+        for (int i = 0; i < EntryCollector.ProgramCache.MAX_PROGRAMS + 10; i++) {
+            BitSet principals = new BitSet();
+            principals.set(i);
+            cache.getProgram(new ArrayList<Entry>(aces), principalIndexes, principals);
+            assertTrue(cache.size() <= EntryCollector.ProgramCache.MAX_PROGRAMS);
+        }
+    }
+
+    public void testProgramReusedWithoutCache() throws Exception {
+        String user = testUser.getPrincipal().getName();
+        SessionImpl s = (SessionImpl) superuser;
+        NodeImpl node = (NodeImpl) s.getNode(path);
+        EntryFilterImpl filter = createFilter(Arrays.asList(user), path);
+
+        EntryCollector collector = new EntryCollector(s, ((NodeImpl) s.getRootNode()).getNodeId());
+        try {
+            // the entries are read again, the program compiled before is reused
+            EntryProgram program = collector.getEntries(node).getProgram(filter);
+            assertSame(program, collector.getEntries(node).getProgram(filter));
+
+            // modified entries are compiled again
+            modifyPrivileges(path, testUser.getPrincipal(), privilegesFromName(Privilege.JCR_LOCK_MANAGEMENT), true, getRestrictions(superuser, path));
+            assertNotSame(program, collector.getEntries(node).getProgram(filter));
+        } finally {
+            collector.close();
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.Group;
 import org.apache.jackrabbit.core.security.authorization.AbstractEvaluationTest;
 import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
+import org.apache.jackrabbit.core.security.authorization.PrivilegeRegistry;
 import org.apache.jackrabbit.test.NotExecutableException;
 import org.junit.Test;
 
@@ -95,6 +96,56 @@ public class ReadTest extends AbstractEvaluationTest {
         n.getDefinition();
     }
 
+    public void testReadDeniedAfterOtherSession() throws Exception {
+        Privilege[] privileges = privilegesFromName(Privilege.JCR_READ);
+
+        // permissions are evaluated and cached for the test principals
+        Session testSession = getTestSession();
+        assertTrue(testSession.nodeExists(path));
+        assertTrue(testSession.nodeExists(childNPath));
+
+        /* deny READ privilege for testUser at 'path' */
+        withdrawPrivileges(path, privileges, getRestrictions(superuser, path));
+
+        // a new session of the same principals must not see stale permissions
+        Session otherSession = getHelper().getRepository().login(creds);
+        try {
+            assertFalse(otherSession.nodeExists(path));
+            assertFalse(otherSession.nodeExists(childNPath));
+        } finally {
+            otherSession.logout();
+        }
+        assertFalse(testSession.nodeExists(path));
+    }
+
+    public void testTransientMoveNotShared() throws Exception {
+        Node destParent = superuser.getNode(path).addNode(nodeName3, testNodeType);
+        superuser.save();
+        String destPath = destParent.getPath() + "/" + nodeName2;
+        String newPath = childNPath + "/" + nodeName4;
+
+        /* allow READ and rep:write for testUser at 'path' */
+        givePrivileges(path, privilegesFromNames(new String[] {
+                Privilege.JCR_READ, PrivilegeRegistry.REP_WRITE}), getRestrictions(superuser, path));
+        /* deny adding child nodes for testUser at 'childNPath' */
+        withdrawPrivileges(childNPath, privilegesFromName(Privilege.JCR_ADD_CHILD_NODES), getRestrictions(superuser, childNPath));
+
+        // after the transient move the nearest node of 'newPath' is 'path'
+        Session testSession = getTestSession();
+        testSession.move(childNPath, destPath);
+        assertTrue(testSession.hasPermission(newPath, Session.ACTION_ADD_NODE));
+
+        // a session of the same principals must not see the transient result
+        Session otherSession = getHelper().getRepository().login(creds);
+        try {
+            assertFalse(otherSession.hasPermission(newPath, Session.ACTION_ADD_NODE));
+        } finally {
+            otherSession.logout();
+        }
+        testSession.refresh(false);
+        assertFalse(testSession.hasPermission(newPath, Session.ACTION_ADD_NODE));
+    }
+
     public void testDenyUserAllowGroup() throws Exception {
         Privilege[] privileges = privilegesFromName(Privilege.JCR_READ);
         Principal group = getTestGroup().getPrincipal();
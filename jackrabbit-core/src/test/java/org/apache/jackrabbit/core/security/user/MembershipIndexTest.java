@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.security.user;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.jackrabbit.api.security.user.AbstractUserTest;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.core.SessionImpl;
+
+/**
+ * <code>MembershipIndexTest</code>...
+ */
+public class MembershipIndexTest extends AbstractUserTest {
+
+    private SessionImpl systemSession;
+    private MembershipCache cache;
+
+    private User user;
+    private Group group1;
+    private Group group2;
+    private String[] authorizableIds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        user = userMgr.createUser("u" + UUID.randomUUID(), "pw");
+        group1 = userMgr.createGroup("g" + UUID.randomUUID());
+        group2 = userMgr.createGroup("g" + UUID.randomUUID());
+        group1.addMember(user);
+        group2.addMember(group1);
+        save(superuser);
+        authorizableIds = new String[] {user.getID(), group1.getID(), group2.getID()};
+
+        // the session of the workspace the user manager stores the authorizables in
+        String wspName = ((UserManagerImpl) userMgr).getSession().getWorkspace().getName();
+        systemSession = (SessionImpl) getHelper().getSuperuserSession(wspName);
+        cache = new MembershipCache(systemSession, UserConstants.GROUPS_PATH, false, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            cache.loggingOut(systemSession);
+            systemSession.logout();
+            for (String id : authorizableIds) {
+                Authorizable a = userMgr.getAuthorizable(id);
+                if (a != null) {
+                    a.remove();
+                }
+            }
+            save(superuser);
+        } finally {
+            super.tearDown();
+        }
+    }
+
+    private static String getId(Authorizable authorizable) throws Exception {
+        return ((AuthorizableImpl) authorizable).getNode().getIdentifier();
+    }
+
+    private static Set<String> ids(Authorizable... authorizables) throws Exception {
+        Set<String> ids = new HashSet<String>();
+        for (Authorizable a : authorizables) {
+            ids.add(getId(a));
+        }
+        return ids;
+    }
+
+    private void assertMembership(Authorizable authorizable, Set<String> declared, Set<String> all) throws Exception {
+        String id = getId(authorizable);
+        assertEquals(declared, new HashSet<String>(cache.getDeclaredMemberOf(id)));
+        assertEquals(all, new HashSet<String>(cache.getMemberOf(id)));
+        // same result as collecting from the repository
+        assertEquals(all, new HashSet<String>(cache.collectMembership(id, systemSession)));
+    }
+
+    public void testMemberOf() throws Exception {
+        assertMembership(user, ids(group1), ids(group1, group2));
+        assertMembership(group1, ids(group2), ids(group2));
+        assertMembership(group2, ids(), ids());
+    }
+
+    public void testAddMember() throws Exception {
+        assertMembership(user, ids(group1), ids(group1, group2));
+
+        group2.addMember(user);
+        save(superuser);
+        assertMembership(user, ids(group1, group2), ids(group1, group2));
+    }
+
+    public void testRemoveMember() throws Exception {
+        assertMembership(user, ids(group1), ids(group1, group2));
+
+        // the transitive membership of the user changes as well
+        group2.removeMember(group1);
+        save(superuser);
+        assertMembership(group1, ids(), ids());
+        assertMembership(user, ids(group1), ids(group1));
+
+        group1.removeMember(user);
+        save(superuser);
+        assertMembership(user, ids(), ids());
+    }
+
+    public void testRemoveGroup() throws Exception {
+        assertMembership(user, ids(group1), ids(group1, group2));
+
+        group1.remove();
+        save(superuser);
+        String id = getId(user);
+        assertTrue(cache.getDeclaredMemberOf(id).isEmpty());
+        assertTrue(cache.getMemberOf(id).isEmpty());
+    }
+
+    public void testMembersNode() throws Exception {
+        cache.loggingOut(systemSession);
+        cache = new MembershipCache(systemSession, UserConstants.GROUPS_PATH, true, true);
+
+        Collection<String> ids = Arrays.asList(getId(group1), getId(group2));
+        assertEquals(new HashSet<String>(ids), new HashSet<String>(cache.getMemberOf(getId(user))));
+    }
+}
@@ -36,6 +36,7 @@ public class TestAll extends TestCase {
         suite.addTestSuite(AuthorizableImplTest.class);
         suite.addTestSuite(UserImplTest.class);
         suite.addTestSuite(GroupImplTest.class);
+        suite.addTestSuite(MembershipIndexTest.class);
         suite.addTestSuite(ImpersonationImplTest.class);
         suite.addTestSuite(AuthorizableActionTest.class);
 
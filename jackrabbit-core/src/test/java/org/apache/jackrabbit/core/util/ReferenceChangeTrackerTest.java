@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.util;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the {@link ReferenceChangeTracker} class.
+ */
+public class ReferenceChangeTrackerTest extends TestCase {
+
+    /**
+     * Tests id mappings beyond the number of mappings kept in memory.
+     */
+    public void testSpilledIdMappings() {
+        ReferenceChangeTracker tracker = new ReferenceChangeTracker(10);
+        try {
+            for (int i = 0; i < 10000; i++) {
+                tracker.mappedId(new NodeId(i, i), new NodeId(-i, i));
+            }
+            // replace a spilled mapping
+            tracker.mappedId(new NodeId(5000, 5000), new NodeId(1, 1));
+
+            for (int i = 0; i < 10000; i++) {
+                NodeId expected = i == 5000 ? new NodeId(1, 1) : new NodeId(-i, i);
+                assertEquals(expected, tracker.getMappedId(new NodeId(i, i)));
+            }
+            assertNull(tracker.getMappedId(new NodeId(10000, 10000)));
+        } finally {
+            tracker.clear();
+        }
+        assertNull(tracker.getMappedId(new NodeId(1, 1)));
+    }
+
+}
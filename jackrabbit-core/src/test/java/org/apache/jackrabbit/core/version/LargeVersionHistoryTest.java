@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.version;
+
+import javax.jcr.Node;
+import javax.jcr.version.Version;
+import javax.jcr.version.VersionHistory;
+import javax.jcr.version.VersionManager;
+
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests the version graph and the head version of a version history with
+ * many versions.
+ */
+public class LargeVersionHistoryTest extends AbstractJCRTest {
+
+    private static final int VERSION_COUNT = 200;
+
+    public void testVersionGraph() throws Exception {
+        Node n = testRootNode.addNode(nodeName1);
+        n.addMixin(mixVersionable);
+        superuser.save();
+
+        VersionManager vMgr = superuser.getWorkspace().getVersionManager();
+        Version[] versions = new Version[VERSION_COUNT];
+        for (int i = 0; i < VERSION_COUNT; i++) {
+            versions[i] = vMgr.checkin(n.getPath());
+            vMgr.checkout(n.getPath());
+        }
+
+        VersionHistory vh = vMgr.getVersionHistory(n.getPath());
+        assertEquals(VERSION_COUNT + 1, vh.getAllVersions().getSize());
+        for (int i = 0; i < VERSION_COUNT; i++) {
+            assertEquals("1." + i, versions[i].getName());
+            Version pred = (i == 0) ? vh.getRootVersion() : versions[i - 1];
+            assertEquals(pred.getIdentifier(), versions[i].getLinearPredecessor().getIdentifier());
+            Version[] succs = pred.getSuccessors();
+            assertEquals(1, succs.length);
+            assertEquals(versions[i].getIdentifier(), succs[0].getIdentifier());
+        }
+
+        // a branch adds a second successor without touching the first one
+        vMgr.restore(versions[0], true);
+        vMgr.checkout(n.getPath());
+        Version branch = vMgr.checkin(n.getPath());
+        assertEquals("1.0.0", branch.getName());
+        assertEquals(2, versions[0].getSuccessors().length);
+    }
+
+    public void testSimpleVersioningHead() throws Exception {
+        Node n = testRootNode.addNode(nodeName1);
+        n.addMixin(mixSimpleVersionable);
+        superuser.save();
+
+        VersionManager vMgr = superuser.getWorkspace().getVersionManager();
+        Version last = null;
+        for (int i = 0; i < VERSION_COUNT; i++) {
+            last = vMgr.checkin(n.getPath());
+            vMgr.checkout(n.getPath());
+        }
+        String lastName = last.getName();
+        assertEquals("1." + (VERSION_COUNT - 1), lastName);
+
+        // removing the head version makes its predecessor the head again
+        vMgr.getVersionHistory(n.getPath()).removeVersion(lastName);
+        Version head = vMgr.checkin(n.getPath());
+        vMgr.checkout(n.getPath());
+        assertEquals(lastName, head.getName());
+        assertEquals("1." + (VERSION_COUNT - 2), head.getLinearPredecessor().getName());
+    }
+}
@@ -35,10 +35,12 @@ public class TestAll extends TestCase {
         suite.addTestSuite(CheckinRemoveVersionTest.class);
         suite.addTestSuite(CopyFrozenUuidTest.class);
         suite.addTestSuite(InternalVersionHistoryImplTest.class);
+        suite.addTestSuite(LargeVersionHistoryTest.class);
         suite.addTestSuite(RemoveVersionLabelTest.class);
         suite.addTestSuite(RestoreTest.class);
         suite.addTestSuite(RestoreNodeWithSNSTest.class);
         suite.addTestSuite(VersionIteratorImplTest.class);
+        suite.addTestSuite(VersionPurgeManagerTest.class);
         return suite;
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.version;
+
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.Repository;
+import javax.jcr.version.Version;
+import javax.jcr.version.VersionHistory;
+import javax.jcr.version.VersionManager;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+import org.apache.jackrabbit.test.NotExecutableException;
+
+/**
+ * Tests the {@link VersionPurgeManager}.
+ */
+public class VersionPurgeManagerTest extends AbstractJCRTest {
+
+    private static final int VERSION_COUNT = 10;
+
+    private VersionPurgeManager purgeMgr;
+
+    private VersionManager vMgr;
+
+    private Version[] versions;
+
+    private VersionHistory vh;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Repository r = superuser.getRepository();
+        if (!(r instanceof RepositoryImpl)) {
+            throw new NotExecutableException();
+        }
+        purgeMgr = ((RepositoryImpl) r).getVersionPurgeManager();
+
+        Node n = testRootNode.addNode(nodeName1);
+        n.addMixin(mixVersionable);
+        superuser.save();
+
+        vMgr = superuser.getWorkspace().getVersionManager();
+        versions = new Version[VERSION_COUNT];
+        for (int i = 0; i < VERSION_COUNT; i++) {
+            versions[i] = vMgr.checkin(n.getPath());
+            vMgr.checkout(n.getPath());
+        }
+        vh = vMgr.getVersionHistory(n.getPath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        purgeMgr = null;
+        vMgr = null;
+        versions = null;
+        vh = null;
+        super.tearDown();
+    }
+
+    private void purge(VersionRetentionPolicy policy) throws Exception {
+        purge(policy, System.currentTimeMillis());
+    }
+
+    private void purge(VersionRetentionPolicy policy, long now) throws Exception {
+        purgeMgr.purge(NodeId.valueOf(vh.getIdentifier()), policy, now);
+    }
+
+    private long getVersionCount() throws Exception {
+        // root version included
+        return vh.getAllVersions().getSize();
+    }
+
+    public void testRetainNewest() throws Exception {
+        vh.addVersionLabel(versions[0].getName(), "label", false);
+
+        purge(new VersionRetentionPolicy(3, -1, true));
+        // root, labeled and the three newest versions
+        assertEquals(5, getVersionCount());
+        assertTrue(vh.hasVersionLabel("label"));
+        assertEquals(versions[VERSION_COUNT - 1].getIdentifier(),
+                vh.getVersion(versions[VERSION_COUNT - 1].getName()).getIdentifier());
+
+        purge(new VersionRetentionPolicy(1, -1, false));
+        // the base version is still referenced
+        assertEquals(2, getVersionCount());
+        assertFalse(vh.hasVersionLabel("label"));
+    }
+
+    public void testRetainAge() throws Exception {
+        purge(new VersionRetentionPolicy(-1, 60 * 60 * 1000, true));
+        assertEquals(VERSION_COUNT + 1, getVersionCount());
+
+        purge(new VersionRetentionPolicy(5, 60 * 60 * 1000, true));
+        assertEquals(VERSION_COUNT + 1, getVersionCount());
+
+        purge(new VersionRetentionPolicy(-1, -1, false));
+        assertEquals(VERSION_COUNT + 1, getVersionCount());
+
+        // two hours later, all versions but the base version are purgeable
+        long later = versions[VERSION_COUNT - 1].getCreated().getTimeInMillis()
+                + 2 * 60 * 60 * 1000;
+        purge(new VersionRetentionPolicy(-1, 60 * 60 * 1000, true), later);
+        assertEquals(2, getVersionCount());
+    }
+
+    public void testPurgeAllVersions() throws Exception {
+        String historyId = vh.getIdentifier();
+        // without the versionable node, no version is referenced anymore
+        testRootNode.getNode(nodeName1).remove();
+        superuser.save();
+
+        long purged = purgeMgr.getPurgedVersions();
+        long skipped = purgeMgr.getSkippedVersions();
+        long failed = purgeMgr.getFailedVersions();
+        purge(new VersionRetentionPolicy(0, -1, false));
+        assertEquals(purged + VERSION_COUNT, purgeMgr.getPurgedVersions());
+        assertEquals(skipped, purgeMgr.getSkippedVersions());
+        assertEquals(failed, purgeMgr.getFailedVersions());
+
+        // the orphaned history has been removed with its last version
+        try {
+            superuser.getNodeByIdentifier(historyId);
+            fail("version history must have been removed");
+        } catch (ItemNotFoundException e) {
+            // success
+        }
+
+        // purging the removed history again does nothing
+        purge(new VersionRetentionPolicy(0, -1, false));
+        assertEquals(purged + VERSION_COUNT, purgeMgr.getPurgedVersions());
+        assertEquals(failed, purgeMgr.getFailedVersions());
+    }
+
+    public void testBatches() throws Exception {
+        int batchSize = purgeMgr.getBatchSize();
+        try {
+            purgeMgr.setBatchSize(2);
+            long purged = purgeMgr.getPurgedVersions();
+            long skipped = purgeMgr.getSkippedVersions();
+            purge(new VersionRetentionPolicy(0, -1, false));
+            assertEquals(2, getVersionCount());
+            assertEquals(purged + VERSION_COUNT - 1, purgeMgr.getPurgedVersions());
+            assertEquals(skipped + 1, purgeMgr.getSkippedVersions());
+        } finally {
+            purgeMgr.setBatchSize(batchSize);
+        }
+    }
+
+    public void testRun() throws Exception {
+        // nothing is purged without a retention criterion
+        assertEquals(-1, purgeMgr.getMaxVersions());
+        assertEquals(-1, purgeMgr.getMaxAge());
+        assertTrue(purgeMgr.run());
+        assertFalse(purgeMgr.isRunning());
+        assertTrue(purgeMgr.getScannedHistories() > 0);
+        assertEquals(0, purgeMgr.getPurgedVersions());
+        assertTrue(purgeMgr.getEndTime() >= purgeMgr.getStartTime());
+        assertEquals(VERSION_COUNT + 1, getVersionCount());
+    }
+
+    public void testMBeanRegistered() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(
+                new ObjectName("org.apache.jackrabbit:type=VersionPurgeManager,*"), null);
+        assertFalse(names.isEmpty());
+        for (ObjectName name : names) {
+            assertNotNull(server.getAttribute(name, "BatchSize"));
+        }
+    }
+}
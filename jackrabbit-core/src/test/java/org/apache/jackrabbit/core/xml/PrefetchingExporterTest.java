@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.ImportUUIDBehavior;
+import javax.jcr.InvalidSerializedDataException;
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.jackrabbit.api.JackrabbitValue;
+import org.apache.jackrabbit.commons.xml.DocumentViewExporter;
+import org.apache.jackrabbit.commons.xml.SystemViewExporter;
+import org.apache.jackrabbit.commons.xml.ToXmlContentHandler;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Test cases for the {@link PrefetchingSystemViewExporter} and
+ * {@link PrefetchingDocumentViewExporter} classes.
+ */
+public class PrefetchingExporterTest extends AbstractJCRTest {
+
+    private Node node;
+
+    private String identity;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        node = testRootNode.addNode(nodeName1);
+        for (int i = 0; i < 5; i++) {
+            Node child = node.addNode("child" + i);
+            child.setProperty("value", i);
+            for (int j = 0; j < 5; j++) {
+                child.addNode("child" + j).setProperty("value", j);
+            }
+        }
+        // large enough to be kept in the data store
+        byte[] data = new byte[1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Binary binary = superuser.getValueFactory().createBinary(
+                new ByteArrayInputStream(data));
+        node.setProperty("binary", binary);
+        superuser.save();
+        identity = ((JackrabbitValue) node.getProperty("binary").getValue())
+                .getContentIdentity();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        node = null;
+        super.tearDown();
+    }
+
+    public void testSystemView() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new SystemViewExporter(superuser, new ToXmlContentHandler(expected),
+                true, true).export(node);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        superuser.exportSystemView(node.getPath(), actual, false, false);
+        assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+    }
+
+    public void testDocumentView() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new DocumentViewExporter(superuser, new ToXmlContentHandler(expected),
+                true, true).export(node);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        superuser.exportDocumentView(node.getPath(), actual, false, false);
+        assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+    }
+
+    public void testBinaryReferences() throws Exception {
+        if (identity == null) {
+            // no data store configured
+            return;
+        }
+
+        SimpleCredentials sc =
+            (SimpleCredentials) getHelper().getSuperuserCredentials();
+        SimpleCredentials credentials =
+            new SimpleCredentials(sc.getUserID(), sc.getPassword());
+        credentials.setAttribute(SessionImpl.EXPORT_BINARY_REFERENCES, Boolean.TRUE);
+        Session session = getHelper().getRepository().login(credentials);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            session.exportSystemView(node.getPath(), out, false, false);
+            String xml = out.toString("UTF-8");
+            assertTrue(xml.contains(
+                    PrefetchingSystemViewExporter.DATA_STORE_PREFIX + identity));
+            assertFalse(xml.contains("base64Binary"));
+
+            // the option has no effect on the document view
+            out = new ByteArrayOutputStream();
+            session.exportDocumentView(node.getPath(), out, false, false);
+            assertFalse(out.toString("UTF-8").contains(identity));
+        } finally {
+            session.logout();
+        }
+
+        // not enabled by default
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        superuser.exportSystemView(node.getPath(), out, false, false);
+        assertFalse(out.toString("UTF-8").contains(identity));
+    }
+
+    public void testBinaryReferencesNotImported() throws Exception {
+        if (identity == null) {
+            // no data store configured
+            return;
+        }
+
+        SimpleCredentials sc =
+            (SimpleCredentials) getHelper().getSuperuserCredentials();
+        SimpleCredentials credentials =
+            new SimpleCredentials(sc.getUserID(), sc.getPassword());
+        credentials.setAttribute(SessionImpl.EXPORT_BINARY_REFERENCES, Boolean.TRUE);
+        Session session = getHelper().getRepository().login(credentials);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            session.exportSystemView(node.getPath(), out, false, false);
+        } finally {
+            session.logout();
+        }
+
+        Node target = testRootNode.addNode(nodeName2);
+        superuser.save();
+        try {
+            superuser.importXML(target.getPath(),
+                    new ByteArrayInputStream(out.toByteArray()),
+                    ImportUUIDBehavior.IMPORT_UUID_CREATE_NEW);
+            fail("data store references must not be imported");
+        } catch (InvalidSerializedDataException e) {
+            // expected
+        } finally {
+            superuser.refresh(false);
+        }
+    }
+
+}
@@ -22,7 +22,10 @@ import javax.jcr.ImportUUIDBehavior;
 import javax.jcr.Node;
 import javax.jcr.PathNotFoundException;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
 
+import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.test.AbstractJCRTest;
 
@@ -93,4 +96,71 @@ public class WorkspaceImporterTest extends AbstractJCRTest {
         }
     }
 
+    /**
+     * Tests a bulk import that is committed in several batches and that
+     * contains references to nodes imported later on.
+     *
+     * @throws Exception if an unexpected error occurs
+     */
+    public void testBulkImport() throws Exception {
+        NodeId id = NodeId.randomId();
+        StringBuilder xml = new StringBuilder();
+        xml.append("<sv:node sv:name=\"a\""
+                + " xmlns:jcr=\"http://www.jcp.org/jcr/1.0\""
+                + " xmlns:nt=\"http://www.jcp.org/jcr/nt/1.0\""
+                + " xmlns:sv=\"http://www.jcp.org/jcr/sv/1.0\">"
+                + "<sv:property sv:name=\"jcr:primaryType\" sv:type=\"Name\">"
+                + "<sv:value>nt:unstructured</sv:value></sv:property>");
+        for (int i = 0; i < 10; i++) {
+            xml.append("<sv:node sv:name=\"c" + i + "\">"
+                    + "<sv:property sv:name=\"jcr:primaryType\" sv:type=\"Name\">"
+                    + "<sv:value>nt:unstructured</sv:value></sv:property>"
+                    + "<sv:property sv:name=\"ref\" sv:type=\"Reference\">"
+                    + "<sv:value>" + id + "</sv:value></sv:property>"
+                    + "<sv:property sv:name=\"weak\" sv:type=\"WeakReference\">"
+                    + "<sv:value>" + id + "</sv:value></sv:property>"
+                    + "</sv:node>");
+        }
+        xml.append("<sv:node sv:name=\"b\">"
+                + "<sv:property sv:name=\"jcr:primaryType\" sv:type=\"Name\">"
+                + "<sv:value>nt:unstructured</sv:value></sv:property>"
+                + "<sv:property sv:name=\"jcr:mixinTypes\" sv:type=\"Name\">"
+                + "<sv:value>mix:referenceable</sv:value></sv:property>"
+                + "<sv:property sv:name=\"jcr:uuid\" sv:type=\"String\">"
+                + "<sv:value>" + id + "</sv:value></sv:property>"
+                + "</sv:node>"
+                + "</sv:node>");
+
+        SimpleCredentials sc =
+            (SimpleCredentials) getHelper().getSuperuserCredentials();
+        SimpleCredentials credentials =
+            new SimpleCredentials(sc.getUserID(), sc.getPassword());
+        credentials.setAttribute(SessionImpl.BULK_IMPORT, 2);
+        Session session = getHelper().getRepository().login(credentials);
+        try {
+            // the second import remaps the conflicting uuid
+            for (int i = 0; i < 2; i++) {
+                session.getWorkspace().importXML(
+                        root.getPath(),
+                        new ByteArrayInputStream(xml.toString().getBytes("UTF-8")),
+                        ImportUUIDBehavior.IMPORT_UUID_CREATE_NEW);
+            }
+        } finally {
+            session.logout();
+        }
+
+        superuser.refresh(false);
+        assertEquals(id.toString(), root.getNode("a/b").getIdentifier());
+        assertFalse(id.toString().equals(root.getNode("a[2]/b").getIdentifier()));
+        for (String a : new String[] { "a", "a[2]" }) {
+            Node b = root.getNode(a + "/b");
+            for (int i = 0; i < 10; i++) {
+                Node c = root.getNode(a + "/c" + i);
+                assertTrue(b.isSame(c.getProperty("ref").getNode()));
+                assertTrue(b.isSame(c.getProperty("weak").getNode()));
+            }
+            assertEquals(10, b.getReferences().getSize());
+        }
+    }
+
 }
@@ -16,9 +16,19 @@
  */
 package org.apache.jackrabbit.core.data;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
@@ -54,6 +64,22 @@ public abstract class AbstractBackend implements Backend {
      */
     private volatile Executor asyncWriteExecutor;
 
+    /**
+     * The size in bytes of the parts of a record that are transferred in
+     * parallel.
+     */
+    private long partSize = 16 * 1024 * 1024;
+
+    /**
+     * The maximum number of parts that are transferred in parallel.
+     */
+    private int transferConcurrency = 4;
+
+    /**
+     * Executor used to transfer the parts of a record in parallel.
+     */
+    private volatile ExecutorService transferExecutor;
+
     /**
      * Returns the pool size of the asynchronous write pool executor.
      * @return the pool size of the asynchronous write pool executor
@@ -70,6 +96,42 @@ public abstract class AbstractBackend implements Backend {
         this.asyncWritePoolSize = asyncWritePoolSize;
     }
 
+    /**
+     * Returns the size in bytes of the parts of a record that are transferred
+     * in parallel.
+     * @return the part size
+     */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * Sets the size in bytes of the parts of a record that are transferred
+     * in parallel.
+     * @param partSize the part size
+     */
+    public void setPartSize(long partSize) {
+        this.partSize = partSize;
+    }
+
+    /**
+     * Returns the maximum number of parts that are transferred in parallel.
+     * @return the transfer concurrency
+     */
+    public int getTransferConcurrency() {
+        return transferConcurrency;
+    }
+
+    /**
+     * Sets the maximum number of parts that are transferred in parallel. A
+     * value of 1 or less transfers the parts one after the other in the
+     * calling thread.
+     * @param transferConcurrency the transfer concurrency
+     */
+    public void setTransferConcurrency(int transferConcurrency) {
+        this.transferConcurrency = transferConcurrency;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -85,11 +147,37 @@ public abstract class AbstractBackend implements Backend {
      */
     @Override
     public void close() throws DataStoreException {
-        Executor asyncExecutor = getAsyncWriteExecutor();
+        Executor asyncExecutor = asyncWriteExecutor;
 
         if (asyncExecutor != null && asyncExecutor instanceof ExecutorService) {
             ((ExecutorService) asyncExecutor).shutdownNow();
         }
+
+        ExecutorService partExecutor = transferExecutor;
+
+        if (partExecutor != null) {
+            partExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Deletes the records one by one. Backends that support bulk deletes
+     * should override this method.
+     */
+    @Override
+    public Set<DataIdentifier> deleteRecords(Collection<DataIdentifier> identifiers,
+            long timestamp) throws DataStoreException {
+        Set<DataIdentifier> deleteIdSet = new HashSet<DataIdentifier>();
+        for (DataIdentifier identifier : identifiers) {
+            if (exists(identifier)
+                    && getLastModified(identifier) < timestamp
+                    && dataStore.confirmDelete(identifier)) {
+                dataStore.deleteFromCache(identifier);
+                deleteRecord(identifier);
+                deleteIdSet.add(identifier);
+            }
+        }
+        return deleteIdSet;
     }
 
     /**
@@ -159,6 +247,88 @@ public abstract class AbstractBackend implements Backend {
         return executor;
     }
 
+    /**
+     * Splits a record of the given length into parts of {@link #getPartSize()}
+     * bytes and passes each of them to the given {@link PartTransfer}. Up to
+     * {@link #getTransferConcurrency()} parts are transferred in parallel.
+     * This method returns when all parts are transferred, and fails with the
+     * exception of the first part that could not be transferred.
+     * @param length the length of the record
+     * @param transfer the transfer of a single part
+     * @throws IOException if a part could not be transferred
+     */
+    protected void transferParts(long length, final PartTransfer transfer)
+            throws IOException {
+        final long size = Math.max(1, getPartSize());
+        int parts = (int) ((length + size - 1) / size);
+        if (parts <= 1 || getTransferConcurrency() <= 1) {
+            for (int part = 0; part < parts; part++) {
+                long offset = part * size;
+                transfer.transfer(part, offset, Math.min(size, length - offset));
+            }
+            return;
+        }
+
+        ExecutorService executor = getTransferExecutor();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(parts);
+        for (int i = 0; i < parts; i++) {
+            final int part = i;
+            final long offset = part * size;
+            final long partLength = Math.min(size, length - offset);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    transfer.transfer(part, offset, partLength);
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while transferring parts");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the {@link ExecutorService} used by
+     * {@link #transferParts(long, PartTransfer)}.
+     * @return the {@link ExecutorService} used to transfer parts
+     */
+    protected ExecutorService getTransferExecutor() {
+        ExecutorService executor = transferExecutor;
+
+        if (executor == null) {
+            synchronized (this) {
+                executor = transferExecutor;
+                if (executor == null) {
+                    transferExecutor = executor = Executors.newFixedThreadPool(
+                            Math.max(1, getTransferConcurrency()),
+                            new NamedThreadFactory(getClass().getSimpleName() + "-transfer-worker"));
+                }
+            }
+        }
+
+        return executor;
+    }
+
     /**
      * Creates an {@link Executor}.
      * This method is invoked during the initialization for asynchronous write/touch job executions.
@@ -188,4 +358,19 @@ public abstract class AbstractBackend implements Backend {
         }
     }
 
+    /**
+     * Transfer of a single part of a record.
+     * @see AbstractBackend#transferParts(long, PartTransfer)
+     */
+    protected interface PartTransfer {
+
+        /**
+         * Transfers the given part of a record.
+         * @param part the index of the part
+         * @param offset the offset of the part in the record
+         * @param length the length of the part
+         * @throws IOException if the part could not be transferred
+         */
+        void transfer(int part, long offset, long length) throws IOException;
+    }
 }
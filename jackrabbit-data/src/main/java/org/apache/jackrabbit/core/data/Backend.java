@@ -18,10 +18,14 @@
 package org.apache.jackrabbit.core.data;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
+
 /**
  * The interface defines the backend which can be plugged into
  * {@link CachingDataStore}.
@@ -53,6 +57,30 @@ public interface Backend {
      */
     InputStream read(DataIdentifier identifier) throws DataStoreException;
 
+    /**
+     * Copy the record identified by identifier to the given file. Backends
+     * may override this method to transfer ranges of the record in
+     * parallel. The default implementation copies the stream returned by
+     * {@link #read(DataIdentifier)}.
+     * 
+     * @param identifier
+     *            identifier of record.
+     * @param file
+     *            destination file, which is overwritten.
+     * @throws DataStoreException
+     *             if record not found or any error.
+     */
+    default void read(DataIdentifier identifier, File file)
+            throws DataStoreException {
+        try {
+            // closes the stream returned by the backend
+            FileUtils.copyInputStreamToFile(read(identifier), file);
+        } catch (IOException e) {
+            throw new DataStoreException("Could not read record "
+                + identifier + " into " + file.getAbsolutePath(), e);
+        }
+    }
+
     /**
      * Return length of record identified by identifier.
      * 
@@ -138,6 +166,24 @@ public interface Backend {
      */
     void touch(final DataIdentifier identifier, long minModifiedDate)
             throws DataStoreException;
+
+    /**
+     * Update the lastModified of all given records that exist in the backend
+     * and have a lastModified &lt; minModifiedDate. The default
+     * implementation touches the records one by one.
+     * 
+     * @param identifiers
+     * @param minModifiedDate
+     * @throws DataStoreException
+     */
+    default void touchAll(Collection<DataIdentifier> identifiers, long minModifiedDate)
+            throws DataStoreException {
+        for (DataIdentifier identifier : identifiers) {
+            if (exists(identifier)) {
+                touch(identifier, minModifiedDate);
+            }
+        }
+    }
     
     /**
      * Update the lastModified of record if it's lastModified &lt; minModifiedDate
@@ -182,5 +228,21 @@ public interface Backend {
      * @throws DataStoreException
      */
     void deleteRecord(DataIdentifier identifier) throws DataStoreException;
+
+    /**
+     * Delete the given records if they are older than timestamp and
+     * {@link CachingDataStore#confirmDelete(DataIdentifier)} allows it.
+     * Identifiers of records that do not exist are ignored. The default
+     * implementation throws an {@link UnsupportedOperationException}.
+     * 
+     * @param identifiers
+     * @param timestamp
+     * @return {@link Set} of identifiers which are deleted.
+     * @throws DataStoreException
+     */
+    default Set<DataIdentifier> deleteRecords(Collection<DataIdentifier> identifiers,
+            long timestamp) throws DataStoreException {
+        throw new UnsupportedOperationException("deleteRecords is not supported by " + getClass().getName());
+    }
 }
 
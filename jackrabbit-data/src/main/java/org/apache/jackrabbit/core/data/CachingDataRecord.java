@@ -17,6 +17,9 @@
 
 package org.apache.jackrabbit.core.data;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.slf4j.Logger;
@@ -59,4 +62,23 @@ public class CachingDataRecord extends AbstractDataRecord {
         return store.getStream(getIdentifier());
     }
 
+    /**
+     * Reads the data at the given position from the file in the local cache.
+     */
+    @Override
+    public int read(byte[] b, long position) throws DataStoreException {
+        File cached = store.getCachedFile(getIdentifier());
+        if (cached == null) {
+            return super.read(b, position);
+        }
+        try {
+            return FileDataRecord.read(cached, b, position);
+        } catch (FileNotFoundException e) {
+            // purged from the cache in the meantime
+            return super.read(b, position);
+        } catch (IOException e) {
+            throw new DataStoreException("Error reading " + cached.getAbsolutePath(), e);
+        }
+    }
+
 }
@@ -29,6 +29,7 @@ import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -80,8 +81,21 @@ import org.slf4j.LoggerFactory;
  *     &lt;param name="{@link #setTouchAsync(boolean) touchAsync}" value="false"/&gt;
  *     &lt;param name="{@link #setProactiveCaching(boolean) proactiveCaching}" value="true"/&gt;
  *     &lt;param name="{@link #setRecLengthCacheSize(int) recLengthCacheSize}" value="200"/&gt;
+ *     &lt;param name="{@link #setChunking(boolean) chunking}" value="false"/&gt;
+ *     &lt;param name="{@link #setChunkSize(int) chunkSize}" value="1048576"/&gt;
  * &lt;/DataStore&gt;
  * </pre>
+ * <p>
+ * If chunking is enabled, binaries are split into content defined chunks.
+ * Each chunk is stored as a record of its own, and only chunks that are not
+ * stored yet are added to the {@link LocalCache} and uploaded to the
+ * {@link Backend}. The binary itself is stored as a small manifest that
+ * lists its chunks, and is reassembled from the chunks when it is read.
+ * Chunks and manifests have identifiers with distinct suffixes, so that
+ * they are recognized without reading them.
+ * Chunks that are no longer referenced by any manifest are deleted by the
+ * garbage collection. Chunking can be enabled for an existing data store,
+ * but must not be disabled again once binaries were stored as chunks.
  */
 public abstract class CachingDataStore extends AbstractDataStore implements
         MultiDataStoreAware, AsyncUploadCallback, AsyncTouchCallback {
@@ -132,6 +146,11 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      */
     protected Map<DataIdentifier, Long> recLenCache = null;
 
+    /**
+     * In memory LRU cache of the manifests of chunked records.
+     */
+    private Map<DataIdentifier, ChunkManifest> manifestCache = null;
+
     protected Backend backend;
 
     /**
@@ -248,6 +267,17 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      */
     private int recLengthCacheSize = 200;
 
+    /**
+     * Flag to indicate that binaries are split into content defined chunks,
+     * and chunks shared by several binaries are only stored once.
+     */
+    private boolean chunking = false;
+
+    /**
+     * The average size of a chunk, if {@link #chunking} is enabled.
+     */
+    private int chunkSize = 1024 * 1024;
+
     /**
      * Initialized the data store. If the path is not set, &lt;repository
      * home&gt;/repository/datastore is used. This directory is automatically
@@ -378,6 +408,18 @@ public abstract class CachingDataStore extends AbstractDataStore implements
                     return false;
                 }
             });
+            manifestCache = Collections.synchronizedMap(
+                new LinkedHashMap<DataIdentifier, ChunkManifest>(
+                    recLengthCacheSize, 0.75f, true) {
+
+                private static final long serialVersionUID = 2384576184531806437L;
+
+                @Override
+                protected boolean removeEldestEntry(
+                                Map.Entry<DataIdentifier, ChunkManifest> eldest) {
+                    return size() > recLengthCacheSize;
+                }
+            });
         } catch (Exception e) {
             throw new RepositoryException(e);
         }
@@ -399,6 +441,9 @@ public abstract class CachingDataStore extends AbstractDataStore implements
      */
     @Override
     public DataRecord addRecord(InputStream input) throws DataStoreException {
+        if (chunking) {
+            return addChunkedRecord(input);
+        }
         File temporary = null;
         long startTime = System.currentTimeMillis();
         long length = 0;
@@ -421,24 +466,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
                 encodeHexString(digest.digest()));
             LOG.debug("Digest of [{}], length =[{}] took [{}]ms ",
                 new Object[] { identifier, length, (currTime - startTime) });
-            String fileName = getFileName(identifier);
-            AsyncUploadCacheResult result = null;
-            synchronized (this) {
-                usesIdentifier(identifier);
-                // check if async upload is already in progress
-                if (!asyncWriteCache.hasEntry(fileName, true)) {
-                    result = cache.store(fileName, temporary, true);
-                }
-            }
-            LOG.debug("storing  [{}] in localCache took [{}] ms", identifier,
-                (System.currentTimeMillis() - currTime));
-            if (result != null) {
-                if (result.canAsyncUpload()) {
-                    backend.writeAsync(identifier, result.getFile(), this);
-                } else {
-                    backend.write(identifier, result.getFile());
-                }
-            }
+            storeRecord(identifier, temporary);
             // this will also make sure that
             // tempId is not garbage collected until here
             inUse.remove(tempId);
@@ -458,6 +486,138 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         }
     }
 
+    /**
+     * Creates a new data record that is stored as content defined chunks.
+     * The stream is split into chunks while it is consumed, and each chunk
+     * is saved in a temporary file. Chunks that are already stored are only
+     * touched, so that the garbage collection does not delete them, and the
+     * other chunks are stored like records. Finally the manifest that lists
+     * the chunks is stored using the {@link #DIGEST} message digest of the
+     * whole stream with the manifest suffix as identifier.
+     */
+    private DataRecord addChunkedRecord(InputStream input)
+            throws DataStoreException {
+        long startTime = System.currentTimeMillis();
+        ContentDefinedChunker chunker = new ContentDefinedChunker(chunkSize);
+        ChunkManifest manifest = new ChunkManifest();
+        File chunkFile = null;
+        OutputStream chunkOutput = null;
+        File manifestFile = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance(DIGEST);
+            MessageDigest chunkDigest = null;
+            long chunkLength = 0;
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = input.read(buffer)) >= 0) {
+                int pos = 0;
+                while (pos < n) {
+                    if (chunkOutput == null) {
+                        chunkFile = newTemporaryFile();
+                        chunkDigest = MessageDigest.getInstance(DIGEST);
+                        chunkOutput = new DigestOutputStream(
+                            new FileOutputStream(chunkFile), chunkDigest);
+                        chunkLength = 0;
+                    }
+                    int end = chunker.nextBoundary(buffer, pos, n - pos);
+                    int len = (end < 0 ? n : end) - pos;
+                    chunkOutput.write(buffer, pos, len);
+                    digest.update(buffer, pos, len);
+                    chunkLength += len;
+                    pos += len;
+                    if (end >= 0) {
+                        chunkOutput.close();
+                        chunkOutput = null;
+                        addChunk(manifest, chunkDigest, chunkFile, chunkLength);
+                        chunkFile = null;
+                    }
+                }
+            }
+            if (chunkOutput != null) {
+                chunkOutput.close();
+                chunkOutput = null;
+                addChunk(manifest, chunkDigest, chunkFile, chunkLength);
+                chunkFile = null;
+            }
+            DataIdentifier identifier = ChunkManifest.getManifestIdentifier(
+                encodeHexString(digest.digest()));
+            manifestFile = newTemporaryFile();
+            manifest.write(new FileOutputStream(manifestFile));
+            storeRecord(identifier, manifestFile);
+            recLenCache.put(identifier, manifest.getLength());
+            manifestCache.remove(identifier);
+            LOG.debug("addRecord [{}] of length [{}] in [{}] chunks took [{}]ms.",
+                new Object[] { identifier, manifest.getLength(), manifest.size(),
+                    (System.currentTimeMillis() - startTime) });
+            return new CachingDataRecord(this, identifier);
+        } catch (NoSuchAlgorithmException e) {
+            throw new DataStoreException(DIGEST + " not available", e);
+        } catch (IOException e) {
+            throw new DataStoreException("Could not add record", e);
+        } finally {
+            IOUtils.closeQuietly(chunkOutput);
+            if (chunkFile != null) {
+                chunkFile.delete();
+            }
+            if (manifestFile != null) {
+                // try to delete - but it's not a big deal if we can't
+                manifestFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Adds a chunk to the manifest, and stores the chunk unless it is
+     * already stored. The temporary file of the chunk is deleted or moved
+     * to the {@link LocalCache}.
+     */
+    private void addChunk(ChunkManifest manifest, MessageDigest chunkDigest,
+            File chunkFile, long chunkLength)
+            throws DataStoreException, IOException {
+        DataIdentifier chunkId = ChunkManifest.getChunkIdentifier(
+            encodeHexString(chunkDigest.digest()));
+        try {
+            if (asyncWriteCache.hasEntry(getFileName(chunkId), true)
+                || backend.exists(chunkId, true)) {
+                LOG.trace("chunk [{}] already stored", chunkId);
+            } else {
+                storeRecord(chunkId, chunkFile);
+            }
+        } finally {
+            // not moved to the local cache
+            chunkFile.delete();
+        }
+        manifest.addChunk(chunkId, chunkLength);
+    }
+
+    /**
+     * Stores the temporary file in the {@link LocalCache} and writes it to
+     * the {@link Backend}, unless an asynchronous upload of the record is
+     * already in progress.
+     */
+    private void storeRecord(DataIdentifier identifier, File temporary)
+            throws DataStoreException, IOException {
+        long currTime = System.currentTimeMillis();
+        String fileName = getFileName(identifier);
+        AsyncUploadCacheResult result = null;
+        synchronized (this) {
+            usesIdentifier(identifier);
+            // check if async upload is already in progress
+            if (!asyncWriteCache.hasEntry(fileName, true)) {
+                result = cache.store(fileName, temporary, true);
+            }
+        }
+        LOG.debug("storing  [{}] in localCache took [{}] ms", identifier,
+            (System.currentTimeMillis() - currTime));
+        if (result != null) {
+            if (result.canAsyncUpload()) {
+                backend.writeAsync(identifier, result.getFile(), this);
+            } else {
+                backend.write(identifier, result.getFile());
+            }
+        }
+    }
+
     @Override
     public DataRecord getRecord(DataIdentifier identifier)
                     throws DataStoreException {
@@ -513,7 +673,8 @@ public abstract class CachingDataStore extends AbstractDataStore implements
                 return new CachingDataRecord(this, identifier);
             } else {
                 try {
-                    long length = backend.getLength(identifier);
+                    long length = chunking ? getLength(identifier)
+                            : backend.getLength(identifier);
                     LOG.debug(
                         "getRecordIfStored :[{}]  retrieved from backend",
                         identifier);
@@ -554,6 +715,15 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         while (itr.hasNext()) {
             ids.add(itr.next());
         }
+        if (chunking) {
+            // chunks are not records, they are deleted with sweepChunks
+            Iterator<DataIdentifier> it = ids.iterator();
+            while (it.hasNext()) {
+                if (ChunkManifest.isChunk(it.next())) {
+                    it.remove();
+                }
+            }
+        }
         return ids.iterator();
     }
 
@@ -569,6 +739,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
             try {
                 // order is important here
                 recLenCache.remove(identifier);
+                manifestCache.remove(identifier);
                 asyncWriteCache.delete(fileName);
                 backend.deleteRecord(identifier);
                 cache.delete(fileName);
@@ -578,14 +749,75 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         }
     }
 
+    /**
+     * Touches the records that are not pending for upload with one call to
+     * {@link Backend#touchAll(Collection, long)}. Records pending for upload
+     * are touched in the {@link AsyncUploadCache}.
+     */
+    @Override
+    public void touchAll(Collection<DataIdentifier> identifiers)
+            throws DataStoreException {
+        if (minModifiedDate <= 0) {
+            return;
+        }
+        List<DataIdentifier> stored = new ArrayList<DataIdentifier>(
+            identifiers.size());
+        try {
+            for (DataIdentifier identifier : identifiers) {
+                if (!asyncWriteCache.hasEntry(getFileName(identifier), true)) {
+                    stored.add(identifier);
+                }
+            }
+        } catch (IOException e) {
+            throw new DataStoreException(e);
+        }
+        backend.touchAll(stored, minModifiedDate);
+    }
+
+    /**
+     * Deletes the records from {@link Backend} and then from
+     * {@link LocalCache}. This method doesn't synchronize on the data store, so
+     * concurrent calls to {@link #addRecord(InputStream)} are not blocked.
+     */
+    @Override
+    public int deleteRecords(Collection<DataIdentifier> identifiers, long min)
+            throws DataStoreException {
+        Set<DataIdentifier> diSet = backend.deleteRecords(identifiers, min);
+        for (DataIdentifier identifier : diSet) {
+            recLenCache.remove(identifier);
+            manifestCache.remove(identifier);
+            cache.delete(getFileName(identifier));
+        }
+        LOG.info("deleteRecords exit. Number of records deleted [{}]",
+            diSet.size());
+        if (chunking) {
+            sweepChunks(min);
+        }
+        return diSet.size();
+    }
+
     @Override
     public synchronized int deleteAllOlderThan(long min)
             throws DataStoreException {
+        if (chunking) {
+            // chunks are not touched when records are in use, so they can
+            // not be deleted based on their modification date
+            List<DataIdentifier> ids = new ArrayList<DataIdentifier>();
+            Iterator<DataIdentifier> itr = backend.getAllIdentifiers();
+            while (itr.hasNext()) {
+                DataIdentifier identifier = itr.next();
+                if (!ChunkManifest.isChunk(identifier)) {
+                    ids.add(identifier);
+                }
+            }
+            return deleteRecords(ids, min);
+        }
         Set<DataIdentifier> diSet = backend.deleteAllOlderThan(min);
         
         // remove entries from local cache
         for (DataIdentifier identifier : diSet) {
             recLenCache.remove(identifier);
+            manifestCache.remove(identifier);
             cache.delete(getFileName(identifier));
         }
         try {
@@ -601,26 +833,135 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         return diSet.size();
     }
 
+    /**
+     * Deletes the chunks that are not referenced by any manifest, and that
+     * were not modified since the given time. Chunks that are reused while
+     * adding a record are touched, so they are not deleted. Only manifests
+     * are read, and nothing is deleted if a manifest can not be read.
+     */
+    private void sweepChunks(long min) throws DataStoreException {
+        Set<DataIdentifier> ids = new HashSet<DataIdentifier>();
+        for (String fileName : asyncWriteCache.getAll()) {
+            ids.add(getIdentifier(fileName));
+        }
+        Iterator<DataIdentifier> itr = backend.getAllIdentifiers();
+        while (itr.hasNext()) {
+            ids.add(itr.next());
+        }
+        Set<DataIdentifier> referenced = new HashSet<DataIdentifier>();
+        List<DataIdentifier> chunks = new ArrayList<DataIdentifier>();
+        for (DataIdentifier identifier : ids) {
+            if (ChunkManifest.isChunk(identifier)) {
+                chunks.add(identifier);
+            } else if (ChunkManifest.isManifest(identifier)) {
+                try {
+                    referenced.addAll(getManifest(identifier).getChunks());
+                } catch (DataStoreException e) {
+                    LOG.warn("Can not read manifest [" + identifier
+                        + "], unreferenced chunks are not deleted", e);
+                    return;
+                }
+            }
+        }
+        chunks.removeAll(referenced);
+        Set<DataIdentifier> diSet = backend.deleteRecords(chunks, min);
+        for (DataIdentifier identifier : diSet) {
+            recLenCache.remove(identifier);
+            manifestCache.remove(identifier);
+            cache.delete(getFileName(identifier));
+        }
+        LOG.info("sweepChunks exit. Number of chunks deleted [{}]",
+            diSet.size());
+    }
+
+    /**
+     * Get stream of a record. If the record is stored as chunks, the stream
+     * reads the chunks one after the other.
+     */
+    InputStream getStream(DataIdentifier identifier) throws DataStoreException {
+        if (ChunkManifest.isManifest(identifier)) {
+            return new ChunkedInputStream(this, getManifest(identifier));
+        }
+        return getStoredStream(identifier);
+    }
+
+    /**
+     * Get the manifest of a record that is stored as chunks. Manifests that
+     * are not in the {@link LocalCache} are read from the backend without
+     * being cached as files.
+     *
+     * @param identifier the identifier of a manifest
+     * @return the manifest
+     */
+    private ChunkManifest getManifest(DataIdentifier identifier)
+            throws DataStoreException {
+        ChunkManifest manifest = manifestCache.get(identifier);
+        if (manifest == null) {
+            try {
+                InputStream in = cache.getIfStored(getFileName(identifier));
+                if (in == null) {
+                    in = backend.read(identifier);
+                }
+                manifest = ChunkManifest.read(in);
+            } catch (IOException e) {
+                throw new DataStoreException("Can not read manifest of record "
+                    + identifier, e);
+            }
+            // records never change, so the manifest can be kept
+            manifestCache.put(identifier, manifest);
+        }
+        return manifest;
+    }
+
     /**
      * Get stream of record from {@link LocalCache}. If record is not available
      * in {@link LocalCache}, this method fetches record from {@link Backend}
      * and stores it to {@link LocalCache}. Stream is then returned from cached
      * record.
      */
-    InputStream getStream(DataIdentifier identifier) throws DataStoreException {
-        InputStream in = null;
+    private InputStream getStoredStream(DataIdentifier identifier)
+            throws DataStoreException {
         try {
             String fileName = getFileName(identifier);
             InputStream cached = cache.getIfStored(fileName);
             if (cached != null) {
                 return cached;
             }
-            in = backend.read(identifier);
-            return cache.store(fileName, in);
+            // the backend may fetch ranges of the record in parallel
+            File transFile = cache.createTransientFile();
+            try {
+                backend.read(identifier, transFile);
+            } catch (DataStoreException e) {
+                transFile.delete();
+                throw e;
+            }
+            return cache.storeTransient(fileName, transFile);
+        } catch (IOException e) {
+            throw new DataStoreException("IO Exception: " + identifier, e);
+        }
+    }
+
+    /**
+     * Return the file of a record in the {@link LocalCache}. If the record
+     * is not cached yet, it is first downloaded from the {@link Backend}.
+     *
+     * @return the cached file, or null if the record could not be cached
+     *         or is stored as chunks
+     */
+    File getCachedFile(DataIdentifier identifier) throws DataStoreException {
+        if (ChunkManifest.isManifest(identifier)) {
+            return null;
+        }
+        String fileName = getFileName(identifier);
+        try {
+            File cached = cache.getFileIfStored(fileName);
+            if (cached == null) {
+                IOUtils.closeQuietly(getStoredStream(identifier));
+                cached = cache.getFileIfStored(fileName);
+            }
+            return cached;
         } catch (IOException e) {
             throw new DataStoreException("IO Exception: " + identifier, e);
-        } finally {
-            IOUtils.closeQuietly(in);
         }
     }
 
@@ -659,6 +1000,12 @@ public abstract class CachingDataStore extends AbstractDataStore implements
     public long getLength(final DataIdentifier identifier)
                     throws DataStoreException {
         String fileName = getFileName(identifier);
+        if (ChunkManifest.isManifest(identifier)
+            && !recLenCache.containsKey(identifier)) {
+            long length = getManifest(identifier).getLength();
+            recLenCache.put(identifier, length);
+            return length;
+        }
 
         Long length = recLenCache.get(identifier);
         if (length != null) {
@@ -695,6 +1042,7 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         try {
             // order is important here
             recLenCache.remove(identifier);
+            manifestCache.remove(identifier);
             String fileName = getFileName(identifier);
             asyncWriteCache.delete(fileName);
             cache.delete(fileName);
@@ -1055,6 +1403,15 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         return inUse.containsKey(identifier);
     }
 
+    /**
+     * Checks whether asynchronous uploads to the backend are in progress.
+     *
+     * @return <code>true</code> if uploads are pending
+     */
+    boolean hasPendingUploads() {
+        return asyncWriteCache != null && !asyncWriteCache.getAll().isEmpty();
+    }
+
     @Override
     public void close() throws DataStoreException {
         cache.close();
@@ -1222,6 +1579,35 @@ public abstract class CachingDataStore extends AbstractDataStore implements
         this.recLengthCacheSize = recLengthCacheSize;
     }
 
+    public boolean isChunking() {
+        return chunking;
+    }
+
+    /**
+     * Enable splitting binaries into content defined chunks.
+     *
+     * @param chunking
+     *            true to store binaries as chunks.
+     */
+    public void setChunking(boolean chunking) {
+        this.chunking = chunking;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Set the average size of a chunk. The size is rounded down to a power
+     * of two.
+     *
+     * @param chunkSize
+     *            the average chunk size in bytes.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
     public Backend getBackend() {
         return backend;
     }
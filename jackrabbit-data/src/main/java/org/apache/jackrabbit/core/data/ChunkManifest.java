@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The manifest of a record that is stored as a list of content defined
+ * chunks by the {@link CachingDataStore}. The manifest is stored in place of
+ * the binary, and lists the identifiers and lengths of the chunks in order.
+ * The identifier of the binary is the digest of its content with the
+ * {@link #MANIFEST_SUFFIX}, so that manifests can be told from other records
+ * without reading them.
+ */
+final class ChunkManifest {
+
+    /**
+     * The first line of a manifest.
+     */
+    private static final String HEADER = "#jackrabbit-chunked-record-1";
+
+    /**
+     * The suffix of the identifiers of chunks.
+     */
+    static final String CHUNK_SUFFIX = "-chunk";
+
+    /**
+     * The suffix of the identifiers of records stored as chunks, that is of
+     * the identifiers of manifests.
+     */
+    static final String MANIFEST_SUFFIX = "-chunked";
+
+    private final List<DataIdentifier> chunks = new ArrayList<DataIdentifier>();
+
+    private final List<Long> offsets = new ArrayList<Long>();
+
+    private long length;
+
+    /**
+     * Check whether the given identifier is the identifier of a chunk.
+     *
+     * @param identifier the identifier
+     * @return true if it is a chunk
+     */
+    static boolean isChunk(DataIdentifier identifier) {
+        return identifier.toString().endsWith(CHUNK_SUFFIX);
+    }
+
+    /**
+     * Get the identifier of the chunk with the given digest.
+     *
+     * @param digest the hex encoded digest of the chunk
+     * @return the identifier
+     */
+    static DataIdentifier getChunkIdentifier(String digest) {
+        return new DataIdentifier(digest + CHUNK_SUFFIX);
+    }
+
+    /**
+     * Check whether the given identifier is the identifier of a record that
+     * is stored as chunks.
+     *
+     * @param identifier the identifier
+     * @return true if the record is a manifest
+     */
+    static boolean isManifest(DataIdentifier identifier) {
+        return identifier.toString().endsWith(MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Get the identifier of the record stored as chunks with the given digest.
+     *
+     * @param digest the hex encoded digest of the record
+     * @return the identifier
+     */
+    static DataIdentifier getManifestIdentifier(String digest) {
+        return new DataIdentifier(digest + MANIFEST_SUFFIX);
+    }
+
+    /**
+     * Add a chunk to the end of the record.
+     *
+     * @param identifier the identifier of the chunk
+     * @param chunkLength the length of the chunk
+     */
+    void addChunk(DataIdentifier identifier, long chunkLength) {
+        chunks.add(identifier);
+        offsets.add(length);
+        length += chunkLength;
+    }
+
+    /**
+     * @return the length of the record
+     */
+    long getLength() {
+        return length;
+    }
+
+    /**
+     * @return the chunks, in order
+     */
+    List<DataIdentifier> getChunks() {
+        return Collections.unmodifiableList(chunks);
+    }
+
+    /**
+     * @return the number of chunks
+     */
+    int size() {
+        return chunks.size();
+    }
+
+    /**
+     * @param index the index of the chunk
+     * @return the position of the chunk in the record
+     */
+    long getOffset(int index) {
+        return offsets.get(index);
+    }
+
+    /**
+     * @param index the index of the chunk
+     * @return the length of the chunk
+     */
+    long getChunkLength(int index) {
+        long end = index + 1 < offsets.size() ? offsets.get(index + 1) : length;
+        return end - offsets.get(index);
+    }
+
+    /**
+     * Write the manifest to the given stream. The stream is closed.
+     *
+     * @param out the stream
+     * @throws IOException if writing fails
+     */
+    void write(OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        try {
+            writer.write(HEADER + "\n");
+            for (int i = 0; i < chunks.size(); i++) {
+                writer.write(chunks.get(i) + " " + getChunkLength(i) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Read a manifest from the given stream. The stream is closed.
+     *
+     * @param in the stream
+     * @return the manifest
+     * @throws IOException if reading fails, or if the stream does not
+     *         contain a manifest
+     */
+    static ChunkManifest read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            char[] header = new char[HEADER.length() + 1];
+            int read = 0;
+            while (read < header.length) {
+                int n = reader.read(header, read, header.length - read);
+                if (n < 0) {
+                    throw new IOException("Corrupt chunk manifest: no header");
+                }
+                read += n;
+            }
+            if (!(HEADER + "\n").equals(new String(header))) {
+                throw new IOException("Corrupt chunk manifest: no header");
+            }
+            ChunkManifest manifest = new ChunkManifest();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    throw new IOException("Corrupt chunk manifest: " + line);
+                }
+                manifest.addChunk(new DataIdentifier(line.substring(0, space)),
+                    Long.parseLong(line.substring(space + 1)));
+            }
+            return manifest;
+        } catch (NumberFormatException e) {
+            throw new IOException("Corrupt chunk manifest", e);
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream of a record that is stored as chunks. The chunks are opened one
+ * after the other when they are needed, and skipping over a whole chunk
+ * does not read it.
+ */
+class ChunkedInputStream extends InputStream {
+
+    private final CachingDataStore store;
+
+    private final ChunkManifest manifest;
+
+    private int index;
+
+    private long position;
+
+    private InputStream current;
+
+    /**
+     * Buffer of {@link #read()}.
+     */
+    private final byte[] single = new byte[1];
+
+    ChunkedInputStream(CachingDataStore store, ChunkManifest manifest) {
+        this.store = store;
+        this.manifest = manifest;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(single, 0, 1);
+        return n < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (index < manifest.size()) {
+            if (current == null) {
+                current = openChunk(index, position - manifest.getOffset(index));
+            }
+            int n = current.read(b, off, len);
+            if (n > 0) {
+                position += n;
+                return n;
+            }
+            nextChunk();
+        }
+        return -1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long target = Math.min(position + Math.max(n, 0), manifest.getLength());
+        long skipped = target - position;
+        while (index < manifest.size()
+                && manifest.getOffset(index) + manifest.getChunkLength(index) <= target) {
+            nextChunk();
+        }
+        if (current != null) {
+            // skip within the current chunk
+            long remaining = target - position;
+            while (remaining > 0) {
+                long s = current.skip(remaining);
+                if (s <= 0) {
+                    break;
+                }
+                remaining -= s;
+            }
+        }
+        position = target;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null ? 0 : current.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        index = manifest.size();
+    }
+
+    private void nextChunk() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        index++;
+    }
+
+    private InputStream openChunk(int i, long offset) throws IOException {
+        InputStream in;
+        try {
+            in = store.getStream(manifest.getChunks().get(i));
+        } catch (DataStoreException e) {
+            throw new IOException("Can not read chunk " + manifest.getChunks().get(i), e);
+        }
+        long remaining = offset;
+        while (remaining > 0) {
+            long s = in.skip(remaining);
+            if (s <= 0) {
+                break;
+            }
+            remaining -= s;
+        }
+        return in;
+    }
+}
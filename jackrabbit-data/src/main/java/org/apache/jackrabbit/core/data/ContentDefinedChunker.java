@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.util.Random;
+
+/**
+ * Finds content defined chunk boundaries in a stream of bytes, using a gear
+ * based rolling hash. A boundary only depends on the last 64 bytes before
+ * it, so inserting or changing bytes in a binary only changes the chunks
+ * around the change. Chunks are at least a quarter and at most four times
+ * the average chunk size.
+ */
+final class ContentDefinedChunker {
+
+    /**
+     * The gear table. The seed is fixed, so that the same content is always
+     * split at the same positions.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6a09e667f3bcc908L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final long mask;
+
+    private final long minSize;
+
+    private final long maxSize;
+
+    private long hash;
+
+    private long size;
+
+    /**
+     * Create a chunker.
+     *
+     * @param averageSize the average chunk size, rounded down to a power of two
+     */
+    ContentDefinedChunker(int averageSize) {
+        int average = Integer.highestOneBit(Math.max(averageSize, 64));
+        this.mask = average - 1;
+        this.minSize = average / 4;
+        this.maxSize = average * 4L;
+    }
+
+    /**
+     * Find the next chunk boundary in the given bytes, which follow the
+     * bytes passed in earlier calls.
+     *
+     * @param b the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @return the position after the last byte of the current chunk, or -1
+     *         if the current chunk does not end within the given bytes
+     */
+    int nextBoundary(byte[] b, int off, int len) {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            hash = (hash << 1) + GEAR[b[i] & 0xff];
+            size++;
+            if ((size >= minSize && (hash & mask) == 0) || size >= maxSize) {
+                hash = 0;
+                size = 0;
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.data;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -54,6 +55,49 @@ public interface DataRecord {
      */
     InputStream getStream() throws DataStoreException;
 
+    /**
+     * Reads up to <code>b.length</code> bytes of the binary stream in this
+     * record, starting at the given position. Implementations should read
+     * the data directly at the given position where possible; this default
+     * implementation skips the stream up to the position.
+     *
+     * @param b the buffer into which the data is read
+     * @param position the position in the binary stream from which to read
+     * @return the number of bytes read, or -1 if the position is at or
+     *         beyond the end of the binary stream
+     * @throws DataStoreException if the record could not be accessed
+     */
+    default int read(byte[] b, long position) throws DataStoreException {
+        InputStream in = getStream();
+        try {
+            long skip = position;
+            while (skip > 0) {
+                long skipped = in.skip(skip);
+                if (skipped <= 0) {
+                    return -1;
+                }
+                skip -= skipped;
+            }
+            int count = 0;
+            while (count < b.length) {
+                int read = in.read(b, count, b.length - count);
+                if (read < 0) {
+                    break;
+                }
+                count += read;
+            }
+            return count == 0 && b.length > 0 ? -1 : count;
+        } catch (IOException e) {
+            throw new DataStoreException("Could not read record " + getIdentifier(), e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
     /**
      * Returns the last modified of the record.
      * 
@@ -17,6 +17,7 @@
 package org.apache.jackrabbit.core.data;
 
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.Iterator;
 
 import javax.jcr.RepositoryException;
@@ -114,6 +115,44 @@ public interface DataStore {
      */
     int deleteAllOlderThan(long min) throws DataStoreException;
 
+    /**
+     * Update the modified date of the given records, as if each of them had
+     * been accessed after {@link #updateModifiedDateOnAccess(long)} was called.
+     * Records with a modified date older than that value get the current
+     * time; identifiers of records that do not exist are ignored. Does
+     * nothing if the modified date is currently not updated on access.
+     *
+     * <p>
+     * The default implementation touches the records one by one using
+     * {@link #getRecordIfStored(DataIdentifier)}.
+     *
+     * @param identifiers the identifiers of the records to touch
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    default void touchAll(Collection<DataIdentifier> identifiers) throws DataStoreException {
+        for (DataIdentifier identifier : identifiers) {
+            getRecordIfStored(identifier);
+        }
+    }
+
+    /**
+     * Delete the given records if they have a modified date older than the
+     * specified date. Records that are currently in use, and identifiers of
+     * records that do not exist, are skipped.
+     * <p>
+     * The default implementation throws an {@link UnsupportedOperationException};
+     * callers like the garbage collector then fall back to touching the
+     * records in use and calling {@link #deleteAllOlderThan(long)}.
+     *
+     * @param identifiers the identifiers of the records to delete
+     * @param min the minimum time
+     * @return the number of data records deleted
+     * @throws DataStoreException if the data store could not be accessed
+     */
+    default int deleteRecords(Collection<DataIdentifier> identifiers, long min) throws DataStoreException {
+        throw new UnsupportedOperationException("deleteRecords is not supported by " + getClass().getName());
+    }
+
     /**
      * Get all identifiers.
      *
@@ -20,16 +20,24 @@
  */
 package org.apache.jackrabbit.core.data;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
@@ -48,6 +56,38 @@ public class FSBackend extends AbstractBackend {
 
     public static final String FS_BACKEND_PATH = "fsBackendPath";
 
+    /**
+     * Property for the size in bytes of the parts that are copied in
+     * parallel.
+     */
+    public static final String FS_BACKEND_PART_SIZE = "partSize";
+
+    /**
+     * Property for the maximum number of parts that are copied in parallel.
+     */
+    public static final String FS_BACKEND_TRANSFER_CONCURRENCY = "transferConcurrency";
+
+    /**
+     * Suffix of the file a record is written to before it is renamed to its
+     * final name.
+     */
+    private static final String UPLOAD_SUFFIX = ".upload";
+
+    /**
+     * Suffix of the file recording which parts of an upload are complete, so
+     * that an interrupted upload can be resumed. The file starts with the
+     * length of the record and the part size, followed by one byte per part.
+     */
+    private static final String PROGRESS_SUFFIX = ".progress";
+
+    private static final int PROGRESS_HEADER_LENGTH = 16;
+
+    /**
+     * Locks of the records that are being uploaded.
+     */
+    private final Map<String, UploadLock> uploadLocks =
+        new HashMap<String, UploadLock>();
+
     /**
      * Logger instance.
      */
@@ -106,6 +146,14 @@ public class FSBackend extends AbstractBackend {
                     + fsPathDir.getAbsolutePath());
             }
         }
+        String partSize = prop.getProperty(FS_BACKEND_PART_SIZE);
+        if (partSize != null && !"".equals(partSize)) {
+            setPartSize(Long.parseLong(partSize));
+        }
+        String concurrency = prop.getProperty(FS_BACKEND_TRANSFER_CONCURRENCY);
+        if (concurrency != null && !"".equals(concurrency)) {
+            setTransferConcurrency(Integer.parseInt(concurrency));
+        }
     }
 
     @Override
@@ -120,6 +168,44 @@ public class FSBackend extends AbstractBackend {
         }
     }
 
+    /**
+     * Copies the record in parts of {@link #getPartSize()} bytes, using up to
+     * {@link #getTransferConcurrency()} threads.
+     */
+    @Override
+    public void read(DataIdentifier identifier, File dest)
+                    throws DataStoreException {
+        File file = getFile(identifier);
+        try {
+            final FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+            try {
+                final FileChannel out = FileChannel.open(dest.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                try {
+                    transferParts(in.size(), new PartTransfer() {
+                        @Override
+                        public void transfer(int part, long offset,
+                                        long length) throws IOException {
+                            copy(in, out, offset, length);
+                        }
+                    });
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (NoSuchFileException e) {
+            throw new DataStoreException("Identifier [" + identifier
+                + "] not found.", e);
+        } catch (IOException e) {
+            throw new DataStoreException("Error copying "
+                + file.getAbsolutePath() + " to " + dest.getAbsolutePath(), e);
+        }
+    }
+
     @Override
     public long getLength(DataIdentifier identifier) throws DataStoreException {
         File file = getFile(identifier);
@@ -144,19 +230,39 @@ public class FSBackend extends AbstractBackend {
             + "] not found.");
     }
 
+    /**
+     * Copies the file to a staging file next to the record in parts of
+     * {@link #getPartSize()} bytes, using up to
+     * {@link #getTransferConcurrency()} threads, and then renames it. Copied
+     * parts are recorded in a progress file, so that a write of the same
+     * record that failed or was interrupted is resumed with the missing
+     * parts. As records are identified by their content, a staging file
+     * with the same length and part size always holds the same data.
+     * Concurrent writes of the same record wait for each other, as they
+     * share the staging and progress files; a write that finds the record
+     * written by the previous one only updates its modification time.
+     */
     @Override
     public void write(DataIdentifier identifier, File src)
                     throws DataStoreException {
         File dest = getFile(identifier);
-        synchronized (this) {
-            if (dest.exists()) {
-                long now = System.currentTimeMillis();
-                if (getLastModified(dest) < now + ACCESS_TIME_RESOLUTION) {
-                    setLastModified(dest, now + ACCESS_TIME_RESOLUTION);
+        String key = identifier.toString();
+        UploadLock lock = lockUpload(key);
+        try {
+            // uploads of the same record share the staging and progress
+            // files, so only one of them may run at a time
+            synchronized (lock) {
+                synchronized (this) {
+                    if (dest.exists()) {
+                        long now = System.currentTimeMillis();
+                        if (getLastModified(dest) < now + ACCESS_TIME_RESOLUTION) {
+                            setLastModified(dest, now + ACCESS_TIME_RESOLUTION);
+                        }
+                        return;
+                    }
                 }
-            } else {
                 try {
-                    FileUtils.copyFile(src, dest);
+                    upload(src, dest);
                 } catch (IOException ioe) {
                     LOG.error("failed to copy [{}] to [{}]",
                         src.getAbsolutePath(), dest.getAbsolutePath());
@@ -164,8 +270,165 @@ public class FSBackend extends AbstractBackend {
                         + identifier + "]", ioe);
                 }
             }
+        } finally {
+            unlockUpload(key, lock);
         }
+    }
 
+    /**
+     * Returns the lock of the uploads of the given record, creating it if
+     * no other thread is uploading the record.
+     */
+    private UploadLock lockUpload(String key) {
+        synchronized (uploadLocks) {
+            UploadLock lock = uploadLocks.get(key);
+            if (lock == null) {
+                lock = new UploadLock();
+                uploadLocks.put(key, lock);
+            }
+            lock.users++;
+            return lock;
+        }
+    }
+
+    /**
+     * Releases a lock returned by {@link #lockUpload(String)}, and removes
+     * it once it is no longer used.
+     */
+    private void unlockUpload(String key, UploadLock lock) {
+        synchronized (uploadLocks) {
+            if (--lock.users == 0) {
+                uploadLocks.remove(key);
+            }
+        }
+    }
+
+    private void upload(File src, File dest) throws IOException {
+        File parent = dest.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create directory: "
+                + parent.getAbsolutePath());
+        }
+        File staging = new File(parent, dest.getName() + UPLOAD_SUFFIX);
+        File progress = new File(parent, dest.getName() + PROGRESS_SUFFIX);
+        final long length = src.length();
+        final long partSize = Math.max(1, getPartSize());
+        final int parts = (int) ((length + partSize - 1) / partSize);
+
+        final FileChannel progressChannel = FileChannel.open(progress.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            final FileChannel out = FileChannel.open(staging.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                final boolean[] done = readProgress(progressChannel, length,
+                    partSize, parts);
+                if (!hasProgress(done)) {
+                    out.truncate(0);
+                }
+                final FileChannel in = FileChannel.open(src.toPath(),
+                    StandardOpenOption.READ);
+                try {
+                    transferParts(length, new PartTransfer() {
+                        @Override
+                        public void transfer(int part, long offset,
+                                        long partLength) throws IOException {
+                            if (done[part]) {
+                                return;
+                            }
+                            copy(in, out, offset, partLength);
+                            out.force(false);
+                            progressChannel.write(
+                                ByteBuffer.wrap(new byte[] { 1 }),
+                                PROGRESS_HEADER_LENGTH + part);
+                        }
+                    });
+                } finally {
+                    in.close();
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            progressChannel.close();
+        }
+
+        synchronized (this) {
+            if (dest.exists()) {
+                // written concurrently by another thread
+                staging.delete();
+            } else if (!staging.renameTo(dest)) {
+                throw new IOException("Could not rename "
+                    + staging.getAbsolutePath() + " to "
+                    + dest.getAbsolutePath());
+            }
+            progress.delete();
+        }
+    }
+
+    /**
+     * Returns which parts of an upload are complete according to the given
+     * progress file. If the progress file belongs to an upload of a different
+     * length or part size, it is reset and no part is complete.
+     */
+    private static boolean[] readProgress(FileChannel channel, long length,
+                    long partSize, int parts) throws IOException {
+        boolean[] done = new boolean[parts];
+        ByteBuffer header = ByteBuffer.allocate(PROGRESS_HEADER_LENGTH);
+        if (channel.size() == PROGRESS_HEADER_LENGTH + parts
+            && channel.read(header, 0) == PROGRESS_HEADER_LENGTH
+            && header.getLong(0) == length && header.getLong(8) == partSize) {
+            ByteBuffer flags = ByteBuffer.allocate(parts);
+            while (flags.hasRemaining()) {
+                if (channel.read(flags, PROGRESS_HEADER_LENGTH
+                    + flags.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            for (int i = 0; i < parts; i++) {
+                done[i] = flags.get(i) != 0;
+            }
+        } else {
+            channel.truncate(0);
+            header.clear();
+            header.putLong(length).putLong(partSize).flip();
+            channel.write(header, 0);
+            channel.write(ByteBuffer.allocate(parts), PROGRESS_HEADER_LENGTH);
+        }
+        return done;
+    }
+
+    private static boolean hasProgress(boolean[] done) {
+        for (boolean b : done) {
+            if (b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the given range of one channel to the same position of the
+     * other, using positional reads and writes, so that several ranges can
+     * be copied concurrently.
+     */
+    private static void copy(FileChannel in, FileChannel out, long position,
+                    long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(
+            (int) Math.min(length, 64 * 1024));
+        long end = position + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            if (in.read(buffer, position) < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += out.write(buffer, position);
+            }
+        }
     }
 
     @Override
@@ -216,14 +479,19 @@ public class FSBackend extends AbstractBackend {
     public boolean exists(DataIdentifier identifier, boolean touch)
                     throws DataStoreException {
         File file = getFile(identifier);
-        if (file.isFile()) {
-            if (touch) {
+        if (touch) {
+            // synchronized with deleteRecords, so that a record that is
+            // touched is not deleted because of its old modification date
+            synchronized (this) {
+                if (!file.isFile()) {
+                    return false;
+                }
                 long now = System.currentTimeMillis();
                 setLastModified(file, now + ACCESS_TIME_RESOLUTION);
             }
             return true;
         }
-        return false;
+        return file.isFile();
     }
 
     @Override
@@ -290,6 +558,36 @@ public class FSBackend extends AbstractBackend {
         return deleteIdSet;
     }
 
+    /**
+     * Checks and deletes each record while holding the monitor of this
+     * backend, like {@link #deleteAllOlderThan(long)}, so that a concurrent
+     * {@link #write(DataIdentifier, File)} of the same record either touches
+     * it before the check or re-creates it after the delete.
+     */
+    @Override
+    public Set<DataIdentifier> deleteRecords(
+                    Collection<DataIdentifier> identifiers, long min)
+                    throws DataStoreException {
+        Set<DataIdentifier> deleteIdSet = new HashSet<DataIdentifier>();
+        for (DataIdentifier identifier : identifiers) {
+            File file = getFile(identifier);
+            synchronized (this) {
+                if (file.isFile() && getLastModified(file) < min
+                    && getDataStore().confirmDelete(identifier)) {
+                    getDataStore().deleteFromCache(identifier);
+                    if (file.delete()) {
+                        deleteEmptyParentDirs(file);
+                        deleteIdSet.add(identifier);
+                    } else {
+                        LOG.warn("Failed to delete old file "
+                            + file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+        return deleteIdSet;
+    }
+
     @Override
     public void deleteRecord(DataIdentifier identifier)
                     throws DataStoreException {
@@ -389,13 +687,18 @@ public class FSBackend extends AbstractBackend {
             for (File f : files) {
                 if (f.isDirectory()) {
                     listRecursive(list, f);
-                } else {
+                } else if (!isStagingFile(f)) {
                     list.add(f);
                 }
             }
         }
     }
 
+    private static boolean isStagingFile(File file) {
+        String name = file.getName();
+        return name.endsWith(UPLOAD_SUFFIX) || name.endsWith(PROGRESS_SUFFIX);
+    }
+
     private void deleteEmptyParentDirs(File file) {
         File parent = file.getParentFile();
         try {
@@ -437,7 +740,13 @@ public class FSBackend extends AbstractBackend {
                     // uncertain
                     lastModified = min;
                 }
-                if (lastModified < min) {
+                if (lastModified < min && isStagingFile(file)) {
+                    // left behind by an upload that was never resumed
+                    if (!file.delete()) {
+                        LOG.warn("Failed to delete old file "
+                            + file.getAbsolutePath());
+                    }
+                } else if (lastModified < min) {
                     DataIdentifier id = new DataIdentifier(file.getName());
                     if (getDataStore().confirmDelete(id)) {
                         getDataStore().deleteFromCache(id);
@@ -474,4 +783,11 @@ public class FSBackend extends AbstractBackend {
             }
         }
     }
+
+    /**
+     * Lock of the uploads of a record, with the number of threads using it.
+     */
+    private static final class UploadLock {
+        int users;
+    }
 }
@@ -17,8 +17,11 @@
 package org.apache.jackrabbit.core.data;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 
 /**
@@ -62,10 +65,51 @@ public class FileDataRecord extends AbstractDataRecord {
         }
     }
 
+    /**
+     * Reads the data at the given position using a positional read of the
+     * file channel.
+     */
+    @Override
+    public int read(byte[] b, long position) throws DataStoreException {
+        try {
+            return read(file, b, position);
+        } catch (IOException e) {
+            throw new DataStoreException("Error reading " + file.getAbsolutePath(), e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public long getLastModified() {
         return file.lastModified();
     }
+
+    /**
+     * Reads up to <code>b.length</code> bytes of the given file, starting
+     * at the given position, without reading the file up to the position.
+     *
+     * @param file the file
+     * @param b the buffer into which the data is read
+     * @param position the position in the file
+     * @return the number of bytes read, or -1 if the position is at or
+     *         beyond the end of the file
+     * @throws IOException if reading fails
+     */
+    static int read(File file, byte[] b, long position) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            int count = buffer.position();
+            return count == 0 && b.length > 0 ? -1 : count;
+        } finally {
+            in.close();
+        }
+    }
 }
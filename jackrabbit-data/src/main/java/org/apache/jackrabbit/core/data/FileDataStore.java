@@ -23,19 +23,29 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.jackrabbit.core.data.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +58,8 @@ import org.slf4j.LoggerFactory;
  * &lt;DataStore class="org.apache.jackrabbit.core.data.FileDataStore"&gt;
  *     &lt;param name="{@link #setPath(String) path}" value="/data/datastore"/&gt;
  *     &lt;param name="{@link #setMinRecordLength(int) minRecordLength}" value="1024"/&gt;
+ *     &lt;param name="{@link #setFsync(boolean) fsync}" value="false"/&gt;
+ *     &lt;param name="{@link #setBulkConcurrency(int) bulkConcurrency}" value="4"/&gt;
  * &lt;/DataStore&gt;
  * </pre>
  * <p>
@@ -59,6 +71,11 @@ import org.slf4j.LoggerFactory;
  * <p>
  * This implementation relies on the underlying file system to support
  * atomic O(1) move operations with {@link File#renameTo(File)}.
+ * <p>
+ * Changes to a record file are serialized using a lock that is selected by
+ * the first two characters of the identifier, which is also the name of the
+ * top level directory, so that records in different directories can be
+ * added and deleted concurrently.
  */
 public class FileDataStore extends AbstractDataStore
         implements MultiDataStoreAware {
@@ -84,6 +101,16 @@ public class FileDataStore extends AbstractDataStore
      */
     private static final String TMP = "tmp";
 
+    /**
+     * The number of locks used to serialize changes to the record files.
+     */
+    private static final int LOCK_STRIPES = 256;
+
+    /**
+     * The default number of threads used to touch and delete records in bulk.
+     */
+    private static final int DEFAULT_BULK_CONCURRENCY = 4;
+
     /**
      * The minimum modified date. If a file is accessed (read or write) with a modified date
      * older than this value, the modified date is updated to the current time.
@@ -107,6 +134,34 @@ public class FileDataStore extends AbstractDataStore
      */
     private int minRecordLength = DEFAULT_MIN_RECORD_LENGTH;
 
+    /**
+     * Whether new record files and their directory entries are flushed
+     * to the storage device before a record is returned.
+     */
+    private boolean fsync;
+
+    /**
+     * The number of threads used to touch and delete records in bulk.
+     */
+    private int bulkConcurrency = DEFAULT_BULK_CONCURRENCY;
+
+    /**
+     * The threads used to touch and delete records in bulk, or null if
+     * they have not been needed yet.
+     */
+    private ExecutorService bulkExecutor;
+
+    /**
+     * The locks used to serialize changes to the record files, selected
+     * by the top level directory of a record.
+     */
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
     /**
      * All data identifiers that are currently in use are in this set until they are garbage collected.
      */
@@ -141,7 +196,7 @@ public class FileDataStore extends AbstractDataStore
         }
         if (minModifiedDate != 0) {
             // only check when running garbage collection
-            synchronized (this) {
+            synchronized (getLock(identifier.toString())) {
                 if (getLastModified(file) < minModifiedDate) {
                     setLastModified(file, System.currentTimeMillis() + ACCESS_TIME_RESOLUTION);
                 }
@@ -177,10 +232,14 @@ public class FileDataStore extends AbstractDataStore
             // stream length and the message digest of the stream
             long length = 0;
             MessageDigest digest = MessageDigest.getInstance(DIGEST);
-            OutputStream output = new DigestOutputStream(
-                    new FileOutputStream(temporary), digest);
+            FileOutputStream fileOutput = new FileOutputStream(temporary);
+            OutputStream output = new DigestOutputStream(fileOutput, digest);
             try {
                 length = IOUtils.copyLarge(input, output);
+                if (fsync) {
+                    output.flush();
+                    fileOutput.getFD().sync();
+                }
             } finally {
                 output.close();
             }
@@ -188,17 +247,31 @@ public class FileDataStore extends AbstractDataStore
                     new DataIdentifier(encodeHexString(digest.digest()));
             File file;
 
-            synchronized (this) {
+            synchronized (getLock(identifier.toString())) {
                 // Check if the same record already exists, or
                 // move the temporary file in place if needed
                 usesIdentifier(identifier);
                 file = getFile(identifier);
                 if (!file.exists()) {
                     File parent = file.getParentFile();
+                    // the directories to be created, deepest first
+                    List<File> created = new ArrayList<File>();
+                    for (File dir = parent; dir != null && !dir.exists();
+                            dir = dir.getParentFile()) {
+                        created.add(dir);
+                    }
                     parent.mkdirs();
                     if (temporary.renameTo(file)) {
                         // no longer need to delete the temporary file
                         temporary = null;
+                        if (fsync) {
+                            // the entry of the file, and the entries of
+                            // the new directories in their parents
+                            syncDirectory(parent);
+                            for (File dir : created) {
+                                syncDirectory(dir.getParentFile());
+                            }
+                        }
                     } else {
                         throw new IOException(
                                 "Can not rename " + temporary.getAbsolutePath()
@@ -246,7 +319,17 @@ public class FileDataStore extends AbstractDataStore
      */
     private File getFile(DataIdentifier identifier) {
         usesIdentifier(identifier);
-        String string = identifier.toString();
+        return getFile(identifier.toString());
+    }
+
+    /**
+     * Returns the file of the given identifier, without marking the
+     * identifier as in use.
+     *
+     * @param string data identifier
+     * @return identified file
+     */
+    private File getFile(String string) {
         File file = directory;
         file = new File(file, string.substring(0, 2));
         file = new File(file, string.substring(2, 4));
@@ -254,6 +337,47 @@ public class FileDataStore extends AbstractDataStore
         return new File(file, string);
     }
 
+    /**
+     * Returns the lock used to serialize changes to the file of the given
+     * identifier. All records in the same top level directory share a lock,
+     * so that creating and deleting empty parent directories is safe.
+     *
+     * @param string data identifier
+     * @return the lock
+     */
+    private Object getLock(String string) {
+        String prefix = string.substring(0, Math.min(2, string.length()));
+        int index;
+        try {
+            // the 256 two digit hex prefixes map to distinct locks
+            index = Integer.parseInt(prefix, 16) & 0xff;
+        } catch (NumberFormatException e) {
+            index = prefix.hashCode() & Integer.MAX_VALUE;
+        }
+        return locks[index % locks.length];
+    }
+
+    /**
+     * Flushes the directory entries of the given directory to the storage
+     * device. This is not supported on all platforms, in which case only
+     * the file contents are synchronized. Protected so that tests can
+     * verify which directories are synchronized.
+     *
+     * @param dir the directory
+     */
+    protected void syncDirectory(File dir) {
+        try {
+            FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.debug("Could not synchronize directory " + dir.getAbsolutePath(), e);
+        }
+    }
+
     /**
      * Returns a unique temporary file to be used for creating a new
      * data record.
@@ -273,7 +397,7 @@ public class FileDataStore extends AbstractDataStore
     public void deleteRecord(DataIdentifier identifier)
 			throws DataStoreException {
         File file = getFile(identifier);
-        synchronized (this) {
+        synchronized (getLock(identifier.toString())) {
             if (file.exists()) {
                 if (file.delete()) {
                     deleteEmptyParentDirs(file);
@@ -284,6 +408,164 @@ public class FileDataStore extends AbstractDataStore
         }
     }
 
+    /**
+     * Updates the modified date of the given records. Unlike
+     * {@link #getRecordIfStored(DataIdentifier)}, this does not mark the
+     * records as in use. The records of different top level directories
+     * are touched concurrently, see {@link #setBulkConcurrency(int)}.
+     */
+    @Override
+    public void touchAll(Collection<DataIdentifier> identifiers)
+            throws DataStoreException {
+        final long before = minModifiedDate;
+        if (before == 0) {
+            return;
+        }
+        forEachRecord(identifiers, new RecordOperation() {
+            public boolean run(DataIdentifier identifier, File file)
+                    throws DataStoreException {
+                if (file.exists() && getLastModified(file) < before) {
+                    setLastModified(file, System.currentTimeMillis() + ACCESS_TIME_RESOLUTION);
+                    return true;
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Deletes the given records. The lock of a record is only held
+     * while a single file is checked and deleted, so that concurrent calls to
+     * {@link #addRecord(InputStream)} are not blocked for the whole operation.
+     * The records of different top level directories are deleted
+     * concurrently, see {@link #setBulkConcurrency(int)}.
+     */
+    @Override
+    public int deleteRecords(Collection<DataIdentifier> identifiers, final long min)
+            throws DataStoreException {
+        return forEachRecord(identifiers, new RecordOperation() {
+            public boolean run(DataIdentifier identifier, File file) {
+                if (!file.exists() || inUse.containsKey(identifier)) {
+                    return false;
+                }
+                long lastModified;
+                try {
+                    lastModified = getLastModified(file);
+                } catch (DataStoreException e) {
+                    log.warn("Failed to read modification date; file not deleted", e);
+                    return false;
+                }
+                if (lastModified < min) {
+                    if (log.isInfoEnabled()) {
+                        log.info("Deleting old file " + file.getAbsolutePath() +
+                                " modified: " + new Timestamp(lastModified).toString() +
+                                " length: " + file.length());
+                    }
+                    if (file.delete()) {
+                        deleteEmptyParentDirs(file);
+                        return true;
+                    }
+                    log.warn("Failed to delete old file " + file.getAbsolutePath());
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Operation on a single record file, performed while holding the lock
+     * of the record.
+     */
+    private interface RecordOperation {
+
+        /**
+         * @return whether the record was changed
+         */
+        boolean run(DataIdentifier identifier, File file)
+                throws DataStoreException;
+
+    }
+
+    /**
+     * Performs the given operation on each of the given records. The
+     * records are grouped by their lock, and the groups are processed
+     * concurrently by up to {@link #getBulkConcurrency()} threads.
+     *
+     * @return the number of changed records
+     */
+    private int forEachRecord(Collection<DataIdentifier> identifiers,
+            final RecordOperation operation) throws DataStoreException {
+        Map<Object, List<DataIdentifier>> groups =
+            new HashMap<Object, List<DataIdentifier>>();
+        for (DataIdentifier identifier : identifiers) {
+            Object lock = getLock(identifier.toString());
+            List<DataIdentifier> group = groups.get(lock);
+            if (group == null) {
+                group = new ArrayList<DataIdentifier>();
+                groups.put(lock, group);
+            }
+            group.add(identifier);
+        }
+
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (Map.Entry<Object, List<DataIdentifier>> entry : groups.entrySet()) {
+            final Object lock = entry.getKey();
+            final List<DataIdentifier> group = entry.getValue();
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws DataStoreException {
+                    int count = 0;
+                    for (DataIdentifier identifier : group) {
+                        File file = getFile(identifier.toString());
+                        synchronized (lock) {
+                            if (operation.run(identifier, file)) {
+                                count++;
+                            }
+                        }
+                    }
+                    return count;
+                }
+            });
+        }
+
+        int count = 0;
+        try {
+            if (tasks.size() < 2 || bulkConcurrency < 2) {
+                for (Callable<Integer> task : tasks) {
+                    count += task.call();
+                }
+            } else {
+                for (Future<Integer> future : getBulkExecutor().invokeAll(tasks)) {
+                    count += future.get();
+                }
+            }
+        } catch (DataStoreException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataStoreException("Interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DataStoreException) {
+                throw (DataStoreException) e.getCause();
+            }
+            throw new DataStoreException(e.getCause());
+        } catch (Exception e) {
+            throw new DataStoreException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the threads used by {@link #forEachRecord}, which are created
+     * when they are first needed.
+     */
+    private synchronized ExecutorService getBulkExecutor() {
+        if (bulkExecutor == null) {
+            bulkExecutor = Executors.newFixedThreadPool(bulkConcurrency,
+                    new NamedThreadFactory("FileDataStore-bulk-worker"));
+        }
+        return bulkExecutor;
+    }
+
     private void deleteEmptyParentDirs(File file) {
         File parent = file.getParentFile();
         try {
@@ -312,16 +594,16 @@ public class FileDataStore extends AbstractDataStore
         int count = 0;
         for (File file : directory.listFiles()) {
             if (file.isDirectory()) { // skip top-level files
-                count += deleteOlderRecursive(file, min);
+                count += deleteOlderRecursive(file, min, getLock(file.getName()));
             }
         }
         return count;
     }
 
-    private int deleteOlderRecursive(File file, long min) {
+    private int deleteOlderRecursive(File file, long min, Object lock) {
         int count = 0;
         if (file.isFile() && file.exists() && file.canWrite()) {
-            synchronized (this) {
+            synchronized (lock) {
                 long lastModified;
                 try {
                     lastModified = getLastModified(file);
@@ -349,13 +631,13 @@ public class FileDataStore extends AbstractDataStore
             File[] list = file.listFiles();
             if (list != null) {
                 for (File f: list) {
-                    count += deleteOlderRecursive(f, min);
+                    count += deleteOlderRecursive(f, min, lock);
                 }
             }
 
             // JCR-1396: FileDataStore Garbage Collector and empty directories
             // Automatic removal of empty directories (but not the root!)
-            synchronized (this) {
+            synchronized (lock) {
                 list = file.listFiles();
                 if (list != null && list.length == 0) {
                     file.delete();
@@ -430,8 +712,52 @@ public class FileDataStore extends AbstractDataStore
         this.minRecordLength = minRecordLength;
     }
 
-    public void close() {
-        // nothing to do
+    /**
+     * Whether new record files are flushed to the storage device.
+     *
+     * @return true if enabled
+     */
+    public boolean isFsync() {
+        return fsync;
+    }
+
+    /**
+     * Set whether new record files, and the directory entries created when
+     * moving them in place, are flushed to the storage device before the
+     * record is returned. This is disabled by default.
+     *
+     * @param fsync the new value
+     */
+    public void setFsync(boolean fsync) {
+        this.fsync = fsync;
+    }
+
+    /**
+     * Get the number of threads used to touch and delete records in bulk.
+     *
+     * @return the number of threads
+     */
+    public int getBulkConcurrency() {
+        return bulkConcurrency;
+    }
+
+    /**
+     * Set the number of threads used by {@link #touchAll(Collection)} and
+     * {@link #deleteRecords(Collection, long)}. Records in different top
+     * level directories are processed concurrently. The default is 4; 1
+     * processes the records in the calling thread.
+     *
+     * @param bulkConcurrency the number of threads
+     */
+    public void setBulkConcurrency(int bulkConcurrency) {
+        this.bulkConcurrency = bulkConcurrency;
+    }
+
+    public synchronized void close() {
+        if (bulkExecutor != null) {
+            bulkExecutor.shutdown();
+            bulkExecutor = null;
+        }
     }
 
     //---------------------------------------------------------< protected >--
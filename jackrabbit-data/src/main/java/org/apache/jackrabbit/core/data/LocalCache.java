@@ -133,32 +133,13 @@ public class LocalCache {
             OutputStream out = null;
             File transFile = null;
             try {
-                TransientFileFactory tff = TransientFileFactory.getInstance();
-                transFile = tff.createTransientFile("s3-", "tmp", tmp);
+                transFile = createTransientFile();
                 out = new BufferedOutputStream(new FileOutputStream(transFile));
                 length = IOUtils.copyLarge(in, out);
             } finally {
                 IOUtils.closeQuietly(out);
             }
-            // rename the file to local fs cache
-            if (canAdmitFile(length)
-                && (f.getParentFile().exists() || f.getParentFile().mkdirs())
-                && transFile.renameTo(f) && f.exists()) {
-                if (transFile.exists() && transFile.delete()) {
-                    LOG.info("tmp file [{}] not deleted successfully",
-                        transFile.getAbsolutePath());
-                }
-                transFile = null;
-                LOG.debug(
-                    "file [{}] doesn't exists. adding to local cache using inputstream.",
-                    fileName);
-                cache.put(fileName, f.length());
-            } else {
-                LOG.debug(
-                    "file [{}] doesn't exists. returning transient file [{}].",
-                    fileName, transFile.getAbsolutePath());
-                f = transFile;
-            }
+            f = admitTransientFile(fileName, f, transFile, length);
         } else {
             if (in instanceof BackendResourceAbortable) {
                 ((BackendResourceAbortable) in).abort();
@@ -173,6 +154,74 @@ public class LocalCache {
         return new LazyFileInputStream(f);
     }
 
+    /**
+     * Store an item in the cache and return the input stream, like
+     * {@link #store(String, InputStream)}, but with the content of the item
+     * already written to a file created by {@link #createTransientFile()}.
+     * The file is moved to the cache, returned as is if it can't be admitted
+     * to the cache, or deleted if the item is in the cache already.
+     * 
+     * @param fileName the key of cache.
+     * @param transFile the transient file with the content of the item.
+     * @return the (new) input stream.
+     */
+    public InputStream storeTransient(String fileName, File transFile)
+            throws IOException {
+        fileName = fileName.replace("\\", "/");
+        File f = getFile(fileName);
+        if (!f.exists() || isInPurgeMode()) {
+            f = admitTransientFile(fileName, f, transFile, transFile.length());
+        } else {
+            transFile.delete();
+            f.setLastModified(System.currentTimeMillis());
+            LOG.debug("file [{}]  exists. adding to local cache using file.",
+                fileName);
+            cache.put(fileName, f.length());
+        }
+        tryPurge();
+        return new LazyFileInputStream(f);
+    }
+
+    /**
+     * Rename a transient file to the cache file, if it can be admitted to
+     * the cache.
+     * 
+     * @return the cache file, or the transient file if it was not admitted.
+     */
+    private File admitTransientFile(String fileName, File f, File transFile,
+            long length) {
+        // rename the file to local fs cache
+        if (canAdmitFile(length)
+            && (f.getParentFile().exists() || f.getParentFile().mkdirs())
+            && transFile.renameTo(f) && f.exists()) {
+            if (transFile.exists() && transFile.delete()) {
+                LOG.info("tmp file [{}] not deleted successfully",
+                    transFile.getAbsolutePath());
+            }
+            LOG.debug(
+                "file [{}] doesn't exists. adding to local cache.",
+                fileName);
+            cache.put(fileName, f.length());
+            return f;
+        }
+        LOG.debug(
+            "file [{}] doesn't exists. returning transient file [{}].",
+            fileName, transFile.getAbsolutePath());
+        return transFile;
+    }
+
+    /**
+     * Create a transient file in the temporary directory of the cache. The
+     * file can be filled and then added to the cache with
+     * {@link #storeTransient(String, File)}.
+     * 
+     * @return the new file.
+     */
+    public File createTransientFile() throws IOException {
+        return TransientFileFactory.getInstance().createTransientFile("s3-",
+            "tmp", tmp);
+    }
+
     /**
      * Store an item along with file in cache. Cache size is increased by
      * {@link File#length()} If file already exists in cache,
@@ -25,6 +25,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -302,6 +303,32 @@ public class MultiDataStore implements DataStore {
         return archiveDataStore.deleteAllOlderThan(min);
     }
 
+    /**
+     * Update the modified date of the given records in the archive data store.
+     * 
+     * @param identifiers
+     *            the identifiers of the records to touch
+     * @throws DataStoreException
+     */
+    public void touchAll(Collection<DataIdentifier> identifiers) throws DataStoreException {
+        archiveDataStore.touchAll(identifiers);
+    }
+
+    /**
+     * Delete the given records from the archive data store if they have a
+     * modified date older than the specified date.
+     * 
+     * @param identifiers
+     *            the identifiers of the records to delete
+     * @param min
+     *            the minimum time
+     * @return the number of data records deleted
+     * @throws DataStoreException
+     */
+    public int deleteRecords(Collection<DataIdentifier> identifiers, long min) throws DataStoreException {
+        return archiveDataStore.deleteRecords(identifiers, min);
+    }
+
     /**
      * Get all identifiers from the archive data store.
      * 
@@ -62,6 +62,19 @@ public class DbDataRecord extends AbstractDataRecord {
         return new BufferedInputStream(new DbInputStream(store, getIdentifier()));
     }
 
+    /**
+     * Reads only the requested part of the data from the database.
+     */
+    @Override
+    public int read(byte[] b, long position) throws DataStoreException {
+        lastModified = store.touch(getIdentifier(), lastModified);
+        if (position >= length) {
+            return b.length > 0 ? -1 : 0;
+        }
+        int len = (int) Math.min(b.length, length - position);
+        return store.read(getIdentifier(), b, position, len);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -37,6 +37,7 @@ import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -44,9 +45,11 @@ import java.lang.ref.WeakReference;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -75,6 +78,7 @@ import javax.sql.DataSource;
  *     &lt;param name="{@link #setTablePrefix(String) tablePrefix}" value=""/&gt;
  *     &lt;param name="{@link #setSchemaObjectPrefix(String) schemaObjectPrefix}" value=""/&gt;
  *     &lt;param name="{@link #setSchemaCheckEnabled(boolean) schemaCheckEnabled}" value="true"/&gt;
+ *     &lt;param name="{@link #setStoreStream(String) storeStream}" value="tempFile"/&gt;
  * &lt;/DataStore&gt;
  * </pre>
  * <p>
@@ -98,6 +102,9 @@ import javax.sql.DataSource;
  * By default, the data is copied to a temp file when reading, to avoid problems when reading multiple
  * blobs at the same time.
  * <p>
+ * By default, the data is also copied to a temp file when writing, to get the length. With a JDBC 4
+ * driver, storeStream can be set to "stream" to send the data directly to the database instead.
+ * <p>
  * The tablePrefix can be used to specify a schema and / or catalog name:
  * &lt;param name="tablePrefix" value="ds."&gt;
  */
@@ -109,6 +116,13 @@ public class DbDataStore extends AbstractDataStore
      */
     public static final int DEFAULT_MIN_RECORD_LENGTH = 100;
 
+    /**
+     * The number of records that are touched or deleted per transaction by
+     * {@link #touchAll(Collection)} and
+     * {@link #deleteRecords(Collection, long)}.
+     */
+    private static final int BULK_BATCH_SIZE = 100;
+
     /**
      * Write to a temporary file to get the length (slow, but always works).
      * This is the default setting.
@@ -125,6 +139,14 @@ public class DbDataStore extends AbstractDataStore
      */
     public static final String STORE_SIZE_MAX = "max";
 
+    /**
+     * Call PreparedStatement.setBinaryStream(..., stream) without a length
+     * (requires a JDBC 4 driver), and insert the data together with the
+     * temporary row. No temporary file is used, and the data is digested
+     * while it is sent to the database.
+     */
+    public static final String STORE_STREAM = "stream";
+
     /**
      * The digest algorithm used to uniquely identify records.
      */
@@ -216,6 +238,13 @@ public class DbDataStore extends AbstractDataStore
     protected String insertTempSQL =
         "INSERT INTO ${tablePrefix}${table} VALUES(?, 0, ?, NULL)";
 
+    /**
+     * This is the property 'insertData'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String insertDataSQL =
+        "INSERT INTO ${tablePrefix}${table}(ID, LENGTH, LAST_MODIFIED, DATA) VALUES(?, 0, ?, ?)";
+
     /**
      * This is the property 'updateData'
      * in the [databaseType].properties file, initialized with the default value.
@@ -252,6 +281,13 @@ public class DbDataStore extends AbstractDataStore
     protected String deleteOlderSQL =
         "DELETE FROM ${tablePrefix}${table} WHERE LAST_MODIFIED<?";
 
+    /**
+     * This is the property 'deleteRecordOlder'
+     * in the [databaseType].properties file, initialized with the default value.
+     */
+    protected String deleteRecordOlderSQL =
+        "DELETE FROM ${tablePrefix}${table} WHERE ID=? AND LAST_MODIFIED<?";
+
     /**
      * This is the property 'selectMeta'
      * in the [databaseType].properties file, initialized with the default value.
@@ -278,6 +314,12 @@ public class DbDataStore extends AbstractDataStore
      */
     protected String storeStream = STORE_TEMP_FILE;
 
+    /**
+     * Whether the stream storing mechanism was set explicitly, in which case
+     * the setting of the [databaseType].properties file is ignored.
+     */
+    private boolean storeStreamConfigured;
+
     /**
      * Copy the stream to a temp file before returning it.
      * Enabled by default to support concurrent reads.
@@ -310,6 +352,9 @@ public class DbDataStore extends AbstractDataStore
     }
 
     public DataRecord addRecord(InputStream stream) throws DataStoreException {
+        if (STORE_STREAM.equals(storeStream)) {
+            return addRecordStreaming(stream);
+        }
         InputStream fileInput = null;
         String tempId = null;
         ResultSet rs = null;
@@ -362,6 +407,74 @@ public class DbDataStore extends AbstractDataStore
             DataIdentifier identifier =
                     new DataIdentifier(encodeHexString(digest.digest()));
             usesIdentifier(identifier);
+            return commitRecord(tempId, tempModified, identifier, length);
+        } catch (Exception e) {
+            throw convert("Can not insert new record", e);
+        } finally {
+            if (tempId != null) {
+                temporaryInUse.remove(tempId);
+            }
+            DbUtility.close(rs);
+            if (fileInput != null) {
+                try {
+                    fileInput.close();
+                } catch (IOException e) {
+                    throw convert("Can not close temporary file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a record without spooling the stream to a temporary file. The data
+     * is digested while the driver reads it, and inserted together with the
+     * temporary row, so that only the final rename is a separate statement.
+     * <p>
+     * As the stream can only be read once, a failed insert is only retried
+     * by the {@link ConnectionHelper} if the driver did not read any data
+     * yet. Otherwise adding the record fails, instead of committing data that
+     * was read twice under a wrong identifier and length.
+     *
+     * @param stream the stream
+     * @return the data record
+     * @throws DataStoreException if adding the record failed
+     */
+    private DataRecord addRecordStreaming(InputStream stream) throws DataStoreException {
+        String tempId = TEMP_PREFIX + UUID.randomUUID().toString();
+        temporaryInUse.add(tempId);
+        try {
+            long tempModified = System.currentTimeMillis();
+            SinglePassDigestInputStream in =
+                new SinglePassDigestInputStream(stream, getDigest());
+            // INSERT INTO DATASTORE(ID, LENGTH, LAST_MODIFIED, DATA) VALUES(?, 0, ?, ?)
+            conHelper.exec(insertDataSQL, tempId, tempModified, new StreamWrapper(in));
+            long length = in.getCount();
+            DataIdentifier identifier =
+                    new DataIdentifier(encodeHexString(in.getDigest().digest()));
+            usesIdentifier(identifier);
+            return commitRecord(tempId, tempModified, identifier, length);
+        } catch (Exception e) {
+            throw convert("Can not insert new record", e);
+        } finally {
+            temporaryInUse.remove(tempId);
+        }
+    }
+
+    /**
+     * Rename the temporary row to the final identifier, or delete it if a
+     * record with the same identifier already exists.
+     *
+     * @param tempId the temporary identifier
+     * @param tempModified the last modified time of the temporary row
+     * @param identifier the final identifier
+     * @param length the length of the data
+     * @return the data record
+     * @throws Exception if renaming or deleting the temporary row failed
+     */
+    private DataRecord commitRecord(String tempId, long tempModified,
+            DataIdentifier identifier, long length) throws Exception {
+        ResultSet rs = null;
+        try {
             String id = identifier.toString();
             long newModified;
             while (true) {
@@ -411,20 +524,8 @@ public class DbDataStore extends AbstractDataStore
             usesIdentifier(identifier);
             DbDataRecord record = new DbDataRecord(this, identifier, length, newModified);
             return record;
-        } catch (Exception e) {
-            throw convert("Can not insert new record", e);
         } finally {
-            if (tempId != null) {
-                temporaryInUse.remove(tempId);
-            }
             DbUtility.close(rs);
-            if (fileInput != null) {
-                try {
-                    fileInput.close();
-                } catch (IOException e) {
-                    throw convert("Can not close temporary file", e);
-                }
-            }
         }
     }
 
@@ -517,6 +618,102 @@ public class DbDataStore extends AbstractDataStore
         }
     }
 
+    /**
+     * Updates the modified date of the given records, with one JDBC batch
+     * and transaction per 100 records. Unlike
+     * {@link #getRecordIfStored(DataIdentifier)}, this does not read the
+     * records first.
+     */
+    @Override
+    public void touchAll(Collection<DataIdentifier> identifiers) throws DataStoreException {
+        long before = minModifiedDate;
+        if (before == 0 || identifiers.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Object[]> batch = new ArrayList<Object[]>();
+        for (DataIdentifier identifier : identifiers) {
+            // UPDATE DATASTORE SET LAST_MODIFIED=? WHERE ID=? AND LAST_MODIFIED<?
+            batch.add(new Object[] {now, identifier.toString(), before});
+            if (batch.size() >= BULK_BATCH_SIZE) {
+                updateBatch(updateLastModifiedSQL, batch, "Can not update lastModified");
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            updateBatch(updateLastModifiedSQL, batch, "Can not update lastModified");
+        }
+    }
+
+    /**
+     * Deletes the given records, with one JDBC batch and transaction per
+     * 100 records. This method is not synchronized, so
+     * concurrent uploads are not blocked. The modified date of a record is
+     * checked again by the delete statement, so that a record that is
+     * added again in the meantime is not deleted.
+     */
+    @Override
+    public int deleteRecords(Collection<DataIdentifier> identifiers, long min) throws DataStoreException {
+        int count = 0;
+        List<Object[]> batch = new ArrayList<Object[]>();
+        for (DataIdentifier identifier : identifiers) {
+            if (!inUse.containsKey(identifier)) {
+                // DELETE FROM DATASTORE WHERE ID=? AND LAST_MODIFIED<?
+                batch.add(new Object[] {identifier.toString(), min});
+                if (batch.size() >= BULK_BATCH_SIZE) {
+                    count += updateBatch(deleteRecordOlderSQL, batch, "Can not delete records");
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            count += updateBatch(deleteRecordOlderSQL, batch, "Can not delete records");
+        }
+        log.debug("Deleted " + count + " of " + identifiers.size() + " records");
+        return count;
+    }
+
+    /**
+     * Executes the given statement for each of the given parameter lists
+     * as one JDBC batch within its own transaction.
+     *
+     * @return the number of updated rows, as far as reported by the driver
+     */
+    private int updateBatch(String sql, List<Object[]> batch, String message)
+            throws DataStoreException {
+        try {
+            conHelper.startBatch();
+        } catch (SQLException e) {
+            throw convert(message, e);
+        }
+        boolean successful = false;
+        int count = 0;
+        try {
+            for (int c : conHelper.updateBatch(sql, batch)) {
+                if (c > 0) {
+                    count += c;
+                }
+            }
+            successful = true;
+        } catch (Exception e) {
+            throw convert(message, e);
+        } finally {
+            endBatch(successful);
+        }
+        return count;
+    }
+
+    private void endBatch(boolean commit) throws DataStoreException {
+        try {
+            conHelper.endBatch(commit);
+        } catch (SQLException e) {
+            if (commit) {
+                throw convert("Can not commit changes", e);
+            }
+            DbUtility.logException("rollback failed", e);
+        }
+    }
+
     public Iterator<DataIdentifier> getAllIdentifiers() throws DataStoreException {
         ArrayList<DataIdentifier> list = new ArrayList<DataIdentifier>();
         ResultSet rs = null;
@@ -613,6 +810,61 @@ public class DbDataStore extends AbstractDataStore
         }
     }
 
+    /**
+     * Read a part of the data of a record. The data is read using
+     * {@link Blob#getBytes(long, int)} if the driver supports it, so that
+     * only the requested part is transferred; otherwise the stream is skipped
+     * up to the position.
+     *
+     * @param identifier the identifier
+     * @param b the buffer into which the data is read
+     * @param position the position in the data
+     * @param len the number of bytes to read
+     * @return the number of bytes read, or -1 if there is no data
+     * @throws DataStoreException if reading failed
+     */
+    int read(DataIdentifier identifier, byte[] b, long position, int len)
+            throws DataStoreException {
+        ResultSet rs = null;
+        try {
+            // SELECT ID, DATA FROM DATASTORE WHERE ID = ?
+            rs = conHelper.query(selectDataSQL, identifier.toString());
+            if (!rs.next()) {
+                throw new DataStoreException("Record not found: " + identifier);
+            }
+            byte[] data;
+            try {
+                Blob blob = rs.getBlob(2);
+                data = blob == null ? new byte[0] : blob.getBytes(position + 1, len);
+            } catch (SQLException e) {
+                // not a blob column, or not supported by the driver
+                log.debug("Can not read blob, reading stream instead", e);
+                data = null;
+            }
+            int count;
+            if (data != null) {
+                count = data.length;
+                System.arraycopy(data, 0, b, 0, count);
+            } else {
+                InputStream in = rs.getBinaryStream(2);
+                if (in == null) {
+                    return -1;
+                }
+                try {
+                    IOUtils.skipFully(in, position);
+                    count = IOUtils.read(in, b, 0, len);
+                } finally {
+                    in.close();
+                }
+            }
+            return count == 0 && len > 0 ? -1 : count;
+        } catch (Exception e) {
+            throw convert("Retrieving database resource ", e);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
     public synchronized void init(String homeDir) throws DataStoreException {
         try {
             initDatabaseType();
@@ -718,16 +970,21 @@ public class DbDataStore extends AbstractDataStore
         updateSQL = getProperty(prop, "update", updateSQL);
         deleteSQL = getProperty(prop, "delete", deleteSQL);
         deleteOlderSQL = getProperty(prop, "deleteOlder", deleteOlderSQL);
+        deleteRecordOlderSQL = getProperty(prop, "deleteRecordOlder", deleteRecordOlderSQL);
         selectMetaSQL = getProperty(prop, "selectMeta", selectMetaSQL);
         selectAllSQL = getProperty(prop, "selectAll", selectAllSQL);
         selectDataSQL = getProperty(prop, "selectData", selectDataSQL);
-        storeStream = getProperty(prop, "storeStream", storeStream);
+        insertDataSQL = getProperty(prop, "insertData", insertDataSQL);
+        if (!storeStreamConfigured) {
+            storeStream = getProperty(prop, "storeStream", storeStream);
+        }
         if (!STORE_SIZE_MINUS_ONE.equals(storeStream)
                 && !STORE_TEMP_FILE.equals(storeStream)
-                && !STORE_SIZE_MAX.equals(storeStream)) {
+                && !STORE_SIZE_MAX.equals(storeStream)
+                && !STORE_STREAM.equals(storeStream)) {
             String msg = "Unsupported Stream store mechanism: " + storeStream
                     + " supported are: " + STORE_SIZE_MINUS_ONE + ", "
-                    + STORE_TEMP_FILE + ", " + STORE_SIZE_MAX;
+                    + STORE_TEMP_FILE + ", " + STORE_SIZE_MAX + ", " + STORE_STREAM;
             log.debug(msg);
             throw new DataStoreException(msg);
         }
@@ -964,6 +1221,28 @@ public class DbDataStore extends AbstractDataStore
         this.copyWhenReading = copyWhenReading;
     }
 
+    /**
+     * Get the stream storing mechanism.
+     *
+     * @return the stream storing mechanism
+     */
+    public String getStoreStream() {
+        return storeStream;
+    }
+
+    /**
+     * Set the stream storing mechanism used when adding records: one of
+     * {@link #STORE_TEMP_FILE}, {@link #STORE_SIZE_MINUS_ONE},
+     * {@link #STORE_SIZE_MAX} or {@link #STORE_STREAM}. If set, this
+     * overrides the setting of the database type resource file.
+     *
+     * @param storeStream the stream storing mechanism
+     */
+    public void setStoreStream(String storeStream) {
+        this.storeStream = storeStream;
+        this.storeStreamConfigured = true;
+    }
+
     /**
      * Get the table prefix.
      *
@@ -1011,4 +1290,84 @@ public class DbDataStore extends AbstractDataStore
     public void setDataSourceName(String dataSourceName) {
         this.dataSourceName = dataSourceName;
     }
+    /**
+     * Stream that digests and counts the data read from a stream that can
+     * only be read once. It can be reset while no data has been read, which
+     * restarts the digest, so that a statement that failed before the driver
+     * read the stream can be retried; afterwards a reset fails.
+     */
+    private static final class SinglePassDigestInputStream extends FilterInputStream {
+
+        private final MessageDigest digest;
+
+        private long count;
+
+        SinglePassDigestInputStream(InputStream in, MessageDigest digest) {
+            super(in);
+            this.digest = digest;
+        }
+
+        MessageDigest getDigest() {
+            return digest;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                digest.update((byte) b);
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                digest.update(b, off, n);
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped data must be digested as well
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int len = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+                if (len < 0) {
+                    break;
+                }
+                skipped += len;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            if (count != 0) {
+                throw new IOException(
+                        "The stream was partly read and can not be re-read");
+            }
+            digest.reset();
+        }
+
+    }
+
 }
@@ -24,6 +24,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.sql.DataSource;
@@ -353,6 +354,50 @@ public class ConnectionHelper {
         }
     }
 
+    /**
+     * Executes an update or delete statement once for each of the given
+     * parameter lists, as a single JDBC batch, and returns the update
+     * counts. The counts may be {@link Statement#SUCCESS_NO_INFO} if the
+     * driver does not report them.
+     *
+     * @param sql an SQL statement string
+     * @param paramsList the parameters of each execution of the statement
+     * @return the update counts
+     * @throws SQLException on error
+     */
+    public final int[] updateBatch(final String sql, final List<Object[]> paramsList) throws SQLException {
+        return new RetryManager<int[]>(null) {
+
+            @Override
+            protected int[] call() throws SQLException {
+                return reallyUpdateBatch(sql, paramsList);
+            }
+
+        }.doTry();
+    }
+
+    int[] reallyUpdateBatch(String sql, List<Object[]> paramsList) throws SQLException {
+        Connection con = null;
+        PreparedStatement stmt = null;
+        boolean inBatchMode = inBatchMode();
+        long start = System.currentTimeMillis();
+        try {
+            con = getConnection(inBatchMode);
+            stmt = con.prepareStatement(sql);
+            for (Object[] params : paramsList) {
+                for (int i = 0; i < params.length; i++) {
+                    stmt.setObject(i + 1, params[i]);
+                }
+                stmt.addBatch();
+            }
+            return stmt.executeBatch();
+        } finally {
+            closeResources(con, stmt, null, inBatchMode);
+            log.debug("SQL-Execution of {} x [{}] took [{}] ms.",
+                    new Object[] {paramsList.size(), sql, System.currentTimeMillis() - start});
+        }
+    }
+
     /**
      * Executes a SQL query and returns the {@link ResultSet}. The
      * returned {@link ResultSet} should be closed by clients.
@@ -516,7 +561,11 @@ public class ConnectionHelper {
             Object p = params[i];
             if (p instanceof StreamWrapper) {
                 StreamWrapper wrapper = (StreamWrapper) p;
-                stmt.setBinaryStream(i + 1, wrapper.getStream(), (int) wrapper.getSize());
+                if (wrapper.isSizeKnown()) {
+                    stmt.setBinaryStream(i + 1, wrapper.getStream(), (int) wrapper.getSize());
+                } else {
+                    stmt.setBinaryStream(i + 1, wrapper.getStream());
+                }
             } else {
                 stmt.setObject(i + 1, p);
             }
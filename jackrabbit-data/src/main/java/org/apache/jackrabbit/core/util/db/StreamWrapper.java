@@ -32,6 +32,7 @@ public class StreamWrapper {
 
     private MarkDetectingInputStream stream;
     private final long size;
+    private final boolean sizeKnown;
 
     /**
      * Creates a wrapper for the given InputStream that can
@@ -45,6 +46,19 @@ public class StreamWrapper {
     public StreamWrapper(InputStream in, long size) {
         this.stream = new MarkDetectingInputStream(in);
         this.size = size;
+        this.sizeKnown = true;
+    }
+
+    /**
+     * Creates a wrapper for the given InputStream of unknown size. The stream
+     * is passed to the driver without a length, which requires a JDBC 4 driver.
+     *
+     * @param in the InputStream to wrap
+     */
+    public StreamWrapper(InputStream in) {
+        this.stream = new MarkDetectingInputStream(in);
+        this.size = -1;
+        this.sizeKnown = false;
     }
 
     public InputStream getStream() {
@@ -55,6 +69,13 @@ public class StreamWrapper {
         return size;
     }
 
+    /**
+     * @return whether a size was passed when creating this wrapper
+     */
+    public boolean isSizeKnown() {
+        return sizeKnown;
+    }
+
     public void closeStream() {
         try {
             stream.close();
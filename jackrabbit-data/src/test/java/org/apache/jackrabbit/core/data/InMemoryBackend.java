@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -123,6 +124,27 @@ public class InMemoryBackend implements Backend {
         return tobeDeleted;
     }
 
+    @Override
+    public Set<DataIdentifier> deleteRecords(
+            final Collection<DataIdentifier> identifiers, final long min)
+            throws DataStoreException {
+        log("deleteRecords " + identifiers.size() + " " + min);
+        Set<DataIdentifier> tobeDeleted = new HashSet<DataIdentifier>();
+        for (DataIdentifier identifier : identifiers) {
+            Long timestamp = timeMap.get(identifier);
+            if (timestamp != null && timestamp < min
+                && store.confirmDelete(identifier)) {
+                store.deleteFromCache(identifier);
+                tobeDeleted.add(identifier);
+            }
+        }
+        for (DataIdentifier identifier : tobeDeleted) {
+            timeMap.remove(identifier);
+            data.remove(identifier);
+        }
+        return tobeDeleted;
+    }
+
     @Override
     public long getLength(final DataIdentifier identifier)
             throws DataStoreException {
@@ -148,6 +170,16 @@ public class InMemoryBackend implements Backend {
         timeMap.put(identifier, System.currentTimeMillis());
     }
 
+    @Override
+    public void touchAll(Collection<DataIdentifier> identifiers,
+            long minModifiedDate) {
+        for (DataIdentifier identifier : identifiers) {
+            if (data.containsKey(identifier)) {
+                timeMap.put(identifier, System.currentTimeMillis());
+            }
+        }
+    }
+
     @Override
     public void touchAsync(DataIdentifier identifier, long minModifiedDate,
             AsyncTouchCallback callback) {
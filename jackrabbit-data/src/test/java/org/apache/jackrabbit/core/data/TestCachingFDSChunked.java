@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Iterator;
+import java.util.Properties;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test cases to test {@link CachingDataStore} with content defined chunking
+ * enabled.
+ */
+public class TestCachingFDSChunked extends TestCachingFDS {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(TestCachingFDSChunked.class);
+
+    protected DataStore createDataStore() throws RepositoryException {
+        CachingFDS cacheFDS = new CachingFDS();
+        Properties props = loadProperties("/fs.properties");
+        String pathValue = props.getProperty(FSBackend.FS_BACKEND_PATH);
+        if (pathValue != null && !"".equals(pathValue.trim())) {
+            fsPath = pathValue + "/cachingFdsChunked" + "-"
+                + String.valueOf(randomGen.nextInt(100000)) + "-"
+                + String.valueOf(randomGen.nextInt(100000));
+        } else {
+            fsPath = dataStoreDir + "/cachingFdsChunked";
+        }
+        props.setProperty(FSBackend.FS_BACKEND_PATH, fsPath);
+        LOG.info("fsBackendPath [{}] set.", fsPath);
+        cacheFDS.setProperties(props);
+        cacheFDS.setSecret("12345");
+        // disable asynchronous writing in testing.
+        cacheFDS.setAsyncUploadLimit(0);
+        cacheFDS.setChunking(true);
+        cacheFDS.setChunkSize(4096);
+        cacheFDS.init(dataStoreDir);
+        return cacheFDS;
+    }
+
+    /**
+     * Test that a binary with a small change only stores the changed chunks.
+     */
+    public void testChunkDeduplication() throws Exception {
+        CachingDataStore store = (CachingDataStore) createDataStore();
+        ds = store;
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec1 = store.addRecord(new ByteArrayInputStream(data));
+        int chunks1 = countChunks(store.getBackend());
+        assertTrue(chunks1 > 1);
+
+        // change a few bytes in the middle
+        byte[] data2 = data.clone();
+        for (int i = 0; i < 10; i++) {
+            data2[data.length / 2 + i]++;
+        }
+        DataRecord rec2 = store.addRecord(new ByteArrayInputStream(data2));
+        assertFalse(rec1.getIdentifier().equals(rec2.getIdentifier()));
+        assertTrue(ChunkManifest.isManifest(rec1.getIdentifier()));
+        assertTrue(ChunkManifest.isManifest(rec2.getIdentifier()));
+        int chunks2 = countChunks(store.getBackend());
+        assertTrue(chunks2 > chunks1);
+        assertTrue(chunks2 - chunks1 <= 3);
+
+        assertEquals(data.length, store.getRecord(rec1.getIdentifier()).getLength());
+        assertRecord(data, store.getRecord(rec1.getIdentifier()));
+        assertRecord(data2, store.getRecord(rec2.getIdentifier()));
+
+        // only records are visible to the garbage collection
+        Iterator<DataIdentifier> it = store.getAllIdentifiers();
+        int count = 0;
+        while (it.hasNext()) {
+            assertFalse(ChunkManifest.isChunk(it.next()));
+            count++;
+        }
+        assertEquals(2, count);
+        store.close();
+    }
+
+    /**
+     * Test that a record that is not stored as chunks is read as is, even
+     * if its content starts like a manifest.
+     */
+    public void testManifestLikeRecord() throws Exception {
+        CachingDataStore store = (CachingDataStore) createDataStore();
+        ds = store;
+        byte[] data = ("#jackrabbit-chunked-record-1\n0123456789abcdef"
+            + ChunkManifest.CHUNK_SUFFIX + " 10\n").getBytes("UTF-8");
+        File file = File.createTempFile("manifest", ".tmp");
+        try {
+            FileUtils.writeByteArrayToFile(file, data);
+            DataIdentifier identifier = new DataIdentifier("0123456789abcdef0123");
+            store.getBackend().write(identifier, file);
+            assertFalse(ChunkManifest.isManifest(identifier));
+            assertEquals(data.length, store.getRecord(identifier).getLength());
+            assertRecord(data, store.getRecord(identifier));
+        } finally {
+            file.delete();
+        }
+        store.close();
+    }
+
+    private static int countChunks(Backend backend) throws DataStoreException {
+        int count = 0;
+        Iterator<DataIdentifier> it = backend.getAllIdentifiers();
+        while (it.hasNext()) {
+            if (ChunkManifest.isChunk(it.next())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Properties;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Test cases to test {@link CachingDataStore} with a {@link FSBackend} that
+ * transfers records in parallel parts.
+ */
+public class TestCachingFDSParallelTransfer extends TestCachingFDS {
+
+    protected static final Logger LOG = LoggerFactory.getLogger(TestCachingFDSParallelTransfer.class);
+
+    private static final int PART_SIZE = 4096;
+
+    protected DataStore createDataStore() throws RepositoryException {
+        CachingFDS cacheFDS = new CachingFDS();
+        Properties props = loadProperties("/fs.properties");
+        String pathValue = props.getProperty(FSBackend.FS_BACKEND_PATH);
+        if (pathValue != null && !"".equals(pathValue.trim())) {
+            fsPath = pathValue + "/cachingFdsParallel" + "-"
+                + String.valueOf(randomGen.nextInt(100000)) + "-"
+                + String.valueOf(randomGen.nextInt(100000));
+        } else {
+            fsPath = dataStoreDir + "/cachingFdsParallel";
+        }
+        props.setProperty(FSBackend.FS_BACKEND_PATH, fsPath);
+        props.setProperty(FSBackend.FS_BACKEND_PART_SIZE, String.valueOf(PART_SIZE));
+        props.setProperty(FSBackend.FS_BACKEND_TRANSFER_CONCURRENCY, "4");
+        LOG.info("fsBackendPath [{}] set.", fsPath);
+        cacheFDS.setProperties(props);
+        cacheFDS.setSecret("12345");
+        // disable asynchronous writing in testing.
+        cacheFDS.setAsyncUploadLimit(0);
+        cacheFDS.init(dataStoreDir);
+        return cacheFDS;
+    }
+
+    /**
+     * Test that an upload left behind with a progress file is completed, and
+     * that staging files are not visible as records.
+     */
+    public void testResumeUpload() throws Exception {
+        fsPath = dataStoreDir + "/resume";
+        FSBackend backend = new FSBackend();
+        Properties props = new Properties();
+        props.setProperty(FSBackend.FS_BACKEND_PATH, fsPath);
+        props.setProperty(FSBackend.FS_BACKEND_PART_SIZE, String.valueOf(PART_SIZE));
+        props.setProperty(FSBackend.FS_BACKEND_TRANSFER_CONCURRENCY, "4");
+        backend.init(null, dataStoreDir, props);
+        try {
+            byte[] data = new byte[PART_SIZE * 5 + 123];
+            randomGen.nextBytes(data);
+            File src = new File(dataStoreDir, "resume-src");
+            FileUtils.writeByteArrayToFile(src, data);
+            DataIdentifier identifier = new DataIdentifier("0123456789abcdef");
+            File dir = new File(fsPath + "/01/23/45");
+            assertTrue(dir.mkdirs());
+
+            // the first two parts of an interrupted upload
+            File staging = new File(dir, identifier + ".upload");
+            FileOutputStream out = new FileOutputStream(staging);
+            out.write(data, 0, PART_SIZE * 2);
+            out.close();
+            RandomAccessFile progress = new RandomAccessFile(
+                new File(dir, identifier + ".progress"), "rw");
+            progress.writeLong(data.length);
+            progress.writeLong(PART_SIZE);
+            progress.write(new byte[] { 1, 1, 0, 0, 0, 0 });
+            progress.close();
+            Iterator<DataIdentifier> it = backend.getAllIdentifiers();
+            assertFalse(it.hasNext());
+
+            backend.write(identifier, src);
+            assertTrue(Arrays.equals(data,
+                FileUtils.readFileToByteArray(new File(dir, identifier.toString()))));
+            assertEquals(1, dir.list().length);
+
+            File copy = new File(dataStoreDir, "resume-copy");
+            backend.read(identifier, copy);
+            assertTrue(Arrays.equals(data, FileUtils.readFileToByteArray(copy)));
+
+            // a progress file of a different upload is discarded
+            DataIdentifier other = new DataIdentifier("0123450000000000");
+            progress = new RandomAccessFile(
+                new File(dir, other + ".progress"), "rw");
+            progress.writeLong(1);
+            progress.writeLong(PART_SIZE);
+            progress.write(1);
+            progress.close();
+            backend.write(other, src);
+            assertTrue(Arrays.equals(data,
+                FileUtils.readFileToByteArray(new File(dir, other.toString()))));
+            assertEquals(2, dir.list().length);
+        } finally {
+            backend.close();
+        }
+    }
+}
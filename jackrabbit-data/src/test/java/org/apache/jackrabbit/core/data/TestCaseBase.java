@@ -217,6 +217,43 @@ public abstract class TestCaseBase extends TestCase {
         }
     }
 
+    /**
+     * Testcase to validate {@link DataStore#touchAll(java.util.Collection)}
+     * and {@link DataStore#deleteRecords(java.util.Collection, long)} API.
+     */
+    public void testDeleteRecords() {
+        try {
+            long start = System.currentTimeMillis();
+            LOG.info("Testcase: " + this.getClass().getName()
+                + "#testDeleteRecords, testDir=" + dataStoreDir);
+            doDeleteRecords();
+            LOG.info("Testcase: " + this.getClass().getName()
+                + "#testDeleteRecords finished, time taken = ["
+                + (System.currentTimeMillis() - start) + "]ms");
+        } catch (Exception e) {
+            LOG.error("error:", e);
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Testcase to validate {@link DataRecord#read(byte[], long)} API.
+     */
+    public void testReadAtPosition() {
+        try {
+            long start = System.currentTimeMillis();
+            LOG.info("Testcase: " + this.getClass().getName()
+                + "#testReadAtPosition, testDir=" + dataStoreDir);
+            doReadAtPositionTest();
+            LOG.info("Testcase: " + this.getClass().getName()
+                + "#testReadAtPosition finished, time taken = ["
+                + (System.currentTimeMillis() - start) + "]ms");
+        } catch (Exception e) {
+            LOG.error("error:", e);
+            fail(e.getMessage());
+        }
+    }
+
     /**
      * Testcase to validate {@link DataStore#getRecordFromReference(String)}
      */
@@ -304,6 +341,31 @@ public abstract class TestCaseBase extends TestCase {
         ds.close();
     }
 
+    /**
+     * Test {@link DataRecord#read(byte[], long)} at the start, in the middle
+     * and at the end of a record.
+     */
+    protected void doReadAtPositionTest() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        DataRecord rec = ds.addRecord(new ByteArrayInputStream(data));
+        rec = ds.getRecord(rec.getIdentifier());
+
+        byte[] buffer = new byte[100];
+        long[] positions = {0, data.length / 2, data.length - 10};
+        for (long position : positions) {
+            int expected = (int) Math.min(buffer.length, data.length - position);
+            assertEquals(expected, rec.read(buffer, position));
+            for (int i = 0; i < expected; i++) {
+                assertEquals(data[(int) position + i], buffer[i]);
+            }
+        }
+        assertEquals(-1, rec.read(buffer, data.length));
+        assertEquals(-1, rec.read(buffer, data.length + 100));
+        ds.close();
+    }
+
     /**
      * Test {@link MultiDataStoreAware#deleteRecord(DataIdentifier)}.
      */
@@ -461,6 +523,58 @@ public abstract class TestCaseBase extends TestCase {
         ds.close();
     }
 
+    /**
+     * Asserts that {@link DataStore#deleteRecords(java.util.Collection, long)}
+     * only deletes the given records that were not touched with
+     * {@link DataStore#touchAll(java.util.Collection)}.
+     */
+    protected void doDeleteRecords() throws Exception {
+        ds = createDataStore();
+        Random random = randomGen;
+        byte[] data = new byte[dataLength];
+        random.nextBytes(data);
+        DataRecord rec1 = ds.addRecord(new ByteArrayInputStream(data));
+
+        data = new byte[dataLength];
+        random.nextBytes(data);
+        DataRecord rec2 = ds.addRecord(new ByteArrayInputStream(data));
+
+        data = new byte[dataLength];
+        random.nextBytes(data);
+        DataRecord rec3 = ds.addRecord(new ByteArrayInputStream(data));
+
+        waitForAsyncUploads();
+
+        // derive the update time from the records instead of the clock,
+        // so that the test does not depend on the timestamp granularity
+        long updateTime = 1 + Math.max(
+            ds.getRecord(rec1.getIdentifier()).getLastModified(),
+            Math.max(ds.getRecord(rec2.getIdentifier()).getLastModified(),
+                ds.getRecord(rec3.getIdentifier()).getLastModified()));
+        ds.updateModifiedDateOnAccess(updateTime);
+        while (System.currentTimeMillis() <= updateTime) {
+            Thread.sleep(1);
+        }
+        List<DataIdentifier> touch = new ArrayList<DataIdentifier>();
+        touch.add(rec1.getIdentifier());
+        ds.touchAll(touch);
+
+        ds.clearInUse();
+        List<DataIdentifier> delete = new ArrayList<DataIdentifier>();
+        delete.add(rec1.getIdentifier());
+        delete.add(rec2.getIdentifier());
+        delete.add(new DataIdentifier("0000000000000000000000000000000000000000"));
+        assertEquals("only rec2 should be deleted", 1,
+            ds.deleteRecords(delete, updateTime));
+        assertNull("rec2 should be null",
+            ds.getRecordIfStored(rec2.getIdentifier()));
+        assertTrue("rec1 touched",
+            ds.getRecord(rec1.getIdentifier()).getLastModified() > updateTime);
+        assertNotNull("rec3 should not be deleted",
+            ds.getRecordIfStored(rec3.getIdentifier()));
+        ds.close();
+    }
+
     /**
      * Test if record can be accessed via
      * {@link DataStore#getRecordFromReference(String)}
@@ -649,6 +763,21 @@ public abstract class TestCaseBase extends TestCase {
         }
     }
     
+    /**
+     * Waits until the asynchronous uploads of a {@link CachingDataStore}
+     * have completed.
+     */
+    protected void waitForAsyncUploads() throws InterruptedException {
+        if (ds instanceof CachingDataStore) {
+            long timeout = System.currentTimeMillis() + 60000;
+            while (((CachingDataStore) ds).hasPendingUploads()) {
+                assertTrue("async uploads did not complete",
+                    System.currentTimeMillis() < timeout);
+                Thread.sleep(10);
+            }
+        }
+    }
+
     /**
      * Utility method to stop execution for duration time.
      * 
@@ -37,7 +37,7 @@ public class TestFileDataStore extends TestCaseBase {
 
     @Override
     protected DataStore createDataStore() throws RepositoryException {
-        FileDataStore fds = new FileDataStore();
+        FileDataStore fds = newFileDataStore();
         Properties props = loadProperties("/fs.properties");
         String pathValue = props.getProperty(FSBackend.FS_BACKEND_PATH);
         if (pathValue != null && !"".equals(pathValue.trim())) {
@@ -53,6 +53,13 @@ public class TestFileDataStore extends TestCaseBase {
         return fds;
     }
 
+    /**
+     * Creates the data store instance, before it is configured.
+     */
+    protected FileDataStore newFileDataStore() {
+        return new FileDataStore();
+    }
+
     @Override
     protected void tearDown() {
         LOG.info("cleaning fsPath [{}]", fsPath);
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+/**
+ * Test cases to test {@link FileDataStore} with fsync enabled.
+ */
+public class TestFileDataStoreFsync extends TestFileDataStore {
+
+    /**
+     * The directories synchronized by the data store.
+     */
+    private final List<File> synced = new ArrayList<File>();
+
+    @Override
+    protected FileDataStore newFileDataStore() {
+        return new FileDataStore() {
+            @Override
+            protected void syncDirectory(File dir) {
+                synchronized (synced) {
+                    synced.add(dir.getAbsoluteFile());
+                }
+                super.syncDirectory(dir);
+            }
+        };
+    }
+
+    @Override
+    protected DataStore createDataStore() throws RepositoryException {
+        FileDataStore fds = (FileDataStore) super.createDataStore();
+        fds.setFsync(true);
+        return fds;
+    }
+
+    /**
+     * Test that the new directories of a record are synchronized, and not
+     * only the directory of the record file.
+     */
+    public void testSyncNewDirectories() throws Exception {
+        ds = createDataStore();
+        byte[] data = new byte[dataLength];
+        randomGen.nextBytes(data);
+        String id = ds.addRecord(new ByteArrayInputStream(data)).getIdentifier().toString();
+
+        // the three levels of directories were created for the record
+        File root = new File(fsPath).getAbsoluteFile();
+        File level1 = new File(root, id.substring(0, 2));
+        File level2 = new File(level1, id.substring(2, 4));
+        File level3 = new File(level2, id.substring(4, 6));
+        List<File> expected = new ArrayList<File>();
+        expected.add(level3);
+        expected.add(level2);
+        expected.add(level1);
+        expected.add(root);
+        assertEquals(expected, synced);
+
+        // adding the same record again does not create anything
+        synced.clear();
+        ds.addRecord(new ByteArrayInputStream(data));
+        assertTrue(synced.isEmpty());
+        ds.close();
+    }
+}
@@ -537,17 +537,19 @@ public abstract class AbstractSession implements Session {
         return getRepository().login(credentials, getWorkspace().getName());
     }
 
-    //-------------------------------------------------------------< private >
+    //-----------------------------------------------------------< protected >
 
     /**
      * Exports content at the given path using the given exporter.
+     * Subclasses that use other exporters can call this method from
+     * their export methods.
      *
      * @param path of the node to be exported
      * @param exporter document or system view exporter
      * @throws SAXException if the SAX event handler failed
      * @throws RepositoryException if another error occurs
      */
-    private synchronized void export(String path, Exporter exporter)
+    protected synchronized void export(String path, Exporter exporter)
             throws PathNotFoundException, SAXException, RepositoryException {
         Item item = getItem(path);
         if (item.isNode()) {
@@ -18,6 +18,7 @@ package org.apache.jackrabbit.server.io;
 
 import org.apache.jackrabbit.util.Text;
 import org.apache.jackrabbit.webdav.DavConstants;
+import org.apache.jackrabbit.webdav.io.RangeOutputStream;
 import org.apache.jackrabbit.webdav.util.HttpDateFormat;
 
 import javax.jcr.Node;
@@ -77,12 +78,41 @@ public final class IOUtil {
     }
 
     /**
+     * Spools the given input stream to the given output stream and closes
+     * the input stream. If the output stream is a {@link RangeOutputStream},
+     * the input stream is skipped up to the start of the range instead of
+     * being read, and is not read beyond the end of the range.
      */
     public static void spool(InputStream in, OutputStream out) throws IOException {
         try {
+            RangeOutputStream range = null;
+            if (out instanceof RangeOutputStream) {
+                range = (RangeOutputStream) out;
+                long skip = range.getSkippableLength();
+                while (skip > 0) {
+                    long skipped = in.skip(skip);
+                    if (skipped <= 0) {
+                        break;
+                    }
+                    range.skip(skipped);
+                    skip -= skipped;
+                }
+            }
             byte[] buffer = new byte[8192];
-            int read;
-            while ((read = in.read(buffer)) >= 0) {
+            while (true) {
+                int len = buffer.length;
+                if (range != null) {
+                    // stop reading at the end of the range
+                    long remaining = range.getRemainingLength();
+                    if (remaining == 0) {
+                        break;
+                    }
+                    len = (int) Math.min(len, remaining);
+                }
+                int read = in.read(buffer, 0, len);
+                if (read < 0) {
+                    break;
+                }
                 out.write(buffer, 0, read);
             }
         } finally {
@@ -48,6 +48,7 @@ import org.apache.jackrabbit.webdav.bind.ParentElement;
 import org.apache.jackrabbit.webdav.bind.ParentSet;
 import org.apache.jackrabbit.webdav.io.InputContext;
 import org.apache.jackrabbit.webdav.io.OutputContext;
+import org.apache.jackrabbit.webdav.io.RangeOutputStream;
 import org.apache.jackrabbit.webdav.jcr.JcrDavException;
 import org.apache.jackrabbit.webdav.jcr.JcrDavSession;
 import org.apache.jackrabbit.webdav.jcr.lock.JcrActiveLock;
@@ -68,6 +69,7 @@ import org.apache.jackrabbit.webdav.property.PropEntry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.jcr.Binary;
 import javax.jcr.Item;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
@@ -281,6 +283,9 @@ public class DavResourceImpl implements DavResource, BindableResource, JcrConsta
      */
     public void spool(OutputContext outputContext) throws IOException {
         if (exists() && outputContext != null) {
+            if (spoolRange(outputContext)) {
+                return;
+            }
             ExportContext exportCtx = getExportContext(outputContext);
             if (!config.getIOManager().exportContent(exportCtx, this)) {
                 throw new IOException("Unexpected Error while spooling resource.");
@@ -288,6 +293,50 @@ public class DavResourceImpl implements DavResource, BindableResource, JcrConsta
         }
     }
 
+    /**
+     * Answers a byte range request for a file directly from the stream of
+     * its binary, instead of having the export write the whole content to
+     * the temporary file of the {@link ExportContextImpl} first. Only the
+     * properties are exported through the <code>IOManager</code>.
+     *
+     * @param outputContext the output context
+     * @return <code>false</code> if this is not a range request for the
+     * <code>jcr:data</code> of a file, which is then to be spooled as usual.
+     * @throws IOException if the export fails.
+     */
+    private boolean spoolRange(OutputContext outputContext) throws IOException {
+        if (isCollection() || !outputContext.hasStream()
+                || !(outputContext.getOutputStream() instanceof RangeOutputStream)) {
+            return false;
+        }
+        Binary binary;
+        try {
+            if (!node.hasNode(JCR_CONTENT)) {
+                return false;
+            }
+            Node content = node.getNode(JCR_CONTENT);
+            if (!content.hasProperty(JCR_DATA)) {
+                return false;
+            }
+            binary = content.getProperty(JCR_DATA).getBinary();
+        } catch (RepositoryException e) {
+            log.debug("Unable to access the binary of {}: {}", getResourcePath(), e.getMessage());
+            return false;
+        }
+        try {
+            ExportContext exportCtx = getExportContext(new PropertiesOutputContext(outputContext));
+            if (!config.getIOManager().exportContent(exportCtx, this)) {
+                throw new IOException("Unexpected Error while spooling resource.");
+            }
+            IOUtil.spool(binary.getStream(), outputContext.getOutputStream());
+        } catch (RepositoryException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            binary.dispose();
+        }
+        return true;
+    }
+
     /**
      * @see DavResource#getProperty(org.apache.jackrabbit.webdav.property.DavPropertyName)
      */
@@ -1125,4 +1174,49 @@ public class DavResourceImpl implements DavResource, BindableResource, JcrConsta
             }
         }
     }
+
+    /**
+     * Output context that passes the properties to the wrapped context but
+     * has no stream, so that an export only writes the properties.
+     */
+    private static class PropertiesOutputContext implements OutputContext {
+
+        private final OutputContext context;
+
+        private PropertiesOutputContext(OutputContext context) {
+            this.context = context;
+        }
+
+        public boolean hasStream() {
+            return false;
+        }
+
+        public OutputStream getOutputStream() {
+            return null;
+        }
+
+        public void setContentLanguage(String contentLanguage) {
+            context.setContentLanguage(contentLanguage);
+        }
+
+        public void setContentLength(long contentLength) {
+            context.setContentLength(contentLength);
+        }
+
+        public void setContentType(String contentType) {
+            context.setContentType(contentType);
+        }
+
+        public void setModificationTime(long modificationTime) {
+            context.setModificationTime(modificationTime);
+        }
+
+        public void setETag(String etag) {
+            context.setETag(etag);
+        }
+
+        public void setProperty(String propertyName, String propertyValue) {
+            context.setProperty(propertyName, propertyValue);
+        }
+    }
 }
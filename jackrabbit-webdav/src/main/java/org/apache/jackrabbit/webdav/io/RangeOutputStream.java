@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * <code>RangeOutputStream</code> only passes the bytes of a given range of
+ * the content written to it to the wrapped stream, and discards all other
+ * bytes. It is used to answer requests with a single byte range.
+ * <p>
+ * Code spooling content to this stream should call {@link #skip(long)}
+ * instead of writing the first {@link #getSkippableLength()} bytes, so that
+ * the content before the range does not need to be read at all, and should
+ * stop once {@link #getRemainingLength()} returns 0, so that the content
+ * after the range is not read either.
+ */
+public class RangeOutputStream extends FilterOutputStream {
+
+    private final long start;
+    private final long end;
+    private long position;
+
+    /**
+     * Create a new <code>RangeOutputStream</code>.
+     *
+     * @param out the wrapped stream
+     * @param start the position of the first byte of the range
+     * @param length the length of the range
+     */
+    public RangeOutputStream(OutputStream out, long start, long length) {
+        super(out);
+        this.start = start;
+        this.end = start + length;
+    }
+
+    /**
+     * Returns the number of bytes that are not yet written and that are
+     * before the start of the range.
+     *
+     * @return the number of bytes that can be skipped
+     */
+    public long getSkippableLength() {
+        return Math.max(0, start - position);
+    }
+
+    /**
+     * Returns the number of bytes that still need to be written until the
+     * end of the range is reached.
+     *
+     * @return the number of bytes up to the end of the range, or 0 if the
+     *         whole range has been written
+     */
+    public long getRemainingLength() {
+        return Math.max(0, end - position);
+    }
+
+    /**
+     * Informs this stream that the given number of bytes of the content
+     * were skipped instead of being written.
+     *
+     * @param n the number of bytes skipped
+     */
+    public void skip(long n) {
+        position += n;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (position >= start && position < end) {
+            out.write(b);
+        }
+        position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long from = Math.max(position, start);
+        long to = Math.min(position + len, end);
+        if (from < to) {
+            out.write(b, off + (int) (from - position), (int) (to - from));
+        }
+        position += len;
+    }
+}
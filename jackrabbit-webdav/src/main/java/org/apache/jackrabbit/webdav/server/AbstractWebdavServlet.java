@@ -42,6 +42,7 @@ import org.apache.jackrabbit.webdav.io.InputContext;
 import org.apache.jackrabbit.webdav.io.InputContextImpl;
 import org.apache.jackrabbit.webdav.io.OutputContext;
 import org.apache.jackrabbit.webdav.io.OutputContextImpl;
+import org.apache.jackrabbit.webdav.io.RangeOutputStream;
 import org.apache.jackrabbit.webdav.lock.ActiveLock;
 import org.apache.jackrabbit.webdav.lock.LockDiscovery;
 import org.apache.jackrabbit.webdav.lock.LockInfo;
@@ -110,6 +111,14 @@ abstract public class AbstractWebdavServlet extends HttpServlet implements DavCo
      */
     private static Logger log = LoggerFactory.getLogger(AbstractWebdavServlet.class);
 
+    /**
+     * Headers used for byte range requests.
+     */
+    private static final String HEADER_RANGE = "Range";
+    private static final String HEADER_IF_RANGE = "If-Range";
+    private static final String HEADER_CONTENT_RANGE = "Content-Range";
+    private static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
     /** the 'missing-auth-mapping' init parameter */
     public final static String INIT_PARAM_MISSING_AUTH_MAPPING = "missing-auth-mapping";
 
@@ -602,12 +611,119 @@ abstract public class AbstractWebdavServlet extends HttpServlet implements DavCo
             }
         }
 
+        long[] range = null;
+        long length = getContentLength(resource);
+        if (length >= 0) {
+            // advertised for HEAD as well, so that clients can find out
+            // whether they may request ranges without fetching the content
+            response.setHeader(HEADER_ACCEPT_RANGES, "bytes");
+            if (sendContent) {
+                try {
+                    range = getByteRange(request, resource, length);
+                } catch (IllegalArgumentException e) {
+                    response.setHeader(HEADER_CONTENT_RANGE, "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                if (range != null) {
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HEADER_CONTENT_RANGE, "bytes " + range[0] + "-"
+                            + (range[0] + range[1] - 1) + "/" + length);
+                }
+            }
+        }
+
         // spool resource properties and eventually resource content.
         OutputStream out = (sendContent) ? response.getOutputStream() : null;
-        resource.spool(getOutputContext(response, out));
+        if (range == null) {
+            resource.spool(getOutputContext(response, out));
+        } else {
+            out = new RangeOutputStream(out, range[0], range[1]);
+            resource.spool(new RangeOutputContext(getOutputContext(response, out), range[1]));
+        }
         response.flushBuffer();
     }
 
+    /**
+     * Returns the content length of the given resource, or -1 if it is
+     * not known.
+     */
+    private static long getContentLength(DavResource resource) {
+        if (resource.isCollection()) {
+            return -1;
+        }
+        DavProperty<?> prop = resource.getProperty(DavPropertyName.GETCONTENTLENGTH);
+        if (prop == null || prop.getValue() == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(prop.getValue().toString());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the single byte range requested with the 'Range' header as
+     * start position and length, or <code>null</code> if the whole content
+     * is to be sent. Multiple ranges and ranges not matching the 'If-Range'
+     * header are ignored, so that the whole content is sent.
+     *
+     * @throws IllegalArgumentException if the range is not satisfiable
+     */
+    private static long[] getByteRange(WebdavRequest request, DavResource resource, long length) {
+        String value;
+        String ifRange;
+        try {
+            value = getSingletonField(request, HEADER_RANGE);
+            ifRange = getSingletonField(request, HEADER_IF_RANGE);
+        } catch (IllegalArgumentException e) {
+            log.debug("illegal range ignored: " + e.getMessage());
+            return null;
+        }
+        if (value == null || !value.startsWith("bytes=") || value.indexOf(',') >= 0) {
+            return null;
+        }
+        if (ifRange != null) {
+            DavProperty<?> etagProp = resource.getProperty(DavPropertyName.GETETAG);
+            if (etagProp == null || !ifRange.equals(String.valueOf(etagProp.getValue()))) {
+                return null;
+            }
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        long start;
+        long end;
+        try {
+            if (dash == 0) {
+                // suffix range: the last n bytes
+                long suffix = Long.parseLong(spec.substring(1).trim());
+                if (suffix <= 0) {
+                    throw new IllegalArgumentException(value);
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash).trim());
+                String last = spec.substring(dash + 1).trim();
+                end = last.length() == 0 ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                if (end < start) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            log.debug("illegal range ignored: " + value);
+            return null;
+        }
+        if (start >= length) {
+            throw new IllegalArgumentException(value);
+        }
+        return new long[] {start, end - start + 1};
+    }
+
     /**
      * The PROPFIND method
      *
@@ -1548,5 +1664,55 @@ abstract public class AbstractWebdavServlet extends HttpServlet implements DavCo
             }
         }
     }
-}
 
+    /**
+     * Output context used for a byte range request, that reports the length
+     * of the range instead of the length of the whole content.
+     */
+    private static class RangeOutputContext implements OutputContext {
+
+        private final OutputContext context;
+        private final long length;
+
+        private RangeOutputContext(OutputContext context, long length) {
+            this.context = context;
+            this.length = length;
+        }
+
+        public boolean hasStream() {
+            return context.hasStream();
+        }
+
+        public OutputStream getOutputStream() {
+            return context.getOutputStream();
+        }
+
+        public void setContentLanguage(String contentLanguage) {
+            context.setContentLanguage(contentLanguage);
+        }
+
+        public void setContentLength(long contentLength) {
+            context.setContentLength(length);
+        }
+
+        public void setContentType(String contentType) {
+            context.setContentType(contentType);
+        }
+
+        public void setModificationTime(long modificationTime) {
+            context.setModificationTime(modificationTime);
+        }
+
+        public void setETag(String etag) {
+            context.setETag(etag);
+        }
+
+        public void setProperty(String propertyName, String propertyValue) {
+            if (HEADER_CONTENT_LENGTH.equalsIgnoreCase(propertyName)) {
+                context.setContentLength(length);
+            } else {
+                context.setProperty(propertyName, propertyValue);
+            }
+        }
+    }
+}
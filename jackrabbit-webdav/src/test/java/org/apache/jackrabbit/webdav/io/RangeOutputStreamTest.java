@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.webdav.io;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <code>RangeOutputStreamTest</code>...
+ */
+public class RangeOutputStreamTest extends TestCase {
+
+    private final byte[] content = new byte[100];
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+    }
+
+    public void testWrite() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        RangeOutputStream out = new RangeOutputStream(buffer, 10, 20);
+        out.write(content, 0, 15);
+        out.write(content[15]);
+        out.write(content, 16, content.length - 16);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, 10, 30), buffer.toByteArray()));
+    }
+
+    public void testSkip() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        RangeOutputStream out = new RangeOutputStream(buffer, 50, 100);
+        assertEquals(50, out.getSkippableLength());
+        out.skip(40);
+        assertEquals(10, out.getSkippableLength());
+        out.write(content, 40, content.length - 40);
+        assertEquals(0, out.getSkippableLength());
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, 50, 100), buffer.toByteArray()));
+    }
+
+    public void testRemainingLength() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        RangeOutputStream out = new RangeOutputStream(buffer, 10, 20);
+        assertEquals(30, out.getRemainingLength());
+        out.skip(10);
+        assertEquals(20, out.getRemainingLength());
+        out.write(content, 10, 15);
+        assertEquals(5, out.getRemainingLength());
+        out.write(content, 25, 5);
+        assertEquals(0, out.getRemainingLength());
+        out.write(content, 30, 10);
+        assertEquals(0, out.getRemainingLength());
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, 10, 30), buffer.toByteArray()));
+    }
+}
@@ -93,7 +93,9 @@ public abstract class AbstractPerformanceTest {
         runTest(new BigFileReadTest(), name, conf);
         runTest(new BigFileWriteTest(), name, conf);
         runTest(new ConcurrentReadTest(), name, conf);
+        runTest(new ConcurrentSharedSessionReadTest(), name, conf);
         runTest(new ConcurrentReadWriteTest(), name, conf);
+        runTest(new CheckinManyVersionsTest(), name, conf);
         runTest(new SimpleSearchTest(), name, conf);
         runTest(new SQL2SearchTest(), name, conf);
         runTest(new DescendantSearchTest(), name, conf);
@@ -109,6 +111,8 @@ public abstract class AbstractPerformanceTest {
             runTest(new AddGroupMembersTest(), name, conf);
             runTest(new GroupMemberLookupTest(), name, conf);
             runTest(new GroupGetMembersTest(), name, conf);
+            runTest(new ConcurrentReadAccessControlledTreeTest(), name, conf);
+            runTest(new ConcurrentReadManyPrincipalsTreeTest(), name, conf);
         } catch (NoClassDefFoundError e) {
             // ignore these tests if the required jackrabbit-api
             // extensions are not available
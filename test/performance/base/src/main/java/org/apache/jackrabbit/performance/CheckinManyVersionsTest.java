@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.version.VersionManager;
+
+/**
+ * Test case that checks in and out a versionable node whose version history
+ * already contains a large number of versions.
+ */
+public class CheckinManyVersionsTest extends AbstractTest {
+
+    private static final int VERSION_COUNT = getScale(1000);
+
+    private Session session;
+
+    private Node node;
+
+    private VersionManager vMgr;
+
+    public void beforeSuite() throws Exception {
+        session = loginWriter();
+        node = session.getRootNode().addNode("testroot", "nt:unstructured");
+        node.addMixin("mix:versionable");
+        session.save();
+
+        vMgr = session.getWorkspace().getVersionManager();
+        for (int i = 0; i < VERSION_COUNT; i++) {
+            vMgr.checkin(node.getPath());
+            vMgr.checkout(node.getPath());
+        }
+    }
+
+    public void runTest() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            vMgr.checkin(node.getPath());
+            vMgr.checkout(node.getPath());
+        }
+    }
+
+    public void afterSuite() throws Exception {
+        node.remove();
+        session.save();
+    }
+
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.performance;
 
+import java.security.Principal;
+
 import javax.jcr.ItemVisitor;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
@@ -52,26 +54,6 @@ public class ConcurrentReadAccessControlledTreeTest extends AbstractDeepTreeTest
                 }
                 super.entering(node, level);
             }
-
-            private void addPolicy(Node node) throws RepositoryException {
-                AccessControlManager acMgr = node.getSession().getAccessControlManager();
-                String path = node.getPath();
-                AccessControlPolicyIterator acIterator = acMgr.getApplicablePolicies(path);
-                if (acIterator.hasNext()) {
-                    AccessControlPolicy policy = acIterator.nextAccessControlPolicy();
-                    if (policy instanceof AccessControlList) {
-                        AccessControlList acl = (AccessControlList) policy;
-                        Privilege[] privileges = new Privilege[] {
-                                acMgr.privilegeFromName(Privilege.JCR_READ),
-                                acMgr.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL)
-                        };
-                        if (acl.addAccessControlEntry(EveryonePrincipal.getInstance(), privileges)) {
-                            acMgr.setPolicy(path, acl);
-                            node.getSession().save();
-                        }
-                    }
-                }
-            }
         };
 
         visitor.visit(testRoot);
@@ -81,9 +63,52 @@ public class ConcurrentReadAccessControlledTreeTest extends AbstractDeepTreeTest
         }
     }
 
+    /**
+     * Grants read access to the principals returned by
+     * {@link #getPrincipals()} at the given node.
+     */
+    protected void addPolicy(Node node) throws RepositoryException {
+        AccessControlManager acMgr = node.getSession().getAccessControlManager();
+        String path = node.getPath();
+        AccessControlPolicyIterator acIterator = acMgr.getApplicablePolicies(path);
+        if (acIterator.hasNext()) {
+            AccessControlPolicy policy = acIterator.nextAccessControlPolicy();
+            if (policy instanceof AccessControlList) {
+                AccessControlList acl = (AccessControlList) policy;
+                Privilege[] privileges = new Privilege[] {
+                        acMgr.privilegeFromName(Privilege.JCR_READ),
+                        acMgr.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL)
+                };
+                boolean modified = false;
+                for (Principal principal : getPrincipals()) {
+                    modified |= acl.addAccessControlEntry(principal, privileges);
+                }
+                if (modified) {
+                    acMgr.setPolicy(path, acl);
+                    node.getSession().save();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the principals that are granted read access on every 10th
+     * node of the tree.
+     */
+    protected Principal[] getPrincipals() throws RepositoryException {
+        return new Principal[] { EveryonePrincipal.getInstance() };
+    }
+
+    /**
+     * Returns a new session for the reader measured by this test.
+     */
+    protected Session loginTestReader() throws RepositoryException {
+        return getRepository().login();
+    }
+
     @Override
     protected void runTest() throws Exception {
-        Session testSession = getRepository().login();
+        Session testSession = loginTestReader();
         RandomRead randomRead = new RandomRead(testSession, true);
         randomRead.run();
         testSession.logout();
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to You under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.apache.jackrabbit.api.security.user.UserManager;
+
+/**
+ * Concurrently reads random items from the deep tree where every 10th node is
+ * access controlled with an entry for each of many groups. The readers are
+ * members of every other group, so that the evaluation has to select the
+ * entries of their principals from long access control lists.
+ */
+public class ConcurrentReadManyPrincipalsTreeTest extends ConcurrentReadAccessControlledTreeTest {
+
+    private static final int GROUPS = getScale(50);
+
+    private static final String USER_ID = "concurrent_reader";
+
+    private final List<Session> readers =
+            Collections.synchronizedList(new ArrayList<Session>());
+
+    private UserManager userMgr;
+
+    private Principal[] principals;
+
+    @Override
+    protected void beforeSuite() throws Exception {
+        userMgr = ((JackrabbitSession) loginWriter()).getUserManager();
+        User user = userMgr.createUser(USER_ID, USER_ID);
+        principals = new Principal[GROUPS];
+        for (int i = 0; i < GROUPS; i++) {
+            final String name = "concurrent_reader_group_" + i;
+            Group group = userMgr.createGroup(new Principal() {
+                public String getName() {
+                    return name;
+                }
+            });
+            if (i % 2 == 0) {
+                group.addMember(user);
+            }
+            principals[i] = group.getPrincipal();
+        }
+        super.beforeSuite();
+    }
+
+    @Override
+    protected Principal[] getPrincipals() {
+        return principals;
+    }
+
+    @Override
+    protected Session loginTestReader() throws RepositoryException {
+        return getRepository().login(
+                new SimpleCredentials(USER_ID, USER_ID.toCharArray()));
+    }
+
+    @Override
+    protected Session loginReader() {
+        try {
+            Session session = loginTestReader();
+            readers.add(session);
+            return session;
+        } catch (RepositoryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    protected void afterSuite() throws Exception {
+        super.afterSuite();
+        synchronized (readers) {
+            for (Session session : readers) {
+                if (session.isLive()) {
+                    session.logout();
+                }
+            }
+        }
+        for (Principal principal : principals) {
+            userMgr.getAuthorizable(principal).remove();
+        }
+        userMgr.getAuthorizable(USER_ID).remove();
+    }
+}
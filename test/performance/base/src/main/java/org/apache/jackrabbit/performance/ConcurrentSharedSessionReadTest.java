@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.performance;
+
+import java.util.Random;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+/**
+ * Test case that traverses 10k unstructured nodes (100x100) while
+ * concurrent readers randomly access nodes from within this tree. Unlike
+ * {@link ConcurrentReadTest}, all readers share a single session with
+ * concurrent reads enabled.
+ */
+public class ConcurrentSharedSessionReadTest extends AbstractTest {
+
+    /**
+     * Session attribute that enables concurrent reads of a session.
+     */
+    private static final String CONCURRENT_READS =
+        "org.apache.jackrabbit.concurrentReads";
+
+    private static final int NODE_COUNT = 100;
+
+    private static final int READER_COUNT = getScale(20);
+
+    private Session session;
+
+    private Session shared;
+
+    private Node root;
+
+    public void beforeSuite() throws Exception {
+        session = loginWriter();
+        root = session.getRootNode().addNode("testroot", "nt:unstructured");
+        for (int i = 0; i < NODE_COUNT; i++) {
+            Node node = root.addNode("node" + i, "nt:unstructured");
+            for (int j = 0; j < NODE_COUNT; j++) {
+                node.addNode("node" + j, "nt:unstructured");
+            }
+            session.save();
+        }
+
+        SimpleCredentials credentials =
+            new SimpleCredentials("admin", "admin".toCharArray());
+        credentials.setAttribute(CONCURRENT_READS, Boolean.TRUE);
+        shared = getRepository().login(credentials);
+
+        for (int i = 0; i < READER_COUNT; i++) {
+            addBackgroundJob(new Reader());
+        }
+    }
+
+    private class Reader implements Runnable {
+
+        private final Random random = new Random();
+
+        public void run() {
+            try {
+                int i = random.nextInt(NODE_COUNT);
+                int j = random.nextInt(NODE_COUNT);
+                shared.getRootNode().getNode(
+                        "testroot/node" + i + "/node" + j);
+            } catch (RepositoryException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+    public void runTest() throws Exception {
+        Reader reader = new Reader();
+        for (int i = 0; i < 1000; i++) {
+            reader.run();
+        }
+    }
+
+    public void afterSuite() throws Exception {
+        shared.logout();
+
+        for (int i = 0; i < NODE_COUNT; i++) {
+            root.getNode("node" + i).remove();
+            session.save();
+        }
+
+        root.remove();
+        session.save();
+    }
+
+}